@@ -18,9 +18,13 @@ import org.frizzlenpop.frizzlenShop.shops.AdminShopPopulator;
 import org.frizzlenpop.frizzlenShop.shops.ShopManager;
 import org.frizzlenpop.frizzlenShop.templates.TemplateManager;
 import org.frizzlenpop.frizzlenShop.utils.DatabaseManager;
+import org.frizzlenpop.frizzlenShop.utils.HistoryBackfill;
 import org.frizzlenpop.frizzlenShop.utils.LogManager;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
+import org.frizzlenpop.frizzlenShop.utils.StartupOrchestrator;
+import org.frizzlenpop.frizzlenShop.utils.TransactionCompactor;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 
 public final class FrizzlenShop extends JavaPlugin {
@@ -34,6 +38,8 @@ public final class FrizzlenShop extends JavaPlugin {
     private LogManager logManager;
     private ChatListener chatListener;
     private DatabaseManager databaseManager;
+    private TransactionCompactor transactionCompactor;
+    private HistoryBackfill historyBackfill;
     private DynamicPricingManager dynamicPricingManager;
     private CraftingRelationManager craftingRelationManager;
     private AdminShopPopulator adminShopPopulator;
@@ -62,49 +68,90 @@ public final class FrizzlenShop extends JavaPlugin {
             return;
         }
         
-        // Initialize database
-        databaseManager = new DatabaseManager(this);
+        // Independent loads run concurrently; Bukkit API work stays on this thread
+        StartupOrchestrator startup = new StartupOrchestrator(this);
+        CompletableFuture<DatabaseManager> database = startup.async("database", () -> {
+            databaseManager = new DatabaseManager(this);
+            transactionCompactor = new TransactionCompactor(this, databaseManager);
+            historyBackfill = new HistoryBackfill(this, databaseManager);
+            return databaseManager;
+        });
+        CompletableFuture<DataManager.LoadedShops> storedShops = startup.async("shop storage", () -> {
+            dataManager = new DataManager(this);
+            return dataManager.readShops();
+        }, database);
+        CompletableFuture<CraftingRelationManager> craftingRelations = startup.async("crafting relations",
+                () -> craftingRelationManager = new CraftingRelationManager(this));
+        CompletableFuture<TemplateManager> templates = startup.async("templates",
+                () -> templateManager = new TemplateManager(this));
         
-        dataManager = new DataManager(this);
-        shopManager = new ShopManager(this);
-        guiManager = new GuiManager(this);
-        chatListener = new ChatListener(this);
-        
-        // Initialize crafting relation manager
-        craftingRelationManager = new CraftingRelationManager(this);
-        
-        // Initialize template manager
-        templateManager = new TemplateManager(this);
+        startup.sync("commands and listeners", () -> {
+            shopManager = new ShopManager(this);
+            guiManager = new GuiManager(this);
+            chatListener = new ChatListener(this);
+            
+            // Register commands
+            getCommand("shop").setExecutor(new ShopCommand(this));
+            getCommand("shopadmin").setExecutor(new ShopAdminCommand(this));
+            
+            // Register listeners
+            getServer().getPluginManager().registerEvents(new InventoryListener(this), this);
+            getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
+            getServer().getPluginManager().registerEvents(new ShopListener(this), this);
+            getServer().getPluginManager().registerEvents(chatListener, this);
+        });
         
-        // Initialize dynamic pricing manager (must be after database is initialized)
-        if (configManager.isDynamicPricingEnabled()) {
-            getLogger().info("Dynamic pricing is enabled, initializing market system...");
-            try {
-                dynamicPricingManager = new DynamicPricingManager(this);
-                getLogger().info("Dynamic pricing system initialized successfully!");
-            } catch (Exception e) {
-                getLogger().log(Level.SEVERE, "Failed to initialize dynamic pricing system: " + e.getMessage(), e);
-                getLogger().warning("Dynamic pricing will be disabled due to initialization failure.");
+        try {
+            startup.join(database);
+            startup.join(craftingRelations);
+            startup.join(templates);
+            startup.sync("dynamic pricing", () -> {
+                transactionCompactor.start();
+                historyBackfill.start();
+                databaseManager.getBackupManager().start();
+                databaseManager.getTradeRecorder().start();
+                
+                // Initialize dynamic pricing manager (must be after database is initialized)
+                if (configManager.isDynamicPricingEnabled()) {
+                    getLogger().info("Dynamic pricing is enabled, initializing market system...");
+                    try {
+                        dynamicPricingManager = new DynamicPricingManager(this);
+                        getLogger().info("Dynamic pricing system initialized successfully!");
+                    } catch (Exception e) {
+                        getLogger().log(Level.SEVERE, "Failed to initialize dynamic pricing system: " + e.getMessage(), e);
+                        getLogger().warning("Dynamic pricing will be disabled due to initialization failure.");
+                    }
+                } else {
+                    getLogger().info("Dynamic pricing is disabled in config. Using static pricing.");
+                }
+            });
+            
+            // Load data
+            DataManager.LoadedShops loaded = startup.join(storedShops);
+            if (configManager.isDynamicPricingEnabled() && dynamicPricingManager == null) {
+                // Shop storage reads the config while it loads, so it is only changed once that is done
                 configManager.setDynamicPricingEnabled(false);
                 configManager.saveConfig();
             }
-        } else {
-            getLogger().info("Dynamic pricing is disabled in config. Using static pricing.");
+            startup.sync("shop registration", () -> {
+                dataManager.loadData(loaded);
+                dataManager.startAutosave();
+                dataManager.startItemEviction();
+                dataManager.startChangePolling();
+            });
+            
+            startup.sync("admin shops", this::populateAdminShops);
+        } finally {
+            startup.finish();
         }
         
-        // Register commands
-        getCommand("shop").setExecutor(new ShopCommand(this));
-        getCommand("shopadmin").setExecutor(new ShopAdminCommand(this));
-        
-        // Register listeners
-        getServer().getPluginManager().registerEvents(new InventoryListener(this), this);
-        getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
-        getServer().getPluginManager().registerEvents(new ShopListener(this), this);
-        getServer().getPluginManager().registerEvents(chatListener, this);
-        
-        // Load data
-        dataManager.loadData();
-        
+        getLogger().info("FrizzlenShop has been enabled!");
+    }
+
+    /**
+     * Create the admin shops on the first run, or when a refresh is forced in the config
+     */
+    private void populateAdminShops() {
         // Initialize admin shop with tiered pricing system
         adminShopPopulator = new AdminShopPopulator(this);
         
@@ -147,14 +194,12 @@ public final class FrizzlenShop extends JavaPlugin {
             int adminShopCount = getShopManager().getAdminShops().size();
             getLogger().info("Found " + adminShopCount + " existing admin shops in the system.");
         }
-        
-        getLogger().info("FrizzlenShop has been enabled!");
     }
 
     @Override
     public void onDisable() {
         if (dataManager != null) {
-            dataManager.saveData();
+            dataManager.shutdown();
         }
         
         // Save templates
@@ -162,6 +207,18 @@ public final class FrizzlenShop extends JavaPlugin {
             templateManager.saveTemplates();
         }
         
+        if (transactionCompactor != null) {
+            transactionCompactor.stop();
+        }
+        if (historyBackfill != null) {
+            historyBackfill.stop();
+        }
+        
+        // Close database connections
+        if (databaseManager != null) {
+            databaseManager.close();
+        }
+        
         getLogger().info("FrizzlenShop has been disabled!");
     }
     
@@ -211,6 +268,24 @@ public final class FrizzlenShop extends JavaPlugin {
         return databaseManager;
     }
     
+    /**
+     * Get the transaction compactor
+     *
+     * @return The transaction compactor
+     */
+    public TransactionCompactor getTransactionCompactor() {
+        return transactionCompactor;
+    }
+    
+    /**
+     * Get the copy of the trade history into the compact tables
+     *
+     * @return The history backfill
+     */
+    public HistoryBackfill getHistoryBackfill() {
+        return historyBackfill;
+    }
+    
     /**
      * Get the dynamic pricing manager
      *
@@ -4,6 +4,7 @@ import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -13,11 +14,25 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.permissions.PermissionAttachmentInfo;
 import org.frizzlenpop.frizzlenShop.FrizzlenShop;
 import org.frizzlenpop.frizzlenShop.config.ConfigManager;
+import org.frizzlenpop.frizzlenShop.data.DataManager;
+import org.frizzlenpop.frizzlenShop.data.SnapshotFile;
+import org.frizzlenpop.frizzlenShop.economy.DynamicPricingManager;
+import org.frizzlenpop.frizzlenShop.economy.MarketAnalyzer;
 import org.frizzlenpop.frizzlenShop.shops.AdminShop;
 import org.frizzlenpop.frizzlenShop.shops.Shop;
 import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.utils.AsyncDatabase;
+import org.frizzlenpop.frizzlenShop.utils.ConnectionPool;
+import org.frizzlenpop.frizzlenShop.utils.DatabaseManager;
+import org.frizzlenpop.frizzlenShop.utils.HistoryBackfill;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
+import org.frizzlenpop.frizzlenShop.utils.QueryStats;
+import org.frizzlenpop.frizzlenShop.utils.TradeArchive;
+import org.frizzlenpop.frizzlenShop.utils.TradeRecorder;
+import org.frizzlenpop.frizzlenShop.utils.TransactionCompactor;
+import org.frizzlenpop.frizzlenShop.utils.TransactionQuery;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -31,6 +46,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 /**
@@ -38,10 +55,13 @@ import java.util.stream.Collectors;
  */
 public class ShopAdminCommand implements CommandExecutor, TabCompleter {
 
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final int LOGS_PAGE_SIZE = 10;
+
     private final FrizzlenShop plugin;
     private final List<String> subCommands = Arrays.asList(
             "create", "remove", "edit", "price", "reload", "logs", "tax", "maintenance",
-            "populate", "template", "globalshop", "pricing"
+            "populate", "template", "globalshop", "pricing", "migrate", "export", "import", "db"
     );
 
     /**
@@ -99,6 +119,14 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
                 return handlePricingCommand(sender, args);
             case "shop":
                 return handleShopCommand(sender, args);
+            case "migrate":
+                return handleMigrateCommand(sender, args);
+            case "export":
+                return handleExportCommand(sender, args);
+            case "import":
+                return handleImportCommand(sender, args);
+            case "db":
+                return handleDbCommand(sender, args);
             default:
                 MessageUtils.sendErrorMessage(sender, "Unknown sub-command. Use /shopadmin help for a list of commands.");
                 return true;
@@ -362,6 +390,313 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    /**
+     * Handles the /shopadmin migrate command, which copies every shop to another storage
+     * backend and switches to it
+     *
+     * @param sender The command sender
+     * @param args   The command arguments
+     * @return True if the command was handled, false otherwise
+     */
+    private boolean handleMigrateCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("frizzlenshop.admin.migrate")) {
+            MessageUtils.sendErrorMessage(sender, "You don't have permission to migrate shop storage.");
+            return true;
+        }
+
+        DataManager dataManager = plugin.getDataManager();
+        if (args.length < 2) {
+            MessageUtils.sendMessage(sender, "&7Shops are stored in &f" + dataManager.getRepository().getType());
+            MessageUtils.sendErrorMessage(sender, "Usage: /shopadmin migrate <" + String.join("|", DataManager.STORAGE_TYPES) + ">");
+            return true;
+        }
+
+        String target = args[1].toLowerCase();
+        MessageUtils.sendMessage(sender, "&7Copying all shops to " + target + " storage...");
+        dataManager.migrateTo(target).whenComplete((count, error) -> Bukkit.getScheduler().runTask(plugin, () -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                MessageUtils.sendErrorMessage(sender, "Migration failed: " + cause.getMessage());
+                return;
+            }
+
+            // Keep using the new storage after a restart
+            plugin.getConfig().set("database.type", target.toUpperCase());
+            plugin.saveConfig();
+            MessageUtils.sendSuccessMessage(sender, "Copied " + count + " shop(s) to " + target + " storage; shops are now saved there.");
+            if (!target.equals("yaml")) {
+                MessageUtils.sendMessage(sender, "&7Restart the server to move transaction history and market data as well.");
+            }
+        }));
+        return true;
+    }
+
+    /**
+     * Handles the /shopadmin export command, which writes every shop, item and market table
+     * row to a snapshot file in the exports folder
+     *
+     * @param sender The command sender
+     * @param args   The command arguments
+     * @return True if the command was handled, false otherwise
+     */
+    private boolean handleExportCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("frizzlenshop.admin.export")) {
+            MessageUtils.sendErrorMessage(sender, "You don't have permission to export shop data.");
+            return true;
+        }
+
+        String name = args.length >= 2 ? args[1] : "shops-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        if (!SNAPSHOT_NAME.matcher(name).matches()) {
+            MessageUtils.sendErrorMessage(sender, "Snapshot names may only contain letters, digits, '-' and '_'.");
+            return true;
+        }
+
+        File file = getSnapshotFile(name);
+        MessageUtils.sendMessage(sender, "&7Exporting all shops to " + file.getName() + "...");
+        plugin.getDataManager().exportSnapshot(file).whenComplete((summary, error) -> Bukkit.getScheduler().runTask(plugin, () -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                MessageUtils.sendErrorMessage(sender, "Export failed: " + cause.getMessage());
+                return;
+            }
+            MessageUtils.sendSuccessMessage(sender, "Exported " + summary.getShops() + " shop(s), " + summary.getItems()
+                    + " item(s) and " + summary.getRows() + " market row(s) to " + file.getName() + ".");
+        }));
+        return true;
+    }
+
+    /**
+     * Handles the /shopadmin import command, which replaces every shop, item and market table
+     * row with the contents of a snapshot file from the exports folder
+     *
+     * @param sender The command sender
+     * @param args   The command arguments
+     * @return True if the command was handled, false otherwise
+     */
+    private boolean handleImportCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("frizzlenshop.admin.import")) {
+            MessageUtils.sendErrorMessage(sender, "You don't have permission to import shop data.");
+            return true;
+        }
+
+        if (args.length < 2) {
+            MessageUtils.sendErrorMessage(sender, "Usage: /shopadmin import <name> confirm");
+            return true;
+        }
+        String name = args[1].endsWith(SnapshotFile.EXTENSION)
+                ? args[1].substring(0, args[1].length() - SnapshotFile.EXTENSION.length())
+                : args[1];
+        File file = getSnapshotFile(name);
+        if (!SNAPSHOT_NAME.matcher(name).matches() || !file.isFile()) {
+            MessageUtils.sendErrorMessage(sender, "No snapshot named " + name + " in the exports folder.");
+            return true;
+        }
+        if (args.length < 3 || !args[2].equalsIgnoreCase("confirm")) {
+            MessageUtils.sendMessage(sender, "&cThis replaces every shop and all market data with the contents of " + file.getName() + ".");
+            MessageUtils.sendMessage(sender, "&7Run &f/shopadmin import " + name + " confirm &7to continue.");
+            return true;
+        }
+
+        File backup = getSnapshotFile("pre-import-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+        MessageUtils.sendMessage(sender, "&7Saving the current data to " + backup.getName() + " and importing " + file.getName() + "...");
+        plugin.getDataManager().importSnapshot(file, backup).whenComplete((summary, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                MessageUtils.sendErrorMessage(sender, "Import failed: " + cause.getMessage());
+                if (plugin.getDataManager().isImporting()) {
+                    MessageUtils.sendErrorMessage(sender, "Storage was partly replaced and saving is paused. Run /shopadmin import "
+                            + backup.getName().replace(SnapshotFile.EXTENSION, "") + " confirm to restore the previous data.");
+                }
+                return;
+            }
+            MessageUtils.sendSuccessMessage(sender, "Imported " + summary.getShops() + " shop(s), " + summary.getItems()
+                    + " item(s) and " + summary.getRows() + " market row(s) from " + file.getName() + ".");
+        });
+        return true;
+    }
+
+    /**
+     * Handles the /shopadmin db command. {@code /shopadmin db stats [count|reset]} shows the
+     * connection pool, the statement cache and the latency percentiles of the slowest queries.
+     * {@code /shopadmin db rebuild confirm} returns the free space to the file system.
+     *
+     * @param sender The command sender
+     * @param args   The command arguments
+     * @return True if the command was handled, false otherwise
+     */
+    private boolean handleDbCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("frizzlenshop.admin.db")) {
+            MessageUtils.sendErrorMessage(sender, "You don't have permission to view database statistics.");
+            return true;
+        }
+        if (args.length >= 2 && args[1].equalsIgnoreCase("backup")) {
+            return handleDbBackupCommand(sender);
+        }
+        if (args.length >= 2 && args[1].equalsIgnoreCase("rebuild")) {
+            return handleDbRebuildCommand(sender, args);
+        }
+        if (args.length < 2 || !args[1].equalsIgnoreCase("stats")) {
+            MessageUtils.sendErrorMessage(sender, "Usage: /shopadmin db <stats [count|reset]|backup|rebuild>");
+            return true;
+        }
+
+        QueryStats stats = plugin.getDatabaseManager().getQueryStats();
+        if (args.length >= 3 && args[2].equalsIgnoreCase("reset")) {
+            if (stats != null) {
+                stats.reset();
+            }
+            MessageUtils.sendSuccessMessage(sender, "Database statistics reset.");
+            return true;
+        }
+
+        int limit = 10;
+        if (args.length >= 3) {
+            try {
+                limit = Math.max(1, Integer.parseInt(args[2]));
+            } catch (NumberFormatException e) {
+                MessageUtils.sendErrorMessage(sender, "Usage: /shopadmin db stats [count|reset]");
+                return true;
+            }
+        }
+
+        ConnectionPool pool = plugin.getDatabaseManager().getConnectionPool();
+        long hits = pool.getStatementCacheHits();
+        long misses = pool.getStatementCacheMisses();
+        MessageUtils.sendMessage(sender, "&e===== Database Statistics =====");
+        MessageUtils.sendMessage(sender, "&7Pool: &f" + pool.getActiveCount() + " active, " + pool.getIdleCount()
+                + " idle, " + pool.getMaxSize() + " max");
+        MessageUtils.sendMessage(sender, "&7Statement cache: &f" + hits + " hits, " + misses + " misses"
+                + (hits + misses > 0 ? String.format(" (%.1f%% hits)", 100.0 * hits / (hits + misses)) : ""));
+        HistoryBackfill backfill = plugin.getHistoryBackfill();
+        if (backfill != null && backfill.isRunning()) {
+            MessageUtils.sendMessage(sender, "&7History backfill: &f" + backfill.getCopied() + " rows copied so far");
+        }
+        TradeArchive archive = plugin.getDatabaseManager().getTradeArchive();
+        if (archive != null) {
+            MessageUtils.sendMessage(sender, "&7Trade archive: &f" + archive.getRows() + " transactions in "
+                    + archive.getSegmentCount() + " segment(s), " + (archive.getSize() / 1024) + " KB");
+        }
+        TradeRecorder trades = plugin.getDatabaseManager().getTradeRecorder();
+        MessageUtils.sendMessage(sender, "&7Trade queue: &f" + trades.getDepth() + "/" + trades.getCapacity() + " queued (peak "
+                + trades.getPeakDepth() + "), " + trades.getWritten() + " written, last batch " + trades.getLastBatchRows()
+                + " rows in " + String.format("%.1f", trades.getLastBatchNanos() / 1_000_000.0) + " ms");
+        if (trades.getDropped() > 0 || trades.getFailed() > 0) {
+            MessageUtils.sendMessage(sender, "&c" + trades.getDropped() + " trade(s) were dropped because the queue was full and "
+                    + trades.getFailed() + " because writing them failed.");
+        }
+        AsyncDatabase async = plugin.getDatabaseManager().getAsync();
+        if (async.isDebugMainThread()) {
+            MessageUtils.sendMessage(sender, (async.getMainThreadCalls() > 0 ? "&c" : "&7") + "Main-thread database access: &f"
+                    + async.getMainThreadCalls() + " connection(s) from " + async.getMainThreadSites()
+                    + " call site(s) &7(see the server log)");
+        }
+        if (stats == null) {
+            MessageUtils.sendMessage(sender, "&7Query timing is off (database.query_stats).");
+            return true;
+        }
+
+        List<QueryStats.Summary> summaries = stats.getSummaries();
+        long minutes = (System.currentTimeMillis() - stats.getSince()) / 60000;
+        MessageUtils.sendMessage(sender, "&7" + summaries.size() + " queries in the last " + minutes
+                + " minute(s), by total time &8(p50/p95/p99/max ms, runs, rows, on main thread)&7:");
+        for (QueryStats.Summary summary : summaries.subList(0, Math.min(limit, summaries.size()))) {
+            String template = summary.getTemplate();
+            if (template.length() > 90) {
+                template = template.substring(0, 87) + "...";
+            }
+            MessageUtils.sendMessage(sender, String.format("&f%s/%s/%s/%s &7x%d, %d rows%s",
+                    millis(summary.getP50Nanos()), millis(summary.getP95Nanos()), millis(summary.getP99Nanos()),
+                    millis(summary.getMaxNanos()), summary.getCount(), summary.getRows(),
+                    summary.getMainThreadCount() > 0 ? ", &c" + summary.getMainThreadCount() + " on main" : "")
+                    + (summary.getFailures() > 0 ? "&c, " + summary.getFailures() + " failed" : ""));
+            MessageUtils.sendMessage(sender, "  &8" + template);
+        }
+        if (stats.getDroppedSlowEntries() > 0) {
+            MessageUtils.sendMessage(sender, "&c" + stats.getDroppedSlowEntries() + " slow query log entries were dropped.");
+        }
+        return true;
+    }
+
+    /**
+     * Handles the /shopadmin db backup command
+     *
+     * @param sender The command sender
+     * @return True if the command was handled
+     */
+    private boolean handleDbBackupCommand(CommandSender sender) {
+        if (!sender.hasPermission("frizzlenshop.admin.backup")) {
+            MessageUtils.sendErrorMessage(sender, "You don't have permission to back up the database.");
+            return true;
+        }
+
+        MessageUtils.sendMessage(sender, "&7Backing up the database in the background...");
+        plugin.getDatabaseManager().getBackupManager().backupAsync().whenComplete((backup, error) ->
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    if (error != null) {
+                        plugin.getLogger().log(Level.WARNING, "Database backup failed", error);
+                        MessageUtils.sendErrorMessage(sender, "The backup failed: " + error.getMessage());
+                    } else {
+                        MessageUtils.sendSuccessMessage(sender, "Backed up the database to " + backup.getName()
+                                + ". Restore backups from the template menu's Backup & Restore page.");
+                    }
+                }));
+        return true;
+    }
+
+    /**
+     * Handles the /shopadmin db rebuild command
+     *
+     * @param sender The command sender
+     * @param args   The command arguments
+     * @return True if the command was handled
+     */
+    private boolean handleDbRebuildCommand(CommandSender sender, String[] args) {
+        TransactionCompactor compactor = plugin.getTransactionCompactor();
+        if (compactor == null) {
+            MessageUtils.sendErrorMessage(sender, "The database isn't available.");
+            return true;
+        }
+        if (args.length < 3 || !args[2].equalsIgnoreCase("confirm")) {
+            MessageUtils.sendMessage(sender, "&eThis rewrites the database to return its free space to the file system. "
+                    + "Trades and saves wait until it finishes, which can take minutes on a large database.");
+            MessageUtils.sendMessage(sender, "&7Run &f/shopadmin db rebuild confirm &7while the server is quiet to continue.");
+            return true;
+        }
+
+        MessageUtils.sendMessage(sender, "&7Rebuilding the database in the background...");
+        plugin.getDatabaseManager().getAsync().supply(compactor::rebuild).whenComplete((rebuilt, error) -> {
+            if (error != null) {
+                MessageUtils.sendErrorMessage(sender, "The rebuild failed: " + error.getMessage());
+            } else if (!rebuilt) {
+                MessageUtils.sendErrorMessage(sender, "Transaction compaction is running. Try again when it has finished.");
+            } else {
+                MessageUtils.sendSuccessMessage(sender, "Rebuilt the database.");
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Format a latency for the db stats output
+     *
+     * @param nanos The latency in nanoseconds
+     * @return The latency in milliseconds
+     */
+    private static String millis(long nanos) {
+        double ms = nanos / 1_000_000.0;
+        return ms < 10 ? String.format("%.2f", ms) : String.format("%.0f", ms);
+    }
+
+    /**
+     * Get a snapshot file in the exports folder
+     *
+     * @param name The snapshot name, without extension
+     * @return The file
+     */
+    private File getSnapshotFile(String name) {
+        return new File(new File(plugin.getDataFolder(), "exports"), name + SnapshotFile.EXTENSION);
+    }
+
     /**
      * Handles the /shopadmin logs command
      *
@@ -380,6 +715,7 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
         String filter = null;
         String shopName = null;
         String playerName = null;
+        String materialName = null;
         
         if (args.length > 1) {
             // Check for flags and options
@@ -389,7 +725,7 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
                 // Handle page number
                 if (arg.startsWith("page:")) {
                     try {
-                        page = Integer.parseInt(arg.substring(5));
+                        page = Math.max(1, Integer.parseInt(arg.substring(5)));
                     } catch (NumberFormatException e) {
                         MessageUtils.sendErrorMessage(sender, "Invalid page number format. Use page:X");
                     }
@@ -413,6 +749,11 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
                 else if (arg.startsWith("player:")) {
                     playerName = arg.substring(7);
                 }
+                
+                // Handle material filter
+                else if (arg.startsWith("material:")) {
+                    materialName = arg.substring(9);
+                }
             }
         }
         
@@ -423,16 +764,60 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
             return true;
         }
         
-        // Retrieve the logs from the database
-        List<TransactionLog> logs = getFilteredLogs(filter, shopName, playerName, page);
-        
-        // If no logs found
-        if (logs.isEmpty()) {
-            MessageUtils.sendMessage(sender, "&cNo logs found matching your criteria.");
-            return true;
+        TransactionQuery query = new TransactionQuery().limit(page * LOGS_PAGE_SIZE);
+        if (filter != null && !filter.equals("all")) {
+            query.type(filter);
+        }
+        if (shopName != null) {
+            Shop shop = findShop(shopName);
+            if (shop == null) {
+                MessageUtils.sendErrorMessage(sender, "Shop not found: " + shopName);
+                return true;
+            }
+            query.shop(shop.getId());
+        }
+        if (playerName != null) {
+            UUID playerId = findPlayerId(playerName);
+            if (playerId == null) {
+                MessageUtils.sendErrorMessage(sender, "Player not found: " + playerName);
+                return true;
+            }
+            query.player(playerId);
+        }
+        if (materialName != null) {
+            Material material = Material.matchMaterial(materialName);
+            if (material == null) {
+                MessageUtils.sendErrorMessage(sender, "Unknown material: " + materialName);
+                return true;
+            }
+            query.material(material.name());
         }
         
-        // Show header with filter info
+        // The stream spans the database and the trade archive, so old pages are read off the main thread
+        int skip = (page - 1) * LOGS_PAGE_SIZE;
+        String header = buildLogsHeader(page, filter, shopName, playerName, materialName);
+        int currentPage = page;
+        plugin.getDatabaseManager().getAsync().getTransactions(query, skip).whenComplete((transactions, error) -> {
+            if (error != null) {
+                MessageUtils.sendErrorMessage(sender, "Failed to read the transaction logs.");
+            } else {
+                sendLogs(sender, header, currentPage, transactions);
+            }
+        });
+        return true;
+    }
+    
+    /**
+     * Describe the filters of a /shopadmin logs page
+     *
+     * @param page         The page number
+     * @param filter       The transaction type filter, or null
+     * @param shopName     The shop filter, or null
+     * @param playerName   The player filter, or null
+     * @param materialName The material filter, or null
+     * @return The header line
+     */
+    private String buildLogsHeader(int page, String filter, String shopName, String playerName, String materialName) {
         StringBuilder header = new StringBuilder("&6Transaction Logs - Page " + page);
         if (filter != null && !filter.equals("all")) {
             header.append(" - Type: ").append(filter);
@@ -443,200 +828,94 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
         if (playerName != null) {
             header.append(" - Player: ").append(playerName);
         }
+        if (materialName != null) {
+            header.append(" - Material: ").append(materialName);
+        }
+        return header.toString();
+    }
+    
+    /**
+     * Show a page of transaction logs. Must be called on the main thread.
+     *
+     * @param sender       The command sender
+     * @param header       The header line
+     * @param page         The page number
+     * @param transactions The transactions on the page, newest first
+     */
+    private void sendLogs(CommandSender sender, String header, int page, List<DatabaseManager.Transaction> transactions) {
+        // If no logs found
+        if (transactions.isEmpty()) {
+            MessageUtils.sendMessage(sender, "&cNo logs found matching your criteria.");
+            return;
+        }
         
-        MessageUtils.sendMessage(sender, header.toString());
+        MessageUtils.sendMessage(sender, header);
         MessageUtils.sendMessage(sender, "&8-------------------------------------------------");
         
         // Show each log entry
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        for (TransactionLog log : logs) {
-            String typeColor = log.getType().equals("buy") ? "&a" : "&c";
-            String shopColor = log.isAdminShop() ? "&c" : "&b";
+        String currency = plugin.getEconomyManager().getDefaultCurrency();
+        for (DatabaseManager.Transaction transaction : transactions) {
+            Shop shop = plugin.getShopManager().getShop(transaction.getShopId());
+            // The trade row has the material, so a shop's items are never loaded just to name one
+            ShopItem shopItem = shop != null && shop.isItemsLoaded() ? shop.getItem(transaction.getItemId()) : null;
+            String material = shopItem != null ? shopItem.getItem().getType().toString() : transaction.getMaterial();
+            String itemName = material != null ? material.toLowerCase().replace("_", " ") : "unknown item";
+            String playerName = Bukkit.getOfflinePlayer(transaction.getPlayerId()).getName();
+            String typeColor = transaction.getType().equalsIgnoreCase("buy") ? "&a" : "&c";
+            String shopColor = shop != null && shop.isAdminShop() ? "&c" : "&b";
             
             MessageUtils.sendMessage(sender, 
-                    "&7[" + dateFormat.format(new Date(log.getTimestamp())) + "] " +
-                    typeColor + log.getType().toUpperCase() + " &f" +
-                    log.getAmount() + "x " + log.getItemName() + " &7- " +
-                    "&eCost: &f" + plugin.getEconomyManager().formatCurrency(log.getPrice(), log.getCurrency()) + " &7- " +
-                    "&7Shop: " + shopColor + log.getShopName() + " &7- " +
-                    "&7Player: &f" + log.getPlayerName());
+                    "&7[" + transaction.getTimestamp() + "] " +
+                    typeColor + transaction.getType().toUpperCase() + " &f" +
+                    transaction.getQuantity() + "x " + itemName + " &7- " +
+                    "&eCost: &f" + plugin.getEconomyManager().formatCurrency(transaction.getPrice(), currency) + " &7- " +
+                    "&7Shop: " + shopColor + (shop != null ? shop.getName() : "Deleted shop") + " &7- " +
+                    "&7Player: &f" + (playerName != null ? playerName : transaction.getPlayerId()));
         }
         
         MessageUtils.sendMessage(sender, "&8-------------------------------------------------");
-        MessageUtils.sendMessage(sender, "&7Use &f/shopadmin logs page:" + (page + 1) + "&7 to see the next page");
-        
-        return true;
+        if (transactions.size() == LOGS_PAGE_SIZE) {
+            MessageUtils.sendMessage(sender, "&7Use &f/shopadmin logs page:" + (page + 1) + "&7 to see the next page");
+        }
     }
     
     /**
-     * Get filtered transaction logs from the database
-     * 
-     * @param type The transaction type filter (buy, sell, or all)
-     * @param shopName The shop name to filter by
-     * @param playerName The player name to filter by
-     * @param page The page number
-     * @return List of matching transaction logs
+     * Find a shop by ID or name
+     *
+     * @param nameOrId The shop ID or name
+     * @return The shop, or null if there is none
      */
-    private List<TransactionLog> getFilteredLogs(String type, String shopName, String playerName, int page) {
-        // This would normally query the database
-        // For now, return dummy data
-        
-        List<TransactionLog> logs = new ArrayList<>();
-        
-        // Add dummy data
-        for (int i = 0; i < 10; i++) {
-            TransactionLog log = new TransactionLog();
-            log.setId(UUID.randomUUID());
-            log.setTimestamp(System.currentTimeMillis() - (i * 3600000)); // Each log is 1 hour apart
-            log.setType(i % 2 == 0 ? "buy" : "sell");
-            log.setAmount(i + 1);
-            log.setItemName(getDummyItemName(i));
-            log.setPrice((i + 1) * 100.0);
-            log.setCurrency("coins");
-            log.setShopName(i % 3 == 0 ? "AdminShop" : "PlayerShop" + i);
-            log.setAdminShop(i % 3 == 0);
-            log.setPlayerName("Player" + (i % 5 + 1));
-            
-            // Apply filters
-            boolean includeLog = true;
-            
-            if (type != null && !type.equals("all") && !log.getType().equals(type)) {
-                includeLog = false;
-            }
-            
-            if (shopName != null && !log.getShopName().equalsIgnoreCase(shopName)) {
-                includeLog = false;
-            }
-            
-            if (playerName != null && !log.getPlayerName().equalsIgnoreCase(playerName)) {
-                includeLog = false;
+    private Shop findShop(String nameOrId) {
+        try {
+            Shop shop = plugin.getShopManager().getShop(UUID.fromString(nameOrId));
+            if (shop != null) {
+                return shop;
             }
-            
-            if (includeLog) {
-                logs.add(log);
+        } catch (IllegalArgumentException e) {
+            // Not an ID; look it up by name
+        }
+        for (Shop shop : plugin.getShopManager().getAllShops()) {
+            if (shop.getName().equalsIgnoreCase(nameOrId)) {
+                return shop;
             }
         }
-        
-        return logs;
-    }
-    
-    /**
-     * Get a dummy item name for demonstration purposes
-     * 
-     * @param index The index to determine the item name
-     * @return A dummy item name
-     */
-    private String getDummyItemName(int index) {
-        String[] items = {
-            "Diamond Sword",
-            "Iron Pickaxe",
-            "Golden Apple",
-            "Enchanted Book",
-            "Elytra",
-            "Diamond Block",
-            "Emerald",
-            "Netherite Ingot",
-            "Trident",
-            "Shulker Box"
-        };
-        
-        return items[index % items.length];
+        return null;
     }
     
     /**
-     * Represents a transaction log entry
+     * Find a player who has played on this server, without a web lookup
+     *
+     * @param nameOrId The player name or UUID
+     * @return The player's UUID, or null if the player is unknown
      */
-    private static class TransactionLog {
-        private UUID id;
-        private long timestamp;
-        private String type;
-        private int amount;
-        private String itemName;
-        private double price;
-        private String currency;
-        private String shopName;
-        private boolean adminShop;
-        private String playerName;
-        
-        public UUID getId() {
-            return id;
-        }
-        
-        public void setId(UUID id) {
-            this.id = id;
-        }
-        
-        public long getTimestamp() {
-            return timestamp;
-        }
-        
-        public void setTimestamp(long timestamp) {
-            this.timestamp = timestamp;
-        }
-        
-        public String getType() {
-            return type;
-        }
-        
-        public void setType(String type) {
-            this.type = type;
-        }
-        
-        public int getAmount() {
-            return amount;
-        }
-        
-        public void setAmount(int amount) {
-            this.amount = amount;
-        }
-        
-        public String getItemName() {
-            return itemName;
-        }
-        
-        public void setItemName(String itemName) {
-            this.itemName = itemName;
-        }
-        
-        public double getPrice() {
-            return price;
-        }
-        
-        public void setPrice(double price) {
-            this.price = price;
-        }
-        
-        public String getCurrency() {
-            return currency;
-        }
-        
-        public void setCurrency(String currency) {
-            this.currency = currency;
-        }
-        
-        public String getShopName() {
-            return shopName;
-        }
-        
-        public void setShopName(String shopName) {
-            this.shopName = shopName;
-        }
-        
-        public boolean isAdminShop() {
-            return adminShop;
-        }
-        
-        public void setAdminShop(boolean adminShop) {
-            this.adminShop = adminShop;
-        }
-        
-        public String getPlayerName() {
-            return playerName;
-        }
-        
-        public void setPlayerName(String playerName) {
-            this.playerName = playerName;
+    private UUID findPlayerId(String nameOrId) {
+        try {
+            return UUID.fromString(nameOrId);
+        } catch (IllegalArgumentException e) {
+            // Not a UUID; look it up by name
         }
+        OfflinePlayer player = Bukkit.getOfflinePlayerIfCached(nameOrId);
+        return player != null ? player.getUniqueId() : null;
     }
 
     /**
@@ -1114,12 +1393,18 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
         MessageUtils.sendMessage(sender, "&7/shopadmin edit <shop-id> &f- Edit shop settings");
         MessageUtils.sendMessage(sender, "&7/shopadmin price <shop-id> <buy> <sell> [currency] &f- Set prices");
         MessageUtils.sendMessage(sender, "&7/shopadmin reload &f- Reload configuration");
-        MessageUtils.sendMessage(sender, "&7/shopadmin logs <player> [timeframe] &f- View transaction logs");
+        MessageUtils.sendMessage(sender, "&7/shopadmin logs [player:<name>] [shop:<name>] [material:<item>] [type:<buy|sell>] [page:<n>] &f- View transaction logs");
         MessageUtils.sendMessage(sender, "&7/shopadmin tax <rate> &f- Set global tax rate");
         MessageUtils.sendMessage(sender, "&7/shopadmin maintenance <on|off> &f- Toggle maintenance mode");
         MessageUtils.sendMessage(sender, "&7/shopadmin populate <shop-id> <category> &f- Add items from a category");
         MessageUtils.sendMessage(sender, "&7/shopadmin template <save|load> <name> <shop-id> &f- Manage shop templates");
         MessageUtils.sendMessage(sender, "&7/shopadmin globalshop <create|remove|list> [name] &f- Manage global shops");
+        MessageUtils.sendMessage(sender, "&7/shopadmin migrate <yaml|sqlite|mysql> &f- Move shops to another storage backend");
+        MessageUtils.sendMessage(sender, "&7/shopadmin export [name] &f- Export all shops and market data to a snapshot file");
+        MessageUtils.sendMessage(sender, "&7/shopadmin import <name> confirm &f- Replace all shops and market data with a snapshot");
+        MessageUtils.sendMessage(sender, "&7/shopadmin db stats [count|reset] &f- Show database pool and query latency statistics");
+        MessageUtils.sendMessage(sender, "&7/shopadmin db backup &f- Back up the database without pausing the server");
+        MessageUtils.sendMessage(sender, "&7/shopadmin db rebuild confirm &f- Return free space in the database to the file system");
     }
 
     @Override
@@ -1143,6 +1428,28 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
                 return Arrays.asList("create", "remove", "list").stream()
                         .filter(s -> s.startsWith(args[1].toLowerCase()))
                         .collect(Collectors.toList());
+            } else if (subCommand.equals("migrate")) {
+                return DataManager.STORAGE_TYPES.stream()
+                        .filter(s -> s.startsWith(args[1].toLowerCase()))
+                        .collect(Collectors.toList());
+            } else if (subCommand.equals("import")) {
+                String[] files = new File(plugin.getDataFolder(), "exports").list((dir, file) -> file.endsWith(SnapshotFile.EXTENSION));
+                if (files == null) {
+                    return new ArrayList<>();
+                }
+                return Arrays.stream(files)
+                        .map(file -> file.substring(0, file.length() - SnapshotFile.EXTENSION.length()))
+                        .filter(s -> s.startsWith(args[1]))
+                        .sorted()
+                        .collect(Collectors.toList());
+            } else if (subCommand.equals("db")) {
+                return Arrays.asList("stats", "backup", "rebuild").stream()
+                        .filter(s -> s.startsWith(args[1].toLowerCase()))
+                        .collect(Collectors.toList());
+            } else if (subCommand.equals("logs")) {
+                return Arrays.asList("player:", "shop:", "material:", "type:", "page:").stream()
+                        .filter(s -> s.startsWith(args[1].toLowerCase()))
+                        .collect(Collectors.toList());
             } else if (subCommand.equals("maintenance")) {
                 return Arrays.asList("on", "off").stream()
                         .filter(s -> s.startsWith(args[1].toLowerCase()))
@@ -1315,19 +1622,17 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
                 
                 MessageUtils.sendMessage(sender, "&aPerforming market analysis...");
                 
+                if (plugin.getDynamicPricingManager() == null || plugin.getDynamicPricingManager().getMarketAnalyzer() == null) {
+                    MessageUtils.sendErrorMessage(sender, "Dynamic pricing manager or market analyzer not initialized.");
+                    return true;
+                }
+                
                 // Run market analysis asynchronously
-                Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-                    if (plugin.getDynamicPricingManager() != null && plugin.getDynamicPricingManager().getMarketAnalyzer() != null) {
-                        plugin.getDynamicPricingManager().getMarketAnalyzer().performMarketAnalysis();
-                        Bukkit.getScheduler().runTask(plugin, () -> {
-                            MessageUtils.sendMessage(sender, "&aMarket analysis completed successfully!");
-                        });
-                    } else {
-                        Bukkit.getScheduler().runTask(plugin, () -> {
-                            MessageUtils.sendErrorMessage(sender, "Dynamic pricing manager or market analyzer not initialized.");
-                        });
-                    }
-                });
+                MarketAnalyzer analyzer = plugin.getDynamicPricingManager().getMarketAnalyzer();
+                plugin.getDatabaseManager().getAsync().supply(() -> {
+                    analyzer.performMarketAnalysis();
+                    return null;
+                }).thenRun(() -> MessageUtils.sendMessage(sender, "&aMarket analysis completed successfully!"));
                 break;
                 
             case "updateprices":
@@ -1343,13 +1648,9 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
                 
                 MessageUtils.sendMessage(sender, "&aUpdating admin shop prices based on market conditions...");
                 
-                // Run price update asynchronously
-                Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-                    plugin.getDynamicPricingManager().updateAdminShopPrices();
-                    Bukkit.getScheduler().runTask(plugin, () -> {
-                        MessageUtils.sendMessage(sender, "&aAdmin shop prices have been updated to reflect current market conditions!");
-                    });
-                });
+                // Prices are updated once the market data is loaded
+                plugin.getDynamicPricingManager().updateAdminShopPrices().thenRun(() ->
+                        MessageUtils.sendMessage(sender, "&aAdmin shop prices have been updated to reflect current market conditions!"));
                 break;
                 
             case "reset":
@@ -1367,15 +1668,12 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
                 try {
                     Material material = Material.valueOf(materialName);
                     
-                    Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-                        boolean success = resetMaterialPricing(material);
-                        Bukkit.getScheduler().runTask(plugin, () -> {
-                            if (success) {
-                                MessageUtils.sendMessage(sender, "&aPricing data for " + material.name() + " has been reset.");
-                            } else {
-                                MessageUtils.sendErrorMessage(sender, "Failed to reset pricing data for " + material.name());
-                            }
-                        });
+                    plugin.getDatabaseManager().getAsync().supply(() -> resetMaterialPricing(material)).thenAccept(success -> {
+                        if (success) {
+                            MessageUtils.sendMessage(sender, "&aPricing data for " + material.name() + " has been reset.");
+                        } else {
+                            MessageUtils.sendErrorMessage(sender, "Failed to reset pricing data for " + material.name());
+                        }
                     });
                 } catch (IllegalArgumentException e) {
                     MessageUtils.sendErrorMessage(sender, "Invalid material name: " + materialName);
@@ -1493,20 +1791,22 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
                     }
                     
                     // Get some market stats if available
-                    if (plugin.getDynamicPricingManager() != null && plugin.getDynamicPricingManager().getMarketAnalyzer() != null) {
-                        MessageUtils.sendMessage(sender, "");
-                        MessageUtils.sendMessage(sender, "&7Top trending items:");
-                        
-                        Map<Material, Double> trending = plugin.getDynamicPricingManager().getTrendingItems(5);
-                        if (trending.isEmpty()) {
-                            MessageUtils.sendMessage(sender, "  &7None yet - need more transaction data");
-                        } else {
-                            for (Map.Entry<Material, Double> entry : trending.entrySet()) {
-                                String trend = entry.getValue() > 0 ? "&a▲" : "&c▼";
-                                MessageUtils.sendMessage(sender, "  &f" + entry.getKey().name() + ": " + trend + 
-                                    " " + String.format("%.1f", Math.abs(entry.getValue() * 100)) + "%");
+                    DynamicPricingManager pricingManager = plugin.getDynamicPricingManager();
+                    if (pricingManager != null && pricingManager.getMarketAnalyzer() != null) {
+                        plugin.getDatabaseManager().getAsync().supply(() -> pricingManager.getTrendingItems(5)).thenAccept(trending -> {
+                            MessageUtils.sendMessage(sender, "");
+                            MessageUtils.sendMessage(sender, "&7Top trending items:");
+                            
+                            if (trending.isEmpty()) {
+                                MessageUtils.sendMessage(sender, "  &7None yet - need more transaction data");
+                            } else {
+                                for (Map.Entry<Material, Double> entry : trending.entrySet()) {
+                                    String trend = entry.getValue() > 0 ? "&a▲" : "&c▼";
+                                    MessageUtils.sendMessage(sender, "  &f" + entry.getKey().name() + ": " + trend + 
+                                        " " + String.format("%.1f", Math.abs(entry.getValue() * 100)) + "%");
+                                }
                             }
-                        }
+                        });
                     }
                 }
                 break;
@@ -1527,35 +1827,33 @@ public class ShopAdminCommand implements CommandExecutor, TabCompleter {
      * @return True if successful, false otherwise
      */
     private boolean resetMaterialPricing(Material material) {
-        try {
-            // Reset market trends data in database
-            Connection conn = plugin.getDatabaseManager().getConnection();
-            String tableName = plugin.getDatabaseManager().getTablePrefix() + "market_trends";
+        String tableName = plugin.getDatabaseManager().getTablePrefix() + "market_trends";
+        
+        // Reset market trends data in database
+        try (Connection conn = plugin.getDatabaseManager().getConnection()) {
+            int materialId = plugin.getDatabaseManager().getMaterialIds().getId(conn, material.toString());
             
             // Delete existing entry
-            String delete = "DELETE FROM " + tableName + " WHERE material = ?";
-            PreparedStatement ps = conn.prepareStatement(delete);
-            ps.setString(1, material.toString());
-            ps.executeUpdate();
-            ps.close();
+            String delete = "DELETE FROM " + tableName + " WHERE material_id = ?";
+            try (PreparedStatement ps = conn.prepareStatement(delete)) {
+                ps.setInt(1, materialId);
+                ps.executeUpdate();
+            }
             
             // Insert new entry with default values
-            String insert = "INSERT INTO " + tableName + " (material, demand_index, supply_index, volatility, last_updated) VALUES (?, ?, ?, ?, ?)";
-            PreparedStatement insertPs = conn.prepareStatement(insert);
-            insertPs.setString(1, material.toString());
-            insertPs.setDouble(2, 1.0); // Neutral demand
-            insertPs.setDouble(3, 1.0); // Neutral supply
-            insertPs.setDouble(4, getMaterialDefaultVolatility(material)); // Default volatility
-            insertPs.setLong(5, System.currentTimeMillis());
-            insertPs.executeUpdate();
-            insertPs.close();
-            
-            conn.close();
+            String insert = "INSERT INTO " + tableName + " (material_id, demand_index, supply_index, volatility, last_updated) VALUES (?, ?, ?, ?, ?)";
+            try (PreparedStatement insertPs = conn.prepareStatement(insert)) {
+                insertPs.setInt(1, materialId);
+                insertPs.setDouble(2, 1.0); // Neutral demand
+                insertPs.setDouble(3, 1.0); // Neutral supply
+                insertPs.setDouble(4, getMaterialDefaultVolatility(material)); // Default volatility
+                insertPs.setLong(5, System.currentTimeMillis());
+                insertPs.executeUpdate();
+            }
             
             // Clear cache if available
             if (plugin.getDynamicPricingManager() != null && plugin.getDynamicPricingManager().getMarketAnalyzer() != null) {
-                // Log cache clear
-                plugin.getLogger().info("Cleared market data cache for " + material.name());
+                plugin.getDynamicPricingManager().getMarketAnalyzer().clearCacheForMaterial(material);
             }
             
             return true;
@@ -11,13 +11,19 @@ import org.bukkit.inventory.ItemStack;
 import org.frizzlenpop.frizzlenShop.FrizzlenShop;
 import org.frizzlenpop.frizzlenShop.shops.Shop;
 import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.utils.DatabaseManager;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
+import org.frizzlenpop.frizzlenShop.utils.TransactionCursor;
+import org.frizzlenpop.frizzlenShop.utils.TransactionQuery;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -29,6 +35,9 @@ public class ShopCommand implements CommandExecutor, TabCompleter {
     private final List<String> subCommands = Arrays.asList(
             "browse", "search", "create", "manage", "history", "sell", "buy", "help", "quicksell"
     );
+    private static final int HISTORY_PAGE_SIZE = 10;
+    // Where each player's last /shop history page ended
+    private final Map<UUID, TransactionCursor> historyCursors = new ConcurrentHashMap<>();
 
     /**
      * Creates a new shop command
@@ -137,12 +146,29 @@ public class ShopCommand implements CommandExecutor, TabCompleter {
         
         MessageUtils.sendMessage(player, "&eSearching for: &f" + query);
         
+        // Stored shop items are read off the main thread before they are searched
+        Collection<Shop> shops = plugin.getShopManager().getAllShops();
+        plugin.getDataManager().loadItemsAsync(shops).whenComplete((ignored, error) -> {
+            if (error != null) {
+                MessageUtils.sendErrorMessage(player, "Failed to load the shop items. Please try again later.");
+            } else if (player.isOnline()) {
+                sendSearchResults(player, query, shops);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Search shop items and show the matches. Must be called on the main thread.
+     *
+     * @param player The player
+     * @param query  The lowercase search query
+     * @param shops  The shops to search, with their items loaded
+     */
+    private void sendSearchResults(Player player, String query, Collection<Shop> shops) {
         // Collect matching items from all shops
         List<SearchResult> results = new ArrayList<>();
         
-        // Get all shops
-        Collection<Shop> shops = plugin.getShopManager().getAllShops();
-        
         // Search in each shop
         for (Shop shop : shops) {
             // Skip shops that aren't open
@@ -185,7 +211,7 @@ public class ShopCommand implements CommandExecutor, TabCompleter {
         // If no results found
         if (results.isEmpty()) {
             MessageUtils.sendMessage(player, "&cNo items found matching your search.");
-            return true;
+            return;
         }
         
         // Sort results by shop type and price
@@ -222,8 +248,6 @@ public class ShopCommand implements CommandExecutor, TabCompleter {
         
         MessageUtils.sendMessage(player, "&eClick on this message to view search results in GUI");
         // TODO: Implement click event to open search results in GUI
-        
-        return true;
     }
 
     /**
@@ -272,8 +296,51 @@ public class ShopCommand implements CommandExecutor, TabCompleter {
      * @return True if the command was handled, false otherwise
      */
     private boolean handleHistoryCommand(Player player, String[] args) {
-        // For now, this is just a placeholder
-        MessageUtils.sendMessage(player, "&eViewing transaction history...");
+        // "/shop history next" continues where the last page ended
+        TransactionCursor cursor = null;
+        if (args.length > 1 && args[1].equalsIgnoreCase("next")) {
+            cursor = historyCursors.get(player.getUniqueId());
+            if (cursor == null) {
+                MessageUtils.sendErrorMessage(player, "There are no more transactions to show.");
+                return true;
+            }
+        }
+        
+        TransactionQuery query = new TransactionQuery()
+                .player(player.getUniqueId())
+                .after(cursor)
+                .limit(HISTORY_PAGE_SIZE);
+        
+        plugin.getDatabaseManager().getAsync().getTransactionPage(query).thenAccept(page -> {
+            if (page.getTransactions().isEmpty()) {
+                historyCursors.remove(player.getUniqueId());
+                MessageUtils.sendMessage(player, "&7You have no transactions yet.");
+                return;
+            }
+            
+            MessageUtils.sendMessage(player, "&e===== Transaction History =====");
+            String currency = plugin.getEconomyManager().getDefaultCurrency();
+            for (DatabaseManager.Transaction transaction : page.getTransactions()) {
+                Shop shop = plugin.getShopManager().getShop(transaction.getShopId());
+                ShopItem shopItem = shop != null ? shop.getItem(transaction.getItemId()) : null;
+                // The recorded material still names the item after it left the shop
+                String material = shopItem != null ? shopItem.getItem().getType().toString() : transaction.getMaterial();
+                String itemName = material != null ? material.toLowerCase().replace("_", " ") : "unknown item";
+                String shopName = shop != null ? shop.getName() : "Deleted shop";
+                
+                MessageUtils.sendMessage(player, "&7" + transaction.getTimestamp() + " &f"
+                        + transaction.getType().toUpperCase() + " " + transaction.getQuantity() + "x " + itemName
+                        + " &7for &f" + plugin.getEconomyManager().formatCurrency(transaction.getPrice(), currency)
+                        + " &7at &f" + shopName);
+            }
+            
+            if (page.hasNext()) {
+                historyCursors.put(player.getUniqueId(), page.getNext());
+                MessageUtils.sendMessage(player, "&7Use &f/shop history next &7to see older transactions.");
+            } else {
+                historyCursors.remove(player.getUniqueId());
+            }
+        });
         return true;
     }
 
@@ -327,7 +394,7 @@ public class ShopCommand implements CommandExecutor, TabCompleter {
         MessageUtils.sendMessage(player, "&7/shop search <query> &f- Search for specific items");
         MessageUtils.sendMessage(player, "&7/shop create &f- Start shop creation wizard");
         MessageUtils.sendMessage(player, "&7/shop manage &f- Manage your shops");
-        MessageUtils.sendMessage(player, "&7/shop history &f- View your transaction history");
+        MessageUtils.sendMessage(player, "&7/shop history [next] &f- View your transaction history");
         MessageUtils.sendMessage(player, "&7/shop sell <item> [amount] [price] &f- Quick-sell items");
         MessageUtils.sendMessage(player, "&7/shop buy <item> [amount] &f- Quick-buy items");
         MessageUtils.sendMessage(player, "&7/shop quicksell &f- Open bulk selling interface");
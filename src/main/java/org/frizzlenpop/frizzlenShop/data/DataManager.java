@@ -1,20 +1,37 @@
 package org.frizzlenpop.frizzlenShop.data;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
-import org.bukkit.inventory.ItemStack;
+import org.bukkit.Material;
+import org.bukkit.scheduler.BukkitTask;
 import org.frizzlenpop.frizzlenShop.FrizzlenShop;
-import org.frizzlenpop.frizzlenShop.shops.AdminShop;
 import org.frizzlenpop.frizzlenShop.shops.PlayerShop;
 import org.frizzlenpop.frizzlenShop.shops.Shop;
 import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.shops.ShopManager;
+import org.frizzlenpop.frizzlenShop.utils.BackupManager;
+import org.frizzlenpop.frizzlenShop.utils.DatabaseManager;
+import org.frizzlenpop.frizzlenShop.utils.ShopChangeFeed;
+import org.frizzlenpop.frizzlenShop.utils.SqlShopRepository;
+import org.frizzlenpop.frizzlenShop.utils.UuidBytes;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 /**
@@ -22,9 +39,47 @@ import java.util.logging.Level;
  */
 public class DataManager {
 
+    /**
+     * The storage types {@code database.type} accepts
+     */
+    public static final List<String> STORAGE_TYPES = List.of("yaml", "sqlite", "mysql");
+
+    // The market tables snapshots carry besides shops, without the table prefix
+    private static final List<String> MARKET_TABLES = List.of("market_trends", "item_transactions");
+    private static final int IMPORT_BATCH_SIZE = 200;
+    private static final int ROW_BATCH_SIZE = 500;
+    private static final String CACHE_PATH = "cache/shops" + SnapshotFile.EXTENSION;
+
     private final FrizzlenShop plugin;
     private final File shopFile;
-    private FileConfiguration shopConfig;
+    private final File shopDirectory;
+    private final File cacheFile;
+    private volatile ShopRepository repository;
+    // The IDs of every shop in the repository, to find deleted shops. Only used on the save
+    // thread, or on the main thread while no save is pending.
+    private final Set<UUID> storedShops = new HashSet<>();
+    // All writes happen on this thread, one save at a time and in order
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FrizzlenShop-Save");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger pendingSaves = new AtomicInteger();
+    private final ShopJournal journal;
+    private final ShopItemSlots itemSlots;
+    // Player shops by world and chunk, to prefetch their items when the chunk loads. Main thread only.
+    private final Map<String, Map<Long, List<UUID>>> playerShopsByChunk = new HashMap<>();
+    private final Set<UUID> prefetching = new HashSet<>();
+    private BukkitTask autosaveTask;
+    private BukkitTask evictionTask;
+    private BukkitTask pollTask;
+    // Whether a poll for other servers' changes is running, and how far the applied ones reach. Main thread only.
+    private boolean polling;
+    private long seenChanges;
+    // Set while an import replaces storage, so nothing is saved over the imported shops
+    private volatile boolean importing;
+    // Whether the last save stored everything, so the cold-start cache matches storage
+    private volatile boolean lastSaveComplete;
 
     /**
      * Creates a new data manager
@@ -34,354 +89,1438 @@ public class DataManager {
     public DataManager(FrizzlenShop plugin) {
         this.plugin = plugin;
         this.shopFile = new File(plugin.getDataFolder(), "shops.yml");
-        this.shopConfig = YamlConfiguration.loadConfiguration(shopFile);
+        this.shopDirectory = new File(plugin.getDataFolder(), "shops");
+        this.cacheFile = new File(plugin.getDataFolder(), CACHE_PATH);
+        this.journal = new ShopJournal(plugin);
+        this.itemSlots = new ShopItemSlots(plugin);
+        this.repository = createRepository(plugin.getConfig().getString("database.type", "sqlite"));
+    }
+
+    /**
+     * Check whether shops are stored in the plugin's database, so restoring the database
+     * restores them too
+     *
+     * @param plugin The plugin instance
+     * @return True for SQLite and MySQL storage, false for YAML
+     */
+    public static boolean storesShopsInDatabase(FrizzlenShop plugin) {
+        return !plugin.getConfig().getString("database.type", "sqlite").equalsIgnoreCase("yaml");
+    }
+
+    /**
+     * Delete the cold-start cache, so the next start reads shops from storage
+     *
+     * @param plugin The plugin instance
+     */
+    public static void deleteColdStartCache(FrizzlenShop plugin) {
+        File cache = new File(plugin.getDataFolder(), CACHE_PATH);
+        if (cache.exists() && !cache.delete()) {
+            plugin.getLogger().warning("Failed to delete the shop cache; disable snapshot.cold_start_cache until it is removed.");
+        }
+    }
+
+    /**
+     * Delete the shop state kept next to storage: the cold-start cache, the journal and the item
+     * slots. Called when storage was replaced from a backup, so none of it is applied over the
+     * restored shops. Only call this before a data manager is loaded.
+     *
+     * @param plugin The plugin instance
+     */
+    public static void discardLocalState(FrizzlenShop plugin) {
+        deleteColdStartCache(plugin);
+        ShopJournal.deleteSegments(plugin);
+        ShopItemSlots.deleteFile(plugin);
+    }
+
+    /**
+     * Create the repository for a storage type. SQL repositories share the plugin's database
+     * when it is of the same type, otherwise they open their own.
+     *
+     * @param type The storage type (yaml, sqlite or mysql)
+     * @return The repository
+     */
+    private ShopRepository createRepository(String type) {
+        String normalized = type.toLowerCase(Locale.ROOT);
+        if (normalized.equals("yaml")) {
+            return new YamlShopRepository(plugin, shopDirectory);
+        }
+        
+        boolean mysql = normalized.equals("mysql");
+        DatabaseManager active = plugin.getDatabaseManager();
+        if (active != null && active.isMySql() == mysql) {
+            return new SqlShopRepository(plugin, active, false);
+        }
+        return new SqlShopRepository(plugin, new DatabaseManager(plugin, normalized), true);
+    }
+
+    /**
+     * Get the active storage backend
+     *
+     * @return The shop repository
+     */
+    public ShopRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Get the journal of changes made since the last save
+     *
+     * @return The shop journal
+     */
+    public ShopJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Get the memory-mapped slot file holding the numeric state of shop items
+     *
+     * @return The item slot file
+     */
+    public ShopItemSlots getItemSlots() {
+        return itemSlots;
     }
 
     /**
      * Load data from storage
      */
     public void loadData() {
-        loadShops();
+        // A reload may have just queued a save; let it finish before reading
+        awaitPendingSaves();
+        journal.close();
+        itemSlots.close(false);
+        loadData(readShops());
     }
 
     /**
-     * Save data to storage
+     * Register shops read with {@link #readShops()}, looking up their worlds, then re-apply the
+     * changes journaled or written to item slots after the last save. Must be called on the
+     * main thread.
+     *
+     * @param loaded The shops read from storage
      */
-    public void saveData() {
-        saveShops();
+    public void loadData(LoadedShops loaded) {
+        registerShops(loaded);
+        
+        // Re-apply changes made after the last save, then record new ones. Slots hold the
+        // newest item state, so they go after the journal.
+        journal.replay(plugin.getShopManager());
+        itemSlots.open(plugin.getShopManager());
+        journal.open();
     }
 
     /**
-     * Load shops from storage
+     * Start saving changed shops periodically, if enabled in the config
      */
-    private void loadShops() {
-        if (!shopFile.exists()) {
-            plugin.getLogger().info("No shops file found, creating new one.");
+    public void startAutosave() {
+        if (!plugin.getConfig().getBoolean("autosave.enabled", true)) {
+            return;
+        }
+        
+        long interval = Math.max(30, plugin.getConfig().getLong("autosave.interval", 300)) * 20L;
+        autosaveTask = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
+            // Don't queue up saves if the previous one is still being written
+            if (pendingSaves.get() == 0) {
+                saveData();
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Start dropping the items of player shops that haven't been used for
+     * {@code item_loading.idle_ttl} minutes, if items are loaded on demand
+     */
+    public void startItemEviction() {
+        long idleTtl = plugin.getConfig().getLong("item_loading.idle_ttl", 30);
+        if (idleTtl <= 0 || !isLazyLoading()) {
+            return;
+        }
+        
+        long idleMillis = TimeUnit.MINUTES.toMillis(idleTtl);
+        evictionTask = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> evictIdleItems(idleMillis), 1200L, 1200L);
+    }
+
+    /**
+     * Start polling for changes other servers made to shared storage, if
+     * {@code multi_server.enabled} is on
+     */
+    public void startChangePolling() {
+        if (getChangeFeed() == null) {
             return;
         }
+        
+        long interval = Math.max(1, plugin.getConfig().getLong("multi_server.poll_interval", 20));
+        pollTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::pollChanges, interval, interval);
+    }
 
-        shopConfig = YamlConfiguration.loadConfiguration(shopFile);
+    /**
+     * Get the feed of changes made by the servers sharing storage
+     *
+     * @return The change feed, or null if storage isn't shared
+     */
+    private ShopChangeFeed getChangeFeed() {
+        return repository instanceof SqlShopRepository ? ((SqlShopRepository) repository).getChangeFeed() : null;
+    }
+
+    /**
+     * Read the changes other servers made on the save thread, then apply them on the main thread.
+     * Only one poll runs at a time.
+     */
+    private void pollChanges() {
+        ShopChangeFeed feed = getChangeFeed();
+        if (feed == null || polling || importing) {
+            return;
+        }
         
-        // Load admin shops
-        ConfigurationSection adminShopsSection = shopConfig.getConfigurationSection("admin-shops");
-        if (adminShopsSection != null) {
-            for (String key : adminShopsSection.getKeys(false)) {
+        polling = true;
+        try {
+            saveExecutor.execute(() -> {
+                List<RemoteChange> fetched = null;
+                long position = 0;
                 try {
-                    UUID shopId = UUID.fromString(key);
-                    ConfigurationSection shopSection = adminShopsSection.getConfigurationSection(key);
-                    
-                    if (shopSection != null) {
-                        String name = shopSection.getString("name");
-                        Location location = deserializeLocation(shopSection.getConfigurationSection("location"));
-                        
-                        if (name != null && location != null) {
-                            AdminShop shop = new AdminShop(shopId, name, location);
-                            loadShopItems(shop, shopSection.getConfigurationSection("items"));
-                            
-                            // Load additional properties
-                            if (shopSection.contains("description")) {
-                                shop.setDescription(shopSection.getString("description"));
-                            }
-                            
-                            if (shopSection.contains("tax-rate")) {
-                                shop.setTaxRate(shopSection.getDouble("tax-rate"));
-                            }
-                            
-                            // Load stats
-                            loadShopStats(shop, shopSection.getConfigurationSection("stats"));
-                            
-                            plugin.getShopManager().registerShop(shop);
-                            plugin.getLogger().info("Loaded admin shop: " + name + " with ID: " + shopId);
-                        }
+                    fetched = fetchChanges(feed);
+                    position = feed.getPosition();
+                } catch (SQLException | RuntimeException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to read changes made by other servers", e);
+                }
+                
+                List<RemoteChange> changes = fetched;
+                long reached = position;
+                plugin.getServer().getScheduler().runTask(plugin, () -> {
+                    polling = false;
+                    if (changes != null) {
+                        applyRemoteChanges(changes, reached);
                     }
-                } catch (Exception e) {
-                    plugin.getLogger().log(Level.WARNING, "Failed to load admin shop: " + key, e);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            polling = false;
+        }
+    }
+
+    /**
+     * Poll the change feed and read the current stored state of every changed row. Rows that
+     * are gone by now are skipped; their deletion is in the feed too. Runs on the save thread.
+     *
+     * @param feed The change feed
+     * @return The changes with the stored rows
+     * @throws SQLException If the feed can't be read
+     */
+    private List<RemoteChange> fetchChanges(ShopChangeFeed feed) throws SQLException {
+        SqlShopRepository shared = (SqlShopRepository) repository;
+        List<RemoteChange> fetched = new ArrayList<>();
+        for (ShopChangeFeed.Change change : ShopChangeFeed.latestPerRow(feed.poll())) {
+            switch (change.getKind()) {
+                case ShopChangeFeed.SHOP: {
+                    // Shops this server has never stored are new; load them with their items
+                    boolean added = !storedShops.contains(change.getShopId());
+                    Shop shop = added ? shared.load(change.getShopId()) : shared.loadFields(change.getShopId());
+                    if (shop != null) {
+                        fetched.add(new RemoteChange(change, shop, null, added));
+                    }
+                    break;
+                }
+                case ShopChangeFeed.ITEM: {
+                    ShopItem item = shared.loadItem(change.getItemId());
+                    if (item != null) {
+                        fetched.add(new RemoteChange(change, null, item, false));
+                    }
+                    break;
                 }
+                case ShopChangeFeed.SHOP_DELETED:
+                    // Already gone from storage; nothing left to delete on the next save
+                    storedShops.remove(change.getShopId());
+                    fetched.add(new RemoteChange(change, null, null, false));
+                    break;
+                default:
+                    fetched.add(new RemoteChange(change, null, null, false));
+                    break;
             }
         }
+        return fetched;
+    }
+
+    /**
+     * Apply changes other servers made to the shops in memory. Unsaved local changes are
+     * kept (see {@link Shop#applyStored(Shop)}), and changes applied to shops that had none
+     * don't make them dirty, so they aren't written back. Runs on the main thread.
+     *
+     * @param changes  The changes with the stored rows
+     * @param position The feed position the changes reach
+     */
+    private void applyRemoteChanges(List<RemoteChange> changes, long position) {
+        // An import replaced storage since the poll; the shops are reloaded afterwards
+        if (importing) {
+            return;
+        }
         
-        // Load player shops
-        ConfigurationSection playerShopsSection = shopConfig.getConfigurationSection("player-shops");
-        if (playerShopsSection != null) {
-            for (String key : playerShopsSection.getKeys(false)) {
-                try {
-                    UUID shopId = UUID.fromString(key);
-                    ConfigurationSection shopSection = playerShopsSection.getConfigurationSection(key);
-                    
-                    if (shopSection != null) {
-                        String name = shopSection.getString("name");
-                        UUID owner = UUID.fromString(shopSection.getString("owner"));
-                        Location location = deserializeLocation(shopSection.getConfigurationSection("location"));
-                        
-                        if (name != null && owner != null && location != null) {
-                            PlayerShop shop = new PlayerShop(shopId, name, owner, location);
-                            loadShopItems(shop, shopSection.getConfigurationSection("items"));
-                            
-                            // Load additional properties
-                            if (shopSection.contains("description")) {
-                                shop.setDescription(shopSection.getString("description"));
-                            }
-                            
-                            if (shopSection.contains("tax-rate")) {
-                                shop.setTaxRate(shopSection.getDouble("tax-rate"));
-                            }
-                            
-                            if (shopSection.contains("expiration-time")) {
-                                shop.setExpirationTime(shopSection.getLong("expiration-time"));
-                            }
-                            
-                            if (shopSection.contains("auto-renew")) {
-                                shop.setAutoRenew(shopSection.getBoolean("auto-renew"));
-                            }
-                            
-                            // Load stats
-                            loadShopStats(shop, shopSection.getConfigurationSection("stats"));
-                            
-                            plugin.getShopManager().registerShop(shop);
-                            plugin.getLogger().info("Loaded player shop: " + name + " with ID: " + shopId);
-                        }
+        ShopManager shopManager = plugin.getShopManager();
+        for (RemoteChange remote : changes) {
+            UUID shopId = remote.change.getShopId();
+            Shop shop = shopManager.getShop(shopId);
+            switch (remote.change.getKind()) {
+                case ShopChangeFeed.SHOP:
+                    StoredLocation.resolveWorld(remote.shop.getLocation());
+                    if (shop != null) {
+                        shop.applyStored(remote.shop);
+                    } else if (remote.added) {
+                        // A shop missing here but known before was deleted locally; that wins
+                        markLoadedSaved(remote.shop);
+                        shopManager.registerShop(remote.shop);
+                        rememberStored(shopId);
                     }
-                } catch (Exception e) {
-                    plugin.getLogger().log(Level.WARNING, "Failed to load player shop: " + key, e);
+                    break;
+                case ShopChangeFeed.SHOP_DELETED:
+                    shopManager.deleteShop(shopId);
+                    break;
+                case ShopChangeFeed.ITEM:
+                    if (shop != null && shop.isItemsLoaded()) {
+                        applyRemoteItem(shop, remote.item);
+                    }
+                    break;
+                case ShopChangeFeed.ITEM_DELETED:
+                    if (shop != null && shop.isItemsLoaded()) {
+                        removeRemoteItem(shop, remote.change.getItemId());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        seenChanges = position;
+    }
+
+    /**
+     * Apply an item another server wrote. Items this server doesn't have were added there.
+     *
+     * @param shop The shop, with its items loaded
+     * @param item The item as stored
+     */
+    private void applyRemoteItem(Shop shop, ShopItem item) {
+        ShopItem local = shop.getItem(item.getId());
+        if (local != null) {
+            local.applyStored(item);
+            return;
+        }
+        
+        boolean dirty = shop.isDirty();
+        item.markSaved(item.getVersion());
+        if (shop.addItem(item) && !dirty) {
+            shop.markSaved(shop.getVersion());
+        }
+    }
+
+    /**
+     * Remove an item another server removed. An item with unsaved local changes is kept and
+     * stored again by the next save, the same way an item changed elsewhere survives being
+     * removed here.
+     *
+     * @param shop   The shop, with its items loaded
+     * @param itemId The item ID
+     */
+    private void removeRemoteItem(Shop shop, UUID itemId) {
+        ShopItem local = shop.getItem(itemId);
+        if (local == null) {
+            return;
+        }
+        if (local.isDirty()) {
+            local.forgetStored();
+            return;
+        }
+        
+        boolean dirty = shop.isDirty();
+        if (shop.removeItem(local.getItem()) && !dirty) {
+            shop.markSaved(shop.getVersion());
+        }
+    }
+
+    /**
+     * Remember that a shop is stored, once saves captured before it was registered are written
+     *
+     * @param shopId The shop ID
+     */
+    private void rememberStored(UUID shopId) {
+        try {
+            saveExecutor.execute(() -> storedShops.add(shopId));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; nothing is saved anymore
+        }
+    }
+
+    /**
+     * Drop the items of idle player shops. Shops with unsaved changes keep their items
+     * until the next save.
+     *
+     * @param idleMillis How long items must have been unused, in milliseconds
+     */
+    private void evictIdleItems(long idleMillis) {
+        if (importing || !isLazyLoading()) {
+            return;
+        }
+        
+        for (Shop shop : plugin.getShopManager().getPlayerShops()) {
+            if (shop instanceof PlayerShop && ((PlayerShop) shop).unloadIdleItems(idleMillis)) {
+                indexForPrefetch(shop);
+            }
+        }
+    }
+
+    /**
+     * Check whether player shop items are loaded on demand. YAML storage parses the whole
+     * file anyway, so it always loads items up front.
+     *
+     * @return True if items are loaded on demand
+     */
+    public boolean isLazyLoading() {
+        return plugin.getConfig().getBoolean("item_loading.lazy", true) && !(repository instanceof YamlShopRepository);
+    }
+
+    /**
+     * Load the items of a shop from storage. Safe to call from any thread.
+     *
+     * @param shopId The shop ID
+     * @return The items, marked as saved, or null if they couldn't be loaded
+     */
+    public List<ShopItem> loadItems(UUID shopId) {
+        List<ShopItem> items = repository.loadItems(shopId);
+        if (items == null) {
+            return null;
+        }
+        
+        for (ShopItem item : items) {
+            item.setShopId(shopId);
+            // Freshly loaded items match storage
+            item.markSaved(item.getVersion());
+        }
+        return items;
+    }
+
+    /**
+     * Load the items of shops that aren't in memory yet on a database thread, and hand them to
+     * their shops on the main thread. Must be called on the main thread.
+     *
+     * @param shops The shops whose items are needed
+     * @return Completes on the main thread once the items are in, right away if they all were
+     *         already; completes exceptionally if any shop's items couldn't be loaded
+     */
+    public CompletableFuture<Void> loadItemsAsync(Collection<? extends Shop> shops) {
+        List<UUID> toLoad = new ArrayList<>();
+        for (Shop shop : shops) {
+            if (!shop.isItemsLoaded() && shop instanceof PlayerShop) {
+                toLoad.add(shop.getId());
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return plugin.getDatabaseManager().getAsync().supply(() -> {
+            Map<UUID, List<ShopItem>> loaded = new HashMap<>();
+            for (UUID shopId : toLoad) {
+                loaded.put(shopId, loadItems(shopId));
+            }
+            return loaded;
+        }).thenAccept(loaded -> {
+            List<UUID> failed = new ArrayList<>();
+            for (Map.Entry<UUID, List<ShopItem>> entry : loaded.entrySet()) {
+                Shop shop = plugin.getShopManager().getShop(entry.getKey());
+                if (entry.getValue() == null) {
+                    failed.add(entry.getKey());
+                } else if (shop instanceof PlayerShop) {
+                    // Loses to items loaded in the meantime, which may have changed since
+                    ((PlayerShop) shop).installItems(entry.getValue());
                 }
             }
+            if (!failed.isEmpty()) {
+                throw new IllegalStateException("Failed to load the items of shop(s) " + failed);
+            }
+        });
+    }
+
+    /**
+     * Load the items of the open player shops that may sell some materials on a database
+     * thread, and hand them to their shops on the main thread. Shops whose items can't be
+     * loaded are logged and left out, so one broken shop doesn't hide the rest. Must be called
+     * on the main thread.
+     *
+     * @param materials The materials, or null to load every open player shop
+     * @return Completes on the main thread once the items are in, right away if there was
+     *         nothing to load
+     */
+    public CompletableFuture<Void> loadItemsSellingAsync(Collection<Material> materials) {
+        Set<UUID> toLoad = new HashSet<>();
+        for (Shop shop : plugin.getShopManager().getPlayerShops()) {
+            if (shop.isOpen() && !shop.isItemsLoaded()) {
+                toLoad.add(shop.getId());
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
         }
+
+        return plugin.getDatabaseManager().getAsync().supply(() -> {
+            if (materials != null) {
+                toLoad.retainAll(repository.findShopsSelling(materials));
+            }
+            Map<UUID, List<ShopItem>> loaded = new HashMap<>();
+            for (UUID shopId : toLoad) {
+                loaded.put(shopId, loadItems(shopId));
+            }
+            return loaded;
+        }).thenAccept(loaded -> {
+            for (Map.Entry<UUID, List<ShopItem>> entry : loaded.entrySet()) {
+                Shop shop = plugin.getShopManager().getShop(entry.getKey());
+                if (entry.getValue() == null) {
+                    plugin.getLogger().warning("Leaving shop " + entry.getKey() + " out, its items couldn't be loaded");
+                } else if (shop instanceof PlayerShop) {
+                    // Loses to items loaded in the meantime, which may have changed since
+                    ((PlayerShop) shop).installItems(entry.getValue());
+                }
+            }
+        });
     }
 
     /**
-     * Load shop items from storage
+     * Load the items of the player shops in a chunk in the background, so they are ready
+     * before a player opens one. Must be called on the main thread.
      *
-     * @param shop         The shop to load items for
-     * @param itemsSection The configuration section containing items
+     * @param world  The world name
+     * @param chunkX The chunk X coordinate
+     * @param chunkZ The chunk Z coordinate
      */
-    private void loadShopItems(Shop shop, ConfigurationSection itemsSection) {
-        if (itemsSection == null) {
+    public void prefetchItems(String world, int chunkX, int chunkZ) {
+        Map<Long, List<UUID>> chunks = playerShopsByChunk.get(world);
+        if (chunks == null || !plugin.getConfig().getBoolean("item_loading.prefetch", true)) {
+            return;
+        }
+        List<UUID> shopIds = chunks.get(ShopRepository.chunkKey(chunkX, chunkZ));
+        if (shopIds == null) {
             return;
         }
         
-        for (String key : itemsSection.getKeys(false)) {
-            try {
-                ConfigurationSection itemSection = itemsSection.getConfigurationSection(key);
-                if (itemSection != null) {
-                    ItemStack item = itemSection.getItemStack("item");
-                    double buyPrice = itemSection.getDouble("buy-price");
-                    double sellPrice = itemSection.getDouble("sell-price");
-                    String currency = itemSection.getString("currency", plugin.getEconomyManager().getDefaultCurrency());
-                    int stock = itemSection.getInt("stock");
-                    
-                    if (item != null) {
-                        // Create the shop item with the shop's ID
-                        UUID itemId = UUID.fromString(key);
-                        ShopItem shopItem = new ShopItem(itemId, shop.getId(), item, buyPrice, sellPrice, currency, stock);
-                        
-                        // Explicitly set the shop ID to ensure it's not null
-                        shopItem.setShopId(shop.getId());
-                        
-                        // Add the item to the shop
-                        shop.addItem(shopItem);
-                    }
+        List<UUID> toLoad = new ArrayList<>();
+        for (UUID shopId : shopIds) {
+            Shop shop = plugin.getShopManager().getShop(shopId);
+            if (shop != null && !shop.isItemsLoaded() && prefetching.add(shopId)) {
+                toLoad.add(shopId);
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return;
+        }
+        
+        try {
+            saveExecutor.execute(() -> {
+                Map<UUID, List<ShopItem>> loaded = new HashMap<>();
+                for (UUID shopId : toLoad) {
+                    loaded.put(shopId, loadItems(shopId));
                 }
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.WARNING, "Failed to load shop item: " + key, e);
+                plugin.getServer().getScheduler().runTask(plugin, () -> installPrefetched(loaded));
+            });
+        } catch (RejectedExecutionException e) {
+            prefetching.removeAll(toLoad);
+        }
+    }
+
+    /**
+     * Hand prefetched items to their shops. Runs on the main thread.
+     *
+     * @param loaded The loaded items by shop ID; null lists failed to load
+     */
+    private void installPrefetched(Map<UUID, List<ShopItem>> loaded) {
+        for (Map.Entry<UUID, List<ShopItem>> entry : loaded.entrySet()) {
+            prefetching.remove(entry.getKey());
+            Shop shop = plugin.getShopManager().getShop(entry.getKey());
+            if (entry.getValue() != null && shop instanceof PlayerShop) {
+                // Loses to items loaded on demand in the meantime, which may have changed since
+                ((PlayerShop) shop).installItems(entry.getValue());
             }
         }
     }
 
     /**
-     * Load shop stats from storage
+     * Remember which chunk a player shop is in, so its items can be prefetched
      *
-     * @param shop        The shop to load stats for
-     * @param statsSection The configuration section containing stats
+     * @param shop The shop
      */
-    private void loadShopStats(Shop shop, ConfigurationSection statsSection) {
-        if (statsSection == null) {
+    private void indexForPrefetch(Shop shop) {
+        Location location = shop.getLocation();
+        if (location == null || location.getWorld() == null) {
             return;
         }
         
-        for (String key : statsSection.getKeys(false)) {
-            try {
-                double value = statsSection.getDouble(key);
-                shop.updateStat(key, value);
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.WARNING, "Failed to load shop stat: " + key, e);
+        List<UUID> shopIds = playerShopsByChunk
+                .computeIfAbsent(location.getWorld().getName(), world -> new HashMap<>())
+                .computeIfAbsent(ShopRepository.chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4), key -> new ArrayList<>());
+        if (!shopIds.contains(shop.getId())) {
+            shopIds.add(shop.getId());
+        }
+    }
+
+    /**
+     * Save data to storage. Changes are captured on the calling (main) thread and written
+     * in the background.
+     */
+    public void saveData() {
+        if (importing) {
+            plugin.getLogger().warning("Not saving shops while a snapshot import replaces them.");
+            return;
+        }
+        
+        SaveBatch batch = captureChanges();
+        pendingSaves.incrementAndGet();
+        try {
+            saveExecutor.execute(() -> {
+                try {
+                    writeBatch(batch);
+                } finally {
+                    pendingSaves.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingSaves.decrementAndGet();
+            plugin.getLogger().warning("Ignoring save request after shutdown.");
+        }
+    }
+
+    /**
+     * Wait for queued saves to be written, up to the configured shutdown timeout
+     */
+    private void awaitPendingSaves() {
+        long timeout = plugin.getConfig().getLong("autosave.shutdown_timeout", 10);
+        try {
+            saveExecutor.submit(() -> { }).get(timeout, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // Already shut down; nothing is pending
+        } catch (ExecutionException | TimeoutException e) {
+            plugin.getLogger().warning("Timed out waiting for shops to finish saving.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop autosaving and flush the last changes, waiting at most the configured
+     * shutdown timeout for the write to finish
+     */
+    public void shutdown() {
+        if (autosaveTask != null) {
+            autosaveTask.cancel();
+            autosaveTask = null;
+        }
+        if (evictionTask != null) {
+            evictionTask.cancel();
+            evictionTask = null;
+        }
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+        
+        saveData();
+        // Other servers change shared storage while this one is stopped, and a staged restore
+        // replaces it on the next start, so a cache would be stale
+        BackupManager backups = plugin.getDatabaseManager().getBackupManager();
+        if (plugin.getConfig().getBoolean("snapshot.cold_start_cache", false) && !importing && getChangeFeed() == null
+                && (backups.getPendingRestore() == null || !storesShopsInDatabase(plugin))) {
+            List<ShopSnapshot> shops = captureAll();
+            saveExecutor.execute(() -> writeCache(shops));
+        }
+        saveExecutor.shutdown();
+        
+        long timeout = plugin.getConfig().getLong("autosave.shutdown_timeout", 10);
+        boolean saved = false;
+        try {
+            saved = saveExecutor.awaitTermination(timeout, TimeUnit.SECONDS);
+            if (!saved) {
+                plugin.getLogger().severe("Saving shops did not finish within " + timeout + " seconds; recent changes may be lost.");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            plugin.getLogger().severe("Interrupted while saving shops; recent changes may be lost.");
         }
+        
+        // Anything the save didn't cover is still in the journal and the item slots for the next start
+        journal.close();
+        itemSlots.close(saved && lastSaveComplete && !importing);
+        repository.close();
     }
 
     /**
-     * Save shops to storage
+     * Copy every shop to another storage type and switch to it. Shops are captured on the
+     * calling (main) thread; the copy runs on the save thread after any pending save, so
+     * nothing is saved to the old storage afterwards.
+     *
+     * @param type The storage type to migrate to (yaml, sqlite or mysql)
+     * @return A future completed with the number of shops copied, on the save thread
      */
-    private void saveShops() {
-        // Clear existing shops config
-        shopConfig = new YamlConfiguration();
+    public CompletableFuture<Integer> migrateTo(String type) {
+        String target = type.toLowerCase(Locale.ROOT);
+        if (!STORAGE_TYPES.contains(target)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Unknown storage type: " + type));
+        }
+        if (target.equals(repository.getType())) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Shops are already stored in " + target + "."));
+        }
         
-        // Save admin shops
-        ConfigurationSection adminShopsSection = shopConfig.createSection("admin-shops");
-        for (Shop shop : plugin.getShopManager().getAdminShops()) {
-            try {
-                ConfigurationSection shopSection = adminShopsSection.createSection(shop.getId().toString());
-                shopSection.set("name", shop.getName());
-                shopSection.set("description", shop.getDescription());
-                shopSection.set("tax-rate", shop.getTaxRate());
-                
-                // Save location
-                serializeLocation(shop.getLocation(), shopSection.createSection("location"));
-                
-                // Save items
-                ConfigurationSection itemsSection = shopSection.createSection("items");
-                saveShopItems(shop, itemsSection);
-                
-                // Save stats
-                ConfigurationSection statsSection = shopSection.createSection("stats");
-                saveShopStats(shop, statsSection);
-                
-                // Save to database as well
+        List<ShopSnapshot> shops = new ArrayList<>();
+        for (Shop shop : plugin.getShopManager().getAllShops()) {
+            shops.add(ShopSnapshot.of(shop));
+        }
+        
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        try {
+            saveExecutor.execute(() -> {
+                ShopRepository destination = null;
                 try {
-                    if (plugin.getDatabaseManager() != null) {
-                        plugin.getDatabaseManager().saveShop(shop);
+                    destination = createRepository(target);
+                    if (!destination.saveBatch(shops)) {
+                        throw new IllegalStateException("Failed to write shops to " + target + " storage; see the console for details.");
                     }
-                } catch (Exception e) {
-                    plugin.getLogger().log(Level.WARNING, "Failed to save shop to database: " + e.getMessage(), e);
+                    
+                    ShopRepository previous = repository;
+                    repository = destination;
+                    storedShops.clear();
+                    for (ShopSnapshot shop : shops) {
+                        storedShops.add(shop.getId());
+                    }
+                    previous.close();
+                    
+                    ShopChangeFeed feed = getChangeFeed();
+                    if (feed != null) {
+                        try {
+                            feed.start();
+                        } catch (SQLException e) {
+                            plugin.getLogger().log(Level.WARNING, "Failed to read the change feed position; older changes will be polled again", e);
+                        }
+                    }
+                    
+                    // Keep the old file from being imported over the database on the next start
+                    if (previous instanceof YamlShopRepository) {
+                        retireShopDirectory(".migrated");
+                    }
+                    result.complete(shops.size());
+                } catch (RuntimeException e) {
+                    if (destination != null) {
+                        destination.close();
+                    }
+                    result.completeExceptionally(e);
                 }
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.WARNING, "Failed to save admin shop: " + shop.getName(), e);
-            }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Write every shop, item and market table row to a snapshot file. Shops are captured on the
+     * calling (main) thread; items that aren't loaded are read from storage on the save thread.
+     *
+     * @param file The file to write
+     * @return A future completed with what was written, on the save thread
+     */
+    public CompletableFuture<SnapshotFile.Summary> exportSnapshot(File file) {
+        List<ShopSnapshot> shops = captureAll();
+        return runOnSaveThread(() -> writeSnapshot(file, shops, true));
+    }
+
+    /**
+     * Replace every stored shop, item and market table row with the contents of a snapshot file,
+     * then reload the shops. The file is checked in full and the current data is exported to
+     * {@code backupFile} before anything is replaced. Saving is paused until the import is done.
+     *
+     * @param file       The snapshot to import
+     * @param backupFile The file to export the current data to first
+     * @return A future completed with what was imported, on the main thread once shops are reloaded
+     */
+    public CompletableFuture<SnapshotFile.Summary> importSnapshot(File file, File backupFile) {
+        if (importing) {
+            return CompletableFuture.failedFuture(new IllegalStateException("An import is already running."));
         }
         
-        // Save player shops
-        ConfigurationSection playerShopsSection = shopConfig.createSection("player-shops");
-        for (Shop shop : plugin.getShopManager().getPlayerShops()) {
-            try {
-                ConfigurationSection shopSection = playerShopsSection.createSection(shop.getId().toString());
-                shopSection.set("name", shop.getName());
-                shopSection.set("owner", shop.getOwner().toString());
-                shopSection.set("description", shop.getDescription());
-                shopSection.set("tax-rate", shop.getTaxRate());
-                
-                // Save location
-                serializeLocation(shop.getLocation(), shopSection.createSection("location"));
-                
-                // Save items
-                ConfigurationSection itemsSection = shopSection.createSection("items");
-                saveShopItems(shop, itemsSection);
-                
-                // Save stats
-                ConfigurationSection statsSection = shopSection.createSection("stats");
-                saveShopStats(shop, statsSection);
-                
-                // Save player shop specific fields
-                if (shop instanceof PlayerShop) {
-                    PlayerShop playerShop = (PlayerShop) shop;
-                    shopSection.set("expiration-time", playerShop.getExpirationTime());
-                    shopSection.set("auto-renew", playerShop.isAutoRenewEnabled());
+        List<ShopSnapshot> current = captureAll();
+        importing = true;
+        boolean[] storageChanged = new boolean[1];
+        CompletableFuture<SnapshotFile.Summary> result = new CompletableFuture<>();
+        runOnSaveThread(() -> {
+            SnapshotFile.Summary summary = SnapshotFile.verify(file);
+            writeSnapshot(backupFile, current, true);
+            storageChanged[0] = true;
+            importShops(file);
+            importMarketTables(file);
+            return summary;
+        }).whenComplete((summary, error) -> plugin.getServer().getScheduler().runTask(plugin, () -> {
+            if (error != null) {
+                // Saving stays paused over half-imported storage until the backup is imported
+                importing = storageChanged[0];
+                result.completeExceptionally(error);
+                return;
+            }
+            
+            importing = false;
+            // Journaled changes and item slots belong to the shops that were just replaced
+            journal.checkpoint(journal.rotate());
+            itemSlots.discard();
+            plugin.getShopManager().clearShops();
+            loadData();
+            result.complete(summary);
+        }));
+        return result;
+    }
+
+    /**
+     * Check whether an import is running or failed halfway, which pauses saving
+     *
+     * @return True if saving is paused for an import
+     */
+    public boolean isImporting() {
+        return importing;
+    }
+
+    /**
+     * Capture every shop with whichever items are loaded. Must be called on the main thread.
+     *
+     * @return The snapshots
+     */
+    private List<ShopSnapshot> captureAll() {
+        List<ShopSnapshot> shops = new ArrayList<>();
+        for (Shop shop : plugin.getShopManager().getAllShops()) {
+            shops.add(ShopSnapshot.ofLoaded(shop));
+        }
+        return shops;
+    }
+
+    /**
+     * Run a task on the save thread, after any pending save
+     *
+     * @param task The task
+     * @return A future completed with the task's result, on the save thread
+     */
+    private <T> CompletableFuture<T> runOnSaveThread(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            saveExecutor.execute(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Write captured shops to a snapshot file. Runs on the save thread.
+     *
+     * @param file     The file to write
+     * @param shops    The captured shops
+     * @param complete Whether to read items that aren't loaded from storage and include the
+     *                 market tables; otherwise the snapshot only holds what was in memory
+     * @return What was written
+     * @throws IOException  If the file can't be written or items can't be loaded
+     * @throws SQLException If the market tables can't be read
+     */
+    private SnapshotFile.Summary writeSnapshot(File file, List<ShopSnapshot> shops, boolean complete) throws IOException, SQLException {
+        try (SnapshotFile.Writer writer = SnapshotFile.create(file, repository.getType(), complete)) {
+            for (ShopSnapshot shop : shops) {
+                List<ShopItemSnapshot> items = shop.getItems();
+                boolean included = shop.getItemIds() != null;
+                if (!included && complete) {
+                    // One shop's items at a time, so memory stays flat
+                    List<ShopItem> stored = loadItems(shop.getId());
+                    if (stored == null) {
+                        throw new IOException("Failed to load the items of shop " + shop.getName());
+                    }
+                    items = new ArrayList<>(stored.size());
+                    for (ShopItem item : stored) {
+                        items.add(ShopItemSnapshot.of(item));
+                    }
+                    included = true;
                 }
                 
-                // Save to database as well
-                try {
-                    if (plugin.getDatabaseManager() != null) {
-                        plugin.getDatabaseManager().saveShop(shop);
+                writer.writeShop(shop, included, included ? items.size() : shop.getItemCount());
+                for (ShopItemSnapshot item : items) {
+                    writer.writeItem(item);
+                }
+            }
+            
+            if (complete) {
+                DatabaseManager database = plugin.getDatabaseManager();
+                try (Connection connection = database.getConnection();
+                     Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(ROW_BATCH_SIZE);
+                    for (String table : MARKET_TABLES) {
+                        try (ResultSet rs = statement.executeQuery(exportQuery(database, table))) {
+                            writer.writeTable(table, rs);
+                        }
                     }
-                } catch (Exception e) {
-                    plugin.getLogger().log(Level.WARNING, "Failed to save shop to database: " + e.getMessage(), e);
                 }
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.WARNING, "Failed to save player shop: " + shop.getName(), e);
             }
+            return writer.finish();
         }
-        
-        // Save to file
-        try {
-            shopConfig.save(shopFile);
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to save shops to file", e);
+    }
+
+    /**
+     * Replace the stored shops with those in a snapshot, a batch at a time. Runs on the save thread.
+     *
+     * @param file The snapshot
+     * @throws IOException If the snapshot can't be read
+     */
+    private void importShops(File file) throws IOException {
+        try (SnapshotFile.Reader reader = SnapshotFile.open(file)) {
+            if (!reader.isComplete()) {
+                throw new IOException(file.getName() + " is a cache that doesn't hold every item; it can't be imported.");
+            }
+            if (!repository.deleteAll()) {
+                throw new IllegalStateException("Failed to clear shop storage; see the console for details.");
+            }
+            storedShops.clear();
+            
+            List<Shop> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            Shop shop = null;
+            SnapshotFile.Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (entry instanceof SnapshotFile.ShopEntry) {
+                    if (batch.size() >= IMPORT_BATCH_SIZE) {
+                        storeImported(batch);
+                        batch.clear();
+                    }
+                    shop = ((SnapshotFile.ShopEntry) entry).toShop();
+                    batch.add(shop);
+                } else if (entry instanceof SnapshotFile.ItemEntry && shop != null) {
+                    SnapshotFile.ItemEntry item = (SnapshotFile.ItemEntry) entry;
+                    if (shop.getId().equals(item.getShopId())) {
+                        shop.addItem(item.toShopItem());
+                    }
+                }
+            }
+            storeImported(batch);
+        }
+    }
+
+    /**
+     * Store a batch of imported shops
+     *
+     * @param shops The shops
+     */
+    private void storeImported(List<Shop> shops) {
+        List<ShopSnapshot> snapshots = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            snapshots.add(ShopSnapshot.of(shop));
+        }
+        if (!repository.saveBatch(snapshots)) {
+            throw new IllegalStateException("Failed to store imported shops; see the console for details.");
+        }
+        for (ShopSnapshot shop : snapshots) {
+            storedShops.add(shop.getId());
         }
     }
 
     /**
-     * Save shop items to storage
+     * Build the query that exports a market table. Snapshots carry material names rather than
+     * IDs, since the IDs are only meaningful within one database.
      *
-     * @param shop        The shop to save items for
-     * @param itemsSection The configuration section to save items to
+     * @param database The database
+     * @param table    The table name, without the table prefix
+     * @return The SQL query
      */
-    private void saveShopItems(Shop shop, ConfigurationSection itemsSection) {
-        for (ShopItem shopItem : shop.getItems()) {
+    private String exportQuery(DatabaseManager database, String table) {
+        String physical = database.getTablePrefix() + table;
+        String materials = database.getMaterialIds().getTable();
+        if (table.equals("market_trends")) {
+            return "SELECT m.name AS material, t.demand_index, t.supply_index, t.volatility, t.last_updated FROM "
+                    + physical + " t JOIN " + materials + " m ON m.id = t.material_id";
+        }
+        return "SELECT t.item_id, m.name AS material, t.buy_count, t.sell_count, t.last_buy_time, t.last_sell_time, "
+                + "t.price_adjustment_factor FROM " + physical + " t JOIN " + materials + " m ON m.id = t.material_id";
+    }
+
+    /**
+     * Replace the market tables with the rows in a snapshot, in one transaction with batched
+     * inserts. Columns the snapshot has but the table doesn't are skipped. Material names are
+     * stored as material IDs, and item IDs written as text by older versions are stored as
+     * bytes. Runs on the save thread.
+     *
+     * @param file The snapshot
+     * @throws IOException  If the snapshot can't be read
+     * @throws SQLException If the rows can't be written
+     */
+    private void importMarketTables(File file) throws IOException, SQLException {
+        DatabaseManager database = plugin.getDatabaseManager();
+        try (SnapshotFile.Reader reader = SnapshotFile.open(file);
+             Connection connection = database.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            PreparedStatement insert = null;
+            int[] columns = null;
+            String[] names = null;
+            int pending = 0;
             try {
-                // Use the item's UUID as the section key for consistency with loading
-                ConfigurationSection itemSection = itemsSection.createSection(shopItem.getId().toString());
-                itemSection.set("item", shopItem.getItem());
-                itemSection.set("buy-price", shopItem.getBuyPrice());
-                itemSection.set("sell-price", shopItem.getSellPrice());
-                itemSection.set("currency", shopItem.getCurrency());
-                itemSection.set("stock", shopItem.getStock());
-                // Save the shop ID for additional verification
-                itemSection.set("shop-id", shopItem.getShopId().toString());
+                try (Statement statement = connection.createStatement()) {
+                    for (String table : MARKET_TABLES) {
+                        statement.executeUpdate("DELETE FROM " + database.getTablePrefix() + table);
+                    }
+                }
                 
-                // Save to database as well to ensure consistency
-                try {
-                    if (plugin.getDatabaseManager() != null) {
-                        plugin.getDatabaseManager().saveShopItem(shopItem);
+                SnapshotFile.Entry entry;
+                while ((entry = reader.next()) != null) {
+                    if (entry instanceof SnapshotFile.TableEntry) {
+                        if (insert != null) {
+                            insert.executeBatch();
+                            insert.close();
+                            insert = null;
+                        }
+                        SnapshotFile.TableEntry table = (SnapshotFile.TableEntry) entry;
+                        if (!MARKET_TABLES.contains(table.getName())) {
+                            continue;
+                        }
+                        
+                        String physical = database.getTablePrefix() + table.getName();
+                        List<String> existing = getColumns(connection, physical);
+                        List<String> included = new ArrayList<>();
+                        List<Integer> indexes = new ArrayList<>();
+                        for (int i = 0; i < table.getColumns().size(); i++) {
+                            String column = table.getColumns().get(i);
+                            if (column.equals("material") && !existing.contains(column)) {
+                                column = "material_id";
+                            }
+                            if (existing.contains(column)) {
+                                included.add(column);
+                                indexes.add(i);
+                            }
+                        }
+                        columns = indexes.stream().mapToInt(Integer::intValue).toArray();
+                        names = included.toArray(new String[0]);
+                        insert = connection.prepareStatement("INSERT INTO " + physical + " (" + String.join(", ", included)
+                                + ") VALUES (" + String.join(", ", Collections.nCopies(included.size(), "?")) + ")");
+                        pending = 0;
+                    } else if (entry instanceof SnapshotFile.RowEntry && insert != null) {
+                        SnapshotFile.RowEntry row = (SnapshotFile.RowEntry) entry;
+                        for (int i = 0; i < columns.length; i++) {
+                            Object value = row.getValue(columns[i]);
+                            if (names[i].equals("material_id") && value instanceof String) {
+                                value = database.getMaterialIds().getId(connection, (String) value);
+                            } else if (names[i].equals("item_id") && value instanceof String) {
+                                value = UuidBytes.toBytes((String) value);
+                            }
+                            insert.setObject(i + 1, value);
+                        }
+                        insert.addBatch();
+                        if (++pending % ROW_BATCH_SIZE == 0) {
+                            insert.executeBatch();
+                        }
                     }
-                } catch (Exception e) {
-                    plugin.getLogger().log(Level.WARNING, "Failed to save shop item to database: " + e.getMessage(), e);
                 }
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.WARNING, "Failed to save shop item", e);
+                if (insert != null) {
+                    insert.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                if (insert != null) {
+                    insert.close();
+                }
+                connection.setAutoCommit(autoCommit);
             }
         }
     }
 
     /**
-     * Save shop stats to storage
+     * Get the column names of a table
      *
-     * @param shop        The shop to save stats for
-     * @param statsSection The configuration section to save stats to
+     * @param connection The connection
+     * @param table      The table name, with the table prefix
+     * @return The lowercase column names
+     * @throws SQLException If an error occurs
      */
-    private void saveShopStats(Shop shop, ConfigurationSection statsSection) {
-        Map<String, Double> stats = shop.getStats();
-        for (Map.Entry<String, Double> entry : stats.entrySet()) {
-            statsSection.set(entry.getKey(), entry.getValue());
+    private List<String> getColumns(Connection connection, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                columns.add(meta.getColumnLabel(i).toLowerCase(Locale.ROOT));
+            }
         }
+        return columns;
     }
 
     /**
-     * Serialize a location to a configuration section
+     * Write the cold-start cache after the final save. Runs on the save thread during shutdown.
      *
-     * @param location The location to serialize
-     * @param section  The section to serialize to
+     * @param shops The shops, captured after the final save was
      */
-    private void serializeLocation(Location location, ConfigurationSection section) {
-        if (location != null && location.getWorld() != null) {
-            section.set("world", location.getWorld().getName());
-            section.set("x", location.getX());
-            section.set("y", location.getY());
-            section.set("z", location.getZ());
-            section.set("yaw", location.getYaw());
-            section.set("pitch", location.getPitch());
+    private void writeCache(List<ShopSnapshot> shops) {
+        // The cache stands in for storage on the next start, so it must match what was saved
+        if (!lastSaveComplete) {
+            plugin.getLogger().warning("Not writing the shop cache because the last save failed.");
+            return;
+        }
+        
+        try {
+            writeSnapshot(cacheFile, shops, false);
+        } catch (IOException | SQLException | RuntimeException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to write the shop cache", e);
         }
     }
 
     /**
-     * Deserialize a location from a configuration section
+     * Load shops from the cold-start cache. The cache is deleted either way; it is only valid
+     * right after the shutdown that wrote it.
      *
-     * @param section The section to deserialize from
-     * @return The deserialized location
+     * @return The shops, or null if there is no usable cache
      */
-    private Location deserializeLocation(ConfigurationSection section) {
-        if (section == null) {
+    private List<Shop> loadCache() {
+        if (!cacheFile.exists()) {
             return null;
         }
         
-        String worldName = section.getString("world");
-        if (worldName == null) {
+        try (SnapshotFile.Reader reader = SnapshotFile.open(cacheFile)) {
+            if (!plugin.getConfig().getBoolean("snapshot.cold_start_cache", false)
+                    || !reader.getSource().equals(repository.getType()) || getChangeFeed() != null) {
+                return null;
+            }
+            
+            List<Shop> shops = new ArrayList<>();
+            Shop shop = null;
+            SnapshotFile.Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (entry instanceof SnapshotFile.ShopEntry) {
+                    shop = ((SnapshotFile.ShopEntry) entry).toShop();
+                    shops.add(shop);
+                } else if (entry instanceof SnapshotFile.ItemEntry && shop != null) {
+                    shop.addItem(((SnapshotFile.ItemEntry) entry).toShopItem());
+                }
+            }
+            return shops;
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().log(Level.WARNING, "Ignoring the shop cache; loading from storage instead", e);
             return null;
+        } finally {
+            if (!cacheFile.delete()) {
+                plugin.getLogger().warning("Failed to delete the shop cache; disable snapshot.cold_start_cache until it is removed.");
+            }
+        }
+    }
+
+    /**
+     * Read shops from storage, or from the cold-start cache if there is one, without registering
+     * them. Shops with changes waiting in the journal or the slot file get their items loaded
+     * too. Only touches storage and those files, so it may run off the main thread while nothing
+     * else uses the data manager, e.g. during startup.
+     *
+     * @return The shops read
+     */
+    public LoadedShops readShops() {
+        // Importing shops.yml changes storage after the cache was written
+        boolean importsShopFile = shopFile.exists();
+        importShopFile();
+        
+        // Changes made while the shops load are polled afterwards
+        ShopChangeFeed feed = getChangeFeed();
+        long position = 0;
+        if (feed != null) {
+            try {
+                feed.start();
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to read the change feed position; older changes will be polled again", e);
+            }
+            position = feed.getPosition();
+        }
+        
+        List<Shop> shops = importsShopFile ? null : loadCache();
+        boolean cached = shops != null;
+        if (!cached) {
+            shops = isLazyLoading() ? repository.loadHeaders() : repository.loadAll();
+        }
+        loadItemsToReplay(shops);
+        return new LoadedShops(shops, cached, position);
+    }
+
+    /**
+     * Load the items of the shops that the journal or the slot file hold changes for, so
+     * replaying them on the main thread doesn't load each shop's items there
+     *
+     * @param shops The shops read, not registered yet
+     */
+    private void loadItemsToReplay(List<Shop> shops) {
+        Set<UUID> touched = journal.findItemShops();
+        touched.addAll(itemSlots.findPendingShops());
+        if (touched.isEmpty()) {
+            return;
+        }
+        
+        for (Shop shop : shops) {
+            if (touched.contains(shop.getId()) && !shop.isItemsLoaded() && shop instanceof PlayerShop) {
+                List<ShopItem> items = loadItems(shop.getId());
+                if (items != null) {
+                    ((PlayerShop) shop).installItems(items);
+                }
+            }
+        }
+    }
+
+    /**
+     * Register shops read from storage with the shop manager
+     *
+     * @param loaded The shops read
+     */
+    private void registerShops(LoadedShops loaded) {
+        List<Shop> shops = loaded.shops;
+        boolean cached = loaded.cached;
+        seenChanges = loaded.seenChanges;
+        
+        storedShops.clear();
+        playerShopsByChunk.clear();
+        int unloaded = 0;
+        for (Shop shop : shops) {
+            // Shops are read off the main thread, so their worlds are looked up here
+            StoredLocation.resolveWorld(shop.getLocation());
+            storedShops.add(shop.getId());
+            plugin.getShopManager().registerShop(shop);
+            if (cached) {
+                markLoadedSaved(shop);
+            }
+            if (!shop.isItemsLoaded()) {
+                indexForPrefetch(shop);
+                unloaded++;
+            }
+        }
+        plugin.getLogger().info("Loaded " + shops.size() + " shop(s) from " + (cached ? "the shop cache" : repository.getType() + " storage")
+                + (unloaded > 0 ? "; the items of " + unloaded + " player shop(s) load on demand." : "."));
+    }
+
+    /**
+     * Mark a shop that matches storage as saved, with its items. The cache counts as storage;
+     * it is only written once everything in it is stored.
+     *
+     * @param shop The shop
+     */
+    private void markLoadedSaved(Shop shop) {
+        if (!shop.isItemsLoaded() && !isLazyLoading()) {
+            shop.getItems();
+        }
+        shop.markSaved(shop.getVersion());
+        if (shop.isItemsLoaded()) {
+            for (ShopItem item : shop.getItems()) {
+                item.markSaved(item.getVersion());
+            }
+        }
+    }
+
+    /**
+     * Move shops from shops.yml into the repository, once. Before shops could be stored in the
+     * database alone, shops.yml was the primary copy and the database copy was incomplete; before
+     * YAML storage used a file per shop, every shop was in shops.yml.
+     */
+    private void importShopFile() {
+        if (!shopFile.exists()) {
+            return;
         }
         
-        double x = section.getDouble("x");
-        double y = section.getDouble("y");
-        double z = section.getDouble("z");
-        float yaw = (float) section.getDouble("yaw");
-        float pitch = (float) section.getDouble("pitch");
+        List<ShopSnapshot> shops = new ArrayList<>();
+        for (Shop shop : new YamlShopRepository(plugin, shopDirectory).loadLegacyFile(shopFile)) {
+            shops.add(ShopSnapshot.of(shop));
+        }
         
-        return new Location(Bukkit.getWorld(worldName), x, y, z, yaw, pitch);
+        if (repository.saveBatch(shops)) {
+            retireShopFile(".imported");
+            plugin.getLogger().info("Imported " + shops.size() + " shop(s) from shops.yml into " + repository.getType() + " storage.");
+        } else {
+            plugin.getLogger().severe("Failed to import shops.yml into " + repository.getType()
+                    + " storage; the import will be retried on the next start.");
+        }
+    }
+
+    /**
+     * Rename shops.yml once its shops are stored elsewhere
+     *
+     * @param suffix The suffix to add to the file name
+     */
+    private void retireShopFile(String suffix) {
+        File retired = new File(shopFile.getParentFile(), shopFile.getName() + suffix);
+        if (retired.exists()) {
+            retired.delete();
+        }
+        if (!shopFile.renameTo(retired)) {
+            plugin.getLogger().warning("Failed to rename " + shopFile.getName() + " to " + retired.getName()
+                    + "; delete it so it isn't imported again.");
+        }
+    }
+
+    /**
+     * Rename the shops folder once its shops are stored elsewhere. A folder retired earlier is
+     * replaced.
+     *
+     * @param suffix The suffix to add to the folder name
+     */
+    private void retireShopDirectory(String suffix) {
+        File retired = new File(shopDirectory.getParentFile(), shopDirectory.getName() + suffix);
+        File[] old = retired.listFiles();
+        if (old != null) {
+            for (File file : old) {
+                file.delete();
+            }
+            retired.delete();
+        }
+        if (shopDirectory.exists() && !shopDirectory.renameTo(retired)) {
+            plugin.getLogger().warning("Failed to rename the " + shopDirectory.getName() + " folder to " + retired.getName()
+                    + "; delete it so its shops aren't loaded if YAML storage is used again.");
+        }
+    }
+
+    /**
+     * Capture everything that changed since the last save. Must be called on the main thread;
+     * it only copies values, all serialization happens in {@link #writeBatch(SaveBatch)}.
+     *
+     * @return The captured changes
+     */
+    private SaveBatch captureChanges() {
+        long start = System.nanoTime();
+        // Changes journaled from here on belong to the next save
+        long journalSegment = journal.rotate();
+        List<ShopSnapshot> shops = new ArrayList<>();
+        Set<UUID> liveShops = new HashSet<>();
+        
+        for (Shop shop : plugin.getShopManager().getAllShops()) {
+            liveShops.add(shop.getId());
+            ShopSnapshot snapshot = ShopSnapshot.ofChanges(shop);
+            if (snapshot != null) {
+                shops.add(snapshot);
+            }
+        }
+        
+        return new SaveBatch(shops, liveShops, journalSegment, seenChanges, System.nanoTime() - start);
+    }
+
+    /**
+     * Write captured changes to the repository. Runs on the save thread.
+     *
+     * @param batch The captured changes
+     */
+    private void writeBatch(SaveBatch batch) {
+        long start = System.nanoTime();
+        ShopRepository target = repository;
+        boolean complete = true;
+        
+        // Drop shops that were deleted since the last save
+        for (Iterator<UUID> iterator = storedShops.iterator(); iterator.hasNext(); ) {
+            UUID shopId = iterator.next();
+            if (!batch.liveShops.contains(shopId)) {
+                if (target.delete(shopId)) {
+                    iterator.remove();
+                } else {
+                    complete = false;
+                }
+            }
+        }
+        
+        if (!batch.shops.isEmpty()) {
+            // Entities only count as saved once the whole batch is stored; otherwise they stay
+            // dirty and the next save retries them
+            Set<UUID> conflicts = target.saveShared(batch.shops, batch.seenChanges);
+            if (conflicts == null) {
+                lastSaveComplete = false;
+                return;
+            }
+            
+            // Rows another server changed stay dirty too, until its change is polled and merged
+            int items = 0;
+            for (ShopSnapshot shop : batch.shops) {
+                if (!conflicts.contains(shop.getId())) {
+                    storedShops.add(shop.getId());
+                    shop.markSaved();
+                }
+                for (ShopItemSnapshot item : shop.getItems()) {
+                    if (!conflicts.contains(item.getId())) {
+                        item.markSaved();
+                    }
+                }
+                items += shop.getItems().size();
+            }
+            if (!conflicts.isEmpty()) {
+                complete = false;
+                plugin.getLogger().info(conflicts.size() + " shop(s) or item(s) were changed on another server at the same time;"
+                        + " they are saved again once those changes are merged.");
+            }
+            
+            if (plugin.getConfig().getBoolean("autosave.report_timings", true)) {
+                plugin.getLogger().info(String.format("Saved %d shop(s) and %d item(s) to %s storage in %d ms (%.2f ms on the main thread)",
+                        batch.shops.size(), items, target.getType(), (System.nanoTime() - start) / 1_000_000, batch.captureNanos / 1_000_000.0));
+            }
+        }
+        
+        lastSaveComplete = complete;
+        
+        // Everything journaled before the capture is now stored
+        if (complete) {
+            journal.checkpoint(batch.journalSegment);
+        }
+    }
+
+    /**
+     * The changes captured for one save
+     */
+    private static final class SaveBatch {
+        private final List<ShopSnapshot> shops;
+        private final Set<UUID> liveShops;
+        private final long journalSegment;
+        private final long seenChanges;
+        private final long captureNanos;
+
+        private SaveBatch(List<ShopSnapshot> shops, Set<UUID> liveShops, long journalSegment, long seenChanges, long captureNanos) {
+            this.shops = shops;
+            this.liveShops = liveShops;
+            this.journalSegment = journalSegment;
+            this.seenChanges = seenChanges;
+            this.captureNanos = captureNanos;
+        }
+    }
+
+    /**
+     * Shops read by {@link #readShops()}, waiting to be registered on the main thread
+     */
+    public static final class LoadedShops {
+        private final List<Shop> shops;
+        private final boolean cached;
+        private final long seenChanges;
+
+        private LoadedShops(List<Shop> shops, boolean cached, long seenChanges) {
+            this.shops = shops;
+            this.cached = cached;
+            this.seenChanges = seenChanges;
+        }
+
+        /**
+         * Get the number of shops read
+         *
+         * @return The number of shops
+         */
+        public int size() {
+            return shops.size();
+        }
+    }
+
+    /**
+     * A change another server made, with the stored row as it was when the change was polled
+     */
+    private static final class RemoteChange {
+        private final ShopChangeFeed.Change change;
+        private final Shop shop;
+        private final ShopItem item;
+        // Whether the shop is new to this server and was loaded with its items
+        private final boolean added;
+
+        private RemoteChange(ShopChangeFeed.Change change, Shop shop, ShopItem item, boolean added) {
+            this.change = change;
+            this.shop = shop;
+            this.item = item;
+            this.added = added;
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,497 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.shops.ShopManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.zip.CRC32C;
+
+/**
+ * Memory-mapped file of fixed-width slots holding the stored numeric state of shop items: stock
+ * and prices. The sold and bought counts and the time of the last price change aren't stored
+ * anywhere, so they aren't kept here either.
+ * <p>
+ * An item is given a slot the first time one of those fields changes and keeps it until it is
+ * removed. Every change is written straight into the item's slot, so persisting a trade is a
+ * handful of primitive writes into the mapping with no serialization. The writes are in the
+ * page cache as soon as they are made, so they survive the server process crashing; dirty pages
+ * are forced to disk every {@code slots.flush_interval_ms} so they also survive the machine
+ * crashing.
+ * <p>
+ * Each slot carries a CRC32C of its contents, and slots are aligned so none spans two pages; a
+ * slot torn by a crash fails its checksum and is ignored. The header records whether the file
+ * was closed after a complete final save. If it wasn't, the slots are read back on the next
+ * start and applied on top of the loaded shops, after the journal.
+ * <p>
+ * While the slot file is open, the journal only records item changes that include the currency,
+ * which doesn't fit in a slot.
+ */
+public class ShopItemSlots {
+
+    private static final String FILE_NAME = "item-slots.dat";
+    private static final int MAGIC = 0x46534953; // "FSIS"
+    private static final int VERSION = 2;
+    private static final int SLOT_SIZE = 128;
+    // The header takes one slot, so every slot stays aligned and never spans two pages
+    private static final int HEADER_SIZE = SLOT_SIZE;
+    private static final int MIN_SLOTS = 1024;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_SLOT_SIZE = 8;
+    private static final int HEADER_CLEAN = 12;
+
+    private static final int SLOT_CRC = 0;
+    private static final int SLOT_USED = 4;
+    private static final int SLOT_SHOP = 8;
+    private static final int SLOT_ITEM = 24;
+    private static final int SLOT_BUY_PRICE = 40;
+    private static final int SLOT_SELL_PRICE = 48;
+    private static final int SLOT_STOCK = 56;
+    // Bytes covered by the checksum, from SLOT_USED up to the end of the last field
+    private static final int SLOT_DATA_END = 60;
+
+    private final FrizzlenShop plugin;
+    private final File file;
+    // Slot of every item that has one. Written under the lock; read by writers without it.
+    private final Map<UUID, Integer> slots = new ConcurrentHashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile boolean open;
+    private volatile MappedByteBuffer map;
+    private FileChannel channel;
+    private int capacity;
+    private int nextSlot;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Creates a new slot file
+     *
+     * @param plugin The plugin instance
+     */
+    public ShopItemSlots(FrizzlenShop plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), FILE_NAME);
+    }
+
+    /**
+     * Delete the slot file, e.g. when storage was restored from a backup and the slots no
+     * longer apply to it. Only call this while no slot file is open.
+     *
+     * @param plugin The plugin instance
+     */
+    public static void deleteFile(FrizzlenShop plugin) {
+        File file = new File(plugin.getDataFolder(), FILE_NAME);
+        if (file.exists() && !file.delete()) {
+            plugin.getLogger().warning("Failed to delete " + FILE_NAME + "; delete it before the next start");
+        }
+    }
+
+    /**
+     * Map the slot file, if enabled in the config. If the file wasn't closed after a complete
+     * save, its slots are first applied to the loaded shops. Slots of shops that no longer exist
+     * are freed. Must be called on the main thread, with the journal closed.
+     *
+     * @param shopManager The shop manager holding the loaded shops
+     */
+    public synchronized void open(ShopManager shopManager) {
+        if (open || !plugin.getConfig().getBoolean("slots.enabled", true)) {
+            return;
+        }
+
+        try {
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Failed to create " + file.getParentFile());
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean valid = channel.size() >= HEADER_SIZE;
+            if (valid) {
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                valid = map.getInt(HEADER_MAGIC) == MAGIC && map.getInt(HEADER_VERSION) == VERSION
+                        && map.getInt(HEADER_SLOT_SIZE) == SLOT_SIZE;
+                if (!valid) {
+                    plugin.getLogger().warning("Ignoring " + file.getName() + " because it isn't a slot file of this version;"
+                            + " shop items are restored from the last save and the journal only.");
+                }
+            }
+
+            capacity = valid ? (int) ((channel.size() - HEADER_SIZE) / SLOT_SIZE) : 0;
+            if (!valid) {
+                channel.truncate(0);
+                map = null;
+            }
+            if (valid && map.getInt(HEADER_CLEAN) == 0) {
+                replay(shopManager);
+            }
+            bind(shopManager);
+
+            if (capacity < MIN_SLOTS) {
+                grow(MIN_SLOTS);
+            }
+            map.putInt(HEADER_MAGIC, MAGIC);
+            map.putInt(HEADER_VERSION, VERSION);
+            map.putInt(HEADER_SLOT_SIZE, SLOT_SIZE);
+            // Anything from here on may be newer than storage until a final save says otherwise
+            map.putInt(HEADER_CLEAN, 0);
+            map.force();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to open " + file.getName() + "; item changes between saves are journaled instead", e);
+            closeChannel();
+            return;
+        }
+
+        long interval = Math.max(50, plugin.getConfig().getLong("slots.flush_interval_ms", 1000));
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FrizzlenShop-Slots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        open = true;
+    }
+
+    /**
+     * Find the shops whose items {@link #open(ShopManager)} will restore, so their items can be
+     * loaded before it runs on the main thread. Safe to call from any thread while the slot file
+     * is closed.
+     *
+     * @return The shop IDs; empty if the file was closed cleanly or won't be read
+     */
+    public synchronized Set<UUID> findPendingShops() {
+        Set<UUID> shopIds = new HashSet<>();
+        if (open || !plugin.getConfig().getBoolean("slots.enabled", true) || !file.isFile()) {
+            return shopIds;
+        }
+
+        try (FileChannel reader = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (reader.size() < HEADER_SIZE) {
+                return shopIds;
+            }
+            MappedByteBuffer view = reader.map(FileChannel.MapMode.READ_ONLY, 0, reader.size());
+            if (view.getInt(HEADER_MAGIC) != MAGIC || view.getInt(HEADER_VERSION) != VERSION
+                    || view.getInt(HEADER_SLOT_SIZE) != SLOT_SIZE || view.getInt(HEADER_CLEAN) != 0) {
+                return shopIds;
+            }
+            int slotCount = (int) ((reader.size() - HEADER_SIZE) / SLOT_SIZE);
+            for (int slot = 0; slot < slotCount; slot++) {
+                int base = offset(slot);
+                if (view.getInt(base + SLOT_USED) != 0 && view.getInt(base + SLOT_CRC) == checksum(view, base)) {
+                    shopIds.add(new UUID(view.getLong(base + SLOT_SHOP), view.getLong(base + SLOT_SHOP + 8)));
+                }
+            }
+        } catch (IOException e) {
+            // Opening reports it; the items are then loaded as the slots are applied
+        }
+        return shopIds;
+    }
+
+    /**
+     * Stop flushing and force everything to disk
+     *
+     * @param clean True if a save that completed after the last change stored everything in
+     *              the slots, so the next start doesn't need to read them back
+     */
+    public synchronized void close(boolean clean) {
+        if (!open) {
+            return;
+        }
+        open = false;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher = null;
+
+        if (clean) {
+            map.putInt(HEADER_CLEAN, 1);
+        }
+        map.force();
+        closeChannel();
+    }
+
+    /**
+     * Check whether changes are written to the slot file
+     *
+     * @return True if the slot file is open
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Write the numeric state of an item into its slot, giving it one if it has none
+     *
+     * @param item The changed item
+     * @return True if written, false if the slot file is closed or the item isn't in a shop
+     */
+    public boolean write(ShopItem item) {
+        UUID shopId = item.getShopId();
+        if (!open || shopId == null) {
+            return false;
+        }
+
+        MappedByteBuffer buffer = map;
+        if (buffer == null) {
+            return false;
+        }
+
+        UUID itemId = item.getId();
+        int slot = item.getSlot();
+        // The cached slot is checked against the item ID, in case it was freed and reused
+        if (slot < 0 || offset(slot) + SLOT_SIZE > buffer.capacity() || buffer.getLong(offset(slot) + SLOT_ITEM) != itemId.getMostSignificantBits()
+                || buffer.getLong(offset(slot) + SLOT_ITEM + 8) != itemId.getLeastSignificantBits()) {
+            slot = assign(item);
+            if (slot < 0) {
+                return false;
+            }
+            buffer = map;
+        }
+        int base = offset(slot);
+        synchronized (item) {
+            buffer.putDouble(base + SLOT_BUY_PRICE, item.getBuyPrice());
+            buffer.putDouble(base + SLOT_SELL_PRICE, item.getSellPrice());
+            buffer.putInt(base + SLOT_STOCK, item.getStock());
+            buffer.putInt(base + SLOT_CRC, checksum(buffer, base));
+        }
+        dirty.set(true);
+        return true;
+    }
+
+    /**
+     * Free the slot of an item removed from its shop
+     *
+     * @param item The removed item
+     */
+    public synchronized void release(ShopItem item) {
+        Integer slot = slots.remove(item.getId());
+        if (slot != null && open) {
+            clear(slot);
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Free the slots of every item of a deleted shop, including items that aren't loaded
+     *
+     * @param shopId The shop ID
+     */
+    public synchronized void releaseShop(UUID shopId) {
+        if (!open) {
+            return;
+        }
+        for (Map.Entry<UUID, Integer> entry : slots.entrySet()) {
+            int base = offset(entry.getValue());
+            if (map.getLong(base + SLOT_SHOP) == shopId.getMostSignificantBits()
+                    && map.getLong(base + SLOT_SHOP + 8) == shopId.getLeastSignificantBits()) {
+                clear(entry.getValue());
+                freeSlots.add(entry.getValue());
+                slots.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Free every slot, when the shops they belong to are replaced (by an import)
+     */
+    public synchronized void discard() {
+        if (!open) {
+            return;
+        }
+        for (int slot : slots.values()) {
+            clear(slot);
+            freeSlots.add(slot);
+        }
+        slots.clear();
+    }
+
+    /**
+     * Get the number of items that have a slot
+     *
+     * @return The slot count
+     */
+    public int getSlotCount() {
+        return slots.size();
+    }
+
+    /**
+     * Apply the slots to the loaded shops after an unclean shutdown
+     *
+     * @param shopManager The shop manager
+     */
+    private void replay(ShopManager shopManager) {
+        int applied = 0;
+        int torn = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = offset(slot);
+            if (map.getInt(base + SLOT_USED) == 0) {
+                continue;
+            }
+            if (map.getInt(base + SLOT_CRC) != checksum(map, base)) {
+                torn++;
+                continue;
+            }
+
+            Shop shop = shopManager.getShop(readUuid(base + SLOT_SHOP));
+            ShopItem item = shop != null ? shop.getItem(readUuid(base + SLOT_ITEM)) : null;
+            if (item != null && item.applySlot(map.getInt(base + SLOT_STOCK), map.getDouble(base + SLOT_BUY_PRICE),
+                    map.getDouble(base + SLOT_SELL_PRICE))) {
+                applied++;
+            }
+        }
+
+        if (applied > 0 || torn > 0) {
+            plugin.getLogger().info("Restored " + applied + " shop item(s) from " + file.getName() + " since the last save"
+                    + (torn > 0 ? " (" + torn + " slot(s) torn by the crash were ignored)" : "") + ".");
+        }
+    }
+
+    /**
+     * Index the used slots, freeing those of shops that no longer exist and torn ones
+     *
+     * @param shopManager The shop manager
+     */
+    private void bind(ShopManager shopManager) {
+        slots.clear();
+        freeSlots.clear();
+        nextSlot = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = offset(slot);
+            if (map.getInt(base + SLOT_USED) == 0) {
+                continue;
+            }
+            if (map.getInt(base + SLOT_CRC) != checksum(map, base) || shopManager.getShop(readUuid(base + SLOT_SHOP)) == null) {
+                clear(slot);
+                continue;
+            }
+            slots.put(readUuid(base + SLOT_ITEM), slot);
+            nextSlot = slot + 1;
+        }
+        for (int slot = 0; slot < nextSlot; slot++) {
+            if (map.getInt(offset(slot) + SLOT_USED) == 0) {
+                freeSlots.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Find or claim the slot of an item
+     *
+     * @param item The item
+     * @return The slot, or -1 if the slot file was closed or can't grow
+     */
+    private synchronized int assign(ShopItem item) {
+        if (!open) {
+            return -1;
+        }
+
+        Integer existing = slots.get(item.getId());
+        if (existing != null) {
+            item.setSlot(existing);
+            return existing;
+        }
+
+        Integer free = freeSlots.poll();
+        int slot = free != null ? free : nextSlot++;
+        if (slot >= capacity) {
+            try {
+                grow(capacity * 2);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to grow " + file.getName() + "; the item's changes are journaled instead", e);
+                nextSlot--;
+                return -1;
+            }
+        }
+
+        int base = offset(slot);
+        UUID shopId = item.getShopId();
+        map.putLong(base + SLOT_SHOP, shopId.getMostSignificantBits());
+        map.putLong(base + SLOT_SHOP + 8, shopId.getLeastSignificantBits());
+        map.putLong(base + SLOT_ITEM, item.getId().getMostSignificantBits());
+        map.putLong(base + SLOT_ITEM + 8, item.getId().getLeastSignificantBits());
+        map.putInt(base + SLOT_USED, 1);
+        slots.put(item.getId(), slot);
+        item.setSlot(slot);
+        return slot;
+    }
+
+    /**
+     * Extend the file and map it again. The old mapping shares the same pages, so writers
+     * still holding it lose nothing.
+     *
+     * @param slotCount The new number of slots
+     * @throws IOException If the file can't be extended
+     */
+    private void grow(int slotCount) throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+        capacity = slotCount;
+    }
+
+    private void clear(int slot) {
+        int base = offset(slot);
+        for (int i = 0; i < SLOT_SIZE; i += 8) {
+            map.putLong(base + i, 0);
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Force the pages written since the last flush to disk. Runs on the flush thread.
+     */
+    private void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            map.force();
+        } catch (RuntimeException e) {
+            dirty.set(true);
+            plugin.getLogger().log(Level.WARNING, "Failed to flush " + file.getName(), e);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to close " + file.getName(), e);
+        }
+        channel = null;
+        map = null;
+    }
+
+    private UUID readUuid(int offset) {
+        return new UUID(map.getLong(offset), map.getLong(offset + 8));
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int checksum(MappedByteBuffer buffer, int base) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(base + SLOT_USED, SLOT_DATA_END - SLOT_USED));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,135 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.inventory.ItemStack;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+
+import java.util.UUID;
+
+/**
+ * An immutable copy of the persisted state of a shop item, taken on the main thread
+ * so that it can be written from another thread.
+ */
+public final class ShopItemSnapshot {
+
+    private final ShopItem source;
+    private final long version;
+    private final long storedVersion;
+    private final UUID id;
+    private final UUID shopId;
+    private final ItemStack item;
+    private final double buyPrice;
+    private final double sellPrice;
+    private final String currency;
+    private final int stock;
+
+    private ShopItemSnapshot(ShopItem source) {
+        this.source = source;
+        this.version = source.getVersion();
+        this.storedVersion = source.getStoredVersion();
+        this.id = source.getId();
+        this.shopId = source.getShopId();
+        this.item = source.getItem();
+        this.buyPrice = source.getBuyPrice();
+        this.sellPrice = source.getSellPrice();
+        this.currency = source.getCurrency();
+        this.stock = source.getStock();
+    }
+
+    /**
+     * Capture a shop item. Must be called on the main thread.
+     *
+     * @param item The shop item
+     * @return The snapshot
+     */
+    public static ShopItemSnapshot of(ShopItem item) {
+        return new ShopItemSnapshot(item);
+    }
+
+    /**
+     * Record on the live item that this snapshot has been saved
+     */
+    public void markSaved() {
+        source.markSaved(version);
+    }
+
+    /**
+     * Record on the live item the row version it was stored as
+     *
+     * @param storedVersion The version the row now has in storage
+     */
+    public void markStored(long storedVersion) {
+        source.markStored(storedVersion, stock);
+    }
+
+    /**
+     * Get the version of the stored row the captured values are based on
+     *
+     * @return The stored row version, or 0 if the item isn't stored yet
+     */
+    public long getStoredVersion() {
+        return storedVersion;
+    }
+
+    /**
+     * Get the item ID
+     *
+     * @return The item ID
+     */
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * Get the ID of the shop the item belongs to
+     *
+     * @return The shop ID
+     */
+    public UUID getShopId() {
+        return shopId;
+    }
+
+    /**
+     * Get the item. The snapshot owns this copy; don't modify it.
+     *
+     * @return The item
+     */
+    public ItemStack getItem() {
+        return item;
+    }
+
+    /**
+     * Get the buy price
+     *
+     * @return The buy price
+     */
+    public double getBuyPrice() {
+        return buyPrice;
+    }
+
+    /**
+     * Get the sell price
+     *
+     * @return The sell price
+     */
+    public double getSellPrice() {
+        return sellPrice;
+    }
+
+    /**
+     * Get the currency
+     *
+     * @return The currency
+     */
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Get the stock
+     *
+     * @return The stock, or -1 for unlimited
+     */
+    public int getStock() {
+        return stock;
+    }
+}
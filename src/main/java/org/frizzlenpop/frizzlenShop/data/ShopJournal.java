@@ -0,0 +1,568 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.shops.ShopManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of shop changes made since the last save, so a crash between saves
+ * loses nothing that was committed to the journal.
+ * <p>
+ * Each record holds the new absolute value of what changed (an item's prices, stock and
+ * currency, or a shop stat), so replaying a record twice is harmless. Records are framed as
+ * {@code [length][CRC32C][payload]}; replay stops at the first frame that is torn or fails
+ * its checksum.
+ * <p>
+ * The journal is split into numbered segment files. A save starts a new segment when it
+ * captures its changes, and once the save is on disk every older segment is deleted.
+ * <p>
+ * Appending only encodes the record and queues it. A single writer thread writes everything
+ * queued in one go and then syncs the file once (group commit).
+ */
+public class ShopJournal {
+
+    private static final byte ITEM_RECORD = 1;
+    private static final byte STAT_RECORD = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final FrizzlenShop plugin;
+    private final Path directory;
+    private final LinkedBlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong segment = new AtomicLong();
+    private volatile boolean open;
+    private Thread writer;
+
+    /**
+     * Creates a new shop journal
+     *
+     * @param plugin The plugin instance
+     */
+    public ShopJournal(FrizzlenShop plugin) {
+        this.plugin = plugin;
+        this.directory = plugin.getDataFolder().toPath().resolve("journal");
+    }
+
+    /**
+     * Start accepting records in a new segment, if enabled in the config.
+     * Records appended while the journal is closed are dropped.
+     */
+    public synchronized void open() {
+        if (open || !plugin.getConfig().getBoolean("journal.enabled", true)) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to create the journal directory; changes between saves will not be journaled", e);
+            return;
+        }
+
+        long first = 0;
+        for (long existing : listSegments()) {
+            first = Math.max(first, existing);
+        }
+        segment.set(first + 1);
+
+        long commitDelay = Math.max(0, plugin.getConfig().getLong("journal.group_commit_ms", 20));
+        Writer task = new Writer(segment.get(), commitDelay);
+        writer = new Thread(task, "FrizzlenShop-Journal");
+        writer.setDaemon(true);
+        open = true;
+        writer.start();
+    }
+
+    /**
+     * Write and sync everything queued, then stop the writer thread
+     */
+    public synchronized void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        queue.offer(Op.STOP_COMMAND);
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(plugin.getConfig().getLong("autosave.shutdown_timeout", 10)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            plugin.getLogger().severe("The journal did not finish writing in time; recent changes may be lost.");
+        }
+        writer = null;
+    }
+
+    /**
+     * Record the current prices, stock and currency of a shop item
+     *
+     * @param item The changed item
+     */
+    public void recordItem(ShopItem item) {
+        if (!open || item.getShopId() == null) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(80);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(ITEM_RECORD);
+            writeUuid(out, item.getShopId());
+            writeUuid(out, item.getId());
+            out.writeDouble(item.getBuyPrice());
+            out.writeDouble(item.getSellPrice());
+            out.writeInt(item.getStock());
+            out.writeUTF(item.getCurrency() != null ? item.getCurrency() : "");
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+        queue.offer(Op.record(bytes.toByteArray()));
+    }
+
+    /**
+     * Record the current value of a shop stat
+     *
+     * @param shopId The shop ID
+     * @param stat   The stat name
+     * @param value  The new value
+     */
+    public void recordStat(UUID shopId, String stat, double value) {
+        if (!open) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(STAT_RECORD);
+            writeUuid(out, shopId);
+            out.writeUTF(stat);
+            out.writeDouble(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        queue.offer(Op.record(bytes.toByteArray()));
+    }
+
+    /**
+     * Start a new segment. Called on the main thread when a save captures its changes, so
+     * every record in older segments is covered by that save.
+     *
+     * @return The new segment number, to pass to {@link #checkpoint(long)}, or 0 if the journal is closed
+     */
+    public long rotate() {
+        if (!open) {
+            return 0;
+        }
+        long next = segment.incrementAndGet();
+        queue.offer(Op.rotate(next));
+        return next;
+    }
+
+    /**
+     * Delete every segment older than one returned by {@link #rotate()}, once the save that
+     * started it has been written
+     *
+     * @param segment The segment number
+     */
+    public void checkpoint(long segment) {
+        if (open && segment > 0) {
+            queue.offer(Op.checkpoint(segment));
+        }
+    }
+
+    /**
+     * Apply every journaled change to the loaded shops. The journal must be closed.
+     *
+     * @param shopManager The shop manager holding the loaded shops
+     * @return The number of records applied
+     */
+    public synchronized int replay(ShopManager shopManager) {
+        if (open) {
+            throw new IllegalStateException("Cannot replay an open journal");
+        }
+
+        int[] applied = new int[1];
+        int[] skipped = new int[1];
+        for (long number : listSegments()) {
+            Path file = segmentPath(number);
+            try {
+                int remaining = readRecords(Files.readAllBytes(file), payload -> {
+                    if (apply(shopManager, payload)) {
+                        applied[0]++;
+                    } else {
+                        skipped[0]++;
+                    }
+                });
+
+                if (remaining > 0) {
+                    // The server died mid-write; everything before the torn record is intact
+                    plugin.getLogger().warning("Ignoring " + remaining + " byte(s) of incomplete records at the end of "
+                            + file.getFileName());
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to read journal segment " + file.getFileName(), e);
+            }
+        }
+
+        if (applied[0] > 0 || skipped[0] > 0) {
+            plugin.getLogger().info("Replayed " + applied[0] + " journaled change(s) since the last save"
+                    + (skipped[0] > 0 ? " (" + skipped[0] + " for shops or items that no longer exist)" : "") + ".");
+        }
+        return applied[0];
+    }
+
+    /**
+     * Find the shops whose items have journaled changes, so their items can be loaded before
+     * {@link #replay(ShopManager)} runs on the main thread. Safe to call from any thread while
+     * the journal is closed.
+     *
+     * @return The shop IDs
+     */
+    public synchronized Set<UUID> findItemShops() {
+        Set<UUID> shopIds = new HashSet<>();
+        for (long number : listSegments()) {
+            try {
+                readRecords(Files.readAllBytes(segmentPath(number)), payload -> {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                    if (in.readByte() == ITEM_RECORD) {
+                        shopIds.add(readUuid(in));
+                    }
+                });
+            } catch (IOException e) {
+                // Replay reports it; the items are then loaded as the records are applied
+            }
+        }
+        return shopIds;
+    }
+
+    /**
+     * Pass every intact record of a segment to a handler, stopping at the first frame that is
+     * torn or fails its checksum
+     *
+     * @param data    The segment's contents
+     * @param handler Receives each record's payload, in order
+     * @return The number of bytes after the last intact record
+     * @throws IOException If the handler fails
+     */
+    static int readRecords(byte[] data, RecordHandler handler) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        CRC32C crc = new CRC32C();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            handler.accept(payload);
+        }
+        return buffer.remaining();
+    }
+
+    /**
+     * Apply one record
+     *
+     * @param shopManager The shop manager
+     * @param payload     The record payload
+     * @return True if applied, false if its shop or item doesn't exist
+     * @throws IOException If the payload is malformed
+     */
+    private boolean apply(ShopManager shopManager, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        Shop shop = shopManager.getShop(readUuid(in));
+
+        switch (type) {
+            case ITEM_RECORD: {
+                ShopItem item = shop != null ? shop.getItem(readUuid(in)) : null;
+                if (item == null) {
+                    return false;
+                }
+                double buyPrice = in.readDouble();
+                double sellPrice = in.readDouble();
+                int stock = in.readInt();
+                String currency = in.readUTF();
+
+                if (item.getBuyPrice() != buyPrice) {
+                    item.setBuyPrice(buyPrice);
+                }
+                if (item.getSellPrice() != sellPrice) {
+                    item.setSellPrice(sellPrice);
+                }
+                if (item.getStock() != stock) {
+                    item.setStock(stock);
+                }
+                if (!currency.isEmpty() && !currency.equals(item.getCurrency())) {
+                    item.setCurrency(currency);
+                }
+                return true;
+            }
+            case STAT_RECORD: {
+                if (shop == null) {
+                    return false;
+                }
+                String stat = in.readUTF();
+                double value = in.readDouble();
+                double current = shop.getStats().getOrDefault(stat, 0.0);
+                if (current != value) {
+                    shop.updateStat(stat, value - current);
+                }
+                return true;
+            }
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * Delete every segment, e.g. when storage was restored from a backup and the records no
+     * longer apply to it. Only call this while no journal is open.
+     *
+     * @param plugin The plugin instance
+     */
+    public static void deleteSegments(FrizzlenShop plugin) {
+        ShopJournal journal = new ShopJournal(plugin);
+        for (long number : journal.listSegments()) {
+            try {
+                Files.deleteIfExists(journal.segmentPath(number));
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to delete journal segment " + number
+                        + "; delete the journal directory before the next start", e);
+            }
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                        // Not a segment
+                    }
+                }
+            });
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to list journal segments", e);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format(Locale.ROOT, "%016d%s", number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Receives the payloads of journal records
+     */
+    interface RecordHandler {
+        void accept(byte[] payload) throws IOException;
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    /**
+     * Drains the queue into the current segment, syncing once per batch
+     */
+    private final class Writer implements Runnable {
+        private final long commitDelayMillis;
+        private final CRC32C crc = new CRC32C();
+        private final List<Op> batch = new ArrayList<>();
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long current;
+        private FileChannel channel;
+
+        private Writer(long first, long commitDelayMillis) {
+            this.current = first;
+            this.commitDelayMillis = commitDelayMillis;
+        }
+
+        @Override
+        public void run() {
+            boolean running = true;
+            try {
+                channel = openSegment(current);
+                while (running) {
+                    batch.clear();
+                    batch.add(queue.take());
+                    if (commitDelayMillis > 0) {
+                        // Give other changes made in the same tick a chance to share the sync
+                        Op next = queue.poll(commitDelayMillis, TimeUnit.MILLISECONDS);
+                        if (next != null) {
+                            batch.add(next);
+                        }
+                    }
+                    queue.drainTo(batch);
+
+                    for (Op op : batch) {
+                        switch (op.kind) {
+                            case Op.RECORD:
+                                append(op.data);
+                                break;
+                            case Op.ROTATE:
+                                sync();
+                                channel.close();
+                                current = op.segment;
+                                channel = openSegment(current);
+                                break;
+                            case Op.CHECKPOINT:
+                                deleteBefore(op.segment);
+                                break;
+                            case Op.STOP:
+                                running = false;
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                    sync();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to write the shop journal; changes between saves are no longer journaled", e);
+                open = false;
+            } finally {
+                closeChannel();
+            }
+        }
+
+        private void append(byte[] payload) throws IOException {
+            if (buffer.remaining() < HEADER_SIZE + payload.length) {
+                sync();
+                if (buffer.capacity() < HEADER_SIZE + payload.length) {
+                    buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+                }
+            }
+            crc.reset();
+            crc.update(payload);
+            buffer.putInt(payload.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(payload);
+        }
+
+        private void sync() throws IOException {
+            if (buffer.position() == 0) {
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            channel.force(false);
+        }
+
+        private void deleteBefore(long segment) throws IOException {
+            for (long number : listSegments()) {
+                if (number < segment && number != current) {
+                    Files.deleteIfExists(segmentPath(number));
+                }
+            }
+        }
+
+        private FileChannel openSegment(long number) throws IOException {
+            return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private void closeChannel() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                boolean empty = channel.size() == 0;
+                channel.close();
+                if (empty) {
+                    Files.deleteIfExists(segmentPath(current));
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to close the shop journal", e);
+            }
+        }
+    }
+
+    /**
+     * A queued record or command for the writer thread
+     */
+    private static final class Op {
+        private static final int RECORD = 0;
+        private static final int ROTATE = 1;
+        private static final int CHECKPOINT = 2;
+        private static final int STOP = 3;
+        private static final Op STOP_COMMAND = new Op(STOP, null, 0);
+
+        private final int kind;
+        private final byte[] data;
+        private final long segment;
+
+        private Op(int kind, byte[] data, long segment) {
+            this.kind = kind;
+            this.data = data;
+            this.segment = segment;
+        }
+
+        private static Op record(byte[] data) {
+            return new Op(RECORD, data, 0);
+        }
+
+        private static Op rotate(long segment) {
+            return new Op(ROTATE, null, segment);
+        }
+
+        private static Op checkpoint(long segment) {
+            return new Op(CHECKPOINT, null, segment);
+        }
+    }
+}
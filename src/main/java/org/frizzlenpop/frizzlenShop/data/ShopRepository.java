@@ -0,0 +1,149 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.Material;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A storage backend for shops and their items. Exactly one repository is active at a time,
+ * selected by {@code database.type}.
+ * <p>
+ * Loading happens on the main thread during startup and reload. Saving and deleting happen on
+ * the save thread, from snapshots, never at the same time as loading. Items loaded on demand
+ * ({@link #loadItems(UUID)}) may be requested from either thread at any time.
+ */
+public interface ShopRepository {
+
+    /**
+     * Get the storage type, as used for {@code database.type}
+     *
+     * @return The storage type (yaml, sqlite or mysql)
+     */
+    String getType();
+
+    /**
+     * Load every stored shop with its items
+     *
+     * @return The shops; shops that fail to load are logged and skipped
+     */
+    List<Shop> loadAll();
+
+    /**
+     * Load every stored shop, leaving the items of player shops in storage where that saves
+     * memory; they are loaded with {@link #loadItems(UUID)} when first needed
+     *
+     * @return The shops; shops that fail to load are logged and skipped
+     */
+    List<Shop> loadHeaders();
+
+    /**
+     * Load the items of a single shop
+     *
+     * @param shopId The shop ID
+     * @return The items, empty if the shop isn't stored, or null if they couldn't be loaded
+     */
+    List<ShopItem> loadItems(UUID shopId);
+
+    /**
+     * Load a single shop with its items
+     *
+     * @param shopId The shop ID
+     * @return The shop, or null if it isn't stored or failed to load
+     */
+    Shop load(UUID shopId);
+
+    /**
+     * Store a batch of shop snapshots. A snapshot without fields only updates its items.
+     * Items missing from a snapshot with fields are removed.
+     *
+     * @param shops The snapshots to store
+     * @return True if the whole batch was stored, false if anything failed
+     */
+    boolean saveBatch(List<ShopSnapshot> shops);
+
+    /**
+     * Store a batch of shop snapshots in storage that other servers may write to as well. Rows
+     * another server changed since they were read are left alone, so neither change is lost;
+     * the caller merges the other server's change and saves again. Stored items another server
+     * changed after {@code seenChanges} are never removed.
+     * <p>
+     * Backends that aren't shared store the batch with {@link #saveBatch(List)}.
+     *
+     * @param shops       The snapshots to store
+     * @param seenChanges The position in the change feed the snapshots were captured at
+     * @return The IDs of the shops and items that were left alone, or null if anything failed
+     */
+    default Set<UUID> saveShared(List<ShopSnapshot> shops, long seenChanges) {
+        return saveBatch(shops) ? Collections.emptySet() : null;
+    }
+
+    /**
+     * Delete a shop and its items
+     *
+     * @param shopId The shop ID
+     * @return True if the shop is no longer stored
+     */
+    boolean delete(UUID shopId);
+
+    /**
+     * Delete every shop and item
+     *
+     * @return True if nothing is stored anymore
+     */
+    boolean deleteAll();
+
+    /**
+     * Find the stored shops in a chunk
+     *
+     * @param world  The world name
+     * @param chunkX The chunk X coordinate
+     * @param chunkZ The chunk Z coordinate
+     * @return The IDs of the shops, as of the last save
+     */
+    List<UUID> findShopsInChunk(String world, int chunkX, int chunkZ);
+
+    /**
+     * Find the stored shops in a rectangular region, at any height
+     *
+     * @param world The world name
+     * @param minX  The smallest block X coordinate, inclusive
+     * @param minZ  The smallest block Z coordinate, inclusive
+     * @param maxX  The largest block X coordinate, inclusive
+     * @param maxZ  The largest block Z coordinate, inclusive
+     * @return The IDs of the shops, as of the last save
+     */
+    List<UUID> findShopsInRegion(String world, int minX, int minZ, int maxX, int maxZ);
+
+    /**
+     * Find the stored shops that may sell any of some materials. Shops that don't are allowed in
+     * the result, for example when the backend doesn't index materials, but shops that do are
+     * never left out.
+     *
+     * @param materials The materials
+     * @return The IDs of the shops, as of the last save
+     */
+    List<UUID> findShopsSelling(Collection<Material> materials);
+
+    /**
+     * Pack chunk coordinates into a single number, the same way for every backend
+     *
+     * @param chunkX The chunk X coordinate
+     * @param chunkZ The chunk Z coordinate
+     * @return The chunk key
+     */
+    static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Release any resources held by the repository
+     */
+    default void close() {
+    }
+}
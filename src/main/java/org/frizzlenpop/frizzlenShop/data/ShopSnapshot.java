@@ -0,0 +1,374 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.Location;
+import org.frizzlenpop.frizzlenShop.shops.PlayerShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * An immutable copy of the persisted state of a shop, taken on the main thread
+ * so that it can be written from another thread.
+ * <p>
+ * A snapshot may be partial: if only some items changed, the shop's own fields are
+ * not captured ({@link #hasFields()} is false) and only the changed items are included.
+ */
+public final class ShopSnapshot {
+
+    private final Shop source;
+    private final long version;
+    private final long storedVersion;
+    private final UUID id;
+    private final boolean adminShop;
+    private final boolean hasFields;
+    private final String name;
+    private final UUID owner;
+    private final String description;
+    private final double taxRate;
+    private final boolean open;
+    private final String world;
+    private final double x;
+    private final double y;
+    private final double z;
+    private final float yaw;
+    private final float pitch;
+    private final Map<String, Double> stats;
+    private final long expirationTime;
+    private final boolean autoRenew;
+    private final Set<UUID> itemIds;
+    private final int itemCount;
+    private final List<ShopItemSnapshot> items;
+
+    private ShopSnapshot(Shop source, boolean hasFields, List<ShopItemSnapshot> items) {
+        this.source = source;
+        this.version = source.getVersion();
+        this.storedVersion = source.getStoredVersion();
+        this.id = source.getId();
+        this.adminShop = source.isAdminShop();
+        this.hasFields = hasFields;
+        this.items = Collections.unmodifiableList(items);
+
+        if (!hasFields) {
+            this.name = null;
+            this.owner = null;
+            this.description = null;
+            this.taxRate = 0;
+            this.open = true;
+            this.world = null;
+            this.x = this.y = this.z = 0;
+            this.yaw = this.pitch = 0;
+            this.stats = Collections.emptyMap();
+            this.expirationTime = 0;
+            this.autoRenew = false;
+            this.itemIds = null;
+            this.itemCount = 0;
+            return;
+        }
+
+        this.itemCount = source.getItemCount();
+
+        this.name = source.getName();
+        this.owner = source.getOwner();
+        this.description = source.getDescription();
+        this.taxRate = source.getTaxRate();
+        this.open = source.isOpen();
+
+        Location location = source.getLocation();
+        this.world = StoredLocation.getWorldName(location);
+        this.x = location != null ? location.getX() : 0;
+        this.y = location != null ? location.getY() : 0;
+        this.z = location != null ? location.getZ() : 0;
+        this.yaw = location != null ? location.getYaw() : 0;
+        this.pitch = location != null ? location.getPitch() : 0;
+
+        this.stats = Collections.unmodifiableMap(new HashMap<>(source.getStats()));
+
+        if (source instanceof PlayerShop) {
+            PlayerShop playerShop = (PlayerShop) source;
+            this.expirationTime = playerShop.getExpirationTime();
+            this.autoRenew = playerShop.isAutoRenewEnabled();
+        } else {
+            this.expirationTime = 0;
+            this.autoRenew = false;
+        }
+
+        if (!source.isItemsLoaded()) {
+            // Nothing can have been removed from items that were never loaded
+            this.itemIds = null;
+            return;
+        }
+        Set<UUID> ids = new HashSet<>();
+        for (ShopItem item : source.getItems()) {
+            ids.add(item.getId());
+        }
+        this.itemIds = Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Capture a shop and all of its items. Must be called on the main thread.
+     *
+     * @param shop The shop
+     * @return The snapshot
+     */
+    public static ShopSnapshot of(Shop shop) {
+        List<ShopItemSnapshot> items = new ArrayList<>();
+        for (ShopItem item : shop.getItems()) {
+            items.add(ShopItemSnapshot.of(item));
+        }
+        return new ShopSnapshot(shop, true, items);
+    }
+
+    /**
+     * Capture a shop and whichever of its items are loaded, without loading the rest. If the
+     * items aren't loaded, {@link #getItemIds()} is null and the items are only in storage.
+     * Must be called on the main thread.
+     *
+     * @param shop The shop
+     * @return The snapshot
+     */
+    public static ShopSnapshot ofLoaded(Shop shop) {
+        return shop.isItemsLoaded() ? of(shop) : new ShopSnapshot(shop, true, new ArrayList<>());
+    }
+
+    /**
+     * Capture whatever changed in a shop since it was last saved. Must be called on the main thread.
+     *
+     * @param shop The shop
+     * @return The snapshot, or null if nothing changed
+     */
+    public static ShopSnapshot ofChanges(Shop shop) {
+        List<ShopItemSnapshot> items = new ArrayList<>();
+        // Items that aren't loaded can't have changed; don't load them just to check
+        if (shop.isItemsLoaded()) {
+            for (ShopItem item : shop.getItems()) {
+                if (item.isDirty()) {
+                    items.add(ShopItemSnapshot.of(item));
+                }
+            }
+        }
+
+        if (!shop.isDirty() && items.isEmpty()) {
+            return null;
+        }
+        return new ShopSnapshot(shop, shop.isDirty(), items);
+    }
+
+    /**
+     * Record on the live shop that this snapshot's fields have been saved.
+     * Items are marked separately.
+     */
+    public void markSaved() {
+        if (hasFields) {
+            source.markSaved(version);
+        }
+    }
+
+    /**
+     * Record on the live shop the row version its fields were stored as
+     *
+     * @param storedVersion The version the row now has in storage
+     */
+    public void markStored(long storedVersion) {
+        if (hasFields) {
+            source.markStored(storedVersion, stats);
+        }
+    }
+
+    /**
+     * Get the version of the stored row the captured fields are based on
+     *
+     * @return The stored row version, or 0 if the shop isn't stored yet
+     */
+    public long getStoredVersion() {
+        return storedVersion;
+    }
+
+    /**
+     * Get the shop ID
+     *
+     * @return The shop ID
+     */
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * Check whether this is an admin shop
+     *
+     * @return True for admin shops
+     */
+    public boolean isAdminShop() {
+        return adminShop;
+    }
+
+    /**
+     * Check whether the shop's own fields were captured
+     *
+     * @return True if the fields below are set, false if only items changed
+     */
+    public boolean hasFields() {
+        return hasFields;
+    }
+
+    /**
+     * Get the shop name
+     *
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the shop owner
+     *
+     * @return The owner, or null for admin shops
+     */
+    public UUID getOwner() {
+        return owner;
+    }
+
+    /**
+     * Get the shop description
+     *
+     * @return The description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Get the shop tax rate
+     *
+     * @return The tax rate
+     */
+    public double getTaxRate() {
+        return taxRate;
+    }
+
+    /**
+     * Check whether the shop is open
+     *
+     * @return True if the shop is open
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Get the name of the shop's world
+     *
+     * @return The world name, or null if the shop has no valid location
+     */
+    public String getWorld() {
+        return world;
+    }
+
+    /**
+     * Get the X coordinate of the shop
+     *
+     * @return The X coordinate
+     */
+    public double getX() {
+        return x;
+    }
+
+    /**
+     * Get the Y coordinate of the shop
+     *
+     * @return The Y coordinate
+     */
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * Get the Z coordinate of the shop
+     *
+     * @return The Z coordinate
+     */
+    public double getZ() {
+        return z;
+    }
+
+    /**
+     * Get the yaw of the shop location
+     *
+     * @return The yaw
+     */
+    public float getYaw() {
+        return yaw;
+    }
+
+    /**
+     * Get the pitch of the shop location
+     *
+     * @return The pitch
+     */
+    public float getPitch() {
+        return pitch;
+    }
+
+    /**
+     * Get the shop stats
+     *
+     * @return An unmodifiable map of stats
+     */
+    public Map<String, Double> getStats() {
+        return stats;
+    }
+
+    /**
+     * Get the expiration time of a player shop
+     *
+     * @return The expiration time, or 0 for admin shops
+     */
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    /**
+     * Check whether a player shop renews automatically
+     *
+     * @return True if auto-renew is enabled
+     */
+    public boolean isAutoRenew() {
+        return autoRenew;
+    }
+
+    /**
+     * Get the IDs of every item in the shop, so removed items can be deleted
+     *
+     * @return The item IDs, or null if the shop's fields were not captured or its items
+     *         were not loaded; then no items are deleted
+     */
+    public Set<UUID> getItemIds() {
+        return itemIds;
+    }
+
+    /**
+     * Get the number of items the shop has, including items that weren't captured
+     *
+     * @return The item count, or 0 if the shop's fields were not captured
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Get the captured items
+     *
+     * @return Every item for a full snapshot, otherwise only the changed ones
+     */
+    public List<ShopItemSnapshot> getItems() {
+        return items;
+    }
+}
@@ -0,0 +1,809 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.Location;
+import org.bukkit.inventory.ItemStack;
+import org.frizzlenpop.frizzlenShop.shops.AdminShop;
+import org.frizzlenpop.frizzlenShop.shops.PlayerShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A portable binary snapshot of shops, their items and the market tables. Used by
+ * {@code /shopadmin export} and {@code /shopadmin import}, and as the cold-start cache.
+ * <p>
+ * A file starts with an uncompressed header {@code [magic][format version][created at][source][complete]}
+ * followed by a deflate-compressed stream of records framed as {@code [type][length][payload]}.
+ * Readers skip record types they don't know. The last record holds the number of records and a
+ * CRC32C over all of them, so a truncated or corrupted file is always detected.
+ * <p>
+ * Item records follow the shop record they belong to. A table record names a market table and
+ * its columns; the row records after it hold one row each.
+ * <p>
+ * Writers and readers hold a single record at a time, so memory use doesn't grow with the
+ * size of the snapshot.
+ */
+public final class SnapshotFile {
+
+    /**
+     * The file extension of snapshot files
+     */
+    public static final String EXTENSION = ".fzs";
+
+    private static final int MAGIC = 0x465A5353; // "FZSS"
+    private static final int FORMAT_VERSION = 1;
+    private static final byte END_RECORD = 0;
+    private static final byte SHOP_RECORD = 1;
+    private static final byte ITEM_RECORD = 2;
+    private static final byte TABLE_RECORD = 3;
+    private static final byte ROW_RECORD = 4;
+    private static final byte NULL_VALUE = 0;
+    private static final byte LONG_VALUE = 1;
+    private static final byte DOUBLE_VALUE = 2;
+    private static final byte STRING_VALUE = 3;
+    private static final byte BYTES_VALUE = 4;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Start writing a snapshot. The file only appears once {@link Writer#finish()} succeeds.
+     *
+     * @param file     The file to write
+     * @param source   The storage type the shops come from
+     * @param complete Whether every item will be included; incomplete snapshots can't be imported
+     * @return The writer
+     * @throws IOException If the file can't be created
+     */
+    public static Writer create(File file, String source, boolean complete) throws IOException {
+        return new Writer(file.toPath(), source, complete);
+    }
+
+    /**
+     * Start reading a snapshot
+     *
+     * @param file The file to read
+     * @return The reader
+     * @throws IOException If the file can't be opened or isn't a snapshot this version can read
+     */
+    public static Reader open(File file) throws IOException {
+        return new Reader(file.toPath());
+    }
+
+    /**
+     * Read a whole snapshot without decoding anything, to check that it is intact
+     *
+     * @param file The file to check
+     * @return The number of shops, items and table rows in the file
+     * @throws IOException If the file is truncated, corrupted or unreadable
+     */
+    public static Summary verify(File file) throws IOException {
+        Summary summary = new Summary();
+        try (Reader reader = open(file)) {
+            reader.raw = true;
+            Entry entry;
+            while ((entry = reader.next()) != null) {
+                summary.count(entry);
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, then moves it into place
+     */
+    public static final class Writer implements Closeable {
+        private final Path target;
+        private final Path temp;
+        private final FileChannel channel;
+        private final BufferedOutputStream file;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final DeflaterOutputStream compressed;
+        private final DataOutputStream out;
+        private final RecordBuffer record = new RecordBuffer();
+        private final DataOutputStream payload = new DataOutputStream(record);
+        private final CRC32C crc = new CRC32C();
+        private final Summary summary = new Summary();
+        private long records;
+        private boolean finished;
+
+        private Writer(Path target, String source, boolean complete) throws IOException {
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.file = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+
+            try {
+                DataOutputStream header = new DataOutputStream(file);
+                header.writeInt(MAGIC);
+                header.writeInt(FORMAT_VERSION);
+                header.writeLong(System.currentTimeMillis());
+                header.writeUTF(source);
+                header.writeBoolean(complete);
+            } catch (IOException e) {
+                channel.close();
+                Files.deleteIfExists(temp);
+                deflater.end();
+                throw e;
+            }
+
+            this.compressed = new DeflaterOutputStream(file, deflater, BUFFER_SIZE);
+            this.out = new DataOutputStream(compressed);
+        }
+
+        /**
+         * Write a shop. Its items must be written right after it.
+         *
+         * @param shop          The shop snapshot, with fields
+         * @param itemsIncluded Whether the shop's items follow; if not, they are only in storage
+         * @param itemCount     The number of items the shop has
+         * @throws IOException If an error occurs
+         */
+        public void writeShop(ShopSnapshot shop, boolean itemsIncluded, int itemCount) throws IOException {
+            writeUuid(shop.getId());
+            payload.writeBoolean(shop.isAdminShop());
+            payload.writeUTF(shop.getName());
+            writeNullableUuid(shop.getOwner());
+            writeNullableString(shop.getDescription());
+            payload.writeDouble(shop.getTaxRate());
+            payload.writeBoolean(shop.isOpen());
+            writeNullableString(shop.getWorld());
+            payload.writeDouble(shop.getX());
+            payload.writeDouble(shop.getY());
+            payload.writeDouble(shop.getZ());
+            payload.writeFloat(shop.getYaw());
+            payload.writeFloat(shop.getPitch());
+            payload.writeInt(shop.getStats().size());
+            for (Map.Entry<String, Double> stat : shop.getStats().entrySet()) {
+                payload.writeUTF(stat.getKey());
+                payload.writeDouble(stat.getValue());
+            }
+            payload.writeLong(shop.getExpirationTime());
+            payload.writeBoolean(shop.isAutoRenew());
+            payload.writeBoolean(itemsIncluded);
+            payload.writeInt(itemCount);
+            writeRecord(SHOP_RECORD);
+            summary.shops++;
+        }
+
+        /**
+         * Write an item of the shop written last
+         *
+         * @param item The item snapshot
+         * @throws IOException If an error occurs
+         */
+        public void writeItem(ShopItemSnapshot item) throws IOException {
+            writeUuid(item.getId());
+            writeUuid(item.getShopId());
+            byte[] data = item.getItem().serializeAsBytes();
+            payload.writeInt(data.length);
+            payload.write(data);
+            payload.writeDouble(item.getBuyPrice());
+            payload.writeDouble(item.getSellPrice());
+            writeNullableString(item.getCurrency());
+            payload.writeInt(item.getStock());
+            writeRecord(ITEM_RECORD);
+            summary.items++;
+        }
+
+        /**
+         * Write every row of a query result as a table
+         *
+         * @param table The table name, without the table prefix
+         * @param rs    The rows
+         * @return The number of rows written
+         * @throws IOException  If an error occurs writing
+         * @throws SQLException If an error occurs reading
+         */
+        public int writeTable(String table, ResultSet rs) throws IOException, SQLException {
+            ResultSetMetaData meta = rs.getMetaData();
+            int columns = meta.getColumnCount();
+            payload.writeUTF(table);
+            payload.writeShort(columns);
+            for (int i = 1; i <= columns; i++) {
+                payload.writeUTF(meta.getColumnLabel(i).toLowerCase(Locale.ROOT));
+            }
+            writeRecord(TABLE_RECORD);
+
+            int rows = 0;
+            while (rs.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    writeValue(rs.getObject(i));
+                }
+                writeRecord(ROW_RECORD);
+                rows++;
+            }
+            summary.rows += rows;
+            return rows;
+        }
+
+        /**
+         * Write the end record, sync the file to disk and move it into place
+         *
+         * @return The number of shops, items and table rows written
+         * @throws IOException If an error occurs
+         */
+        public Summary finish() throws IOException {
+            out.writeByte(END_RECORD);
+            out.writeLong(records);
+            out.writeInt((int) crc.getValue());
+            compressed.finish();
+            file.flush();
+            channel.force(true);
+            channel.close();
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            finished = true;
+            return summary;
+        }
+
+        /**
+         * Release the file. An unfinished snapshot is deleted.
+         *
+         * @throws IOException If an error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!finished) {
+                    channel.close();
+                    Files.deleteIfExists(temp);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private void writeRecord(byte type) throws IOException {
+            int length = record.size();
+            if (length > MAX_RECORD_SIZE) {
+                throw new IOException("Snapshot record of " + length + " bytes is too large");
+            }
+            out.writeByte(type);
+            out.writeInt(length);
+            out.write(record.buffer(), 0, length);
+            checksum(crc, type, length, record.buffer());
+            records++;
+            record.reset();
+        }
+
+        private void writeUuid(UUID uuid) throws IOException {
+            payload.writeLong(uuid.getMostSignificantBits());
+            payload.writeLong(uuid.getLeastSignificantBits());
+        }
+
+        private void writeNullableUuid(UUID uuid) throws IOException {
+            payload.writeBoolean(uuid != null);
+            if (uuid != null) {
+                writeUuid(uuid);
+            }
+        }
+
+        private void writeNullableString(String value) throws IOException {
+            payload.writeBoolean(value != null);
+            if (value != null) {
+                payload.writeUTF(value);
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                payload.writeByte(NULL_VALUE);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte || value instanceof BigInteger) {
+                payload.writeByte(LONG_VALUE);
+                payload.writeLong(((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                payload.writeByte(LONG_VALUE);
+                payload.writeLong((Boolean) value ? 1 : 0);
+            } else if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+                payload.writeByte(DOUBLE_VALUE);
+                payload.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                payload.writeByte(BYTES_VALUE);
+                payload.writeInt(bytes.length);
+                payload.write(bytes);
+            } else {
+                payload.writeByte(STRING_VALUE);
+                payload.writeUTF(value.toString());
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot one record at a time
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final Inflater inflater = new Inflater();
+        private final DataInputStream in;
+        private final long createdAt;
+        private final String source;
+        private final boolean complete;
+        private final CRC32C crc = new CRC32C();
+        private byte[] buffer = new byte[1024];
+        private TableEntry table;
+        private long records;
+        private boolean ended;
+        // Only check framing and checksums, without decoding records
+        private boolean raw;
+
+        private Reader(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                BufferedInputStream stream = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+                DataInputStream header = new DataInputStream(stream);
+                if (header.readInt() != MAGIC) {
+                    throw new IOException(file.getFileName() + " is not a FrizzlenShop snapshot");
+                }
+                int version = header.readInt();
+                if (version > FORMAT_VERSION) {
+                    throw new IOException("Snapshot format " + version + " is newer than this version supports (" + FORMAT_VERSION + ")");
+                }
+                this.createdAt = header.readLong();
+                this.source = header.readUTF();
+                this.complete = header.readBoolean();
+                this.in = new DataInputStream(new InflaterInputStream(stream, inflater, BUFFER_SIZE));
+            } catch (IOException e) {
+                channel.close();
+                inflater.end();
+                throw e;
+            }
+        }
+
+        /**
+         * Get when the snapshot was written
+         *
+         * @return The creation time in milliseconds since the epoch
+         */
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * Get the storage type the shops came from
+         *
+         * @return The storage type (yaml, sqlite or mysql)
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * Check whether every item is included. The cold-start cache leaves out items that
+         * were only in storage.
+         *
+         * @return True if the snapshot is complete
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Read the next record
+         *
+         * @return The record, or null after the last one
+         * @throws IOException If the file is truncated or corrupted
+         */
+        public Entry next() throws IOException {
+            while (!ended) {
+                byte type = in.readByte();
+                if (type == END_RECORD) {
+                    long count = in.readLong();
+                    int checksum = in.readInt();
+                    if (count != records || checksum != (int) crc.getValue()) {
+                        throw new IOException("Snapshot is corrupted (checksum mismatch)");
+                    }
+                    ended = true;
+                    return null;
+                }
+
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    throw new IOException("Snapshot is corrupted (record length " + length + ")");
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+                checksum(crc, type, length, buffer);
+                records++;
+
+                if (raw) {
+                    return new RawEntry(type);
+                }
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(buffer, 0, length));
+                switch (type) {
+                    case SHOP_RECORD:
+                        return readShop(payload);
+                    case ITEM_RECORD:
+                        return readItem(payload);
+                    case TABLE_RECORD:
+                        table = readTable(payload);
+                        return table;
+                    case ROW_RECORD:
+                        if (table == null) {
+                            throw new IOException("Snapshot is corrupted (row outside a table)");
+                        }
+                        return readRow(payload, table.columns.size());
+                    default:
+                        // Written by a newer version; readers skip what they don't know
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                inflater.end();
+            }
+        }
+
+        private ShopEntry readShop(DataInputStream payload) throws IOException {
+            ShopEntry shop = new ShopEntry();
+            shop.id = readUuid(payload);
+            shop.adminShop = payload.readBoolean();
+            shop.name = payload.readUTF();
+            shop.owner = payload.readBoolean() ? readUuid(payload) : null;
+            shop.description = payload.readBoolean() ? payload.readUTF() : null;
+            shop.taxRate = payload.readDouble();
+            shop.open = payload.readBoolean();
+            shop.world = payload.readBoolean() ? payload.readUTF() : null;
+            shop.x = payload.readDouble();
+            shop.y = payload.readDouble();
+            shop.z = payload.readDouble();
+            shop.yaw = payload.readFloat();
+            shop.pitch = payload.readFloat();
+            int stats = payload.readInt();
+            for (int i = 0; i < stats; i++) {
+                shop.stats.put(payload.readUTF(), payload.readDouble());
+            }
+            shop.expirationTime = payload.readLong();
+            shop.autoRenew = payload.readBoolean();
+            shop.itemsIncluded = payload.readBoolean();
+            shop.itemCount = payload.readInt();
+            return shop;
+        }
+
+        private ItemEntry readItem(DataInputStream payload) throws IOException {
+            ItemEntry item = new ItemEntry();
+            item.id = readUuid(payload);
+            item.shopId = readUuid(payload);
+            item.data = new byte[payload.readInt()];
+            payload.readFully(item.data);
+            item.buyPrice = payload.readDouble();
+            item.sellPrice = payload.readDouble();
+            item.currency = payload.readBoolean() ? payload.readUTF() : null;
+            item.stock = payload.readInt();
+            return item;
+        }
+
+        private TableEntry readTable(DataInputStream payload) throws IOException {
+            String name = payload.readUTF();
+            int columns = payload.readUnsignedShort();
+            List<String> names = new ArrayList<>(columns);
+            for (int i = 0; i < columns; i++) {
+                names.add(payload.readUTF());
+            }
+            return new TableEntry(name, names);
+        }
+
+        private RowEntry readRow(DataInputStream payload, int columns) throws IOException {
+            Object[] values = new Object[columns];
+            for (int i = 0; i < columns; i++) {
+                byte tag = payload.readByte();
+                switch (tag) {
+                    case NULL_VALUE:
+                        break;
+                    case LONG_VALUE:
+                        values[i] = payload.readLong();
+                        break;
+                    case DOUBLE_VALUE:
+                        values[i] = payload.readDouble();
+                        break;
+                    case STRING_VALUE:
+                        values[i] = payload.readUTF();
+                        break;
+                    case BYTES_VALUE:
+                        byte[] bytes = new byte[payload.readInt()];
+                        payload.readFully(bytes);
+                        values[i] = bytes;
+                        break;
+                    default:
+                        throw new IOException("Snapshot is corrupted (value type " + tag + ")");
+                }
+            }
+            return new RowEntry(values);
+        }
+
+        private UUID readUuid(DataInputStream payload) throws IOException {
+            return new UUID(payload.readLong(), payload.readLong());
+        }
+    }
+
+    /**
+     * A record read from a snapshot
+     */
+    public interface Entry {
+    }
+
+    /**
+     * A shop record
+     */
+    public static final class ShopEntry implements Entry {
+        private UUID id;
+        private boolean adminShop;
+        private String name;
+        private UUID owner;
+        private String description;
+        private double taxRate;
+        private boolean open;
+        private String world;
+        private double x;
+        private double y;
+        private double z;
+        private float yaw;
+        private float pitch;
+        private final Map<String, Double> stats = new LinkedHashMap<>();
+        private long expirationTime;
+        private boolean autoRenew;
+        private boolean itemsIncluded;
+        private int itemCount;
+
+        /**
+         * Get the shop ID
+         *
+         * @return The shop ID
+         */
+        public UUID getId() {
+            return id;
+        }
+
+        /**
+         * Check whether the shop's items follow this record
+         *
+         * @return True if the items are included
+         */
+        public boolean isItemsIncluded() {
+            return itemsIncluded;
+        }
+
+        /**
+         * Create the shop, without items. Player shops whose items aren't included are left
+         * with their items unloaded.
+         *
+         * @return The shop
+         */
+        public Shop toShop() {
+            Location location = StoredLocation.of(world, x, y, z, yaw, pitch);
+
+            Shop shop;
+            if (adminShop) {
+                shop = new AdminShop(id, name, location);
+            } else {
+                PlayerShop playerShop = new PlayerShop(id, name, owner, location);
+                playerShop.setExpirationTime(expirationTime);
+                playerShop.setAutoRenew(autoRenew);
+                if (!itemsIncluded) {
+                    playerShop.setItemsUnloaded(itemCount);
+                }
+                shop = playerShop;
+            }
+
+            shop.setDescription(description);
+            shop.setOpen(open);
+            shop.setTaxRate(taxRate);
+            shop.loadStats(stats);
+            return shop;
+        }
+    }
+
+    /**
+     * A shop item record
+     */
+    public static final class ItemEntry implements Entry {
+        private UUID id;
+        private UUID shopId;
+        private byte[] data;
+        private double buyPrice;
+        private double sellPrice;
+        private String currency;
+        private int stock;
+
+        /**
+         * Get the ID of the shop the item belongs to
+         *
+         * @return The shop ID
+         */
+        public UUID getShopId() {
+            return shopId;
+        }
+
+        /**
+         * Create the shop item
+         *
+         * @return The shop item
+         */
+        public ShopItem toShopItem() {
+            ItemStack item = ItemStack.deserializeBytes(data);
+            return new ShopItem(id, shopId, item, buyPrice, sellPrice, currency, stock);
+        }
+    }
+
+    /**
+     * A table record; the row records after it belong to this table
+     */
+    public static final class TableEntry implements Entry {
+        private final String name;
+        private final List<String> columns;
+
+        private TableEntry(String name, List<String> columns) {
+            this.name = name;
+            this.columns = Collections.unmodifiableList(columns);
+        }
+
+        /**
+         * Get the table name, without the table prefix
+         *
+         * @return The table name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the column names, in row order
+         *
+         * @return The lowercase column names
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+    }
+
+    /**
+     * A row of the table read last
+     */
+    public static final class RowEntry implements Entry {
+        private final Object[] values;
+
+        private RowEntry(Object[] values) {
+            this.values = values;
+        }
+
+        /**
+         * Get a column value
+         *
+         * @param column The column index, in the table's column order
+         * @return A Long, Double, String or byte[], or null
+         */
+        public Object getValue(int column) {
+            return values[column];
+        }
+    }
+
+    /**
+     * A record that was only checked, not decoded
+     */
+    private static final class RawEntry implements Entry {
+        private final byte type;
+
+        private RawEntry(byte type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * The number of records of each kind in a snapshot
+     */
+    public static final class Summary {
+        private int shops;
+        private int items;
+        private long rows;
+
+        /**
+         * Get the number of shops
+         *
+         * @return The shop count
+         */
+        public int getShops() {
+            return shops;
+        }
+
+        /**
+         * Get the number of shop items
+         *
+         * @return The item count
+         */
+        public int getItems() {
+            return items;
+        }
+
+        /**
+         * Get the number of market table rows
+         *
+         * @return The row count
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        private void count(Entry entry) {
+            byte type = entry instanceof RawEntry ? ((RawEntry) entry).type : -1;
+            if (type == SHOP_RECORD) {
+                shops++;
+            } else if (type == ITEM_RECORD) {
+                items++;
+            } else if (type == ROW_RECORD) {
+                rows++;
+            }
+        }
+    }
+
+    /**
+     * A byte array stream whose buffer can be read without copying
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        private RecordBuffer() {
+            super(256);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static void checksum(CRC32C crc, byte type, int length, byte[] data) {
+        crc.update(type);
+        crc.update(length >>> 24);
+        crc.update(length >>> 16);
+        crc.update(length >>> 8);
+        crc.update(length);
+        crc.update(data, 0, length);
+    }
+}
@@ -0,0 +1,70 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+
+/**
+ * A shop location read from storage. Worlds may only be looked up on the main thread, so a
+ * location read elsewhere keeps its world by name until {@link #resolveWorld(Location)} is
+ * called on the main thread. The name is also kept when the world isn't loaded, so saving the
+ * shop doesn't lose it.
+ */
+public class StoredLocation extends Location {
+
+    private final String worldName;
+
+    private StoredLocation(String worldName, double x, double y, double z, float yaw, float pitch) {
+        super(null, x, y, z, yaw, pitch);
+        this.worldName = worldName;
+    }
+
+    /**
+     * Create a location read from storage. On the main thread the world is looked up right away.
+     *
+     * @param worldName The world name, or null if there is none
+     * @param x         The X coordinate
+     * @param y         The Y coordinate
+     * @param z         The Z coordinate
+     * @param yaw       The yaw
+     * @param pitch     The pitch
+     * @return The location
+     */
+    public static Location of(String worldName, double x, double y, double z, float yaw, float pitch) {
+        if (worldName == null) {
+            return new Location(null, x, y, z, yaw, pitch);
+        }
+        StoredLocation location = new StoredLocation(worldName, x, y, z, yaw, pitch);
+        if (Bukkit.isPrimaryThread()) {
+            resolveWorld(location);
+        }
+        return location;
+    }
+
+    /**
+     * Look up the world of a location read from storage, if it wasn't yet. Must be called on the
+     * main thread.
+     *
+     * @param location The location, or null
+     */
+    public static void resolveWorld(Location location) {
+        if (location instanceof StoredLocation && location.getWorld() == null) {
+            location.setWorld(Bukkit.getWorld(((StoredLocation) location).worldName));
+        }
+    }
+
+    /**
+     * Get the name of a location's world, whether or not it was looked up yet
+     *
+     * @param location The location, or null
+     * @return The world name, or null if the location has no world
+     */
+    public static String getWorldName(Location location) {
+        if (location == null) {
+            return null;
+        }
+        if (location.getWorld() != null) {
+            return location.getWorld().getName();
+        }
+        return location instanceof StoredLocation ? ((StoredLocation) location).worldName : null;
+    }
+}
@@ -0,0 +1,731 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.shops.AdminShop;
+import org.frizzlenpop.frizzlenShop.shops.PlayerShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Stores shops as YAML, one file per shop ({@code shops/<id>.yml}).
+ * <p>
+ * The files are parsed once and kept in memory. A save only rewrites the files of the shops in
+ * the batch, in parallel on a small worker pool, each through a temporary file so a crash
+ * mid-write never leaves a truncated file. Files are also read in parallel, and a file that
+ * can't be parsed only costs its own shop.
+ * <p>
+ * Shops stored by older versions in a single {@code shops.yml} can be read with
+ * {@link #loadLegacyFile(File)}; the data manager imports them once.
+ */
+public class YamlShopRepository implements ShopRepository {
+
+    private static final String EXTENSION = ".yml";
+
+    private final FrizzlenShop plugin;
+    private final File directory;
+    // The parsed file of every stored shop
+    private final Map<UUID, YamlConfiguration> files = new HashMap<>();
+    private boolean parsed;
+    private ExecutorService workers;
+
+    /**
+     * Creates a new YAML shop repository
+     *
+     * @param plugin    The plugin instance
+     * @param directory The directory holding the shop files
+     */
+    public YamlShopRepository(FrizzlenShop plugin, File directory) {
+        this.plugin = plugin;
+        this.directory = directory;
+    }
+
+    @Override
+    public String getType() {
+        return "yaml";
+    }
+
+    /**
+     * Get the directory holding the shop files
+     *
+     * @return The directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized List<Shop> loadAll() {
+        List<Shop> shops = new ArrayList<>();
+        for (ParsedFile file : parseAll()) {
+            if (file.shop != null) {
+                shops.add(file.shop);
+            }
+        }
+        return shops;
+    }
+
+    /**
+     * Load every shop with its items. Every file is parsed into memory either way, so leaving
+     * items unloaded would save nothing.
+     *
+     * @return The shops
+     */
+    @Override
+    public List<Shop> loadHeaders() {
+        return loadAll();
+    }
+
+    @Override
+    public synchronized List<ShopItem> loadItems(UUID shopId) {
+        YamlConfiguration config = getFile(shopId);
+        return loadShopItems(shopId, config != null ? config.getConfigurationSection("items") : null);
+    }
+
+    @Override
+    public synchronized Shop load(UUID shopId) {
+        YamlConfiguration config = getFile(shopId);
+        return config != null ? loadShop(shopId.toString(), config) : null;
+    }
+
+    @Override
+    public synchronized boolean saveBatch(List<ShopSnapshot> shops) {
+        if (shops.isEmpty()) {
+            return true;
+        }
+        ensureParsed();
+
+        List<Future<Boolean>> writes = new ArrayList<>(shops.size());
+        ExecutorService pool = getWorkers();
+        for (ShopSnapshot shop : shops) {
+            // Each task only touches its own shop's file, so they need no locking
+            YamlConfiguration config = files.computeIfAbsent(shop.getId(), id -> new YamlConfiguration());
+            writes.add(pool.submit(() -> writeShop(shop, config)));
+        }
+
+        boolean complete = true;
+        for (Future<Boolean> write : writes) {
+            try {
+                complete &= write.get();
+            } catch (ExecutionException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to save a shop file", e.getCause());
+                complete = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return complete;
+    }
+
+    @Override
+    public synchronized boolean delete(UUID shopId) {
+        ensureParsed();
+        files.remove(shopId);
+        File file = fileOf(shopId);
+        if (file.exists() && !file.delete()) {
+            plugin.getLogger().warning("Failed to delete shop file " + file.getName());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteAll() {
+        files.clear();
+        parsed = true;
+        File[] shopFiles = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (shopFiles == null) {
+            return true;
+        }
+
+        boolean complete = true;
+        for (File file : shopFiles) {
+            if (!file.delete()) {
+                plugin.getLogger().warning("Failed to delete shop file " + file.getName());
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    @Override
+    public synchronized List<UUID> findShopsInChunk(String world, int chunkX, int chunkZ) {
+        return findShopsInRegion(world, chunkX << 4, chunkZ << 4, (chunkX << 4) + 15, (chunkZ << 4) + 15);
+    }
+
+    @Override
+    public synchronized List<UUID> findShopsInRegion(String world, int minX, int minZ, int maxX, int maxZ) {
+        ensureParsed();
+        List<UUID> found = new ArrayList<>();
+        for (Map.Entry<UUID, YamlConfiguration> entry : files.entrySet()) {
+            ConfigurationSection location = entry.getValue().getConfigurationSection("location");
+            if (location == null || !world.equals(location.getString("world"))) {
+                continue;
+            }
+            int x = (int) Math.floor(location.getDouble("x"));
+            int z = (int) Math.floor(location.getDouble("z"));
+            if (x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized List<UUID> findShopsSelling(Collection<Material> materials) {
+        // Items are loaded up front from these files, so there is nothing to narrow down
+        ensureParsed();
+        return new ArrayList<>(files.keySet());
+    }
+
+    /**
+     * Read the shops of a single {@code shops.yml}, the format older versions stored every
+     * shop in
+     *
+     * @param file The file
+     * @return The shops; shops that fail to load are logged and skipped
+     */
+    public List<Shop> loadLegacyFile(File file) {
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        List<Shop> shops = new ArrayList<>();
+
+        // Load admin shops
+        ConfigurationSection adminShopsSection = config.getConfigurationSection("admin-shops");
+        if (adminShopsSection != null) {
+            for (String key : adminShopsSection.getKeys(false)) {
+                Shop shop = loadAdminShop(key, adminShopsSection.getConfigurationSection(key));
+                if (shop != null) {
+                    shops.add(shop);
+                }
+            }
+        }
+
+        // Load player shops
+        ConfigurationSection playerShopsSection = config.getConfigurationSection("player-shops");
+        if (playerShopsSection != null) {
+            for (String key : playerShopsSection.getKeys(false)) {
+                Shop shop = loadPlayerShop(key, playerShopsSection.getConfigurationSection(key));
+                if (shop != null) {
+                    shops.add(shop);
+                }
+            }
+        }
+        return shops;
+    }
+
+    /**
+     * Stop the worker pool
+     */
+    @Override
+    public synchronized void close() {
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+    }
+
+    /**
+     * Parse every shop file in parallel and keep the parsed files
+     *
+     * @return The parsed files, in file name order
+     */
+    private List<ParsedFile> parseAll() {
+        files.clear();
+        parsed = true;
+        File[] shopFiles = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (shopFiles == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(shopFiles);
+
+        List<Future<ParsedFile>> reads = new ArrayList<>(shopFiles.length);
+        ExecutorService pool = getWorkers();
+        for (File file : shopFiles) {
+            reads.add(pool.submit(() -> parse(file)));
+        }
+
+        List<ParsedFile> result = new ArrayList<>(shopFiles.length);
+        for (Future<ParsedFile> read : reads) {
+            try {
+                ParsedFile file = read.get();
+                if (file != null) {
+                    files.put(file.id, file.config);
+                    result.add(file);
+                }
+            } catch (ExecutionException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to read a shop file", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parse one shop file and load its shop
+     *
+     * @param file The file
+     * @return The parsed file, or null if it isn't a shop file or can't be parsed
+     */
+    private ParsedFile parse(File file) {
+        String key = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+        UUID shopId;
+        try {
+            shopId = UUID.fromString(key);
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Ignoring " + file.getName() + " in " + directory.getName() + "; it isn't named after a shop ID.");
+            return null;
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (IOException | InvalidConfigurationException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to read shop file " + file.getName()
+                    + "; the shop is skipped until the file is fixed", e);
+            return null;
+        }
+        return new ParsedFile(shopId, config, loadShop(key, config));
+    }
+
+    /**
+     * Parse every shop file if that hasn't happened yet
+     */
+    private void ensureParsed() {
+        if (!parsed) {
+            parseAll();
+        }
+    }
+
+    /**
+     * Get the parsed file of a shop
+     *
+     * @param shopId The shop ID
+     * @return The parsed file, or null if the shop isn't stored
+     */
+    private YamlConfiguration getFile(UUID shopId) {
+        ensureParsed();
+        return files.get(shopId);
+    }
+
+    /**
+     * Get the file a shop is stored in
+     *
+     * @param shopId The shop ID
+     * @return The file
+     */
+    private File fileOf(UUID shopId) {
+        return new File(directory, shopId + EXTENSION);
+    }
+
+    /**
+     * Get the worker pool that reads and writes shop files, creating it on first use
+     *
+     * @return The worker pool
+     */
+    private ExecutorService getWorkers() {
+        if (workers == null) {
+            int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+            AtomicInteger counter = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "FrizzlenShop-Yaml-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return workers;
+    }
+
+    /**
+     * Load the shop stored in a shop file
+     *
+     * @param key    The shop ID
+     * @param config The parsed file
+     * @return The shop, or null if it is invalid
+     */
+    private Shop loadShop(String key, ConfigurationSection config) {
+        return "admin".equals(config.getString("type")) ? loadAdminShop(key, config) : loadPlayerShop(key, config);
+    }
+
+    /**
+     * Load an admin shop from its section
+     *
+     * @param key         The shop ID
+     * @param shopSection The shop's section
+     * @return The shop, or null if it is invalid
+     */
+    private Shop loadAdminShop(String key, ConfigurationSection shopSection) {
+        if (shopSection == null) {
+            return null;
+        }
+
+        try {
+            UUID shopId = UUID.fromString(key);
+            String name = shopSection.getString("name");
+            Location location = deserializeLocation(shopSection.getConfigurationSection("location"));
+
+            if (name == null || location == null) {
+                return null;
+            }
+
+            AdminShop shop = new AdminShop(shopId, name, location);
+            for (ShopItem shopItem : loadShopItems(shopId, shopSection.getConfigurationSection("items"))) {
+                shop.addItem(shopItem);
+            }
+
+            // Load additional properties
+            if (shopSection.contains("description")) {
+                shop.setDescription(shopSection.getString("description"));
+            }
+
+            if (shopSection.contains("tax-rate")) {
+                shop.setTaxRate(shopSection.getDouble("tax-rate"));
+            }
+
+            // Load stats
+            loadShopStats(shop, shopSection.getConfigurationSection("stats"));
+
+            plugin.getLogger().info("Loaded admin shop: " + name + " with ID: " + shopId);
+            return shop;
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load admin shop: " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Load a player shop from its section
+     *
+     * @param key         The shop ID
+     * @param shopSection The shop's section
+     * @return The shop, or null if it is invalid
+     */
+    private Shop loadPlayerShop(String key, ConfigurationSection shopSection) {
+        if (shopSection == null) {
+            return null;
+        }
+
+        try {
+            UUID shopId = UUID.fromString(key);
+            String name = shopSection.getString("name");
+            UUID owner = UUID.fromString(shopSection.getString("owner"));
+            Location location = deserializeLocation(shopSection.getConfigurationSection("location"));
+
+            if (name == null || owner == null || location == null) {
+                return null;
+            }
+
+            PlayerShop shop = new PlayerShop(shopId, name, owner, location);
+            for (ShopItem shopItem : loadShopItems(shopId, shopSection.getConfigurationSection("items"))) {
+                shop.addItem(shopItem);
+            }
+
+            // Load additional properties
+            if (shopSection.contains("description")) {
+                shop.setDescription(shopSection.getString("description"));
+            }
+
+            if (shopSection.contains("tax-rate")) {
+                shop.setTaxRate(shopSection.getDouble("tax-rate"));
+            }
+
+            if (shopSection.contains("expiration-time")) {
+                shop.setExpirationTime(shopSection.getLong("expiration-time"));
+            }
+
+            if (shopSection.contains("auto-renew")) {
+                shop.setAutoRenew(shopSection.getBoolean("auto-renew"));
+            }
+
+            // Load stats
+            loadShopStats(shop, shopSection.getConfigurationSection("stats"));
+
+            plugin.getLogger().info("Loaded player shop: " + name + " with ID: " + shopId);
+            return shop;
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load player shop: " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Load shop items from storage
+     *
+     * @param shopId       The ID of the shop to load items for
+     * @param itemsSection The configuration section containing items
+     * @return The items
+     */
+    private List<ShopItem> loadShopItems(UUID shopId, ConfigurationSection itemsSection) {
+        List<ShopItem> items = new ArrayList<>();
+        if (itemsSection == null) {
+            return items;
+        }
+
+        for (String key : itemsSection.getKeys(false)) {
+            try {
+                ConfigurationSection itemSection = itemsSection.getConfigurationSection(key);
+                if (itemSection != null) {
+                    ItemStack item = itemSection.getItemStack("item");
+                    double buyPrice = itemSection.getDouble("buy-price");
+                    double sellPrice = itemSection.getDouble("sell-price");
+                    String currency = itemSection.getString("currency", plugin.getEconomyManager().getDefaultCurrency());
+                    int stock = itemSection.getInt("stock");
+
+                    if (item != null) {
+                        // Create the shop item with the shop's ID
+                        UUID itemId = UUID.fromString(key);
+                        ShopItem shopItem = new ShopItem(itemId, shopId, item, buyPrice, sellPrice, currency, stock);
+
+                        // Explicitly set the shop ID to ensure it's not null
+                        shopItem.setShopId(shopId);
+
+                        items.add(shopItem);
+                    }
+                }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to load shop item: " + key, e);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Load shop stats from storage
+     *
+     * @param shop        The shop to load stats for
+     * @param statsSection The configuration section containing stats
+     */
+    private void loadShopStats(Shop shop, ConfigurationSection statsSection) {
+        if (statsSection == null) {
+            return;
+        }
+
+        Map<String, Double> stats = new HashMap<>();
+        for (String key : statsSection.getKeys(false)) {
+            try {
+                stats.put(key, statsSection.getDouble(key));
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to load shop stat: " + key, e);
+            }
+        }
+        shop.loadStats(stats);
+    }
+
+    /**
+     * Write a shop snapshot to its parsed file, then write the file
+     *
+     * @param shop   The shop snapshot
+     * @param config The shop's parsed file
+     * @return True if the file was written
+     */
+    private boolean writeShop(ShopSnapshot shop, YamlConfiguration config) {
+        try {
+            config.set("type", shop.isAdminShop() ? "admin" : "player");
+            ConfigurationSection itemsSection = config.getConfigurationSection("items");
+            if (itemsSection == null) {
+                itemsSection = config.createSection("items");
+            }
+
+            if (shop.hasFields()) {
+                writeShopFields(shop, config);
+
+                // Items can only have been removed if the shop itself changed
+                if (shop.getItemIds() != null) {
+                    removeDeletedItems(shop, itemsSection);
+                }
+            }
+
+            for (ShopItemSnapshot shopItem : shop.getItems()) {
+                // Use the item's UUID as the section key for consistency with loading
+                ConfigurationSection itemSection = itemsSection.createSection(shopItem.getId().toString());
+                itemSection.set("item", shopItem.getItem());
+                itemSection.set("buy-price", shopItem.getBuyPrice());
+                itemSection.set("sell-price", shopItem.getSellPrice());
+                itemSection.set("currency", shopItem.getCurrency());
+                itemSection.set("stock", shopItem.getStock());
+                // Save the shop ID for additional verification
+                itemSection.set("shop-id", shopItem.getShopId().toString());
+            }
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to save " + (shop.isAdminShop() ? "admin" : "player")
+                    + " shop: " + shop.getId(), e);
+            return false;
+        }
+        return writeFile(fileOf(shop.getId()), config);
+    }
+
+    /**
+     * Write the shop's own fields (everything except its items)
+     *
+     * @param shop        The shop snapshot
+     * @param shopSection The shop's configuration section
+     */
+    private void writeShopFields(ShopSnapshot shop, ConfigurationSection shopSection) {
+        shopSection.set("name", shop.getName());
+        if (!shop.isAdminShop()) {
+            shopSection.set("owner", shop.getOwner().toString());
+        }
+        shopSection.set("description", shop.getDescription());
+        shopSection.set("tax-rate", shop.getTaxRate());
+
+        // Save location
+        serializeLocation(shop, shopSection.createSection("location"));
+
+        // Save stats
+        ConfigurationSection statsSection = shopSection.createSection("stats");
+        for (Map.Entry<String, Double> entry : shop.getStats().entrySet()) {
+            statsSection.set(entry.getKey(), entry.getValue());
+        }
+
+        // Save player shop specific fields
+        if (!shop.isAdminShop()) {
+            shopSection.set("expiration-time", shop.getExpirationTime());
+            shopSection.set("auto-renew", shop.isAutoRenew());
+        }
+    }
+
+    /**
+     * Remove sections of items that are no longer in a shop
+     *
+     * @param shop         The shop snapshot
+     * @param itemsSection The shop's items section
+     */
+    private void removeDeletedItems(ShopSnapshot shop, ConfigurationSection itemsSection) {
+        for (String key : itemsSection.getKeys(false)) {
+            boolean present;
+            try {
+                present = shop.getItemIds().contains(UUID.fromString(key));
+            } catch (IllegalArgumentException e) {
+                present = false;
+            }
+
+            if (!present) {
+                itemsSection.set(key, null);
+            }
+        }
+    }
+
+    /**
+     * Write a file through a temporary file, so a crash mid-write never leaves a truncated file
+     *
+     * @param file   The file
+     * @param config The contents
+     * @return True if the file was written
+     */
+    private boolean writeFile(File file, YamlConfiguration config) {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+
+        try {
+            Files.createDirectories(target.getParent());
+
+            byte[] data = config.saveToString().getBytes(StandardCharsets.UTF_8);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to save shop file " + file.getName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * A shop file read by {@link #parseAll()}
+     */
+    private static final class ParsedFile {
+        private final UUID id;
+        private final YamlConfiguration config;
+        private final Shop shop;
+
+        private ParsedFile(UUID id, YamlConfiguration config, Shop shop) {
+            this.id = id;
+            this.config = config;
+            this.shop = shop;
+        }
+    }
+
+    /**
+     * Serialize a shop's location to a configuration section
+     *
+     * @param shop    The shop snapshot
+     * @param section The section to serialize to
+     */
+    private void serializeLocation(ShopSnapshot shop, ConfigurationSection section) {
+        if (shop.getWorld() != null) {
+            section.set("world", shop.getWorld());
+            section.set("x", shop.getX());
+            section.set("y", shop.getY());
+            section.set("z", shop.getZ());
+            section.set("yaw", shop.getYaw());
+            section.set("pitch", shop.getPitch());
+        }
+    }
+
+    /**
+     * Deserialize a location from a configuration section
+     *
+     * @param section The section to deserialize from
+     * @return The deserialized location
+     */
+    private Location deserializeLocation(ConfigurationSection section) {
+        if (section == null) {
+            return null;
+        }
+
+        String worldName = section.getString("world");
+        if (worldName == null) {
+            return null;
+        }
+
+        double x = section.getDouble("x");
+        double y = section.getDouble("y");
+        double z = section.getDouble("z");
+        float yaw = (float) section.getDouble("yaw");
+        float pitch = (float) section.getDouble("pitch");
+
+        return StoredLocation.of(worldName, x, y, z, yaw, pitch);
+    }
+}
@@ -1,6 +1,5 @@
 package org.frizzlenpop.frizzlenShop.economy;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.command.CommandSender;
 import org.bukkit.inventory.ItemStack;
@@ -9,11 +8,13 @@ import org.frizzlenpop.frizzlenShop.FrizzlenShop;
 import org.frizzlenpop.frizzlenShop.shops.AdminShop;
 import org.frizzlenpop.frizzlenShop.shops.Shop;
 import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.utils.AsyncDatabase;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Manages dynamic pricing for shop items
@@ -243,7 +244,8 @@ public class DynamicPricingManager {
     }
     
     /**
-     * Gets the trending items in the market
+     * Gets the trending items in the market. Reads the database, so call it off the main thread
+     * (e.g. through {@link AsyncDatabase#supply}).
      * 
      * @param limit The maximum number of trending items to return
      * @return A map of materials to their trend values (positive = rising price, negative = falling price)
@@ -256,7 +258,7 @@ public class DynamicPricingManager {
     }
     
     /**
-     * Gets the trend value for a specific material
+     * Gets the trend value for a specific material. Reads the database, so call it off the main thread
      * 
      * @param material The material to check
      * @return The trend value (positive = rising price, negative = falling price), or 0 if not available
@@ -280,17 +282,22 @@ public class DynamicPricingManager {
     
     /**
      * Updates the base prices of admin shop items based on dynamic pricing calculations
-     * This ensures that admin shop prices reflect market trends over time
+     * This ensures that admin shop prices reflect market trends over time.
+     * Prices are worked out on the main thread from the cached market data, once it is loaded;
+     * the trends are cleared on a database thread afterwards.
+     *
+     * @return A future that completes on the main thread once the prices are updated
      */
-    public void updateAdminShopPrices() {
+    public CompletableFuture<Void> updateAdminShopPrices() {
         if (!isEnabled || marketAnalyzer == null) {
-            return;
+            return CompletableFuture.completedFuture(null);
         }
         
         plugin.getLogger().info("Updating admin shop prices based on dynamic pricing...");
         
         // Use the main thread to update shops
-        Bukkit.getScheduler().runTask(plugin, () -> {
+        AsyncDatabase async = plugin.getDatabaseManager().getAsync();
+        return marketAnalyzer.loadMarketDataAsync().thenRunAsync(() -> {
             int updatedCount = 0;
             double totalPriceChange = 0;
             
@@ -326,19 +333,17 @@ public class DynamicPricingManager {
                         item.setBuyPrice(newBuyPrice);
                         item.setSellPrice(newSellPrice);
                         
-                        try {
-                            // Save the item to the database
-                            plugin.getDatabaseManager().saveShopItem(item);
-                            
-                            updatedCount++;
-                            totalPriceChange += buyPriceChange;
-                        } catch (Exception e) {
-                            plugin.getLogger().warning("Failed to save shop item to database: " + e.getMessage());
-                        }
+                        updatedCount++;
+                        totalPriceChange += buyPriceChange;
                     }
                 }
             }
             
+            // Save the changed items in the background
+            if (updatedCount > 0) {
+                plugin.getDataManager().saveData();
+            }
+            
             // Calculate the average price change percentage
             double avgPriceChange = updatedCount > 0 ? (totalPriceChange / updatedCount) * 100 : 0;
             
@@ -346,10 +351,14 @@ public class DynamicPricingManager {
                 + String.format("%.2f", avgPriceChange) + "%");
             
             // Clear market trends after price update
-            if (marketAnalyzer != null && updatedCount > 0) {
-                marketAnalyzer.clearTrendData();
-                plugin.getLogger().info("Market trends cleared after price update");
+            MarketAnalyzer analyzer = marketAnalyzer;
+            if (analyzer != null && updatedCount > 0) {
+                async.submit(() -> {
+                    analyzer.clearTrendData();
+                    plugin.getLogger().info("Market trends cleared after price update");
+                    return null;
+                });
             }
-        });
+        }, async.mainThread());
     }
 } 
\ No newline at end of file
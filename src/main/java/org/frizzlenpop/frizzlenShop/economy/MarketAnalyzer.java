@@ -1,26 +1,36 @@
 package org.frizzlenpop.frizzlenShop.economy;
 
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 import org.frizzlenpop.frizzlenShop.FrizzlenShop;
 import org.frizzlenpop.frizzlenShop.shops.ShopItem;
 import org.frizzlenpop.frizzlenShop.utils.DatabaseManager;
+import org.frizzlenpop.frizzlenShop.utils.SqlDialect;
+import org.frizzlenpop.frizzlenShop.utils.UuidBytes;
 import org.frizzlenpop.frizzlenShop.config.ConfigManager;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 /**
- * Analyzes market trends and calculates dynamic prices based on supply and demand
+ * Analyzes market trends and calculates dynamic prices based on supply and demand.
+ * <p>
+ * Market data for every traded material is kept in memory, loaded in one query on a database
+ * thread and reloaded after each analysis, so pricing on the main thread never waits for the
+ * database. Trades are written to the market tables on a database thread as well.
  */
 public class MarketAnalyzer {
 
@@ -28,10 +38,26 @@ public class MarketAnalyzer {
     private final DatabaseManager databaseManager;
     private final ConfigManager configManager;
     
-    // Cache market data for performance
-    private Map<Material, MarketData> marketDataCache;
+    // Cache market data for performance; replaced as a whole when the table is reloaded
+    private volatile Map<Material, MarketData> marketDataCache;
+    // Whether the cache holds the whole table, so a material missing from it has no data
+    private volatile boolean marketDataLoaded;
+    private CompletableFuture<Void> marketDataLoad;
     private Map<UUID, ItemTransactionData> itemTransactionCache;
     
+    // SQL for the trade path, built once; the pooled connections cache the prepared statements
+    private final String upsertItemBuy;
+    private final String upsertItemSell;
+    private final String upsertTrendBuy;
+    private final String upsertTrendSell;
+    private final String selectMarketData;
+    private final String selectAllMarketData;
+    private final String selectItemData;
+    private final String selectMaterials;
+    private final String updateNormalizedTrend;
+    private final String selectTrendSummary;
+    private final String resetTrends;
+    
     // Recent transaction tracking
     private Map<Material, Integer> recentBuys = new ConcurrentHashMap<>();
     private Map<Material, Integer> recentSells = new ConcurrentHashMap<>();
@@ -61,6 +87,26 @@ public class MarketAnalyzer {
         this.marketDataCache = new ConcurrentHashMap<>();
         this.itemTransactionCache = new ConcurrentHashMap<>();
         
+        String prefix = databaseManager.getTablePrefix();
+        this.upsertItemBuy = buildItemTransactionUpsert(prefix, true);
+        this.upsertItemSell = buildItemTransactionUpsert(prefix, false);
+        this.upsertTrendBuy = buildMarketTrendUpsert(prefix, true);
+        this.upsertTrendSell = buildMarketTrendUpsert(prefix, false);
+        // Materials are stored by ID; names come from the lookup table
+        String materials = databaseManager.getMaterialIds().getTable();
+        this.selectMarketData = "SELECT * FROM " + prefix + "market_trends WHERE material_id = ?";
+        this.selectAllMarketData = "SELECT t.*, m.name AS material FROM " + prefix + "market_trends t " +
+                "JOIN " + materials + " m ON m.id = t.material_id";
+        this.selectItemData = "SELECT t.*, m.name AS material FROM " + prefix + "item_transactions t " +
+                "JOIN " + materials + " m ON m.id = t.material_id WHERE t.item_id = ?";
+        this.selectMaterials = "SELECT m.name AS material FROM " + prefix + "market_trends t " +
+                "JOIN " + materials + " m ON m.id = t.material_id";
+        this.updateNormalizedTrend = "UPDATE " + prefix + "market_trends SET " +
+                "demand_index = ?, supply_index = ?, last_updated = ? WHERE material_id = ?";
+        this.selectTrendSummary = "SELECT m.name AS material, t.demand_index, t.supply_index FROM " + prefix + "market_trends t " +
+                "JOIN " + materials + " m ON m.id = t.material_id";
+        this.resetTrends = "UPDATE " + prefix + "market_trends SET demand_index = 1.0, supply_index = 1.0";
+        
         // Load config values
         this.volatilityMultiplier = configManager.getVolatilityMultiplier();
         this.maxPriceChange = configManager.getMaxPriceChange();
@@ -70,54 +116,19 @@ public class MarketAnalyzer {
         this.fluctuationEnabled = configManager.isPriceFluctuationEnabled();
         this.fluctuationMagnitude = configManager.getFluctuationMagnitude();
         
-        // Initialize the database tables
-        initializeDatabase();
-        
         // Log initialization
         plugin.getLogger().info("Market analyzer initialized with volatility: " + volatilityMultiplier + 
                                 ", max price change: " + maxPriceChange +
                                 ", analysis interval: " + analysisIntervalMinutes + " minutes" +
                                 ", fluctuation: " + (fluctuationEnabled ? "enabled" : "disabled"));
+        
+        // Fill the cache before the first trade needs it
+        loadMarketDataAsync();
     }
     
     /**
-     * Initializes the database tables required for market analysis
-     */
-    private void initializeDatabase() {
-        try {
-            // Create market_trends table
-            String createMarketTrendsTable = "CREATE TABLE IF NOT EXISTS " 
-                + databaseManager.getTablePrefix() + "market_trends ("
-                + "material VARCHAR(64) PRIMARY KEY, "
-                + "demand_index DOUBLE, "
-                + "supply_index DOUBLE, "
-                + "volatility DOUBLE, "
-                + "last_updated BIGINT)";
-            
-            // Create item_transactions table
-            String createItemTransactionsTable = "CREATE TABLE IF NOT EXISTS " 
-                + databaseManager.getTablePrefix() + "item_transactions ("
-                + "item_id VARCHAR(36) PRIMARY KEY, "
-                + "material VARCHAR(64), "
-                + "buy_count INT, "
-                + "sell_count INT, "
-                + "last_buy_time BIGINT, "
-                + "last_sell_time BIGINT, "
-                + "price_adjustment_factor DOUBLE)";
-            
-            // Execute queries
-            Connection conn = databaseManager.getConnection();
-            databaseManager.executeUpdate(conn, createMarketTrendsTable);
-            databaseManager.executeUpdate(conn, createItemTransactionsTable);
-            conn.close();
-            
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to initialize market analyzer database tables", e);
-        }
-    }
-    
-    /**
-     * Records a transaction for market analysis
+     * Records a transaction for market analysis. The market tables are updated on a database
+     * thread, so this is safe to call from the main thread.
      * 
      * @param item The shop item that was transacted
      * @param quantity The quantity that was transacted
@@ -130,12 +141,40 @@ public class MarketAnalyzer {
         
         UUID itemId = item.getId();
         Material material = item.getItem().getType();
-        String materialName = material.toString();
+        // Read the item on this thread; it may change before the write runs
+        Map<Material, Integer> components = item.isCrafted() ? item.getCraftingComponents() : null;
+        double componentMultiplier = item.getCraftingMultiplier();
+        
+        // Cache this transaction in memory for quick access
+        if (material.isBlock() || material.isItem()) {
+            synchronized (this) {
+                if (isBuy) {
+                    recentBuys.put(material, recentBuys.getOrDefault(material, 0) + quantity);
+                } else {
+                    recentSells.put(material, recentSells.getOrDefault(material, 0) + quantity);
+                }
+            }
+        }
         
-        // Record the transaction for this item
-        try {
-            Connection conn = databaseManager.getConnection();
-            
+        databaseManager.getAsync().submit(() -> {
+            writeTransaction(itemId, material, components, componentMultiplier, quantity, isBuy);
+            return null;
+        });
+    }
+    
+    /**
+     * Writes a transaction to the market tables
+     * 
+     * @param itemId The UUID of the shop item
+     * @param material The material of the item
+     * @param components The crafting components of the item, or null if it isn't crafted
+     * @param componentMultiplier How strongly the transaction affects the components
+     * @param quantity The quantity that was transacted
+     * @param isBuy Whether this was a buy transaction
+     */
+    private void writeTransaction(UUID itemId, Material material, Map<Material, Integer> components,
+                                  double componentMultiplier, int quantity, boolean isBuy) {
+        try (Connection conn = databaseManager.getConnection()) {
             // Update item transaction data
             updateItemTransactionData(conn, itemId, material, quantity, isBuy);
             
@@ -143,10 +182,7 @@ public class MarketAnalyzer {
             updateMarketTrends(conn, material, quantity, isBuy);
             
             // Propagate effects to components if this is a crafted item
-            if (item.isCrafted()) {
-                Map<Material, Integer> components = item.getCraftingComponents();
-                double componentMultiplier = item.getCraftingMultiplier();
-                
+            if (components != null) {
                 for (Map.Entry<Material, Integer> entry : components.entrySet()) {
                     Material componentMaterial = entry.getKey();
                     int componentQuantity = entry.getValue() * quantity;
@@ -161,19 +197,13 @@ public class MarketAnalyzer {
                 }
             }
             
-            conn.close();
-            
-            // Cache this transaction in memory for quick access
-            if (material.isBlock() || material.isItem()) {
-                synchronized (this) {
-                    if (isBuy) {
-                        recentBuys.put(material, recentBuys.getOrDefault(material, 0) + quantity);
-                    } else {
-                        recentSells.put(material, recentSells.getOrDefault(material, 0) + quantity);
-                    }
+            // A material's first trade creates its market data
+            if (!marketDataCache.containsKey(material)) {
+                MarketData data = readMarketData(conn, material);
+                if (data != null) {
+                    marketDataCache.put(material, data);
                 }
             }
-            
         } catch (SQLException e) {
             plugin.getLogger().severe("Error recording transaction: " + e.getMessage());
         }
@@ -190,42 +220,19 @@ public class MarketAnalyzer {
      * @throws SQLException If a database error occurs
      */
     private void updateItemTransactionData(Connection conn, UUID itemId, Material material, int quantity, boolean isBuy) throws SQLException {
-        // Check if item already exists in database
-        String query = "SELECT * FROM " + databaseManager.getTablePrefix() + "item_transactions WHERE item_id = ?";
-        PreparedStatement ps = conn.prepareStatement(query);
-        ps.setString(1, itemId.toString());
-        ResultSet rs = ps.executeQuery();
-        
-        if (rs.next()) {
-            // Update existing entry
-            String update = "UPDATE " + databaseManager.getTablePrefix() + "item_transactions SET "
-                + (isBuy ? "buy_count = buy_count + ?, last_buy_time = ?" : "sell_count = sell_count + ?, last_sell_time = ?")
-                + " WHERE item_id = ?";
-            PreparedStatement updatePs = conn.prepareStatement(update);
-            updatePs.setInt(1, quantity);
-            updatePs.setLong(2, System.currentTimeMillis());
-            updatePs.setString(3, itemId.toString());
-            updatePs.executeUpdate();
-            updatePs.close();
-        } else {
-            // Insert new entry
-            String insert = "INSERT INTO " + databaseManager.getTablePrefix() + "item_transactions "
-                + "(item_id, material, buy_count, sell_count, last_buy_time, last_sell_time, price_adjustment_factor) "
-                + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement insertPs = conn.prepareStatement(insert);
-            insertPs.setString(1, itemId.toString());
-            insertPs.setString(2, material.toString());
-            insertPs.setInt(3, isBuy ? quantity : 0);
-            insertPs.setInt(4, isBuy ? 0 : quantity);
-            insertPs.setLong(5, isBuy ? System.currentTimeMillis() : 0);
-            insertPs.setLong(6, isBuy ? 0 : System.currentTimeMillis());
-            insertPs.setDouble(7, 1.0); // Start with neutral adjustment factor
-            insertPs.executeUpdate();
-            insertPs.close();
+        long now = System.currentTimeMillis();
+        
+        String upsert = isBuy ? upsertItemBuy : upsertItemSell;
+        try (PreparedStatement ps = conn.prepareStatement(upsert)) {
+            ps.setBytes(1, UuidBytes.toBytes(itemId));
+            ps.setInt(2, databaseManager.getMaterialIds().getId(conn, material.toString()));
+            ps.setInt(3, isBuy ? quantity : 0);
+            ps.setInt(4, isBuy ? 0 : quantity);
+            ps.setLong(5, isBuy ? now : 0);
+            ps.setLong(6, isBuy ? 0 : now);
+            ps.setDouble(7, 1.0); // Start with neutral adjustment factor
+            ps.executeUpdate();
         }
-        
-        rs.close();
-        ps.close();
     }
     
     /**
@@ -241,69 +248,71 @@ public class MarketAnalyzer {
         String materialName = material.toString();
         long currentTime = System.currentTimeMillis();
         
-        // Check if material already exists in database
-        String query = "SELECT * FROM " + databaseManager.getTablePrefix() + "market_trends WHERE material = ?";
-        PreparedStatement ps = conn.prepareStatement(query);
-        ps.setString(1, materialName);
-        ResultSet rs = ps.executeQuery();
-        
-        if (rs.next()) {
-            // Update existing entry
-            double demandIndex = rs.getDouble("demand_index");
-            double supplyIndex = rs.getDouble("supply_index");
-            
-            // Adjust indices based on transaction
-            if (isBuy) {
-                // Buying increases demand
-                demandIndex = Math.min(2.0, demandIndex + (quantity * 0.01));
-                
-                // If demand is high, supply might decrease slightly
-                supplyIndex = Math.max(0.5, supplyIndex - (quantity * 0.002));
-            } else {
-                // Selling increases supply
-                supplyIndex = Math.min(2.0, supplyIndex + (quantity * 0.01));
-                
-                // If supply is high, demand might decrease slightly
-                demandIndex = Math.max(0.5, demandIndex - (quantity * 0.002));
-            }
-            
-            // Update database
-            String update = "UPDATE " + databaseManager.getTablePrefix() + "market_trends SET "
-                + "demand_index = ?, supply_index = ?, last_updated = ? WHERE material = ?";
-            PreparedStatement updatePs = conn.prepareStatement(update);
-            updatePs.setDouble(1, demandIndex);
-            updatePs.setDouble(2, supplyIndex);
-            updatePs.setLong(3, currentTime);
-            updatePs.setString(4, materialName);
-            updatePs.executeUpdate();
-            updatePs.close();
+        // A new entry starts neutral and is adjusted by the first transaction
+        double demandIndex = 1.0;
+        double supplyIndex = 1.0;
+        if (isBuy) {
+            demandIndex += (quantity * 0.01);
         } else {
-            // Insert new entry with default values
-            double demandIndex = 1.0; // Neutral demand
-            double supplyIndex = 1.0; // Neutral supply
-            
-            // Adjust based on the first transaction
-            if (isBuy) {
-                demandIndex += (quantity * 0.01);
-            } else {
-                supplyIndex += (quantity * 0.01);
-            }
-            
-            String insert = "INSERT INTO " + databaseManager.getTablePrefix() + "market_trends "
-                + "(material, demand_index, supply_index, volatility, last_updated) "
-                + "VALUES (?, ?, ?, ?, ?)";
-            PreparedStatement insertPs = conn.prepareStatement(insert);
-            insertPs.setString(1, materialName);
-            insertPs.setDouble(2, demandIndex);
-            insertPs.setDouble(3, supplyIndex);
-            insertPs.setDouble(4, DEFAULT_VOLATILITY);
-            insertPs.setLong(5, currentTime);
-            insertPs.executeUpdate();
-            insertPs.close();
+            supplyIndex += (quantity * 0.01);
         }
         
-        rs.close();
-        ps.close();
+        String upsert = isBuy ? upsertTrendBuy : upsertTrendSell;
+        try (PreparedStatement ps = conn.prepareStatement(upsert)) {
+            ps.setInt(1, databaseManager.getMaterialIds().getId(conn, materialName));
+            ps.setDouble(2, demandIndex);
+            ps.setDouble(3, supplyIndex);
+            ps.setDouble(4, DEFAULT_VOLATILITY);
+            ps.setLong(5, currentTime);
+            ps.setDouble(6, quantity * 0.01);
+            ps.setDouble(7, quantity * 0.002);
+            ps.executeUpdate();
+        }
+    }
+    
+    /**
+     * Builds the upsert for the item transaction counters
+     * 
+     * @param prefix The table prefix
+     * @param isBuy Whether the upsert records a buy transaction
+     * @return The SQL statement
+     */
+    private String buildItemTransactionUpsert(String prefix, boolean isBuy) {
+        SqlDialect dialect = databaseManager.getDialect();
+        
+        // Insert a new entry, or add to the existing counters
+        String updateClause = isBuy
+            ? "buy_count = buy_count + " + dialect.excluded("buy_count") + ", last_buy_time = " + dialect.excluded("last_buy_time")
+            : "sell_count = sell_count + " + dialect.excluded("sell_count") + ", last_sell_time = " + dialect.excluded("last_sell_time");
+        return dialect.upsert(prefix + "item_transactions",
+            new String[]{"item_id", "material_id", "buy_count", "sell_count", "last_buy_time", "last_sell_time", "price_adjustment_factor"},
+            new String[]{"item_id"},
+            updateClause);
+    }
+    
+    /**
+     * Builds the upsert for the market trends of a material
+     * 
+     * @param prefix The table prefix
+     * @param isBuy Whether the upsert records a buy transaction
+     * @return The SQL statement
+     */
+    private String buildMarketTrendUpsert(String prefix, boolean isBuy) {
+        SqlDialect dialect = databaseManager.getDialect();
+        
+        // An existing entry is adjusted in place:
+        // buying increases demand (and slightly decreases supply), selling does the opposite
+        String updateClause = isBuy
+            ? "demand_index = " + dialect.least("2.0", "demand_index + ?")
+                + ", supply_index = " + dialect.greatest("0.5", "supply_index - ?")
+            : "supply_index = " + dialect.least("2.0", "supply_index + ?")
+                + ", demand_index = " + dialect.greatest("0.5", "demand_index - ?");
+        updateClause += ", last_updated = " + dialect.excluded("last_updated");
+        
+        return dialect.upsert(prefix + "market_trends",
+            new String[]{"material_id", "demand_index", "supply_index", "volatility", "last_updated"},
+            new String[]{"material_id"},
+            updateClause);
     }
     
     /**
@@ -391,47 +400,115 @@ public class MarketAnalyzer {
     }
     
     /**
-     * Gets the market data for a material
+     * Gets the market data for a material. On the main thread this only reads the cache; if
+     * the cache hasn't been loaded yet, loading starts in the background and null is returned.
      * 
      * @param material The material to get data for
      * @return The market data, or null if not found
      */
     public MarketData getMarketData(Material material) {
         // Check cache first
-        if (marketDataCache.containsKey(material)) {
-            return marketDataCache.get(material);
+        MarketData cached = marketDataCache.get(material);
+        if (cached != null || marketDataLoaded) {
+            return cached;
+        }
+        if (Bukkit.isPrimaryThread()) {
+            loadMarketDataAsync();
+            return null;
         }
         
-        try {
-            Connection conn = databaseManager.getConnection();
-            String query = "SELECT * FROM " + databaseManager.getTablePrefix() + "market_trends WHERE material = ?";
-            PreparedStatement ps = conn.prepareStatement(query);
-            ps.setString(1, material.toString());
-            ResultSet rs = ps.executeQuery();
-            
-            MarketData data = null;
-            if (rs.next()) {
-                data = new MarketData(
+        try (Connection conn = databaseManager.getConnection()) {
+            MarketData data = readMarketData(conn, material);
+            if (data != null) {
+                // Cache the data
+                marketDataCache.put(material, data);
+            }
+            return data;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to retrieve market data for " + material, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Reads the market data for a material from the database
+     * 
+     * @param conn The database connection
+     * @param material The material to read
+     * @return The market data, or null if the material has none
+     * @throws SQLException If a database error occurs
+     */
+    private MarketData readMarketData(Connection conn, Material material) throws SQLException {
+        // A material without an ID has never been traded
+        Integer materialId = databaseManager.getMaterialIds().findId(conn, material.toString());
+        if (materialId == null) {
+            return null;
+        }
+        
+        try (PreparedStatement ps = conn.prepareStatement(selectMarketData)) {
+            ps.setInt(1, materialId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new MarketData(
                     material,
                     rs.getDouble("demand_index"),
                     rs.getDouble("supply_index"),
                     rs.getDouble("volatility"),
                     rs.getLong("last_updated")
                 );
-                
-                // Cache the data
-                marketDataCache.put(material, data);
             }
-            
-            rs.close();
-            ps.close();
-            conn.close();
-            
-            return data;
+        }
+    }
+    
+    /**
+     * Loads the market data of every material into the cache, replacing what it held.
+     * Runs on the calling thread, so don't call it on the main thread.
+     */
+    public void loadMarketData() {
+        Map<Material, MarketData> loaded = new ConcurrentHashMap<>();
+        try (Connection conn = databaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(selectAllMarketData);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Material material = Material.matchMaterial(rs.getString("material"));
+                if (material != null) {
+                    loaded.put(material, new MarketData(
+                        material,
+                        rs.getDouble("demand_index"),
+                        rs.getDouble("supply_index"),
+                        rs.getDouble("volatility"),
+                        rs.getLong("last_updated")
+                    ));
+                }
+            }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to retrieve market data for " + material, e);
-            return null;
+            plugin.getLogger().log(Level.SEVERE, "Failed to load market data", e);
+            return;
         }
+        
+        marketDataCache = loaded;
+        marketDataLoaded = true;
+    }
+    
+    /**
+     * Loads the market data of every material into the cache on a database thread, unless it
+     * is already loaded or loading
+     * 
+     * @return A future that completes on the main thread once the cache is loaded
+     */
+    public synchronized CompletableFuture<Void> loadMarketDataAsync() {
+        if (marketDataLoaded) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (marketDataLoad == null || marketDataLoad.isDone()) {
+            marketDataLoad = databaseManager.getAsync().supply(() -> {
+                loadMarketData();
+                return null;
+            });
+        }
+        return marketDataLoad;
     }
     
     /**
@@ -446,33 +523,28 @@ public class MarketAnalyzer {
             return itemTransactionCache.get(itemId);
         }
         
-        try {
-            Connection conn = databaseManager.getConnection();
-            String query = "SELECT * FROM " + databaseManager.getTablePrefix() + "item_transactions WHERE item_id = ?";
-            PreparedStatement ps = conn.prepareStatement(query);
-            ps.setString(1, itemId.toString());
-            ResultSet rs = ps.executeQuery();
+        try (Connection conn = databaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(selectItemData)) {
+            ps.setBytes(1, UuidBytes.toBytes(itemId));
             
             ItemTransactionData data = null;
-            if (rs.next()) {
-                data = new ItemTransactionData(
-                    UUID.fromString(rs.getString("item_id")),
-                    Material.valueOf(rs.getString("material")),
-                    rs.getInt("buy_count"),
-                    rs.getInt("sell_count"),
-                    rs.getLong("last_buy_time"),
-                    rs.getLong("last_sell_time"),
-                    rs.getDouble("price_adjustment_factor")
-                );
-                
-                // Cache the data
-                itemTransactionCache.put(itemId, data);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    data = new ItemTransactionData(
+                        UuidBytes.fromBytes(rs.getBytes("item_id")),
+                        Material.valueOf(rs.getString("material")),
+                        rs.getInt("buy_count"),
+                        rs.getInt("sell_count"),
+                        rs.getLong("last_buy_time"),
+                        rs.getLong("last_sell_time"),
+                        rs.getDouble("price_adjustment_factor")
+                    );
+                    
+                    // Cache the data
+                    itemTransactionCache.put(itemId, data);
+                }
             }
             
-            rs.close();
-            ps.close();
-            conn.close();
-            
             return data;
         } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "Failed to retrieve transaction data for item " + itemId, e);
@@ -480,6 +552,21 @@ public class MarketAnalyzer {
         }
     }
     
+    /**
+     * Gets the trade volume of a shop item over the analysis period. Days that have been
+     * compacted are read from the daily rollup, so this stays cheap for long periods.
+     * 
+     * @param itemId The UUID of the shop item
+     * @return The trade totals of the item
+     */
+    public DatabaseManager.TradeTotals getTradeVolume(UUID itemId) {
+        return databaseManager.getTradeTotals(null, itemId, getAnalysisStart());
+    }
+    
+    private LocalDate getAnalysisStart() {
+        return LocalDate.now(ZoneOffset.UTC).minusDays(ANALYSIS_PERIOD_DAYS);
+    }
+    
     /**
      * Performs a full market analysis to update prices based on trends
      * Should be called periodically (e.g., once per day)
@@ -491,24 +578,18 @@ public class MarketAnalyzer {
         
         plugin.getLogger().info("Performing market analysis for dynamic pricing...");
         
-        try {
-            Connection conn = databaseManager.getConnection();
-            
+        try (Connection conn = databaseManager.getConnection()) {
             // Get all materials from the database
-            String query = "SELECT material FROM " + databaseManager.getTablePrefix() + "market_trends";
-            PreparedStatement ps = conn.prepareStatement(query);
-            ResultSet rs = ps.executeQuery();
-            
             long currentTime = System.currentTimeMillis();
             List<String> materials = new ArrayList<>();
             
-            while (rs.next()) {
-                materials.add(rs.getString("material"));
+            try (PreparedStatement ps = conn.prepareStatement(selectMaterials);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    materials.add(rs.getString("material"));
+                }
             }
             
-            rs.close();
-            ps.close();
-            
             // Analyze each material
             for (String materialName : materials) {
                 try {
@@ -520,12 +601,12 @@ public class MarketAnalyzer {
                 }
             }
             
-            conn.close();
+            // Reload the cache to pick up the normalized data
+            loadMarketData();
             
-            // Clear caches to ensure fresh data is loaded
-            marketDataCache.clear();
-            
-            plugin.getLogger().info("Market analysis completed for " + materials.size() + " materials");
+            DatabaseManager.TradeTotals recent = databaseManager.getTradeTotals(null, null, getAnalysisStart());
+            plugin.getLogger().info("Market analysis completed for " + materials.size() + " materials (" +
+                    recent.getTrades() + " trades in the last " + ANALYSIS_PERIOD_DAYS + " days)");
             
         } catch (SQLException e) {
             plugin.getLogger().severe("Error performing market analysis: " + e.getMessage());
@@ -542,66 +623,62 @@ public class MarketAnalyzer {
      * @throws SQLException If a database error occurs
      */
     private void normalizeMarketData(Connection conn, Material material, long currentTime) throws SQLException {
-        String query = "SELECT * FROM " + databaseManager.getTablePrefix() + "market_trends WHERE material = ?";
-        PreparedStatement ps = conn.prepareStatement(query);
-        ps.setString(1, material.toString());
-        ResultSet rs = ps.executeQuery();
-        
-        if (rs.next()) {
-            double demandIndex = rs.getDouble("demand_index");
-            double supplyIndex = rs.getDouble("supply_index");
-            long lastUpdated = rs.getLong("last_updated");
-            
-            // Calculate how long it's been since the last update
-            // The longer it's been, the more we normalize
-            double daysSinceUpdate = (currentTime - lastUpdated) / (1000.0 * 60 * 60 * 24);
-            
-            // Skip recent updates
-            if (daysSinceUpdate < 0.5) { // Less than 12 hours
-                return;
+        double demandIndex;
+        double supplyIndex;
+        long lastUpdated;
+        int materialId = databaseManager.getMaterialIds().getId(conn, material.toString());
+        try (PreparedStatement ps = conn.prepareStatement(selectMarketData)) {
+            ps.setInt(1, materialId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return;
+                }
+                demandIndex = rs.getDouble("demand_index");
+                supplyIndex = rs.getDouble("supply_index");
+                lastUpdated = rs.getLong("last_updated");
             }
-            
-            // Calculate normalization factor based on time and config
-            double normalizationFactor = daysSinceUpdate * normalizationRate;
-            
-            // Limit the maximum normalization
-            normalizationFactor = Math.min(normalizationFactor, 0.5);
-            
-            // Normalize demand and supply indices towards 1.0 (neutral)
-            demandIndex = demandIndex + normalizationFactor * (1.0 - demandIndex);
-            supplyIndex = supplyIndex + normalizationFactor * (1.0 - supplyIndex);
-            
-            // Update the database
-            String update = "UPDATE " + databaseManager.getTablePrefix() + "market_trends SET " +
-                    "demand_index = ?, supply_index = ?, last_updated = ? WHERE material = ?";
-            PreparedStatement updatePs = conn.prepareStatement(update);
+        }
+        
+        // Calculate how long it's been since the last update
+        // The longer it's been, the more we normalize
+        double daysSinceUpdate = (currentTime - lastUpdated) / (1000.0 * 60 * 60 * 24);
+        
+        // Skip recent updates
+        if (daysSinceUpdate < 0.5) { // Less than 12 hours
+            return;
+        }
+        
+        // Calculate normalization factor based on time and config
+        double normalizationFactor = daysSinceUpdate * normalizationRate;
+        
+        // Limit the maximum normalization
+        normalizationFactor = Math.min(normalizationFactor, 0.5);
+        
+        // Normalize demand and supply indices towards 1.0 (neutral)
+        demandIndex = demandIndex + normalizationFactor * (1.0 - demandIndex);
+        supplyIndex = supplyIndex + normalizationFactor * (1.0 - supplyIndex);
+        
+        // Update the database
+        try (PreparedStatement updatePs = conn.prepareStatement(updateNormalizedTrend)) {
             updatePs.setDouble(1, demandIndex);
             updatePs.setDouble(2, supplyIndex);
             updatePs.setLong(3, currentTime);
-            updatePs.setString(4, material.toString());
+            updatePs.setInt(4, materialId);
             updatePs.executeUpdate();
-            updatePs.close();
         }
-        
-        rs.close();
-        ps.close();
     }
     
     /**
-     * Gets a summary of current market trends
+     * Gets a summary of current market trends. Reads the database, so call it off the main thread
      * 
      * @return A map containing material to price trend (positive = rising, negative = falling)
      */
     public Map<Material, Double> getMarketTrendSummary() {
         Map<Material, Double> trends = new HashMap<>();
         
-        try {
-            Connection conn = databaseManager.getConnection();
-            String query = "SELECT material, demand_index, supply_index FROM " 
-                + databaseManager.getTablePrefix() + "market_trends";
-            PreparedStatement ps = conn.prepareStatement(query);
-            ResultSet rs = ps.executeQuery();
-            
+        try (Connection conn = databaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(selectTrendSummary);
+             ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
                 String materialName = rs.getString("material");
                 double demandIndex = rs.getDouble("demand_index");
@@ -617,10 +694,6 @@ public class MarketAnalyzer {
                     // Invalid material name, ignore
                 }
             }
-            
-            rs.close();
-            ps.close();
-            conn.close();
         } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "Failed to get market trend summary", e);
         }
@@ -651,23 +724,17 @@ public class MarketAnalyzer {
     
     /**
      * Clears the trend data after prices have been updated
-     * This prevents the same trends from affecting prices again
+     * This prevents the same trends from affecting prices again.
+     * Writes to the database, so call it off the main thread.
      */
     public void clearTrendData() {
-        try {
-            Connection conn = databaseManager.getConnection();
-            
-            // Reset all demand and supply indices to 1.0 (neutral)
-            String update = "UPDATE " + databaseManager.getTablePrefix() + "market_trends " +
-                            "SET demand_index = 1.0, supply_index = 1.0";
-            
-            PreparedStatement ps = conn.prepareStatement(update);
+        // Reset all demand and supply indices to 1.0 (neutral)
+        try (Connection conn = databaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(resetTrends)) {
             ps.executeUpdate();
-            ps.close();
-            conn.close();
             
-            // Also clear the cache
-            marketDataCache.clear();
+            // Also reload the cache
+            loadMarketData();
             
             plugin.getLogger().info("Market trend data has been cleared after price updates");
         } catch (SQLException e) {
@@ -832,9 +899,9 @@ public class MarketAnalyzer {
         // Get market data
         MarketData marketData = getMarketData(material);
         
-        // Calculate adjustment based on market trends
-        double demandIndex = marketData.getDemandIndex();
-        double supplyIndex = marketData.getSupplyIndex();
+        // Calculate adjustment based on market trends; without data there is no adjustment
+        double demandIndex = marketData != null ? marketData.getDemandIndex() : 0.5;
+        double supplyIndex = marketData != null ? marketData.getSupplyIndex() : 0.5;
         
         // Different calculations for buy and sell prices
         double suggestedPrice;
@@ -1026,8 +1093,9 @@ public class MarketAnalyzer {
      */
     public void clearCacheForMaterial(Material material) {
         if (material != null) {
-            // Remove from market data cache
+            // Remove from market data cache; the next lookup reloads it
             marketDataCache.remove(material);
+            marketDataLoaded = false;
             
             // Log the cache clear
             plugin.getLogger().info("Cleared market data cache for " + material.name());
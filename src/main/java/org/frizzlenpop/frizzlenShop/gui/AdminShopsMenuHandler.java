@@ -130,7 +130,7 @@ public class AdminShopsMenuHandler {
                     "&7Type: &6Admin Shop",
                     "&7Status: " + statusText,
                     "&7Location: &f" + formatLocation(shop.getLocation()),
-                    "&7Items: &f" + shop.getItems().size(),
+                    "&7Items: &f" + shop.getItemCount(),
                     "",
                     "&eClick to view items"
                 )
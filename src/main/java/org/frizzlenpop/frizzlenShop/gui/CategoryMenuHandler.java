@@ -21,6 +21,9 @@ public class CategoryMenuHandler {
     // Maximum number of items per page
     private static final int ITEMS_PER_PAGE = 54; // 3 rows of 7 items
 
+    // The categories that hold only some materials; "all" and unknown categories hold every material
+    private static final Set<String> CATEGORIES = Set.of("tools", "weapons", "armor", "blocks", "potions", "miscellaneous", "food");
+
     /**
      * Open the category menu for a player
      *
@@ -31,6 +34,27 @@ public class CategoryMenuHandler {
      * @param page The page number
      */
     public static void openCategoryMenu(GuiManager guiManager, FrizzlenShop plugin, Player player, String category, int page) {
+        // Only the shops that may sell something in the category are loaded, not every shop
+        plugin.getDataManager().loadItemsSellingAsync(getCategoryMaterials(category)).whenComplete((ignored, error) -> {
+            if (error != null) {
+                MessageUtils.sendErrorMessage(player, "Failed to load the shop items. Please try again later.");
+            } else if (player.isOnline()) {
+                showCategoryMenu(guiManager, plugin, player, category, page);
+            }
+        });
+    }
+
+    /**
+     * Show the category menu, from the shops whose items are loaded. Must be called on the main
+     * thread.
+     *
+     * @param guiManager The GUI manager
+     * @param plugin The plugin instance
+     * @param player The player to open the menu for
+     * @param category The category to show
+     * @param page The page number
+     */
+    private static void showCategoryMenu(GuiManager guiManager, FrizzlenShop plugin, Player player, String category, int page) {
         // Get items in category from all shops
         List<ShopItemData> categoryItems = getCategoryItems(plugin, category);
 
@@ -190,41 +214,14 @@ public class CategoryMenuHandler {
 
         // For each shop, collect items that match the category
         for (Shop shop : shops) {
-            if (!shop.isOpen()) {
+            // Shops that weren't loaded for the category have nothing in it, or failed to load
+            if (!shop.isOpen() || !shop.isItemsLoaded()) {
                 continue;
             }
 
             for (ShopItem shopItem : shop.getItems()) {
                 // Check if the item belongs to the category
-                Material material = shopItem.getItem().getType();
-
-                boolean inCategory;
-
-                CreativeCategory creativeCategory = material.getCreativeCategory();
-                // Remove the debug messages that are printing to chat
-                // Bukkit.broadcastMessage(category);
-                // Bukkit.broadcastMessage(creativeCategory.name());
-
-                if (category.equalsIgnoreCase("all")) {
-                    inCategory = true;
-
-                } else if (category.equalsIgnoreCase("tools")) {
-                    inCategory = creativeCategory.equals(CreativeCategory.TOOLS);
-                } else if (category.equalsIgnoreCase("weapons")) {
-                    inCategory = material.name().contains("SWORD") || material.name().contains("AXE") || material.name().contains("TRIDENT") || material.name().contains("MACE") || material.name().contains("BOW") || material.name().contains("CROSSBOW") || material.name().contains("SHIELD");
-                } else if (category.equalsIgnoreCase("armor")) {
-                    inCategory = material.name().contains("HELMET") || material.name().contains("CHESTPLATE") || material.name().contains("LEGGINGS") || material.name().contains("BOOTS");
-                } else if (category.equalsIgnoreCase("blocks")) {
-                    inCategory = creativeCategory.equals(CreativeCategory.BUILDING_BLOCKS);
-                } else if (category.equalsIgnoreCase("potions")) {
-                    inCategory = creativeCategory.equals(CreativeCategory.BREWING);
-                } else if (category.equalsIgnoreCase("miscellaneous")) {
-                    inCategory = creativeCategory.equals(CreativeCategory.MISC);
-                } else if (category.equalsIgnoreCase("food")) {
-                    inCategory = creativeCategory.equals(CreativeCategory.FOOD);
-                }else{
-                    inCategory = true;
-                }
+                boolean inCategory = isInCategory(shopItem.getItem().getType(), category);
 
                 if (inCategory) {
                     items.add(new ShopItemData(shop, shopItem));
@@ -235,6 +232,55 @@ public class CategoryMenuHandler {
         return items;
     }
 
+    /**
+     * Check whether a material belongs to a category
+     *
+     * @param material The material
+     * @param category The category; unknown categories hold every material
+     * @return True if the material is in the category
+     */
+    private static boolean isInCategory(Material material, String category) {
+        CreativeCategory creativeCategory = material.getCreativeCategory();
+        String name = material.name();
+
+        if (category.equalsIgnoreCase("tools")) {
+            return creativeCategory == CreativeCategory.TOOLS;
+        } else if (category.equalsIgnoreCase("weapons")) {
+            return name.contains("SWORD") || name.contains("AXE") || name.contains("TRIDENT") || name.contains("MACE") || name.contains("BOW") || name.contains("CROSSBOW") || name.contains("SHIELD");
+        } else if (category.equalsIgnoreCase("armor")) {
+            return name.contains("HELMET") || name.contains("CHESTPLATE") || name.contains("LEGGINGS") || name.contains("BOOTS");
+        } else if (category.equalsIgnoreCase("blocks")) {
+            return creativeCategory == CreativeCategory.BUILDING_BLOCKS;
+        } else if (category.equalsIgnoreCase("potions")) {
+            return creativeCategory == CreativeCategory.BREWING;
+        } else if (category.equalsIgnoreCase("miscellaneous")) {
+            return creativeCategory == CreativeCategory.MISC;
+        } else if (category.equalsIgnoreCase("food")) {
+            return creativeCategory == CreativeCategory.FOOD;
+        }
+        return true;
+    }
+
+    /**
+     * Get the materials in a category
+     *
+     * @param category The category
+     * @return The materials, or null if the category holds every material
+     */
+    private static List<Material> getCategoryMaterials(String category) {
+        if (!CATEGORIES.contains(category.toLowerCase())) {
+            return null;
+        }
+        
+        List<Material> materials = new ArrayList<>();
+        for (Material material : Material.values()) {
+            if (!material.isLegacy() && material.isItem() && isInCategory(material, category)) {
+                materials.add(material);
+            }
+        }
+        return materials;
+    }
+
     /**
      * Format a category name for display
      *
@@ -161,6 +161,37 @@ public class GuiManager {
         CategoryMenuHandler.openCategoryMenu(this, plugin, player, category, page);
     }
     
+    /**
+     * Defer a menu until the items of some shops are in memory. Stored items are read on a
+     * database thread, so opening a shop doesn't block the tick.
+     *
+     * @param player The player the menu is for
+     * @param shops  The shops whose items the menu shows
+     * @param retry  Opens the menu again once the items are loaded; runs on the main thread
+     * @return True if the items are being loaded and the menu should wait, false if it can open now
+     */
+    public boolean deferUntilItemsLoaded(Player player, Collection<? extends Shop> shops, Runnable retry) {
+        boolean loaded = true;
+        for (Shop shop : shops) {
+            if (!shop.isItemsLoaded()) {
+                loaded = false;
+                break;
+            }
+        }
+        if (loaded) {
+            return false;
+        }
+        
+        plugin.getDataManager().loadItemsAsync(shops).whenComplete((ignored, error) -> {
+            if (error != null) {
+                MessageUtils.sendErrorMessage(player, "Failed to load the shop items. Please try again later.");
+            } else if (player.isOnline()) {
+                retry.run();
+            }
+        });
+        return true;
+    }
+    
     /**
      * Open the item details menu
      *
@@ -273,6 +304,10 @@ public class GuiManager {
             return;
         }
         
+        if (deferUntilItemsLoaded(player, List.of(shop), () -> openItemManagementMenu(player, shopId, itemId))) {
+            return;
+        }
+        
         ShopItem item = shop.getItem(itemId);
         if (item == null) {
             MessageUtils.sendErrorMessage(player, "Item not found.");
@@ -399,8 +434,7 @@ public class GuiManager {
                     return TemplateMenuHandler.handleTemplateCreationClick(this, plugin, player, slot, data);
                     
                 case SHOP_BACKUP:
-                    plugin.getLogger().warning("Shop backup click handling not implemented yet");
-                    return false; // TODO: Implement backup click handling
+                    return TemplateMenuHandler.handleBackupRestoreClick(this, plugin, player, slot, data, clickType);
                     
                 case SHOP_RESTORE:
                     plugin.getLogger().warning("Shop restore click handling not implemented yet");
@@ -412,6 +446,9 @@ public class GuiManager {
                 case QUICK_SELL_MENU:
                     return QuickSellMenuHandler.handleClick(this, plugin, player, slot, data);
                     
+                case TRANSACTION_LOGS:
+                    return TransactionLogsMenuHandler.handleClick(this, plugin, player, slot, data, clickType);
+                    
                 default:
                     plugin.getLogger().warning("Unknown menu type: " + data.getMenuType());
                     return false;
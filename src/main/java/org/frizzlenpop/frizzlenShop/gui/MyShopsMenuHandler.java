@@ -129,7 +129,7 @@ public class MyShopsMenuHandler {
         List<String> lore = new ArrayList<>();
         lore.add("&7Type: &f" + (shop.isAdminShop() ? "Admin Shop" : "Player Shop"));
         lore.add("&7Status: &f" + (shop.isOpen() ? "&aOpen" : "&cClosed"));
-        lore.add("&7Items: &f" + shop.getItems().size());
+        lore.add("&7Items: &f" + shop.getItemCount());
         
         if (!shop.isAdminShop()) {
             // Add expiration info for player shops
@@ -12,12 +12,18 @@ import org.frizzlenpop.frizzlenShop.config.ConfigManager;
 import org.frizzlenpop.frizzlenShop.listeners.ChatListener;
 import org.frizzlenpop.frizzlenShop.shops.AdminShop;
 import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
 import org.frizzlenpop.frizzlenShop.shops.ShopManager;
+import org.frizzlenpop.frizzlenShop.utils.AsyncDatabase;
+import org.frizzlenpop.frizzlenShop.utils.DatabaseManager;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
 import org.frizzlenpop.frizzlenShop.utils.GuiUtils;
+import org.frizzlenpop.frizzlenShop.economy.DynamicPricingManager;
 import org.frizzlenpop.frizzlenShop.economy.MarketAnalyzer;
 import org.frizzlenpop.frizzlenShop.economy.CraftingRelationManager;
 
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -25,6 +31,7 @@ import java.util.UUID;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Handles the shop admin menu GUI
@@ -250,7 +257,7 @@ public class ShopAdminMenuHandler {
                 "&7Type: " + shopType,
                 "&7Owner: &f" + ownerName,
                 "&7Location: &f" + formatLocation(shop.getLocation()),
-                "&7Items: &f" + shop.getItems().size(),
+                "&7Items: &f" + shop.getItemCount(),
                 "",
                 "&eClick to manage this shop"
             );
@@ -529,7 +536,7 @@ public class ShopAdminMenuHandler {
                 Arrays.asList(
                     "&7Type: &6Admin Shop",
                     "&7Location: &f" + formatLocation(shop.getLocation()),
-                    "&7Items: &f" + shop.getItems().size(),
+                    "&7Items: &f" + shop.getItemCount(),
                     "",
                     "&eClick to select this shop"
                 )
@@ -988,13 +995,35 @@ public class ShopAdminMenuHandler {
     }
 
     /**
-     * Opens the shop statistics menu for the player
+     * Opens the shop statistics menu for the player. Trade totals are read from the database
+     * asynchronously; the menu opens once they are loaded.
      *
      * @param guiManager The GUI manager
      * @param plugin The plugin instance
      * @param player The player
      */
     public static void openStatisticsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player) {
+        AsyncDatabase async = plugin.getDatabaseManager().getAsync();
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        
+        // All-time totals come mostly from the daily rollup, so these stay cheap as history grows
+        CompletableFuture<DatabaseManager.TradeTotals> allTime = async.getTradeTotals(null, null, null);
+        CompletableFuture<DatabaseManager.TradeTotals> todayTotals = async.getTradeTotals(null, null, today);
+        CompletableFuture<List<DatabaseManager.TradeTotals>> topSellers = async.getTopPlayers("sell", null, 3);
+        CompletableFuture<List<DatabaseManager.TradeTotals>> topItems = async.getTopItems("buy", null, 5);
+        
+        // Each result arrives on the main thread, so the menu opens there too
+        CompletableFuture.allOf(allTime, todayTotals, topSellers, topItems).thenRun(() -> {
+            if (player.isOnline()) {
+                showStatisticsMenu(guiManager, plugin, player, allTime.join(), todayTotals.join(),
+                        topSellers.join(), topItems.join());
+            }
+        });
+    }
+    
+    private static void showStatisticsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player,
+                                           DatabaseManager.TradeTotals allTime, DatabaseManager.TradeTotals todayTotals,
+                                           List<DatabaseManager.TradeTotals> topSellers, List<DatabaseManager.TradeTotals> topItems) {
         ConfigManager config = plugin.getConfigManager();
         ShopManager shopManager = plugin.getShopManager();
         
@@ -1005,10 +1034,6 @@ public class ShopAdminMenuHandler {
         int totalShops = shopManager.getAllShops().size();
         int adminShops = shopManager.getAdminShops().size();
         int playerShops = shopManager.getPlayerShops().size();
-        
-        // Mock data for database-related statistics (in a real implementation, these would come from a database)
-        int totalTransactions = 254;  // Mock data
-        double totalRevenue = 12587.50;  // Mock data
         double totalTaxes = config.getTotalTaxCollected();
         
         // Create info items
@@ -1016,33 +1041,38 @@ public class ShopAdminMenuHandler {
                 Arrays.asList("&7Total: &f" + totalShops, "&7Admin: &f" + adminShops, "&7Player: &f" + playerShops));
         
         ItemStack transactionsItem = GuiUtils.createInfoItem(Material.PAPER, "&e&lTransactions", 
-                Arrays.asList("&7Total: &f" + totalTransactions, "&7Today: &f" + 15));  // Mock data
+                Arrays.asList("&7Total: &f" + allTime.getTrades(), "&7Today: &f" + todayTotals.getTrades()));
         
         ItemStack revenueItem = GuiUtils.createInfoItem(Material.GOLD_INGOT, "&e&lRevenue", 
-                Arrays.asList("&7Total: &f$" + String.format("%.2f", totalRevenue), 
-                              "&7Today: &f$" + String.format("%.2f", 450.75)));  // Mock data
+                Arrays.asList("&7Total: &f$" + String.format("%.2f", allTime.getValue()), 
+                              "&7Today: &f$" + String.format("%.2f", todayTotals.getValue())));
         
         ItemStack taxItem = GuiUtils.createInfoItem(Material.EMERALD, "&e&lTaxes", 
                 Arrays.asList("&7Total collected: &f$" + String.format("%.2f", totalTaxes), 
                               "&7Today: &f$" + String.format("%.2f", config.getTaxCollectedToday())));
         
-        // Mock data for top sellers
         List<String> topSellersLore = new ArrayList<>();
         topSellersLore.add("&7These players have the most sales:");
-        topSellersLore.add("&71. &fStevePlays");
-        topSellersLore.add("&72. &fMinerGal");
-        topSellersLore.add("&73. &fCrafterDude");
+        for (int i = 0; i < topSellers.size(); i++) {
+            String name = Bukkit.getOfflinePlayer(UUID.fromString(topSellers.get(i).getKey())).getName();
+            topSellersLore.add("&7" + (i + 1) + ". &f" + (name != null ? name : "Unknown") +
+                    " &7(&f" + topSellers.get(i).getQuantity() + " sold&7)");
+        }
+        if (topSellers.isEmpty()) {
+            topSellersLore.add("&7No sales yet");
+        }
         
         ItemStack topSellersItem = GuiUtils.createInfoItem(Material.DIAMOND, "&e&lTop Sellers", topSellersLore);
         
-        // Mock data for top items
         List<String> topItemsLore = new ArrayList<>();
         topItemsLore.add("&7Most popular items by sales:");
-        topItemsLore.add("&71. &fDiamond Sword &7(&f45 sold&7)");
-        topItemsLore.add("&72. &fEnchanted Golden Apple &7(&f30 sold&7)");
-        topItemsLore.add("&73. &fElytra &7(&f18 sold&7)");
-        topItemsLore.add("&74. &fNetherite Ingot &7(&f15 sold&7)");
-        topItemsLore.add("&75. &fShulker Box &7(&f12 sold&7)");
+        for (int i = 0; i < topItems.size(); i++) {
+            topItemsLore.add("&7" + (i + 1) + ". &f" + getShopItemName(shopManager, UUID.fromString(topItems.get(i).getKey())) +
+                    " &7(&f" + topItems.get(i).getQuantity() + " sold&7)");
+        }
+        if (topItems.isEmpty()) {
+            topItemsLore.add("&7No sales yet");
+        }
         
         ItemStack topItemsItem = GuiUtils.createInfoItem(Material.ITEM_FRAME, "&e&lTop Items", topItemsLore);
         
@@ -1073,6 +1103,34 @@ public class ShopAdminMenuHandler {
         guiManager.menuData.put(player.getUniqueId(), menuData);
     }
     
+    /**
+     * Get a readable name for a shop item
+     *
+     * @param shopManager The shop manager
+     * @param itemId The shop item ID
+     * @return The item name, "Removed item" if no shop has it anymore, or "Unknown item" if
+     *         it may be in a shop whose items aren't loaded
+     */
+    private static String getShopItemName(ShopManager shopManager, UUID itemId) {
+        boolean searchedAll = true;
+        for (Shop shop : shopManager.getAllShops()) {
+            if (!shop.isItemsLoaded()) {
+                // Not worth loading a shop's items just for a name
+                searchedAll = false;
+                continue;
+            }
+            ShopItem shopItem = shop.getItem(itemId);
+            if (shopItem != null) {
+                ItemStack item = shopItem.getItem();
+                if (item.hasItemMeta() && item.getItemMeta().hasDisplayName()) {
+                    return item.getItemMeta().getDisplayName();
+                }
+                return item.getType().name().replace("_", " ").toLowerCase();
+            }
+        }
+        return searchedAll ? "Removed item" : "Unknown item";
+    }
+    
     /**
      * Handles clicks in the statistics menu
      *
@@ -1131,21 +1189,35 @@ public class ShopAdminMenuHandler {
     }
 
     /**
-     * Opens the market trends menu for the player
+     * Opens the market trends menu for the player. Trends are read from the database
+     * asynchronously; the menu opens once they are loaded.
      *
      * @param guiManager The GUI manager
      * @param plugin The plugin instance
      * @param player The player
      */
     public static void openMarketTrendsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player) {
+        // Check if dynamic pricing is enabled
+        DynamicPricingManager pricingManager = plugin.getDynamicPricingManager();
+        if (!plugin.getConfigManager().isDynamicPricingEnabled() || pricingManager == null) {
+            showMarketTrendsMenu(guiManager, plugin, player, null);
+            return;
+        }
+        
+        plugin.getDatabaseManager().getAsync().supply(() -> pricingManager.getTrendingItems(27)).thenAccept(trendingItems -> {
+            if (player.isOnline()) {
+                showMarketTrendsMenu(guiManager, plugin, player, trendingItems);
+            }
+        });
+    }
+    
+    private static void showMarketTrendsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player,
+                                             Map<Material, Double> trendingItems) {
         // Create inventory
         String title = "Market Trends";
         Inventory inventory = Bukkit.createInventory(null, 9 * 6, title);
         
-        // Check if dynamic pricing is enabled
-        boolean dynamicPricingEnabled = plugin.getConfigManager().isDynamicPricingEnabled();
-        
-        if (!dynamicPricingEnabled || plugin.getDynamicPricingManager() == null) {
+        if (trendingItems == null) {
             // Dynamic pricing is not enabled, show information message
             ItemStack infoItem = guiManager.createGuiItem(
                 Material.BARRIER, 
@@ -1158,9 +1230,6 @@ public class ShopAdminMenuHandler {
             );
             inventory.setItem(22, infoItem);
         } else {
-            // Get trending items
-            Map<Material, Double> trendingItems = plugin.getDynamicPricingManager().getTrendingItems(27);
-            
             if (trendingItems.isEmpty()) {
                 // No market data yet
                 ItemStack infoItem = guiManager.createGuiItem(
@@ -1350,16 +1419,14 @@ public class ShopAdminMenuHandler {
 
     /**
      * Opens the crafting opportunities menu
-     * This menu shows items that are profitable to craft based on current market prices
+     * This menu shows items that are profitable to craft based on current market prices.
+     * It opens once the market data is cached, so pricing every craftable item doesn't query the database.
      *
      * @param guiManager The GUI manager
      * @param plugin The plugin instance
      * @param player The player
      */
     public static void openCraftingOpportunitiesMenu(GuiManager guiManager, FrizzlenShop plugin, Player player) {
-        // Create inventory
-        Inventory inventory = Bukkit.createInventory(null, 54, ChatColor.DARK_GREEN + "Crafting Opportunities");
-        
         // Get market analyzer and crafting relation manager
         MarketAnalyzer marketAnalyzer = plugin.getMarketAnalyzer();
         CraftingRelationManager craftingManager = plugin.getCraftingRelationManager();
@@ -1369,6 +1436,18 @@ public class ShopAdminMenuHandler {
             return;
         }
         
+        marketAnalyzer.loadMarketDataAsync().thenRun(() -> {
+            if (player.isOnline()) {
+                showCraftingOpportunitiesMenu(guiManager, plugin, player, marketAnalyzer, craftingManager);
+            }
+        });
+    }
+    
+    private static void showCraftingOpportunitiesMenu(GuiManager guiManager, FrizzlenShop plugin, Player player,
+                                                      MarketAnalyzer marketAnalyzer, CraftingRelationManager craftingManager) {
+        // Create inventory
+        Inventory inventory = Bukkit.createInventory(null, 54, ChatColor.DARK_GREEN + "Crafting Opportunities");
+        
         // Create item list with profit margins
         List<ProfitableItem> profitableItems = new ArrayList<>();
         
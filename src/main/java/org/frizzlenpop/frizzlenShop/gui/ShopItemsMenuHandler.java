@@ -149,6 +149,10 @@ public class ShopItemsMenuHandler {
      * @param shop The shop to show items for
      */
     public static void openShopItemsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player, Shop shop) {
+        if (guiManager.deferUntilItemsLoaded(player, List.of(shop), () -> openShopItemsMenu(guiManager, plugin, player, shop))) {
+            return;
+        }
+        
         // Create inventory
         String title = shop.getName() + " - Items";
         Inventory inventory = Bukkit.createInventory(null, 9 * 6, title);
@@ -244,7 +248,7 @@ public class ShopItemsMenuHandler {
         
         // Check if the shop has reached its item limit
         int maxItems = shop.isAdminShop() ? 45 : plugin.getConfigManager().getMaxItemsPerPlayerShop();
-        if (shop.getItems().size() >= maxItems) {
+        if (shop.getItemCount() >= maxItems) {
             MessageUtils.sendErrorMessage(player, "This shop has reached its item limit.");
             return;
         }
@@ -40,7 +40,7 @@ public class ShopManagementMenuHandler {
                     "&7Name: &f" + shop.getName(),
                     "&7Type: &f" + (shop.isAdminShop() ? "Admin Shop" : "Player Shop"),
                     "&7Status: &f" + (shop.isOpen() ? "&aOpen" : "&cClosed"),
-                    "&7Items: &f" + shop.getItems().size(),
+                    "&7Items: &f" + shop.getItemCount(),
                     "&7Location: &f" + formatLocation(shop.getLocation())
                 ));
         inventory.setItem(4, infoItem);
@@ -49,7 +49,7 @@ public class ShopManagementMenuHandler {
         ItemStack itemsItem = guiManager.createGuiItem(Material.CHEST, "&e&lManage Items", 
                 Arrays.asList(
                     "&7Add, remove, or edit items",
-                    "&7Current items: &f" + shop.getItems().size(),
+                    "&7Current items: &f" + shop.getItemCount(),
                     "",
                     "&7Click to manage items"
                 ));
@@ -190,6 +190,10 @@ public class ShopManagementMenuHandler {
      * @param shop The shop to manage
      */
     private static void openItemsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player, Shop shop) {
+        if (guiManager.deferUntilItemsLoaded(player, List.of(shop), () -> openItemsMenu(guiManager, plugin, player, shop))) {
+            return;
+        }
+        
         // Create inventory
         String title = "Shop Items: " + shop.getName();
         Inventory inventory = Bukkit.createInventory(null, 9 * 6, title);
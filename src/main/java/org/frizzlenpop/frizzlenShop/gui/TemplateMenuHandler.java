@@ -559,7 +559,7 @@ public class TemplateMenuHandler {
                     "&e&l" + shop.getName(),
                     Arrays.asList(
                             "&7Type: &f" + (shop.isAdminShop() ? "Admin Shop" : "Player Shop"),
-                            "&7Items: &f" + shop.getItems().size(),
+                            "&7Items: &f" + shop.getItemCount(),
                             "",
                             "&eClick to create template from this shop"
                     )
@@ -2,22 +2,26 @@ package org.frizzlenpop.frizzlenShop.gui;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.ClickType;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
 import org.frizzlenpop.frizzlenShop.utils.DatabaseManager;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
+import org.frizzlenpop.frizzlenShop.utils.TransactionCursor;
+import org.frizzlenpop.frizzlenShop.utils.TransactionQuery;
 
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
  * Handles the transaction logs menu
  */
 public class TransactionLogsMenuHandler {
-
+    
     // Maximum logs per page
     private static final int LOGS_PER_PAGE = 45;
     
@@ -29,79 +33,90 @@ public class TransactionLogsMenuHandler {
      * @param player The player to open the menu for
      */
     public static void openTransactionLogsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player) {
-        openTransactionLogsMenu(guiManager, plugin, player, 1, null, null, null);
+        openTransactionLogsMenu(guiManager, plugin, player, null, null, null, firstPage());
     }
     
     /**
-     * Open the transaction logs menu for a player with filters
+     * Open the transaction logs menu for a player with filters. The page is read on a database
+     * thread and the menu opens once it is in.
      *
      * @param guiManager The GUI manager
      * @param plugin The plugin instance
      * @param player The player to open the menu for
-     * @param page The page number
      * @param transactionType The transaction type filter (buy/sell/all)
      * @param shopFilter The shop filter (shop name)
      * @param playerFilter The player filter (player name)
+     * @param pageStarts Where each page up to the one to show starts; the first entry is null
      */
-    public static void openTransactionLogsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player, 
-                                              int page, String transactionType, String shopFilter, String playerFilter) {
+    public static void openTransactionLogsMenu(GuiManager guiManager, FrizzlenShop plugin, Player player,
+                                              String transactionType, String shopFilter, String playerFilter,
+                                              List<TransactionCursor> pageStarts) {
         // Check if player has permission
         if (!player.hasPermission("frizzlenshop.admin.logs")) {
             MessageUtils.sendErrorMessage(player, "You don't have permission to view transaction logs.");
             return;
         }
         
-        // Create inventory
-        String title = "Transaction Logs - Page " + page;
-        Inventory inventory = Bukkit.createInventory(null, 9 * 6, title);
-        
-        // Get logs (using dummy data for now since we need to implement a database system)
-        List<TransactionLog> logs = getDummyLogs(50);
-        
-        // Apply filters if present
-        if (transactionType != null) {
-            logs = logs.stream()
-                    .filter(log -> transactionType.equalsIgnoreCase("all") || log.getType().equalsIgnoreCase(transactionType))
-                    .toList();
-        }
-        
+        TransactionQuery query = new TransactionQuery()
+                .type(transactionType)
+                .after(pageStarts.get(pageStarts.size() - 1))
+                .limit(LOGS_PER_PAGE);
         if (shopFilter != null) {
-            logs = logs.stream()
-                    .filter(log -> log.getShopName().toLowerCase().contains(shopFilter.toLowerCase()))
-                    .toList();
+            Shop shop = findShop(plugin, shopFilter);
+            if (shop == null) {
+                MessageUtils.sendErrorMessage(player, "Shop not found: " + shopFilter);
+                return;
+            }
+            query.shop(shop.getId());
         }
-        
         if (playerFilter != null) {
-            logs = logs.stream()
-                    .filter(log -> log.getPlayerName().toLowerCase().contains(playerFilter.toLowerCase()))
-                    .toList();
+            OfflinePlayer target = Bukkit.getOfflinePlayerIfCached(playerFilter);
+            if (target == null) {
+                MessageUtils.sendErrorMessage(player, "Player not found: " + playerFilter);
+                return;
+            }
+            query.player(target.getUniqueId());
         }
         
-        // Calculate total pages
-        int totalPages = Math.max(1, (int) Math.ceil((double) logs.size() / LOGS_PER_PAGE));
-        
-        // Ensure page is within range
-        page = Math.max(1, Math.min(page, totalPages));
+        // Pages may reach back into the trade archive, so they are read off the main thread
+        plugin.getDatabaseManager().getAsync().getTransactionPage(query).whenComplete((logPage, error) -> {
+            if (error != null) {
+                MessageUtils.sendErrorMessage(player, "Failed to read the transaction logs.");
+            } else if (player.isOnline()) {
+                showPage(guiManager, plugin, player, transactionType, shopFilter, playerFilter, pageStarts, logPage);
+            }
+        });
+    }
+    
+    /**
+     * Show a page of transaction logs. Must be called on the main thread.
+     *
+     * @param guiManager The GUI manager
+     * @param plugin The plugin instance
+     * @param player The player to open the menu for
+     * @param transactionType The transaction type filter, or null
+     * @param shopFilter The shop filter, or null
+     * @param playerFilter The player filter, or null
+     * @param pageStarts Where each page up to this one starts
+     * @param logPage The transactions on this page
+     */
+    private static void showPage(GuiManager guiManager, FrizzlenShop plugin, Player player,
+                                 String transactionType, String shopFilter, String playerFilter,
+                                 List<TransactionCursor> pageStarts, DatabaseManager.TransactionPage logPage) {
+        int page = pageStarts.size();
         
-        // Calculate log range for this page
-        int startIndex = (page - 1) * LOGS_PER_PAGE;
-        int endIndex = Math.min(startIndex + LOGS_PER_PAGE, logs.size());
+        // Create inventory
+        String title = "Transaction Logs - Page " + page;
+        Inventory inventory = Bukkit.createInventory(null, 9 * 6, title);
         
         // Display logs for this page
-        if (startIndex < logs.size()) {
-            for (int i = startIndex; i < endIndex; i++) {
-                TransactionLog log = logs.get(i);
-                int slot = i - startIndex;
-                
-                // Create log item
-                ItemStack logItem = createLogItem(log, plugin);
-                
-                inventory.setItem(slot, logItem);
-            }
+        List<DatabaseManager.Transaction> logs = logPage.getTransactions();
+        for (int slot = 0; slot < logs.size() && slot < LOGS_PER_PAGE; slot++) {
+            inventory.setItem(slot, createLogItem(logs.get(slot), plugin));
         }
         
         // Add filter options
-        ItemStack typeFilterItem = guiManager.createGuiItem(Material.HOPPER, "&e&lFilter by Type", 
+        ItemStack typeFilterItem = guiManager.createGuiItem(Material.HOPPER, "&e&lFilter by Type",
                 Arrays.asList(
                     "&7Current filter: &f" + (transactionType == null ? "All" : transactionType),
                     "",
@@ -111,19 +126,19 @@ public class TransactionLogsMenuHandler {
                 ));
         inventory.setItem(47, typeFilterItem);
         
-        ItemStack shopFilterItem = guiManager.createGuiItem(Material.CHEST, "&e&lFilter by Shop", 
+        ItemStack shopFilterItem = guiManager.createGuiItem(Material.CHEST, "&e&lFilter by Shop",
                 Arrays.asList(
                     "&7Current filter: &f" + (shopFilter == null ? "All" : shopFilter),
                     "",
-                    "&7Click to enter shop name"
+                    "&7Use &f/shopadmin logs shop:<name>"
                 ));
         inventory.setItem(48, shopFilterItem);
         
-        ItemStack playerFilterItem = guiManager.createGuiItem(Material.PLAYER_HEAD, "&e&lFilter by Player", 
+        ItemStack playerFilterItem = guiManager.createGuiItem(Material.PLAYER_HEAD, "&e&lFilter by Player",
                 Arrays.asList(
                     "&7Current filter: &f" + (playerFilter == null ? "All" : playerFilter),
                     "",
-                    "&7Click to enter player name"
+                    "&7Use &f/shopadmin logs player:<name>"
                 ));
         inventory.setItem(49, playerFilterItem);
         
@@ -131,20 +146,20 @@ public class TransactionLogsMenuHandler {
         
         // Previous page button (if not on first page)
         if (page > 1) {
-            ItemStack prevButton = guiManager.createGuiItem(Material.ARROW, "&7&lPrevious Page", 
+            ItemStack prevButton = guiManager.createGuiItem(Material.ARROW, "&7&lPrevious Page",
                     Collections.singletonList("&7Go to page " + (page - 1)));
             inventory.setItem(45, prevButton);
         }
         
-        // Next page button (if not on last page)
-        if (page < totalPages) {
-            ItemStack nextButton = guiManager.createGuiItem(Material.ARROW, "&7&lNext Page", 
+        // Next page button (if another page follows)
+        if (logPage.hasNext()) {
+            ItemStack nextButton = guiManager.createGuiItem(Material.ARROW, "&7&lNext Page",
                     Collections.singletonList("&7Go to page " + (page + 1)));
             inventory.setItem(53, nextButton);
         }
         
         // Back button
-        ItemStack backButton = guiManager.createGuiItem(Material.BARRIER, "&c&lBack", 
+        ItemStack backButton = guiManager.createGuiItem(Material.BARRIER, "&c&lBack",
                 Collections.singletonList("&7Return to admin menu"));
         inventory.setItem(52, backButton);
         
@@ -156,8 +171,8 @@ public class TransactionLogsMenuHandler {
         
         // Store menu data
         Map<String, Object> data = new HashMap<>();
-        data.put("page", page);
-        data.put("totalPages", totalPages);
+        data.put("pageStarts", pageStarts);
+        if (logPage.hasNext()) data.put("next", logPage.getNext());
         if (transactionType != null) data.put("transactionType", transactionType);
         if (shopFilter != null) data.put("shopFilter", shopFilter);
         if (playerFilter != null) data.put("playerFilter", playerFilter);
@@ -166,36 +181,123 @@ public class TransactionLogsMenuHandler {
     }
     
     /**
-     * Create an item stack to display a transaction log
+     * Handle a click in the transaction logs menu
      *
-     * @param log The transaction log
+     * @param guiManager The GUI manager
+     * @param plugin The plugin instance
+     * @param player The player who clicked
+     * @param slot The slot that was clicked
+     * @param menuData The menu data
+     * @param clickType The type of click
+     * @return True if the click was handled, false otherwise
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean handleClick(GuiManager guiManager, FrizzlenShop plugin, Player player, int slot,
+                                      MenuData menuData, ClickType clickType) {
+        List<TransactionCursor> pageStarts = (List<TransactionCursor>) menuData.getData("pageStarts");
+        if (pageStarts == null) {
+            pageStarts = firstPage();
+        }
+        String transactionType = menuData.getString("transactionType");
+        String shopFilter = menuData.getString("shopFilter");
+        String playerFilter = menuData.getString("playerFilter");
+        
+        switch (slot) {
+            case 45: // Previous page
+                if (pageStarts.size() > 1) {
+                    List<TransactionCursor> previous = new ArrayList<>(pageStarts.subList(0, pageStarts.size() - 1));
+                    openTransactionLogsMenu(guiManager, plugin, player, transactionType, shopFilter, playerFilter, previous);
+                }
+                return true;
+            
+            case 53: // Next page
+                TransactionCursor next = (TransactionCursor) menuData.getData("next");
+                if (next != null) {
+                    List<TransactionCursor> following = new ArrayList<>(pageStarts);
+                    following.add(next);
+                    openTransactionLogsMenu(guiManager, plugin, player, transactionType, shopFilter, playerFilter, following);
+                }
+                return true;
+            
+            case 47: // Type filter; a new filter starts over at the first page
+                String type = clickType.isShiftClick() ? null : clickType.isRightClick() ? "sell" : "buy";
+                openTransactionLogsMenu(guiManager, plugin, player, type, shopFilter, playerFilter, firstPage());
+                return true;
+            
+            case 48: // Shop filter
+            case 49: // Player filter
+                player.closeInventory();
+                MessageUtils.sendMessage(player, "&7Use &f/shopadmin logs shop:<name> player:<name> &7to filter by shop or player.");
+                return true;
+            
+            case 52: // Back
+                guiManager.openShopAdminMenu(player);
+                return true;
+            
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Get the page starts of the first page
+     *
+     * @return A list holding only the start of history
+     */
+    private static List<TransactionCursor> firstPage() {
+        List<TransactionCursor> pageStarts = new ArrayList<>();
+        pageStarts.add(null);
+        return pageStarts;
+    }
+    
+    /**
+     * Find a shop by name
+     *
+     * @param plugin The plugin instance
+     * @param name The shop name
+     * @return The shop, or null if there is none
+     */
+    private static Shop findShop(FrizzlenShop plugin, String name) {
+        for (Shop shop : plugin.getShopManager().getAllShops()) {
+            if (shop.getName().equalsIgnoreCase(name)) {
+                return shop;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Create an item stack to display a transaction
+     *
+     * @param transaction The transaction
      * @param plugin The plugin instance
      * @return The item stack
      */
-    private static ItemStack createLogItem(TransactionLog log, FrizzlenShop plugin) {
+    private static ItemStack createLogItem(DatabaseManager.Transaction transaction, FrizzlenShop plugin) {
         // Choose material based on transaction type
-        Material material = log.getType().equalsIgnoreCase("buy") ? Material.EMERALD : Material.GOLD_INGOT;
+        boolean buy = transaction.getType().equalsIgnoreCase("buy");
+        Material material = buy ? Material.EMERALD : Material.GOLD_INGOT;
         
-        // Format timestamp
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        String formattedTime = dateFormat.format(new Date(log.getTimestamp()));
+        // Name everything from the trade row and what is already in memory
+        Shop shop = plugin.getShopManager().getShop(transaction.getShopId());
+        String itemName = transaction.getMaterial() != null
+                ? transaction.getMaterial().toLowerCase().replace("_", " ") : "unknown item";
+        String playerName = Bukkit.getOfflinePlayer(transaction.getPlayerId()).getName();
+        String currency = plugin.getEconomyManager().getDefaultCurrency();
         
         // Create item
         ItemStack item = new ItemStack(material);
         ItemMeta meta = item.getItemMeta();
         
-        String displayName = "&" + (log.getType().equalsIgnoreCase("buy") ? "a" : "6") + 
-                log.getType().toUpperCase() + ": " + log.getItemName();
-        meta.setDisplayName(displayName);
+        String displayName = "&" + (buy ? "a" : "6") + transaction.getType().toUpperCase() + ": " + itemName;
+        meta.setDisplayName(displayName.replace("&", "§"));
         
         List<String> lore = new ArrayList<>();
-        lore.add("&7Time: &f" + formattedTime);
-        lore.add("&7Player: &f" + log.getPlayerName());
-        lore.add("&7Shop: &f" + log.getShopName() + (log.isAdminShop() ? " &8(Admin)" : ""));
-        lore.add("&7Amount: &f" + log.getAmount() + "x");
-        lore.add("&7Price: &f" + plugin.getEconomyManager().formatCurrency(log.getPrice(), log.getCurrency()));
-        lore.add("");
-        lore.add("&7Click for more options");
+        lore.add("&7Time: &f" + transaction.getTimestamp());
+        lore.add("&7Player: &f" + (playerName != null ? playerName : transaction.getPlayerId()));
+        lore.add("&7Shop: &f" + (shop != null ? shop.getName() + (shop.isAdminShop() ? " &8(Admin)" : "") : "&8(deleted)"));
+        lore.add("&7Amount: &f" + transaction.getQuantity() + "x");
+        lore.add("&7Price: &f" + plugin.getEconomyManager().formatCurrency(transaction.getPrice(), currency));
         
         // Apply formatting
         List<String> coloredLore = new ArrayList<>();
@@ -207,135 +309,5 @@ public class TransactionLogsMenuHandler {
         item.setItemMeta(meta);
         return item;
     }
-    
-    /**
-     * Get a list of dummy transaction logs for testing
-     *
-     * @param count The number of logs to generate
-     * @return The list of logs
-     */
-    private static List<TransactionLog> getDummyLogs(int count) {
-        List<TransactionLog> logs = new ArrayList<>();
-        String[] players = {"Alex", "Steve", "Herobrine", "Notch", "Jeb"};
-        String[] shops = {"Central Market", "Wilderness Outpost", "Mining Supplies", "Farm Tools"};
-        String[] items = {"Diamond Pickaxe", "Iron Sword", "Golden Apple", "Enchanted Book", "Bread", "Steak"};
-        String[] types = {"buy", "sell"};
-        Random random = new Random();
-        
-        for (int i = 0; i < count; i++) {
-            TransactionLog log = new TransactionLog();
-            log.setId(UUID.randomUUID());
-            log.setTimestamp(System.currentTimeMillis() - random.nextInt(1000000000)); // Random time in the past
-            log.setType(types[random.nextInt(types.length)]);
-            log.setAmount(random.nextInt(64) + 1);
-            log.setItemName(items[random.nextInt(items.length)]);
-            log.setPrice(random.nextDouble() * 100);
-            log.setCurrency("coin");
-            log.setShopName(shops[random.nextInt(shops.length)]);
-            log.setAdminShop(random.nextBoolean());
-            log.setPlayerName(players[random.nextInt(players.length)]);
-            logs.add(log);
-        }
-        
-        // Sort by timestamp (newest first)
-        logs.sort(Comparator.comparing(TransactionLog::getTimestamp).reversed());
-        
-        return logs;
-    }
-    
-    /**
-     * A transaction log entry
-     */
-    private static class TransactionLog {
-        private UUID id;
-        private long timestamp;
-        private String type;
-        private int amount;
-        private String itemName;
-        private double price;
-        private String currency;
-        private String shopName;
-        private boolean adminShop;
-        private String playerName;
-        
-        public UUID getId() {
-            return id;
-        }
-        
-        public void setId(UUID id) {
-            this.id = id;
-        }
-        
-        public long getTimestamp() {
-            return timestamp;
-        }
-        
-        public void setTimestamp(long timestamp) {
-            this.timestamp = timestamp;
-        }
-        
-        public String getType() {
-            return type;
-        }
-        
-        public void setType(String type) {
-            this.type = type;
-        }
-        
-        public int getAmount() {
-            return amount;
-        }
-        
-        public void setAmount(int amount) {
-            this.amount = amount;
-        }
-        
-        public String getItemName() {
-            return itemName;
-        }
-        
-        public void setItemName(String itemName) {
-            this.itemName = itemName;
-        }
-        
-        public double getPrice() {
-            return price;
-        }
-        
-        public void setPrice(double price) {
-            this.price = price;
-        }
-        
-        public String getCurrency() {
-            return currency;
-        }
-        
-        public void setCurrency(String currency) {
-            this.currency = currency;
-        }
-        
-        public String getShopName() {
-            return shopName;
-        }
-        
-        public void setShopName(String shopName) {
-            this.shopName = shopName;
-        }
-        
-        public boolean isAdminShop() {
-            return adminShop;
-        }
-        
-        public void setAdminShop(boolean adminShop) {
-            this.adminShop = adminShop;
-        }
-        
-        public String getPlayerName() {
-            return playerName;
-        }
-        
-        public void setPlayerName(String playerName) {
-            this.playerName = playerName;
-        }
-    }
-} 
\ No newline at end of file
+}
+    
\ No newline at end of file
@@ -350,7 +350,7 @@ public class ChatListener implements Listener {
         shop.setCategory(lowerCategory);
         
         // Save the shop
-        plugin.getDatabaseManager().saveShop(shop);
+        plugin.getDataManager().saveData();
         
         // Send success message
         MessageUtils.sendSuccessMessage(player, "Shop category set to " + lowerCategory);
@@ -395,7 +395,7 @@ public class ChatListener implements Listener {
         shop.setTaxRate(taxRate);
         
         // Save the shop
-        plugin.getDatabaseManager().saveShop(shop);
+        plugin.getDataManager().saveData();
         
         // Send success message
         MessageUtils.sendSuccessMessage(player, "Shop tax rate set to " + taxRate + "%");
@@ -5,6 +5,7 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
 import org.frizzlenpop.frizzlenShop.FrizzlenShop;
 import org.frizzlenpop.frizzlenShop.shops.Shop;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
@@ -72,4 +73,10 @@ public class ShopListener implements Listener {
         event.setCancelled(true);
         MessageUtils.sendErrorMessage(player, "You cannot place blocks at a shop location.");
     }
-} 
\ No newline at end of file
+
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent event) {
+        // Get the items of shops in the chunk ready before anyone opens them
+        plugin.getDataManager().prefetchItems(event.getWorld().getName(), event.getChunk().getX(), event.getChunk().getZ());
+    }
+}
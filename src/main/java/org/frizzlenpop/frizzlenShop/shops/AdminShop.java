@@ -8,6 +8,7 @@ import org.frizzlenpop.frizzlenShop.FrizzlenShop;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of an admin shop with infinite stock
@@ -30,6 +31,12 @@ public class AdminShop implements Shop {
     private boolean notificationsEnabled = true;
     private int tier = 1;
     private String category = "misc";
+    // Bumped on every change to the shop itself; items track their own changes
+    private final AtomicLong version = new AtomicLong(1);
+    private volatile long savedVersion;
+    // The row version and stats in storage this shop is based on; 0 until it is first stored
+    private long storedVersion;
+    private Map<String, Double> storedStats = new HashMap<>();
 
     /**
      * Create a new admin shop
@@ -101,6 +108,7 @@ public class AdminShop implements Shop {
     @Override
     public void setName(String name) {
         this.name = name;
+        markDirty();
     }
 
     @Override
@@ -116,6 +124,7 @@ public class AdminShop implements Shop {
     @Override
     public void setLocation(Location location) {
         this.location = location;
+        markDirty();
     }
 
     @Override
@@ -164,6 +173,7 @@ public class AdminShop implements Shop {
         
         // Add the item
         items.add(shopItem);
+        markDirty();
         
         // Update last accessed
         updateLastAccessed();
@@ -177,6 +187,10 @@ public class AdminShop implements Shop {
             ShopItem shopItem = iterator.next();
             if (shopItem.matches(item)) {
                 iterator.remove();
+                markDirty();
+                if (plugin.getDataManager() != null) {
+                    plugin.getDataManager().getItemSlots().release(shopItem);
+                }
                 return true;
             }
         }
@@ -334,6 +348,12 @@ public class AdminShop implements Shop {
             plugin.getDynamicPricingManager().recordTransaction(shopItem, amount, true);
         }
         
+        // Queue the trade for the transaction history; it is written in the background
+        if (plugin.getDatabaseManager() != null) {
+            plugin.getDatabaseManager().getTradeRecorder().record(id, player.getUniqueId(), shopItem.getId(), item.getType(),
+                    amount, totalPrice, "buy");
+        }
+        
         // Log the transaction
         plugin.getLogManager().logTransaction(player, this, item, amount, totalPrice, currency, true);
         
@@ -400,6 +420,12 @@ public class AdminShop implements Shop {
             plugin.getDynamicPricingManager().recordTransaction(shopItem, amount, false);
         }
         
+        // Queue the trade for the transaction history; it is written in the background
+        if (plugin.getDatabaseManager() != null) {
+            plugin.getDatabaseManager().getTradeRecorder().record(id, player.getUniqueId(), shopItem.getId(), item.getType(),
+                    amount, price, "sell");
+        }
+        
         // Log the transaction
         plugin.getLogManager().logTransaction(player, this, item, amount, price, currency, false);
         
@@ -418,6 +444,7 @@ public class AdminShop implements Shop {
     @Override
     public void setDescription(String description) {
         this.description = description;
+        markDirty();
     }
 
     @Override
@@ -428,6 +455,7 @@ public class AdminShop implements Shop {
     @Override
     public void setTaxRate(double taxRate) {
         this.taxRate = taxRate;
+        markDirty();
     }
 
     @Override
@@ -437,8 +465,19 @@ public class AdminShop implements Shop {
 
     @Override
     public void updateStat(String stat, double value) {
-        double currentValue = stats.getOrDefault(stat, 0.0);
-        stats.put(stat, currentValue + value);
+        double newValue = stats.getOrDefault(stat, 0.0) + value;
+        stats.put(stat, newValue);
+        markDirty();
+        
+        // Journal the new value so it survives a crash before the next save
+        if (plugin.getDataManager() != null) {
+            plugin.getDataManager().getJournal().recordStat(id, stat, newValue);
+        }
+    }
+
+    @Override
+    public void loadStats(Map<String, Double> stats) {
+        this.stats.putAll(stats);
     }
 
     /**
@@ -480,6 +519,7 @@ public class AdminShop implements Shop {
     @Override
     public void setOpen(boolean open) {
         this.open = open;
+        markDirty();
     }
 
     @Override
@@ -739,6 +779,7 @@ public class AdminShop implements Shop {
     @Override
     public void setPublic(boolean isPublic) {
         this.isPublic = isPublic;
+        markDirty();
     }
 
     @Override
@@ -749,6 +790,7 @@ public class AdminShop implements Shop {
     @Override
     public void setTheme(String theme) {
         this.theme = theme;
+        markDirty();
     }
 
     @Override
@@ -759,6 +801,7 @@ public class AdminShop implements Shop {
     @Override
     public void setNotificationsEnabled(boolean enabled) {
         this.notificationsEnabled = enabled;
+        markDirty();
     }
 
     @Override
@@ -769,6 +812,7 @@ public class AdminShop implements Shop {
     @Override
     public void setTier(int tier) {
         this.tier = Math.max(1, Math.min(3, tier));
+        markDirty();
     }
 
     @Override
@@ -779,5 +823,67 @@ public class AdminShop implements Shop {
     @Override
     public void setCategory(String category) {
         this.category = category;
+        markDirty();
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public boolean isDirty() {
+        return version.get() != savedVersion;
+    }
+
+    @Override
+    public void markSaved(long version) {
+        this.savedVersion = version;
+    }
+
+    @Override
+    public void markDirty() {
+        version.incrementAndGet();
+    }
+
+    @Override
+    public synchronized long getStoredVersion() {
+        return storedVersion;
+    }
+
+    @Override
+    public synchronized void markStored(long version, Map<String, Double> stats) {
+        if (version >= storedVersion) {
+            this.storedVersion = version;
+            this.storedStats = new HashMap<>(stats);
+        }
+    }
+
+    @Override
+    public synchronized boolean applyStored(Shop stored) {
+        if (stored.getStoredVersion() <= storedVersion) {
+            return false;
+        }
+        
+        Map<String, Double> storedNow = stored.getStats();
+        if (!isDirty()) {
+            this.name = stored.getName();
+            this.description = stored.getDescription();
+            this.taxRate = stored.getTaxRate();
+            this.open = stored.isOpen();
+            if (stored.getLocation() != null) {
+                this.location = stored.getLocation();
+            }
+            stats.clear();
+            stats.putAll(storedNow);
+        } else {
+            // Both servers traded; keep both changes
+            for (Map.Entry<String, Double> stat : storedNow.entrySet()) {
+                stats.merge(stat.getKey(), stat.getValue() - storedStats.getOrDefault(stat.getKey(), 0.0), Double::sum);
+            }
+        }
+        this.storedVersion = stored.getStoredVersion();
+        this.storedStats = new HashMap<>(storedNow);
+        return true;
     }
-} 
\ No newline at end of file
+}
@@ -9,6 +9,7 @@ import org.frizzlenpop.frizzlenShop.FrizzlenShop;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of a player-owned shop with limited stock
@@ -20,7 +21,10 @@ public class PlayerShop implements Shop {
     private String name;
     private final UUID owner;
     private Location location;
-    private final List<ShopItem> items;
+    // Null while the items are stored but not loaded yet; see items()
+    private List<ShopItem> items;
+    private int storedItemCount;
+    private long itemsLastUsed;
     private long lastAccessed;
     private final long creationTime;
     private long expirationTime;
@@ -33,6 +37,12 @@ public class PlayerShop implements Shop {
     private String theme = "default";
     private boolean notificationsEnabled = true;
     private String category = "misc";
+    // Bumped on every change to the shop itself; items track their own changes
+    private final AtomicLong version = new AtomicLong(1);
+    private volatile long savedVersion;
+    // The row version and stats in storage this shop is based on; 0 until it is first stored
+    private long storedVersion;
+    private Map<String, Double> storedStats = new HashMap<>();
 
     /**
      * Create a new player shop
@@ -49,6 +59,7 @@ public class PlayerShop implements Shop {
         this.owner = owner;
         this.location = location;
         this.items = new ArrayList<>();
+        this.itemsLastUsed = System.currentTimeMillis();
         this.lastAccessed = System.currentTimeMillis();
         this.creationTime = System.currentTimeMillis();
         this.description = "A player shop";
@@ -84,6 +95,7 @@ public class PlayerShop implements Shop {
         this.owner = owner;
         this.location = location;
         this.items = new ArrayList<>();
+        this.itemsLastUsed = System.currentTimeMillis();
         this.lastAccessed = System.currentTimeMillis();
         this.creationTime = System.currentTimeMillis();
         this.description = "A player shop";
@@ -117,6 +129,7 @@ public class PlayerShop implements Shop {
     @Override
     public void setName(String name) {
         this.name = name;
+        markDirty();
     }
 
     @Override
@@ -132,6 +145,7 @@ public class PlayerShop implements Shop {
     @Override
     public void setLocation(Location location) {
         this.location = location;
+        markDirty();
     }
 
     @Override
@@ -156,7 +170,80 @@ public class PlayerShop implements Shop {
 
     @Override
     public List<ShopItem> getItems() {
-        return new ArrayList<>(items); // Return a copy to prevent direct modification
+        return new ArrayList<>(items()); // Return a copy to prevent direct modification
+    }
+
+    @Override
+    public int getItemCount() {
+        return items != null ? items.size() : storedItemCount;
+    }
+
+    @Override
+    public boolean isItemsLoaded() {
+        return items != null;
+    }
+
+    /**
+     * Leave the items in storage until they are first needed
+     *
+     * @param count The number of stored items
+     */
+    public void setItemsUnloaded(int count) {
+        this.items = null;
+        this.storedItemCount = count;
+    }
+
+    /**
+     * Use items that were loaded in the background, unless the items were loaded meanwhile
+     *
+     * @param loaded The loaded items
+     * @return True if the items were used
+     */
+    public boolean installItems(List<ShopItem> loaded) {
+        if (items != null) {
+            return false;
+        }
+        items = new ArrayList<>(loaded);
+        itemsLastUsed = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Drop the items from memory if they haven't been used for a while and everything
+     * about the shop is saved. They are loaded again when next needed.
+     *
+     * @param idleMillis How long the items must have been unused, in milliseconds
+     * @return True if the items were unloaded
+     */
+    public boolean unloadIdleItems(long idleMillis) {
+        if (items == null || isDirty() || System.currentTimeMillis() - itemsLastUsed < idleMillis) {
+            return false;
+        }
+        for (ShopItem shopItem : items) {
+            if (shopItem.isDirty()) {
+                return false;
+            }
+        }
+        setItemsUnloaded(items.size());
+        return true;
+    }
+
+    /**
+     * Get the item list, loading it from storage on first use
+     *
+     * @return The live item list
+     */
+    private List<ShopItem> items() {
+        if (items == null) {
+            List<ShopItem> loaded = plugin.getDataManager().loadItems(id);
+            if (loaded == null) {
+                // Storage failed; keep the items unloaded so a save can't drop the stored ones
+                return new ArrayList<>();
+            }
+            items = loaded;
+        }
+        itemsLastUsed = System.currentTimeMillis();
+        return items;
     }
 
     @Override
@@ -168,7 +255,7 @@ public class PlayerShop implements Shop {
     @Override
     public boolean addItem(ShopItem shopItem) {
         // Check if the item already exists
-        for (ShopItem existingItem : items) {
+        for (ShopItem existingItem : items()) {
             if (existingItem.matches(shopItem.getItem())) {
                 return false; // Item already exists
             }
@@ -178,7 +265,8 @@ public class PlayerShop implements Shop {
         shopItem.setShopId(this.id);
         
         // Add the item
-        items.add(shopItem);
+        items().add(shopItem);
+        markDirty();
         
         // Update last accessed
         updateLastAccessed();
@@ -188,10 +276,14 @@ public class PlayerShop implements Shop {
 
     @Override
     public boolean removeItem(ItemStack item) {
-        for (Iterator<ShopItem> iterator = items.iterator(); iterator.hasNext();) {
+        for (Iterator<ShopItem> iterator = items().iterator(); iterator.hasNext();) {
             ShopItem shopItem = iterator.next();
             if (shopItem.matches(item)) {
                 iterator.remove();
+                markDirty();
+                if (plugin.getDataManager() != null) {
+                    plugin.getDataManager().getItemSlots().release(shopItem);
+                }
                 return true;
             }
         }
@@ -200,7 +292,7 @@ public class PlayerShop implements Shop {
 
     @Override
     public boolean hasItem(ItemStack item) {
-        for (ShopItem shopItem : items) {
+        for (ShopItem shopItem : items()) {
             if (shopItem.matches(item)) {
                 return true;
             }
@@ -210,7 +302,7 @@ public class PlayerShop implements Shop {
 
     @Override
     public ShopItem getShopItem(ItemStack item) {
-        for (ShopItem shopItem : items) {
+        for (ShopItem shopItem : items()) {
             if (shopItem.matches(item)) {
                 return shopItem;
             }
@@ -220,7 +312,7 @@ public class PlayerShop implements Shop {
 
     @Override
     public ShopItem getItem(UUID itemId) {
-        for (ShopItem shopItem : items) {
+        for (ShopItem shopItem : items()) {
             if (shopItem.getId().equals(itemId)) {
                 return shopItem;
             }
@@ -381,6 +473,12 @@ public class PlayerShop implements Shop {
             plugin.getDynamicPricingManager().recordTransaction(shopItem, amount, true);
         }
         
+        // Queue the trade for the transaction history; it is written in the background
+        if (plugin.getDatabaseManager() != null) {
+            plugin.getDatabaseManager().getTradeRecorder().record(id, player.getUniqueId(), shopItem.getId(), item.getType(),
+                    amount, totalPrice, "buy");
+        }
+        
         // Log the transaction
         plugin.getLogManager().logTransaction(player, this, item, amount, totalPrice, currency, true);
         
@@ -499,6 +597,12 @@ public class PlayerShop implements Shop {
             plugin.getDynamicPricingManager().recordTransaction(shopItem, amount, false);
         }
         
+        // Queue the trade for the transaction history; it is written in the background
+        if (plugin.getDatabaseManager() != null) {
+            plugin.getDatabaseManager().getTradeRecorder().record(id, player.getUniqueId(), shopItem.getId(), item.getType(),
+                    amount, price, "sell");
+        }
+        
         // Log the transaction
         plugin.getLogManager().logTransaction(player, this, item, amount, price, currency, false);
         
@@ -525,6 +629,7 @@ public class PlayerShop implements Shop {
     @Override
     public void setDescription(String description) {
         this.description = description;
+        markDirty();
     }
 
     @Override
@@ -535,6 +640,7 @@ public class PlayerShop implements Shop {
     @Override
     public void setTaxRate(double taxRate) {
         this.taxRate = taxRate;
+        markDirty();
     }
 
     @Override
@@ -544,8 +650,19 @@ public class PlayerShop implements Shop {
 
     @Override
     public void updateStat(String stat, double value) {
-        double currentValue = stats.getOrDefault(stat, 0.0);
-        stats.put(stat, currentValue + value);
+        double newValue = stats.getOrDefault(stat, 0.0) + value;
+        stats.put(stat, newValue);
+        markDirty();
+        
+        // Journal the new value so it survives a crash before the next save
+        if (plugin.getDataManager() != null) {
+            plugin.getDataManager().getJournal().recordStat(id, stat, newValue);
+        }
+    }
+
+    @Override
+    public void loadStats(Map<String, Double> stats) {
+        this.stats.putAll(stats);
     }
     
     /**
@@ -586,6 +703,7 @@ public class PlayerShop implements Shop {
      */
     public void setExpirationTime(long expirationTime) {
         this.expirationTime = expirationTime;
+        markDirty();
     }
     
     /**
@@ -641,6 +759,7 @@ public class PlayerShop implements Shop {
      */
     public void setAutoRenew(boolean autoRenew) {
         this.autoRenew = autoRenew;
+        markDirty();
     }
 
     @Override
@@ -672,6 +791,7 @@ public class PlayerShop implements Shop {
     @Override
     public void setOpen(boolean open) {
         this.open = open;
+        markDirty();
     }
 
     @Override
@@ -688,6 +808,7 @@ public class PlayerShop implements Shop {
     @Override
     public void setPublic(boolean isPublic) {
         this.isPublic = isPublic;
+        markDirty();
     }
 
     @Override
@@ -698,6 +819,7 @@ public class PlayerShop implements Shop {
     @Override
     public void setTheme(String theme) {
         this.theme = theme;
+        markDirty();
     }
 
     @Override
@@ -708,6 +830,7 @@ public class PlayerShop implements Shop {
     @Override
     public void setNotificationsEnabled(boolean enabled) {
         this.notificationsEnabled = enabled;
+        markDirty();
     }
 
     @Override
@@ -729,5 +852,71 @@ public class PlayerShop implements Shop {
     @Override
     public void setCategory(String category) {
         this.category = category;
+        markDirty();
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public boolean isDirty() {
+        return version.get() != savedVersion;
+    }
+
+    @Override
+    public void markSaved(long version) {
+        this.savedVersion = version;
+    }
+
+    @Override
+    public void markDirty() {
+        version.incrementAndGet();
+    }
+
+    @Override
+    public synchronized long getStoredVersion() {
+        return storedVersion;
+    }
+
+    @Override
+    public synchronized void markStored(long version, Map<String, Double> stats) {
+        if (version >= storedVersion) {
+            this.storedVersion = version;
+            this.storedStats = new HashMap<>(stats);
+        }
+    }
+
+    @Override
+    public synchronized boolean applyStored(Shop stored) {
+        if (stored.getStoredVersion() <= storedVersion) {
+            return false;
+        }
+        
+        Map<String, Double> storedNow = stored.getStats();
+        if (!isDirty()) {
+            this.name = stored.getName();
+            this.description = stored.getDescription();
+            this.taxRate = stored.getTaxRate();
+            this.open = stored.isOpen();
+            if (stored.getLocation() != null) {
+                this.location = stored.getLocation();
+            }
+            if (stored instanceof PlayerShop) {
+                this.expirationTime = ((PlayerShop) stored).getExpirationTime();
+                this.autoRenew = ((PlayerShop) stored).isAutoRenewEnabled();
+            }
+            stats.clear();
+            stats.putAll(storedNow);
+        } else {
+            // Both servers traded; keep both changes
+            for (Map.Entry<String, Double> stat : storedNow.entrySet()) {
+                stats.merge(stat.getKey(), stat.getValue() - storedStats.getOrDefault(stat.getKey(), 0.0), Double::sum);
+            }
+        }
+        this.storedVersion = stored.getStoredVersion();
+        this.storedStats = new HashMap<>(storedNow);
+        return true;
     }
-} 
\ No newline at end of file
+}
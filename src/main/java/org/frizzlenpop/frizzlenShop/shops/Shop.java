@@ -89,6 +89,25 @@ public interface Shop {
      */
     List<ShopItem> getItems();
 
+    /**
+     * Get the number of items in the shop, without loading the items if they aren't loaded yet
+     *
+     * @return The number of items
+     */
+    default int getItemCount() {
+        return getItems().size();
+    }
+
+    /**
+     * Check whether the shop's items are in memory. Shops whose items are loaded on demand
+     * load them on the first call to {@link #getItems()} or any other item method.
+     *
+     * @return True if the items are loaded
+     */
+    default boolean isItemsLoaded() {
+        return true;
+    }
+
     /**
      * Add an item to the shop
      *
@@ -273,6 +292,14 @@ public interface Shop {
      * @param value The value to add to the stat
      */
     void updateStat(String stat, double value);
+    
+    /**
+     * Set stats read from storage. Unlike {@link #updateStat(String, double)} this journals
+     * nothing, so it is for shops that are being built by a loader and aren't registered yet.
+     *
+     * @param stats The stored stat values; stats not in the map keep their value
+     */
+    void loadStats(Map<String, Double> stats);
 
     /**
      * Check if the shop has enough stock of an item
@@ -387,4 +414,59 @@ public interface Shop {
      * @param category The new category
      */
     void setCategory(String category);
-} 
\ No newline at end of file
+    
+    /**
+     * Get the modification version of the shop. It increases every time the shop itself changes;
+     * items track their own changes.
+     * 
+     * @return The current version
+     */
+    long getVersion();
+    
+    /**
+     * Check whether the shop has changed since it was last saved
+     * 
+     * @return True if the shop needs saving
+     */
+    boolean isDirty();
+    
+    /**
+     * Record that the shop was saved as it was at a version. Changes made after that
+     * version was read keep the shop dirty.
+     * 
+     * @param version The version that was saved, from {@link #getVersion()} before saving
+     */
+    void markSaved(long version);
+    
+    /**
+     * Flag the shop as changed
+     */
+    void markDirty();
+    
+    /**
+     * Get the version of the stored row this shop is based on. Saves only overwrite the
+     * row if it still has this version.
+     * 
+     * @return The stored row version, or 0 if the shop isn't stored yet
+     */
+    long getStoredVersion();
+    
+    /**
+     * Record the row version and stats that are now in storage. Older versions are ignored,
+     * so a slow save can't undo a newer change read from storage.
+     * 
+     * @param version The stored row version
+     * @param stats   The stored stats
+     */
+    void markStored(long version, Map<String, Double> stats);
+    
+    /**
+     * Bring the shop's own fields up to date with a newer stored row written by another
+     * server. Unsaved stat changes are kept on top of the stored stats; other unsaved changes
+     * win over the stored values and are written by the next save. Nothing is journaled.
+     * 
+     * @param stored The shop as stored, with its row version
+     * @return True if the shop changed, false if the stored row wasn't newer
+     */
+    boolean applyStored(Shop stored);
+}
\ No newline at end of file
@@ -4,10 +4,13 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.inventory.meta.Damageable;
 import org.bukkit.Material;
+import org.frizzlenpop.frizzlenShop.data.DataManager;
 
+import java.util.Objects;
 import java.util.UUID;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents an item in a shop
@@ -24,6 +27,14 @@ public class ShopItem {
     private int soldCount;
     private int boughtCount;
     private long lastPriceChange;
+    // Bumped on every change; compared with savedVersion to find items that need saving
+    private final AtomicLong version = new AtomicLong(1);
+    private volatile long savedVersion;
+    // The row version and stock in storage this item is based on; 0 until it is first stored
+    private long storedVersion;
+    private int storedStock;
+    // The item's slot in the slot file, or -1 before it has one
+    private volatile int slot = -1;
 
     /**
      * Create a new shop item
@@ -117,7 +128,10 @@ public class ShopItem {
      * @param shopId The shop ID
      */
     public void setShopId(UUID shopId) {
-        this.shopId = shopId;
+        if (!Objects.equals(this.shopId, shopId)) {
+            this.shopId = shopId;
+            markDirty();
+        }
     }
 
     /**
@@ -155,6 +169,7 @@ public class ShopItem {
     public void setBuyPrice(double buyPrice) {
         this.buyPrice = buyPrice;
         this.lastPriceChange = System.currentTimeMillis();
+        recordChange();
     }
     
     /**
@@ -166,6 +181,7 @@ public class ShopItem {
         this.buyPrice = price;
         this.sellPrice = price * 0.8; // Default sell price is 80% of buy price
         this.lastPriceChange = System.currentTimeMillis();
+        recordChange();
     }
 
     /**
@@ -185,6 +201,7 @@ public class ShopItem {
     public void setSellPrice(double sellPrice) {
         this.sellPrice = sellPrice;
         this.lastPriceChange = System.currentTimeMillis();
+        recordChange();
     }
 
     /**
@@ -203,6 +220,7 @@ public class ShopItem {
      */
     public void setCurrency(String currency) {
         this.currency = currency;
+        recordChange(true);
     }
 
     /**
@@ -221,6 +239,7 @@ public class ShopItem {
      */
     public void setStock(int stock) {
         this.stock = stock;
+        recordChange();
     }
 
     /**
@@ -235,6 +254,7 @@ public class ShopItem {
         }
         
         stock += amount;
+        recordChange();
         return stock;
     }
 
@@ -254,6 +274,7 @@ public class ShopItem {
         }
         
         stock -= amount;
+        recordChange();
         return stock;
     }
 
@@ -268,7 +289,8 @@ public class ShopItem {
     }
 
     /**
-     * Get the sold count
+     * Get the sold count. Like the bought count and the last price change, it is only kept for
+     * the current session and starts over when the shop's items are next loaded.
      *
      * @return The sold count
      */
@@ -312,6 +334,170 @@ public class ShopItem {
         return lastPriceChange;
     }
 
+    /**
+     * Get the modification version of this item. It increases every time the item changes.
+     *
+     * @return The current version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Check whether the item has changed since it was last saved
+     *
+     * @return True if the item needs saving
+     */
+    public boolean isDirty() {
+        return version.get() != savedVersion;
+    }
+
+    /**
+     * Record that the item was saved as it was at a version. Changes made after that
+     * version was read keep the item dirty.
+     *
+     * @param version The version that was saved, from {@link #getVersion()} before saving
+     */
+    public void markSaved(long version) {
+        this.savedVersion = version;
+    }
+
+    /**
+     * Flag the item as changed
+     */
+    public void markDirty() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Get the version of the stored row this item is based on. Saves only overwrite the
+     * row if it still has this version.
+     *
+     * @return The stored row version, or 0 if the item isn't stored yet
+     */
+    public synchronized long getStoredVersion() {
+        return storedVersion;
+    }
+
+    /**
+     * Record the row version and stock that are now in storage. Older versions are ignored,
+     * so a slow save can't undo a newer change read from storage.
+     *
+     * @param version The stored row version
+     * @param stock   The stored stock
+     */
+    public synchronized void markStored(long version, int stock) {
+        if (version >= storedVersion) {
+            this.storedVersion = version;
+            this.storedStock = stock;
+        }
+    }
+
+    /**
+     * Record that the item's row was deleted from storage, so the next save stores it again
+     */
+    public synchronized void forgetStored() {
+        this.storedVersion = 0;
+    }
+
+    /**
+     * Bring the item up to date with a newer stored row written by another server. Unsaved
+     * stock changes are kept on top of the stored stock; other unsaved changes win over the
+     * stored values and are written by the next save. Nothing is journaled.
+     *
+     * @param stored The item as stored, with its row version
+     * @return True if the item changed, false if the stored row wasn't newer
+     */
+    public synchronized boolean applyStored(ShopItem stored) {
+        if (stored.getStoredVersion() <= storedVersion) {
+            return false;
+        }
+        
+        if (!isDirty()) {
+            this.buyPrice = stored.buyPrice;
+            this.sellPrice = stored.sellPrice;
+            this.currency = stored.currency;
+            this.stock = stored.stock;
+        } else if (stock != -1 && stored.stock != -1 && storedStock != -1) {
+            // Both servers traded; keep both changes
+            this.stock = Math.max(0, stock + stored.stock - storedStock);
+        }
+        this.storedVersion = stored.getStoredVersion();
+        this.storedStock = stored.stock;
+        
+        // The slot holds the current state, not a change, so it follows the stored row
+        org.frizzlenpop.frizzlenShop.FrizzlenShop plugin = org.frizzlenpop.frizzlenShop.FrizzlenShop.getInstance();
+        if (plugin != null && plugin.getDataManager() != null) {
+            plugin.getDataManager().getItemSlots().write(this);
+        }
+        return true;
+    }
+
+    /**
+     * Get the item's slot in the slot file
+     *
+     * @return The slot, or -1 if it has none
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Set the item's slot in the slot file. Only called by the slot file.
+     *
+     * @param slot The slot
+     */
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * Restore the numeric state read back from the item's slot after a crash. The item is
+     * flagged for saving if anything differs; nothing is journaled.
+     *
+     * @param stock     The stock
+     * @param buyPrice  The buy price
+     * @param sellPrice The sell price
+     * @return True if the item changed
+     */
+    public synchronized boolean applySlot(int stock, double buyPrice, double sellPrice) {
+        if (this.stock == stock && this.buyPrice == buyPrice && this.sellPrice == sellPrice) {
+            return false;
+        }
+        
+        this.stock = stock;
+        this.buyPrice = buyPrice;
+        this.sellPrice = sellPrice;
+        markDirty();
+        return true;
+    }
+
+    /**
+     * Flag a change to a persisted field and record the item's new state, so the change
+     * survives a crash before the next save
+     */
+    private void recordChange() {
+        recordChange(false);
+    }
+
+    /**
+     * Flag a change to a persisted field and record the item's new state. Numeric state goes
+     * to the item's slot when the slot file is open; otherwise, or when the change includes
+     * something a slot doesn't hold, it is journaled.
+     *
+     * @param journal True to journal the change even if the slot file took it
+     */
+    private void recordChange(boolean journal) {
+        markDirty();
+        org.frizzlenpop.frizzlenShop.FrizzlenShop plugin = org.frizzlenpop.frizzlenShop.FrizzlenShop.getInstance();
+        if (plugin != null && plugin.getDataManager() != null) {
+            DataManager dataManager = plugin.getDataManager();
+            if (!dataManager.getItemSlots().write(this) || journal) {
+                dataManager.getJournal().recordItem(this);
+            }
+        }
+    }
+
     /**
      * Check if the item matches another item
      *
@@ -192,6 +192,10 @@ public class ShopManager {
             return false;
         }
         
+        if (plugin.getDataManager() != null) {
+            plugin.getDataManager().getItemSlots().releaseShop(shopId);
+        }
+        
         // If it's a player shop, remove from player's shops list
         if (!shop.isAdminShop() && shop.getOwner() != null) {
             List<UUID> ownedShops = playerShops.get(shop.getOwner());
@@ -368,6 +372,14 @@ public class ShopManager {
         return true;
     }
     
+    /**
+     * Unregister every shop, before reloading them from storage
+     */
+    public void clearShops() {
+        shops.clear();
+        playerShops.clear();
+    }
+    
     /**
      * Add a shop (backwards compatibility method)
      *
@@ -4,6 +4,7 @@ import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.ClickType;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
@@ -12,9 +13,15 @@ import org.frizzlenpop.frizzlenShop.gui.GuiManager;
 import org.frizzlenpop.frizzlenShop.gui.MenuData;
 import org.frizzlenpop.frizzlenShop.gui.MenuType;
 import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.utils.BackupManager;
 import org.frizzlenpop.frizzlenShop.utils.MessageUtils;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 /**
@@ -103,8 +110,8 @@ public class TemplateMenuHandler {
                 Material.ENDER_CHEST,
                 "&6&lBackup & Restore",
                 Arrays.asList(
-                        "&7Backup your shop templates",
-                        "&7or restore from a previous backup"
+                        "&7Back up the shop database",
+                        "&7or restore a previous backup"
                 )
         );
         inventory.setItem(33, backupRestoreItem);
@@ -703,16 +710,179 @@ public class TemplateMenuHandler {
     }
     
     /**
-     * Opens the backup and restore menu
+     * Opens the backup and restore menu, listing the database backups newest first
      *
      * @param guiManager The GUI manager
      * @param plugin The plugin instance
      * @param player The player viewing the menu
      */
     public static void openBackupRestoreMenu(GuiManager guiManager, FrizzlenShop plugin, Player player) {
-        // TODO: Implement backup/restore menu
-        player.sendMessage(ChatColor.YELLOW + "Backup and restore menu is coming soon!");
-        openTemplateManagementMenu(guiManager, plugin, player);
+        if (!player.hasPermission("frizzlenshop.admin.backup")) {
+            MessageUtils.sendErrorMessage(player, "You don't have permission to manage database backups.");
+            return;
+        }
+        
+        BackupManager backupManager = plugin.getDatabaseManager().getBackupManager();
+        Inventory inventory = Bukkit.createInventory(null, 54, ChatColor.DARK_PURPLE + "Database Backups");
+        
+        // Backups, newest first
+        List<File> backups = backupManager.listBackups();
+        String pending = backupManager.getPendingRestore();
+        DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        List<String> names = new ArrayList<>();
+        for (File backup : backups) {
+            if (names.size() >= 45) break; // Max 45 backups per page
+            
+            LocalDateTime created = backupManager.getCreated(backup);
+            boolean staged = backup.getName().equals(pending);
+            List<String> lore = new ArrayList<>();
+            lore.add("&7Taken: &b" + (created != null ? created.format(dateFormat) : "unknown"));
+            lore.add("&7Kind: &b" + backupManager.getKind(backup));
+            lore.add("&7Size: &b" + (backup.length() / 1024) + " KB");
+            lore.add("");
+            if (staged) {
+                lore.add("&aRestored on the next server start");
+                lore.add("&eShift-click to cancel the restore");
+            } else {
+                lore.add("&eShift-click to restore on the next start");
+            }
+            
+            inventory.setItem(names.size(), guiManager.createGuiItem(
+                    staged ? Material.ENCHANTED_BOOK : Material.BOOK,
+                    (staged ? "&a&l" : "&6&l") + backup.getName(),
+                    lore
+            ));
+            names.add(backup.getName());
+        }
+        
+        // Backup now button
+        ItemStack backupItem = guiManager.createGuiItem(
+                backupManager.isRunning() ? Material.CLOCK : Material.ENDER_CHEST,
+                "&a&lBack Up Now",
+                backupManager.isRunning()
+                        ? Arrays.asList("&7A backup is running (&b" + backupManager.getProgress() + "%&7)")
+                        : Arrays.asList(
+                                "&7Copy the database in the background",
+                                "&7without pausing trades",
+                                "",
+                                "&eClick to back up"
+                        )
+        );
+        inventory.setItem(47, backupItem);
+        
+        // Back button
+        ItemStack backItem = guiManager.createGuiItem(
+                Material.ARROW,
+                "&c&lBack",
+                Collections.singletonList("&7Return to the template management menu")
+        );
+        inventory.setItem(49, backItem);
+        
+        // Restore info
+        ItemStack infoItem = guiManager.createGuiItem(
+                Material.PAPER,
+                "&e&lRestoring",
+                Arrays.asList(
+                        "&7A restore replaces the whole database",
+                        "&7when the server next starts. The current",
+                        "&7database is kept as a pre-restore backup.",
+                        "",
+                        pending != null ? "&7Staged: &a" + pending : "&7No restore is staged"
+                )
+        );
+        inventory.setItem(51, infoItem);
+        
+        // Fill empty slots
+        guiManager.fillEmptySlots(inventory);
+        
+        // Open inventory
+        player.openInventory(inventory);
+        
+        // Set player's menu data
+        MenuData menuData = new MenuData(MenuType.SHOP_BACKUP);
+        menuData.setData("backups", names);
+        guiManager.menuData.put(player.getUniqueId(), menuData);
+    }
+    
+    /**
+     * Handle clicks in the backup and restore menu
+     *
+     * @param guiManager The GUI manager
+     * @param plugin The plugin instance
+     * @param player The player who clicked
+     * @param slot The slot that was clicked
+     * @param menuData The menu data
+     * @param clickType The type of click
+     * @return True if the click was handled, false otherwise
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean handleBackupRestoreClick(GuiManager guiManager, FrizzlenShop plugin, Player player, int slot,
+                                                   MenuData menuData, ClickType clickType) {
+        if (!player.hasPermission("frizzlenshop.admin.backup")) {
+            player.closeInventory();
+            return true;
+        }
+        BackupManager backupManager = plugin.getDatabaseManager().getBackupManager();
+        
+        if (slot == 49) {
+            // Back button
+            openTemplateManagementMenu(guiManager, plugin, player);
+            return true;
+        } else if (slot == 47) {
+            // Back up now
+            if (backupManager.isRunning()) {
+                MessageUtils.sendErrorMessage(player, "A backup is already running.");
+                return true;
+            }
+            MessageUtils.sendMessage(player, "&7Backing up the database...");
+            backupManager.backupAsync().whenComplete((backup, error) -> Bukkit.getScheduler().runTask(plugin, () -> {
+                if (error != null) {
+                    plugin.getLogger().log(Level.WARNING, "Database backup failed", error);
+                    MessageUtils.sendErrorMessage(player, "The backup failed: " + error.getMessage());
+                    return;
+                }
+                MessageUtils.sendSuccessMessage(player, "Backed up the database to " + backup.getName() + ".");
+                MenuData current = guiManager.getMenuData(player.getUniqueId());
+                if (current != null && current.getMenuType() == MenuType.SHOP_BACKUP) {
+                    openBackupRestoreMenu(guiManager, plugin, player);
+                }
+            }));
+            return true;
+        } else if (slot < 45) {
+            // Backup item; shift-click so a stray click can't stage a restore
+            List<String> names = (List<String>) menuData.getData("backups");
+            if (names == null || slot >= names.size() || !clickType.isShiftClick()) {
+                return true;
+            }
+            String name = names.get(slot);
+            try {
+                if (name.equals(backupManager.getPendingRestore())) {
+                    backupManager.cancelRestore();
+                    MessageUtils.sendSuccessMessage(player, "Cancelled the restore of " + name + ".");
+                } else {
+                    File backup = null;
+                    for (File file : backupManager.listBackups()) {
+                        if (file.getName().equals(name)) {
+                            backup = file;
+                        }
+                    }
+                    if (backup == null) {
+                        MessageUtils.sendErrorMessage(player, "That backup no longer exists.");
+                    } else {
+                        backupManager.stageRestore(backup);
+                        plugin.getLogger().warning(player.getName() + " staged a database restore from " + name + ".");
+                        MessageUtils.sendSuccessMessage(player, name + " will be restored when the server next starts.");
+                    }
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to stage a database restore", e);
+                MessageUtils.sendErrorMessage(player, "Failed to stage the restore: " + e.getMessage());
+            }
+            openBackupRestoreMenu(guiManager, plugin, player);
+            return true;
+        }
+        
+        return false;
     }
     
     /**
@@ -0,0 +1,506 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One immutable, columnar file of archived transactions, all from the same day.
+ * <p>
+ * A segment starts with an uncompressed header {@code [magic][format version][day][rows]
+ * [oldest second][newest second][newest ID][body length][compressed length]}, so the archive can
+ * be indexed without decompressing anything. The deflate-compressed body holds two dictionaries
+ * (UUIDs; materials and types) followed by one column at a time: IDs, timestamps as varint deltas
+ * in seconds, then shop, player, item, material and type as dictionary indexes, quantities and
+ * prices. A CRC32C over the compressed body comes last.
+ * <p>
+ * Rows are sorted oldest first. Readers memory-map the file, and a filter whose value isn't in the
+ * dictionary rejects the segment before any column is decoded.
+ */
+public final class ArchiveSegment {
+
+    /**
+     * The file extension of segment files
+     */
+    public static final String EXTENSION = ".seg";
+
+    private static final int MAGIC = 0x46534152; // "FSAR"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_BODY_SIZE = 256 * 1024 * 1024;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Comparator<DatabaseManager.Transaction> OLDEST_FIRST = Comparator.comparing(TransactionCursor::of);
+
+    private final File file;
+    private final String day;
+    private final int rows;
+    private final long oldestSecond;
+    private final long newestSecond;
+    private final UUID newestId;
+    private final int bodyLength;
+    private final int compressedLength;
+    private final int headerLength;
+
+    private ArchiveSegment(File file, String day, int rows, long oldestSecond, long newestSecond, UUID newestId,
+                           int bodyLength, int compressedLength, int headerLength) {
+        this.file = file;
+        this.day = day;
+        this.rows = rows;
+        this.oldestSecond = oldestSecond;
+        this.newestSecond = newestSecond;
+        this.newestId = newestId;
+        this.bodyLength = bodyLength;
+        this.compressedLength = compressedLength;
+        this.headerLength = headerLength;
+    }
+
+    /**
+     * Write transactions of one day to a new segment. The file is written to a temporary file,
+     * synced to disk and then moved into place, so it is either complete or absent.
+     *
+     * @param file         The file to write; an existing file is replaced
+     * @param day          The day (UTC) of the transactions
+     * @param transactions The transactions, in any order
+     * @throws IOException If the file can't be written
+     */
+    public static void write(File file, String day, List<DatabaseManager.Transaction> transactions) throws IOException {
+        List<DatabaseManager.Transaction> sorted = new ArrayList<>(transactions);
+        sorted.sort(OLDEST_FIRST);
+        int rows = sorted.size();
+
+        Map<UUID, Integer> uuids = new LinkedHashMap<>();
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (DatabaseManager.Transaction transaction : sorted) {
+            uuids.putIfAbsent(transaction.getShopId(), uuids.size());
+            uuids.putIfAbsent(transaction.getPlayerId(), uuids.size());
+            uuids.putIfAbsent(transaction.getItemId(), uuids.size());
+            if (transaction.getMaterial() != null) {
+                strings.putIfAbsent(transaction.getMaterial(), strings.size());
+            }
+            strings.putIfAbsent(transaction.getType(), strings.size());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows * 24 + 1024);
+        DataOutputStream body = new DataOutputStream(bytes);
+        writeVarInt(body, uuids.size());
+        for (UUID uuid : uuids.keySet()) {
+            body.write(UuidBytes.toBytes(uuid));
+        }
+        writeVarInt(body, strings.size());
+        for (String string : strings.keySet()) {
+            body.writeUTF(string);
+        }
+
+        long[] seconds = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            seconds[i] = toSecond(sorted.get(i).getTimestamp());
+        }
+        for (DatabaseManager.Transaction transaction : sorted) {
+            body.write(UuidBytes.toBytes(transaction.getId()));
+        }
+        long previous = rows > 0 ? seconds[0] : 0;
+        for (long second : seconds) {
+            writeVarLong(body, second - previous);
+            previous = second;
+        }
+        for (DatabaseManager.Transaction transaction : sorted) {
+            writeVarInt(body, uuids.get(transaction.getShopId()));
+        }
+        for (DatabaseManager.Transaction transaction : sorted) {
+            writeVarInt(body, uuids.get(transaction.getPlayerId()));
+        }
+        for (DatabaseManager.Transaction transaction : sorted) {
+            writeVarInt(body, uuids.get(transaction.getItemId()));
+        }
+        for (DatabaseManager.Transaction transaction : sorted) {
+            // 0 for an unknown material, so the others are shifted by one
+            writeVarInt(body, transaction.getMaterial() != null ? strings.get(transaction.getMaterial()) + 1 : 0);
+        }
+        for (DatabaseManager.Transaction transaction : sorted) {
+            writeVarInt(body, strings.get(transaction.getType()));
+        }
+        for (DatabaseManager.Transaction transaction : sorted) {
+            writeVarInt(body, transaction.getQuantity());
+        }
+        for (DatabaseManager.Transaction transaction : sorted) {
+            body.writeDouble(transaction.getPrice());
+        }
+        body.flush();
+
+        byte[] raw = bytes.toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] compressed;
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            compressed = out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(compressed);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(day);
+        out.writeInt(rows);
+        out.writeLong(rows > 0 ? seconds[0] : 0);
+        out.writeLong(rows > 0 ? seconds[rows - 1] : 0);
+        out.write(UuidBytes.toBytes(rows > 0 ? sorted.get(rows - 1).getId() : new UUID(0, 0)));
+        out.writeInt(raw.length);
+        out.writeInt(compressed.length);
+        out.flush();
+
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] parts = {
+                    ByteBuffer.wrap(header.toByteArray()),
+                    ByteBuffer.wrap(compressed),
+                    ByteBuffer.allocate(4).putInt(0, (int) crc.getValue())
+            };
+            while (parts[2].hasRemaining()) {
+                channel.write(parts);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read the header of a segment
+     *
+     * @param file The segment file
+     * @return The segment
+     * @throws IOException If the file can't be read or isn't a segment this version can read
+     */
+    public static ArchiveSegment open(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 256))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file.getName() + " is not an archive segment");
+            }
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(file.getName() + " has format version " + version + ", which this version can't read");
+            }
+            String day = in.readUTF();
+            int rows = in.readInt();
+            long oldest = in.readLong();
+            long newest = in.readLong();
+            byte[] newestId = new byte[16];
+            in.readFully(newestId);
+            int bodyLength = in.readInt();
+            int compressedLength = in.readInt();
+            if (rows < 0 || bodyLength < 0 || bodyLength > MAX_BODY_SIZE || compressedLength < 0) {
+                throw new IOException(file.getName() + " is corrupted (bad header)");
+            }
+            int headerLength = 4 + 1 + 2 + day.getBytes(StandardCharsets.UTF_8).length + 4 + 8 + 8 + 16 + 4 + 4;
+            if (file.length() != (long) headerLength + compressedLength + 4) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+            return new ArchiveSegment(file, day, rows, oldest, newest, UuidBytes.fromBytes(newestId),
+                    bodyLength, compressedLength, headerLength);
+        }
+    }
+
+    /**
+     * Get the day (UTC) the transactions were made on
+     *
+     * @return The day, as yyyy-MM-dd
+     */
+    public String getDay() {
+        return day;
+    }
+
+    /**
+     * Get the number of transactions in the segment
+     *
+     * @return The row count
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the size of the segment on disk
+     *
+     * @return The size in bytes
+     */
+    public long getSize() {
+        return headerLength + compressedLength + 4L;
+    }
+
+    /**
+     * Get the position of the newest transaction in the segment
+     *
+     * @return The cursor of the newest row, or null for an empty segment
+     */
+    public TransactionCursor getNewest() {
+        return rows > 0 ? new TransactionCursor(toTimestamp(newestSecond), newestId.toString()) : null;
+    }
+
+    /**
+     * Get the position of the oldest transaction in the segment, without its ID
+     *
+     * @return The timestamp of the oldest row
+     */
+    public String getOldestTimestamp() {
+        return toTimestamp(oldestSecond);
+    }
+
+    /**
+     * Find the transactions a query includes. The file is memory-mapped and decompressed as it
+     * is decoded; if a filter value doesn't occur in the segment, only the dictionaries are read.
+     *
+     * @param query The filters and start position; its limit is ignored
+     * @return The matching transactions, oldest first
+     * @throws IOException If the file can't be read or is corrupted
+     */
+    public List<DatabaseManager.Transaction> scan(TransactionQuery query) throws IOException {
+        if (rows == 0) {
+            return new ArrayList<>();
+        }
+        TransactionCursor after = query.getAfter();
+        if (after != null && after.compareTo(new TransactionCursor(toTimestamp(oldestSecond), new UUID(0, 0).toString())) <= 0) {
+            return new ArrayList<>();
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, getSize());
+            ByteBuffer compressed = mapped.slice(headerLength, compressedLength);
+            CRC32C crc = new CRC32C();
+            crc.update(compressed.duplicate());
+            if ((int) crc.getValue() != mapped.getInt(headerLength + compressedLength)) {
+                throw new IOException(file.getName() + " is corrupted (checksum mismatch)");
+            }
+
+            Inflater inflater = new Inflater();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflatingInput(inflater, compressed), 16 * 1024))) {
+                return decode(in, query);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private List<DatabaseManager.Transaction> decode(DataInputStream in, TransactionQuery query) throws IOException {
+        UUID[] uuids = new UUID[readVarInt(in)];
+        byte[] uuidBytes = new byte[16];
+        Map<UUID, Integer> uuidIndex = new HashMap<>(uuids.length * 2);
+        for (int i = 0; i < uuids.length; i++) {
+            in.readFully(uuidBytes);
+            uuids[i] = UuidBytes.fromBytes(uuidBytes);
+            uuidIndex.put(uuids[i], i);
+        }
+        String[] strings = new String[readVarInt(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+
+        // A filter value that isn't in the dictionary can't match any row
+        int shop = query.getShopId() != null ? uuidIndex.getOrDefault(query.getShopId(), -1) : -2;
+        int player = query.getPlayerId() != null ? uuidIndex.getOrDefault(query.getPlayerId(), -1) : -2;
+        int item = query.getItemId() != null ? uuidIndex.getOrDefault(query.getItemId(), -1) : -2;
+        int material = query.getMaterial() != null ? Arrays.asList(strings).indexOf(query.getMaterial()) + 1 : -2;
+        if (shop == -1 || player == -1 || item == -1 || material == 0) {
+            return new ArrayList<>();
+        }
+
+        byte[] ids = new byte[rows * 16];
+        in.readFully(ids);
+        long[] seconds = new long[rows];
+        long second = oldestSecond;
+        for (int i = 0; i < rows; i++) {
+            second += readVarLong(in);
+            seconds[i] = second;
+        }
+        int[] shops = readColumn(in);
+        int[] players = readColumn(in);
+        int[] items = readColumn(in);
+        int[] materials = readColumn(in);
+        int[] types = readColumn(in);
+        int[] quantities = readColumn(in);
+
+        // Narrow down with the filter columns before building any rows
+        BitSet matches = new BitSet(rows);
+        matches.set(0, rows);
+        filter(matches, shops, shop);
+        filter(matches, players, player);
+        filter(matches, items, item);
+        filter(matches, materials, material);
+
+        double[] prices = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            prices[i] = in.readDouble();
+        }
+
+        List<DatabaseManager.Transaction> found = new ArrayList<>();
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            DatabaseManager.Transaction transaction = new DatabaseManager.Transaction(
+                    UuidBytes.fromBytes(Arrays.copyOfRange(ids, i * 16, i * 16 + 16)),
+                    uuids[shops[i]], uuids[players[i]], uuids[items[i]],
+                    materials[i] > 0 ? strings[materials[i] - 1] : null,
+                    quantities[i], prices[i], strings[types[i]], toTimestamp(seconds[i]));
+            // The type and start position are checked here
+            if (query.matches(transaction)) {
+                found.add(transaction);
+            }
+        }
+        return found;
+    }
+
+    private int[] readColumn(DataInputStream in) throws IOException {
+        int[] column = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            column[i] = readVarInt(in);
+        }
+        return column;
+    }
+
+    private static void filter(BitSet matches, int[] column, int value) {
+        if (value < 0) {
+            return;
+        }
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            if (column[i] != value) {
+                matches.clear(i);
+            }
+        }
+    }
+
+    /**
+     * Convert a database timestamp to seconds. Both databases return timestamps as
+     * "yyyy-MM-dd HH:mm:ss", MySQL sometimes with a fraction, which is dropped.
+     *
+     * @param timestamp The timestamp
+     * @return The seconds since the epoch, reading the timestamp as UTC
+     */
+    static long toSecond(String timestamp) {
+        return LocalDateTime.parse(timestamp.substring(0, 19), TIMESTAMP).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Convert seconds back to the timestamp form the database uses
+     *
+     * @param second The seconds since the epoch
+     * @return The timestamp
+     */
+    static String toTimestamp(long second) {
+        return LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC).format(TIMESTAMP);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        // Zigzag, so small negative numbers stay short too
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IOException("Archive segment is corrupted (value out of range)");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Archive segment is corrupted (varint too long)");
+    }
+
+    /**
+     * Decompresses straight from the mapped file
+     */
+    private static final class InflatingInput extends InputStream {
+        private final Inflater inflater;
+
+        private InflatingInput(Inflater inflater, ByteBuffer input) {
+            this.inflater = inflater;
+            inflater.setInput(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            try {
+                int read = inflater.inflate(buffer, offset, length);
+                if (read == 0) {
+                    if (inflater.finished()) {
+                        return -1;
+                    }
+                    throw new EOFException("Archive segment is truncated");
+                }
+                return read;
+            } catch (DataFormatException e) {
+                throw new IOException("Archive segment is corrupted", e);
+            }
+        }
+    }
+}
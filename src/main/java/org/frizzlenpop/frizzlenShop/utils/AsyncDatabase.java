@@ -0,0 +1,292 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Runs database work off the main thread and hands the results back to it.
+ * <p>
+ * Each task runs on its own virtual thread. The threads are cheap, but a JDBC call pins its
+ * carrier thread while it waits on the driver, so at most one task fewer than the connection
+ * pool size runs at once; the rest wait for a turn instead of timing out in the pool, and one
+ * connection stays free for the trade writer and background jobs.
+ * <p>
+ * {@link #supply} completes its future on the main thread, so callbacks may use the Bukkit API
+ * directly. Callbacks are dropped once the plugin is disabled. {@link #submit} completes on the
+ * database thread, for callers that keep working in the background.
+ * <p>
+ * With {@code database.debug_main_thread} on, every connection borrowed on the main thread
+ * while the server is ticking is counted, and the first one from each call site is logged with
+ * its stack.
+ */
+public class AsyncDatabase {
+
+    private static final int MAX_REPORTED_SITES = 100;
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Executor mainThread;
+    private final boolean debugMainThread;
+    private final Set<String> reportedSites = ConcurrentHashMap.newKeySet();
+    private final LongAdder mainThreadCalls = new LongAdder();
+    // Startup and shutdown load and save on the main thread by design; only ticks are checked
+    private volatile boolean ticking;
+
+    /**
+     * Creates a new async database facade
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The database to run tasks against
+     * @param maxConcurrent   The most tasks that may run at once
+     */
+    public AsyncDatabase(FrizzlenShop plugin, DatabaseManager databaseManager, int maxConcurrent) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("FrizzlenShop-DB-", 0).factory());
+        this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+        this.mainThread = this::runOnMainThread;
+        this.debugMainThread = plugin.getConfig().getBoolean("database.debug_main_thread", false);
+        if (debugMainThread) {
+            // The first tick runs once every plugin is enabled
+            Bukkit.getScheduler().runTask(plugin, () -> ticking = true);
+        }
+    }
+
+    /**
+     * Run a task on a database thread and complete with its result on the main thread
+     *
+     * @param task The task
+     * @param <T>  The result type
+     * @return The result; stages added to it on the main thread run on the main thread
+     */
+    public <T> CompletableFuture<T> supply(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submit(task).whenComplete((value, error) -> mainThread.execute(() -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        }));
+        return result;
+    }
+
+    /**
+     * Run a task on a database thread and complete with its result there
+     *
+     * @param task The task
+     * @param <T>  The result type
+     * @return The result
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.completeExceptionally(e);
+                    return;
+                }
+                try {
+                    result.complete(task.call());
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.SEVERE, "Database task failed", e);
+                    result.completeExceptionally(e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Read one page of the transaction history
+     *
+     * @param query The filters, start position and page size
+     * @return The page, on the main thread
+     * @see DatabaseManager#getTransactionPage(TransactionQuery)
+     */
+    public CompletableFuture<DatabaseManager.TransactionPage> getTransactionPage(TransactionQuery query) {
+        return supply(() -> databaseManager.getTransactionPage(query));
+    }
+
+    /**
+     * Read the transaction history matching a query, newest first, skipping the first rows
+     *
+     * @param query The filters, start position and limit
+     * @param skip  The number of transactions to skip
+     * @return The transactions, on the main thread
+     * @see DatabaseManager#streamTransactions(TransactionQuery)
+     */
+    public CompletableFuture<List<DatabaseManager.Transaction>> getTransactions(TransactionQuery query, int skip) {
+        return supply(() -> {
+            try (TransactionStream stream = databaseManager.streamTransactions(query)) {
+                return stream.stream().skip(skip).collect(Collectors.toList());
+            }
+        });
+    }
+
+    /**
+     * Sum up trades since a day
+     *
+     * @param shopId The shop to include, or null for all shops
+     * @param itemId The shop item to include, or null for all items
+     * @param since  The first day to include (UTC), or null for all time
+     * @return The totals, on the main thread
+     * @see DatabaseManager#getTradeTotals(UUID, UUID, LocalDate)
+     */
+    public CompletableFuture<DatabaseManager.TradeTotals> getTradeTotals(UUID shopId, UUID itemId, LocalDate since) {
+        return supply(() -> databaseManager.getTradeTotals(shopId, itemId, since));
+    }
+
+    /**
+     * Rank the players who traded the most items since a day
+     *
+     * @param type  The transaction type (buy/sell)
+     * @param since The first day to include (UTC), or null for all time
+     * @param limit The number of players to return
+     * @return The totals per player, on the main thread
+     * @see DatabaseManager#getTopPlayers(String, LocalDate, int)
+     */
+    public CompletableFuture<List<DatabaseManager.TradeTotals>> getTopPlayers(String type, LocalDate since, int limit) {
+        return supply(() -> databaseManager.getTopPlayers(type, since, limit));
+    }
+
+    /**
+     * Rank the shop items that were traded the most since a day
+     *
+     * @param type  The transaction type (buy/sell)
+     * @param since The first day to include (UTC), or null for all time
+     * @param limit The number of items to return
+     * @return The totals per item, on the main thread
+     * @see DatabaseManager#getTopItems(String, LocalDate, int)
+     */
+    public CompletableFuture<List<DatabaseManager.TradeTotals>> getTopItems(String type, LocalDate since, int limit) {
+        return supply(() -> databaseManager.getTopItems(type, since, limit));
+    }
+
+    /**
+     * Get an executor that runs tasks on the main thread: right away when called on it, otherwise
+     * on the next tick. Tasks are dropped once the plugin is disabled.
+     *
+     * @return The main thread executor
+     */
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    private void runOnMainThread(Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+            return;
+        }
+        if (!plugin.isEnabled()) {
+            return;
+        }
+        try {
+            Bukkit.getScheduler().runTask(plugin, task);
+        } catch (IllegalPluginAccessException e) {
+            // Disabled in the meantime; nobody is left to use the result
+        }
+    }
+
+    /**
+     * Check that a connection isn't borrowed on the main thread during a tick. Does nothing
+     * unless {@code database.debug_main_thread} is on.
+     */
+    void checkThread() {
+        if (!debugMainThread || !ticking || !plugin.isEnabled() || !Bukkit.isPrimaryThread()) {
+            return;
+        }
+        mainThreadCalls.increment();
+
+        String site = findCallSite();
+        if (reportedSites.size() < MAX_REPORTED_SITES && reportedSites.add(site)) {
+            plugin.getLogger().log(Level.WARNING, "Database connection borrowed on the main thread at " + site
+                    + "; this blocks the tick", new Throwable("Main-thread JDBC"));
+        }
+    }
+
+    /**
+     * Find the first caller outside the database classes
+     *
+     * @return The call site, as class.method:line
+     */
+    private static String findCallSite() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(frame -> !frame.getClassName().equals(AsyncDatabase.class.getName())
+                        && !frame.getClassName().equals(DatabaseManager.class.getName()))
+                .findFirst()
+                .map(frame -> frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+                .orElse("unknown"));
+    }
+
+    /**
+     * Get the number of connections borrowed on the main thread during ticks
+     *
+     * @return The count; always 0 unless {@code database.debug_main_thread} is on
+     */
+    public long getMainThreadCalls() {
+        return mainThreadCalls.sum();
+    }
+
+    /**
+     * Get the number of call sites that borrowed a connection on the main thread during ticks
+     *
+     * @return The call site count
+     */
+    public int getMainThreadSites() {
+        return reportedSites.size();
+    }
+
+    /**
+     * Check whether main-thread connections are being checked
+     *
+     * @return True if {@code database.debug_main_thread} is on
+     */
+    public boolean isDebugMainThread() {
+        return debugMainThread;
+    }
+
+    /**
+     * Stop accepting tasks and wait at most the configured shutdown timeout for running ones
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(plugin.getConfig().getLong("autosave.shutdown_timeout", 10), TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Database tasks did not finish in time; they were interrupted.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
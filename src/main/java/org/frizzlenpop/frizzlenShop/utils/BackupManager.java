@@ -0,0 +1,701 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.bukkit.scheduler.BukkitTask;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.data.DataManager;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.Codes;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backs up the database while the server is running, and restores a backup on the next start.
+ * <p>
+ * SQLite is copied with the online backup API, {@code database.backup_pages_per_step} pages per
+ * step with a pause between steps. A step only holds a read lock, which doesn't block writers in
+ * WAL mode, and the lock is released between steps. A commit by another connection restarts the
+ * copy, so after {@code database.backup_max_restarts} restarts the remaining steps run without
+ * pauses. MySQL is exported from a consistent snapshot ({@code START TRANSACTION WITH CONSISTENT
+ * SNAPSHOT}), which doesn't lock anything, to a gzipped SQL file.
+ * <p>
+ * Scheduled backups are kept on a rotating schedule: the newest {@code database.max_backups},
+ * plus the newest of each of the last {@code database.backup_keep_daily} days and
+ * {@code database.backup_keep_weekly} weeks. Manual and pre-restore backups are never deleted.
+ * <p>
+ * A restore is only staged while running, since shops, caches and market data are held in
+ * memory. The next start moves the current database aside as a {@code pre-restore} backup and
+ * puts the staged backup in its place before anything opens it.
+ */
+public class BackupManager {
+
+    /**
+     * The file extension of SQLite backups
+     */
+    public static final String SQLITE_EXTENSION = ".db";
+    /**
+     * The file extension of MySQL backups
+     */
+    public static final String MYSQL_EXTENSION = ".sql.gz";
+    /**
+     * Backups taken by the schedule, the only ones the retention schedule deletes
+     */
+    public static final String KIND_AUTO = "auto";
+    /**
+     * Backups taken on request
+     */
+    public static final String KIND_MANUAL = "manual";
+    /**
+     * The database as it was before a restore
+     */
+    public static final String KIND_PRE_RESTORE = "pre-restore";
+
+    private static final String PENDING_RESTORE = "restore.pending";
+    private static final String DUMP_END = "-- end of backup";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final int DUMP_STATEMENT_SIZE = 1024 * 1024;
+    private static final String[] TABLES = {
+            "schema_version", "shops", "shop_items", "item_blobs", "shop_changes", "transactions",
+            "transactions_daily", HistoryBackfill.LEGACY_TRANSACTIONS, HistoryBackfill.LEGACY_DAILY
+    };
+    private static final String[] PREFIXED_TABLES = {"materials", "market_trends", "item_transactions"};
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+    private final File directory;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private BukkitTask task;
+    private volatile boolean stopped;
+    private volatile int progress;
+
+    /**
+     * Creates a new backup manager
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The database to back up
+     */
+    public BackupManager(FrizzlenShop plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.directory = new File(new File(plugin.getDataFolder(), "backups"), "database");
+    }
+
+    /**
+     * Schedule backups every {@code database.backup_interval} seconds, if {@code database.auto_backup}
+     * is on. The first one runs when the interval has passed since the newest scheduled backup, so
+     * restarts don't postpone backups indefinitely.
+     */
+    public void start() {
+        if (!plugin.getConfig().getBoolean("database.auto_backup", true)) {
+            return;
+        }
+
+        long interval = Math.max(60, plugin.getConfig().getLong("database.backup_interval", 86400));
+        long delay = interval;
+        for (File backup : listBackups()) {
+            LocalDateTime created = getCreated(backup);
+            if (KIND_AUTO.equals(getKind(backup)) && created != null) {
+                delay = interval - ChronoUnit.SECONDS.between(created, LocalDateTime.now());
+                break;
+            }
+        }
+        delay = Math.max(60, delay);
+        task = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            try {
+                backup(KIND_AUTO);
+            } catch (IllegalStateException e) {
+                // A manual backup is running
+            } catch (IOException | SQLException e) {
+                plugin.getLogger().log(Level.WARNING, "Scheduled database backup failed", e);
+            }
+        }, delay * 20, interval * 20);
+    }
+
+    /**
+     * Stop scheduling backups. A backup in progress skips its remaining pauses.
+     */
+    public void stop() {
+        stopped = true;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Take a backup on an async thread
+     *
+     * @return A future completed with the backup file, on the async thread
+     */
+    public CompletableFuture<File> backupAsync() {
+        CompletableFuture<File> result = new CompletableFuture<>();
+        if (running.get()) {
+            result.completeExceptionally(new IllegalStateException("A backup is already running."));
+            return result;
+        }
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                result.complete(backup(KIND_MANUAL));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Take a backup on the calling thread. Must not be called on the main thread.
+     *
+     * @param kind The kind of backup, part of the file name
+     * @return The backup file
+     * @throws IllegalStateException If another backup is running
+     * @throws IOException           If the backup can't be written
+     * @throws SQLException          If the database can't be read
+     */
+    public File backup(String kind) throws IOException, SQLException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A backup is already running.");
+        }
+
+        long start = System.nanoTime();
+        progress = 0;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Failed to create the backup directory " + directory);
+            }
+            String extension = databaseManager.isMySql() ? MYSQL_EXTENSION : SQLITE_EXTENSION;
+            File target = new File(directory, "frizzlenshop-" + LocalDateTime.now().format(FILE_TIME) + "-" + kind + extension);
+            File temp = new File(directory, target.getName() + ".tmp");
+            Files.deleteIfExists(temp.toPath());
+            try {
+                if (databaseManager.isMySql()) {
+                    exportMySql(temp);
+                } else {
+                    backupSqlite(temp);
+                }
+                move(temp.toPath(), target.toPath());
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+
+            progress = 100;
+            plugin.getLogger().info(String.format("Backed up the database to %s (%d KB) in %d ms.", target.getName(),
+                    target.length() / 1024, (System.nanoTime() - start) / 1_000_000));
+            if (KIND_AUTO.equals(kind)) {
+                prune();
+            }
+            return target;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Check whether a backup is being taken
+     *
+     * @return True while a backup runs
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Get how far the running backup is
+     *
+     * @return The progress in percent; for MySQL, only 0 or 100
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    /**
+     * List the backups for the current database type, newest first
+     *
+     * @return The backup files
+     */
+    public List<File> listBackups() {
+        String extension = databaseManager.isMySql() ? MYSQL_EXTENSION : SQLITE_EXTENSION;
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("frizzlenshop-") && name.endsWith(extension));
+        List<File> backups = new ArrayList<>(files != null ? Arrays.asList(files) : List.of());
+        backups.sort(Comparator.comparing(File::getName).reversed());
+        return backups;
+    }
+
+    /**
+     * Get when a backup was taken, from its file name
+     *
+     * @param backup The backup file
+     * @return The local time, or null if the name isn't a backup name
+     */
+    public LocalDateTime getCreated(File backup) {
+        String name = backup.getName();
+        if (name.length() < 28) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(name.substring(13, 28), FILE_TIME);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the kind of a backup, from its file name
+     *
+     * @param backup The backup file
+     * @return {@link #KIND_AUTO}, {@link #KIND_MANUAL} or {@link #KIND_PRE_RESTORE}
+     */
+    public String getKind(File backup) {
+        String name = backup.getName();
+        String extension = name.endsWith(MYSQL_EXTENSION) ? MYSQL_EXTENSION : SQLITE_EXTENSION;
+        return name.length() > 29 + extension.length() ? name.substring(29, name.length() - extension.length()) : "";
+    }
+
+    /**
+     * Restore a backup on the next start
+     *
+     * @param backup The backup file, one of {@link #listBackups()}
+     * @throws IOException If the restore can't be staged
+     */
+    public void stageRestore(File backup) throws IOException {
+        if (!listBackups().contains(backup)) {
+            throw new IOException(backup.getName() + " is not a backup of this database");
+        }
+        Path pending = new File(directory, PENDING_RESTORE).toPath();
+        Path temp = new File(directory, PENDING_RESTORE + ".tmp").toPath();
+        Files.writeString(temp, backup.getName(), StandardCharsets.UTF_8);
+        move(temp, pending);
+        if (DataManager.storesShopsInDatabase(plugin)) {
+            // A cache from before the restore would be loaded over the restored shops
+            DataManager.deleteColdStartCache(plugin);
+        }
+    }
+
+    /**
+     * Cancel a staged restore
+     *
+     * @throws IOException If the staged restore can't be removed
+     */
+    public void cancelRestore() throws IOException {
+        Files.deleteIfExists(new File(directory, PENDING_RESTORE).toPath());
+    }
+
+    /**
+     * Get the backup that will be restored on the next start
+     *
+     * @return The backup file name, or null if no restore is staged
+     */
+    public String getPendingRestore() {
+        File pending = new File(directory, PENDING_RESTORE);
+        if (!pending.isFile()) {
+            return null;
+        }
+        try {
+            return Files.readString(pending.toPath(), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to read the staged restore", e);
+            return null;
+        }
+    }
+
+    /**
+     * Restore the staged backup, if any. Called once at startup, before the connection pool
+     * opens. The staged restore is removed whether or not it succeeds, so a bad backup can't
+     * stop every start.
+     */
+    void applyPendingRestore() {
+        String name = getPendingRestore();
+        if (name == null) {
+            return;
+        }
+
+        File backup = new File(directory, name);
+        try {
+            cancelRestore();
+            if (!backup.isFile()) {
+                plugin.getLogger().severe("The backup staged for restore, " + name + ", no longer exists; nothing was restored.");
+                return;
+            }
+            plugin.getLogger().info("Restoring the database from " + name + "...");
+            File previous;
+            if (databaseManager.isMySql()) {
+                previous = backup(KIND_PRE_RESTORE);
+                importMySql(backup);
+            } else {
+                // Copied next to the database first, so a failed copy leaves the database alone
+                Path restored = databaseManager.getDatabaseFile().toPath();
+                Path temp = restored.resolveSibling(restored.getFileName() + ".restore");
+                Files.copy(backup.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+                previous = moveSqliteAside();
+                move(temp, restored);
+            }
+            plugin.getLogger().info("Restored the database from " + name + ". The previous database was kept as "
+                    + (previous != null ? previous.getName() : "nothing (there was none)") + ".");
+            if (DataManager.storesShopsInDatabase(plugin)) {
+                // Changes journaled or cached before the restore must not be applied over it
+                DataManager.discardLocalState(plugin);
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to restore the database from " + name
+                    + "; check the database before using the server, and find the previous data in " + directory, e);
+        }
+    }
+
+    /**
+     * Copy the SQLite database with the online backup API, a few pages at a time
+     *
+     * @param target The file to write
+     * @throws SQLException If the copy fails
+     */
+    private void backupSqlite(File target) throws SQLException {
+        int pagesPerStep = Math.max(1, plugin.getConfig().getInt("database.backup_pages_per_step", 256));
+        long pause = Math.max(0, plugin.getConfig().getLong("database.backup_step_pause", 20));
+        int maxRestarts = Math.max(0, plugin.getConfig().getInt("database.backup_max_restarts", 3));
+        int[] restarts = new int[1];
+        int[] lastRemaining = {Integer.MAX_VALUE};
+
+        try (Connection connection = databaseManager.openUnpooledConnection()) {
+            int result = connection.unwrap(SQLiteConnection.class).getDatabase().backup("main", target.getAbsolutePath(),
+                    (remaining, pageCount) -> {
+                        // Called between steps, while no lock is held
+                        if (remaining > lastRemaining[0]) {
+                            restarts[0]++;
+                        }
+                        lastRemaining[0] = remaining;
+                        progress = pageCount > 0 ? (int) (100L * (pageCount - remaining) / pageCount) : 100;
+                        if (remaining > 0 && pause > 0 && restarts[0] <= maxRestarts && !stopped) {
+                            try {
+                                Thread.sleep(pause);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }, 100, 50, pagesPerStep);
+            if (result != Codes.SQLITE_OK) {
+                throw new SQLException("SQLite backup failed with error code " + result);
+            }
+        }
+
+        // Make sure the copy opens; this also folds its write-ahead log back in
+        try (Connection copy = DriverManager.getConnection("jdbc:sqlite:" + target.getAbsolutePath());
+             Statement statement = copy.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA quick_check")) {
+            String check = rs.next() ? rs.getString(1) : null;
+            if (!"ok".equalsIgnoreCase(check)) {
+                throw new SQLException("The backup failed its integrity check: " + check);
+            }
+        }
+        if (restarts[0] > 0) {
+            plugin.getLogger().info("The database backup restarted " + restarts[0] + " time(s) because of concurrent writes.");
+        }
+    }
+
+    /**
+     * Export every plugin table from one consistent MySQL snapshot, as one SQL statement per line
+     *
+     * @param target The file to write
+     * @throws IOException  If the file can't be written
+     * @throws SQLException If the database can't be read
+     */
+    private void exportMySql(File target) throws IOException, SQLException {
+        try (Connection connection = databaseManager.openUnpooledConnection()) {
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement();
+                 Writer out = new BufferedWriter(new OutputStreamWriter(
+                         new GZIPOutputStream(Files.newOutputStream(target.toPath()), 64 * 1024), StandardCharsets.UTF_8))) {
+                // Every table is read as of the same moment, without locking anything
+                statement.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+                List<String> tables = getExistingTables(connection);
+                out.write("-- FrizzlenShop database backup\n");
+                out.write("-- tables: " + String.join(",", tables) + "\n");
+                for (String table : tables) {
+                    exportTable(connection, table, out);
+                }
+                out.write(DUMP_END + "\n");
+                connection.commit();
+            } catch (IOException | SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Write the definition and rows of one table
+     *
+     * @param connection The connection holding the snapshot
+     * @param table      The table
+     * @param out        The backup file
+     * @throws IOException  If the file can't be written
+     * @throws SQLException If the table can't be read
+     */
+    private void exportTable(Connection connection, String table, Writer out) throws IOException, SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet rs = statement.executeQuery("SHOW CREATE TABLE " + table)) {
+                rs.next();
+                out.write("DROP TABLE IF EXISTS " + table + ";\n");
+                out.write(rs.getString(2).replace('\n', ' ') + ";\n");
+            }
+
+            statement.setFetchSize(1000);
+            try (ResultSet rs = statement.executeQuery("SELECT * FROM " + table)) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int columns = meta.getColumnCount();
+                StringBuilder insert = new StringBuilder("INSERT INTO ").append(table).append(" (");
+                boolean[] binary = new boolean[columns + 1];
+                for (int i = 1; i <= columns; i++) {
+                    insert.append(i > 1 ? ", " : "").append(meta.getColumnName(i));
+                    int type = meta.getColumnType(i);
+                    binary[i] = type == Types.BINARY || type == Types.VARBINARY || type == Types.LONGVARBINARY || type == Types.BLOB;
+                }
+                String prefix = insert.append(") VALUES ").toString();
+
+                // Rows are grouped into statements of about a megabyte, well below max_allowed_packet
+                StringBuilder rows = new StringBuilder();
+                while (rs.next()) {
+                    rows.append(rows.length() == 0 ? prefix : ",").append('(');
+                    for (int i = 1; i <= columns; i++) {
+                        if (i > 1) {
+                            rows.append(", ");
+                        }
+                        appendLiteral(rows, binary[i] ? rs.getBytes(i) : rs.getString(i));
+                    }
+                    rows.append(')');
+                    if (rows.length() >= DUMP_STATEMENT_SIZE) {
+                        out.append(rows).append(";\n");
+                        rows.setLength(0);
+                    }
+                }
+                if (rows.length() > 0) {
+                    out.append(rows).append(";\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the plugin tables with the contents of a MySQL backup. The whole file is read once
+     * first, so a truncated backup is rejected before anything is dropped.
+     *
+     * @param backup The backup file
+     * @throws IOException  If the file can't be read or is incomplete
+     * @throws SQLException If a statement fails
+     */
+    private void importMySql(File backup) throws IOException, SQLException {
+        Set<String> backedUp = new HashSet<>();
+        boolean complete = false;
+        try (BufferedReader in = openDump(backup)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("-- tables: ")) {
+                    backedUp.addAll(Arrays.asList(line.substring(11).split(",")));
+                }
+                complete = line.equals(DUMP_END);
+            }
+        }
+        if (!complete) {
+            throw new IOException(backup.getName() + " is incomplete");
+        }
+
+        try (Connection connection = databaseManager.openUnpooledConnection();
+             Statement statement = connection.createStatement();
+             BufferedReader in = openDump(backup)) {
+            statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                // Tables created after the backup are dropped too, so migrations run as they did then
+                for (String table : getExistingTables(connection)) {
+                    if (!backedUp.contains(table)) {
+                        statement.execute("DROP TABLE " + table);
+                    }
+                }
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.isEmpty() && !line.startsWith("--")) {
+                        statement.execute(line.endsWith(";") ? line.substring(0, line.length() - 1) : line);
+                    }
+                }
+            } finally {
+                statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+    }
+
+    private BufferedReader openDump(File backup) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(backup.toPath()), 64 * 1024), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Move the SQLite database and its write-ahead log into the backup directory
+     *
+     * @return The moved database, or null if there was none
+     * @throws IOException  If the files can't be moved
+     * @throws SQLException If the moved database can't be checkpointed
+     */
+    private File moveSqliteAside() throws IOException, SQLException {
+        File database = databaseManager.getDatabaseFile();
+        if (!database.isFile()) {
+            return null;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the backup directory " + directory);
+        }
+
+        File moved = new File(directory, "frizzlenshop-" + LocalDateTime.now().format(FILE_TIME) + "-" + KIND_PRE_RESTORE + SQLITE_EXTENSION);
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            File file = new File(database.getPath() + suffix);
+            if (file.exists()) {
+                move(file.toPath(), new File(moved.getPath() + suffix).toPath());
+            }
+        }
+        // Opening and closing it folds the write-ahead log into the file, so it can be restored by copying
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + moved.getAbsolutePath())) {
+            connection.getMetaData();
+        }
+        return moved;
+    }
+
+    /**
+     * Get the plugin tables that exist in the database
+     *
+     * @param connection The connection
+     * @return The table names
+     * @throws SQLException If an error occurs
+     */
+    private List<String> getExistingTables(Connection connection) throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(plugin, databaseManager);
+        List<String> tables = new ArrayList<>();
+        for (String table : TABLES) {
+            if (migrator.tableExists(connection, table)) {
+                tables.add(table);
+            }
+        }
+        for (String table : PREFIXED_TABLES) {
+            if (migrator.tableExists(connection, databaseManager.getTablePrefix() + table)) {
+                tables.add(databaseManager.getTablePrefix() + table);
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Delete scheduled backups that fall out of the retention schedule
+     */
+    private void prune() {
+        int keepRecent = Math.max(1, plugin.getConfig().getInt("database.max_backups", 7));
+        int keepDaily = Math.max(0, plugin.getConfig().getInt("database.backup_keep_daily", 7));
+        int keepWeekly = Math.max(0, plugin.getConfig().getInt("database.backup_keep_weekly", 4));
+        LocalDate firstDay = LocalDate.now().minusDays(keepDaily - 1L);
+        LocalDate firstWeek = LocalDate.now().minusWeeks(keepWeekly - 1L).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+
+        Set<LocalDate> days = new HashSet<>();
+        Set<LocalDate> weeks = new HashSet<>();
+        int recent = 0;
+        for (File backup : listBackups()) {
+            LocalDateTime created = getCreated(backup);
+            if (!KIND_AUTO.equals(getKind(backup)) || created == null) {
+                continue;
+            }
+            // Newest first, so the first backup seen of a day or week is the one kept
+            LocalDate day = created.toLocalDate();
+            LocalDate week = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            boolean keep = recent++ < keepRecent;
+            keep |= keepDaily > 0 && !day.isBefore(firstDay) && days.add(day);
+            keep |= keepWeekly > 0 && !week.isBefore(firstWeek) && weeks.add(week);
+            if (!keep && !backup.delete()) {
+                plugin.getLogger().warning("Failed to delete old backup " + backup.getName());
+            }
+        }
+    }
+
+    /**
+     * Append a value as a MySQL literal
+     *
+     * @param sql   The statement being built
+     * @param value The value: null, bytes, or the text form of anything else
+     */
+    private static void appendLiteral(StringBuilder sql, Object value) {
+        if (value == null) {
+            sql.append("NULL");
+            return;
+        }
+        if (value instanceof byte[]) {
+            sql.append("X'").append(HexFormat.of().formatHex((byte[]) value)).append('\'');
+            return;
+        }
+
+        // Escaped so every statement stays on one line
+        sql.append('\'');
+        for (char c : value.toString().toCharArray()) {
+            switch (c) {
+                case '\'':
+                    sql.append("\\'");
+                    break;
+                case '\\':
+                    sql.append("\\\\");
+                    break;
+                case '\n':
+                    sql.append("\\n");
+                    break;
+                case '\r':
+                    sql.append("\\r");
+                    break;
+                case '\0':
+                    sql.append("\\0");
+                    break;
+                case '\032':
+                    sql.append("\\Z");
+                    break;
+                default:
+                    sql.append(c);
+                    break;
+            }
+        }
+        sql.append('\'');
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,723 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * A small bounded JDBC connection pool.
+ * <p>
+ * Connections are handed out as leases: the {@link Connection} returned by {@link #borrow()}
+ * is a proxy whose {@code close()} gives the physical connection back to the pool instead of
+ * closing it. A thread that already holds a lease gets the same physical connection again, so
+ * nested calls (e.g. saving a shop and then its items) never wait on the pool.
+ * <p>
+ * Each physical connection also keeps its most recently used prepared statements, keyed by SQL
+ * text. {@code prepareStatement(sql)} on a lease returns the cached statement if it isn't already
+ * open, and closing it only resets it, so hot queries are parsed (SQLite) or prepared on the
+ * server (MySQL) once per connection instead of once per call.
+ * <p>
+ * If the pool has {@link QueryStats}, every statement handed out is timed: executions, plus the
+ * row reads of the result sets they return.
+ */
+public class ConnectionPool {
+
+    /**
+     * Opens a new physical connection
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long VALIDATE_AFTER_IDLE_MS = 30_000L;
+
+    private final FrizzlenShop plugin;
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long leakThresholdMs;
+    private final int statementCacheSize;
+    private final QueryStats stats;
+
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Map<Thread, Lease> leases = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new connection pool
+     *
+     * @param plugin             The plugin instance
+     * @param factory            Opens new physical connections
+     * @param maxSize            The maximum number of physical connections
+     * @param borrowTimeoutMs    How long to wait for a free connection before failing
+     * @param maxLifetimeMs      How long a physical connection may live before it is retired (0 for unlimited)
+     * @param leakThresholdMs    How long a lease may be held before it is reported as a leak (0 to disable)
+     * @param statementCacheSize How many prepared statements to keep per connection (0 to disable)
+     * @param stats              Where to record statement timings, or null to not time them
+     */
+    public ConnectionPool(FrizzlenShop plugin, ConnectionFactory factory, int maxSize,
+                          long borrowTimeoutMs, long maxLifetimeMs, long leakThresholdMs, int statementCacheSize,
+                          QueryStats stats) {
+        this.plugin = plugin;
+        this.factory = factory;
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.maxLifetimeMs = maxLifetimeMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.stats = stats;
+        this.permits = new Semaphore(this.maxSize, true);
+    }
+
+    /**
+     * Borrow a connection from the pool. The returned connection must be closed
+     * (ideally with try-with-resources) to hand it back.
+     *
+     * @return A leased connection
+     * @throws SQLException If the pool is closed, exhausted or a connection could not be opened
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        Thread thread = Thread.currentThread();
+        Lease lease = leases.get(thread);
+        if (lease != null) {
+            lease.depth++;
+            return lease.handle();
+        }
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMs + "ms waiting for a database connection ("
+                        + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeHealthyConnection();
+            lease = new Lease(pooled, thread);
+            leases.put(thread, lease);
+            return lease.handle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Take an idle connection that passes its health check, or open a new one
+     *
+     * @return A usable physical connection
+     * @throws SQLException If a new connection could not be opened
+     */
+    private PooledConnection takeHealthyConnection() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isHealthy(pooled)) {
+                return pooled;
+            }
+            closeQuietly(pooled);
+        }
+        return new PooledConnection(factory.create(), statementCacheSize);
+    }
+
+    /**
+     * Check whether an idle connection can be reused
+     *
+     * @param pooled The connection to check
+     * @return True if the connection is usable
+     */
+    private boolean isHealthy(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (maxLifetimeMs > 0 && now - pooled.createdAt > maxLifetimeMs) {
+            return false;
+        }
+
+        try {
+            if (pooled.connection.isClosed()) {
+                return false;
+            }
+            if (now - pooled.lastReturned > VALIDATE_AFTER_IDLE_MS) {
+                return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return a physical connection to the pool once its lease is fully released
+     *
+     * @param lease The lease being released
+     */
+    private void release(Lease lease) {
+        leases.remove(lease.owner, lease);
+        PooledConnection pooled = lease.pooled;
+
+        try {
+            Connection connection = pooled.connection;
+            if (!connection.isClosed() && !connection.getAutoCommit()) {
+                // Never hand out a connection with a half-finished transaction
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+
+            if (closed || connection.isClosed()) {
+                closeQuietly(pooled);
+            } else {
+                pooled.lastReturned = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Discarding database connection that failed to reset", e);
+            closeQuietly(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Report leases that have been held for longer than the leak threshold.
+     * Each lease is only reported once.
+     */
+    public void detectLeaks() {
+        if (leakThresholdMs <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases.values()) {
+            if (!lease.reported && now - lease.borrowedAt > leakThresholdMs) {
+                lease.reported = true;
+                plugin.getLogger().log(Level.WARNING, "Possible database connection leak: thread " + lease.owner.getName()
+                        + " has held a connection for " + (now - lease.borrowedAt) + "ms", lease.origin);
+            }
+        }
+    }
+
+    /**
+     * Get the number of connections currently leased out
+     *
+     * @return The number of active connections
+     */
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * Get the number of idle connections waiting in the pool
+     *
+     * @return The number of idle connections
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Get the maximum number of connections
+     *
+     * @return The pool size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get how often a prepared statement was served from a connection's statement cache
+     *
+     * @return The number of cache hits
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    /**
+     * Get how often a prepared statement had to be prepared because it wasn't cached, or the
+     * cached one was still open
+     *
+     * @return The number of cache misses
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    /**
+     * Close the pool and all idle connections. Leased connections are closed when returned.
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+    }
+
+    private void closeQuietly(PooledConnection pooled) {
+        // The driver closes the cached statements along with the connection
+        pooled.statements.clear();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.FINE, "Failed to close database connection", e);
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool
+     */
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final long createdAt;
+        private final Map<String, CachedStatement> statements;
+        private volatile long lastReturned;
+
+        private PooledConnection(Connection connection, int statementCacheSize) {
+            this.connection = connection;
+            this.createdAt = System.currentTimeMillis();
+            this.lastReturned = createdAt;
+            // Only the thread holding the lease touches the cache, so it needs no locking
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() <= statementCacheSize) {
+                        return false;
+                    }
+                    eldest.getValue().evict();
+                    return true;
+                }
+            };
+        }
+    }
+
+    /**
+     * A prepared statement kept open on its physical connection
+     */
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private ResultSet results;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        /**
+         * Reset the statement for its next user, or close it if it was evicted meanwhile
+         *
+         * @throws SQLException If the statement could not be reset
+         */
+        private void giveBack() throws SQLException {
+            inUse = false;
+            if (results != null) {
+                results.close();
+                results = null;
+            }
+            if (evicted) {
+                statement.close();
+                return;
+            }
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                try {
+                    statement.close();
+                } catch (SQLException ignored) {
+                    // Nothing else uses the statement
+                }
+            }
+        }
+    }
+
+    /**
+     * A thread's claim on a physical connection. Nested borrows on the same thread
+     * increase the depth; the connection goes back to the pool when it reaches zero.
+     */
+    private final class Lease {
+        private final PooledConnection pooled;
+        private final Thread owner;
+        private final long borrowedAt;
+        private final Throwable origin;
+        private int depth = 1;
+        private volatile boolean reported;
+
+        private Lease(PooledConnection pooled, Thread owner) {
+            this.pooled = pooled;
+            this.owner = owner;
+            this.borrowedAt = System.currentTimeMillis();
+            this.origin = leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+        }
+
+        /**
+         * Create a new handle for this lease. Every borrow gets its own handle so that
+         * closing one twice cannot release somebody else's depth.
+         *
+         * @return A proxied connection
+         */
+        private Connection handle() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Handle(this));
+        }
+
+        private void closeHandle() {
+            if (--depth == 0) {
+                release(this);
+            }
+        }
+
+        /**
+         * Prepare a statement through the connection's statement cache
+         *
+         * @param sql        The SQL text
+         * @param connection The connection handle the statement should report
+         * @return The statement; closing it returns it to the cache
+         * @throws SQLException If the statement could not be prepared
+         */
+        private PreparedStatement prepare(String sql, Connection connection) throws SQLException {
+            if (statementCacheSize == 0) {
+                return wrap(pooled.connection.prepareStatement(sql), sql, connection);
+            }
+
+            CachedStatement cached = pooled.statements.get(sql);
+            if (cached != null && !cached.inUse) {
+                statementCacheHits.increment();
+            } else {
+                statementCacheMisses.increment();
+                if (cached != null) {
+                    // A nested call is using the cached one; give this caller its own
+                    return wrap(pooled.connection.prepareStatement(sql), sql, connection);
+                }
+                cached = new CachedStatement(pooled.connection.prepareStatement(sql));
+                pooled.statements.put(sql, cached);
+            }
+
+            cached.inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    new StatementHandle(pooled, sql, cached, cached.statement, connection));
+        }
+
+        /**
+         * Time an uncached statement, if statements are timed
+         *
+         * @param statement  The statement
+         * @param sql        The SQL text it was prepared with, or null for a plain statement
+         * @param connection The connection handle the statement should report
+         * @param <T>        The statement type
+         * @return The statement, or a timing proxy of it
+         */
+        @SuppressWarnings("unchecked")
+        private <T extends Statement> T wrap(T statement, String sql, Connection connection) {
+            if (stats == null) {
+                return statement;
+            }
+            Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                    : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+            return (T) Proxy.newProxyInstance(
+                    type.getClassLoader(),
+                    new Class<?>[]{type},
+                    new StatementHandle(pooled, sql, null, statement, connection));
+        }
+    }
+
+    /**
+     * Proxy handler that turns {@code close()} into a lease release
+     */
+    private static final class Handle implements InvocationHandler {
+        private final Lease lease;
+        private boolean released;
+
+        private Handle(Lease lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        lease.closeHandle();
+                    }
+                    return null;
+                case "isClosed":
+                    if (released) {
+                        return true;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + lease.pooled.connection + "]";
+                default:
+                    break;
+            }
+
+            if (released) {
+                throw new SQLException("Connection lease has already been closed");
+            }
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                return lease.prepare((String) args[0], (Connection) proxy);
+            }
+
+            Object result;
+            try {
+                result = method.invoke(lease.pooled.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement) {
+                // Other kinds of statement aren't cached, but are still timed
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                return lease.wrap((Statement) result, sql, (Connection) proxy);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Proxy handler that turns {@code close()} of a cached statement into a reset, and times
+     * executions if the pool has {@link QueryStats}
+     */
+    private final class StatementHandle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final String sql;
+        private final CachedStatement cached;
+        private final Statement statement;
+        private final Connection connection;
+        private Execution pending;
+        private boolean closed;
+
+        /**
+         * @param pooled     The physical connection the statement belongs to
+         * @param sql        The SQL text the statement was prepared with, or null for a plain statement
+         * @param cached     The cache entry, or null if the statement isn't cached
+         * @param statement  The statement
+         * @param connection The connection handle the statement should report
+         */
+        private StatementHandle(PooledConnection pooled, String sql, CachedStatement cached, Statement statement,
+                                Connection connection) {
+            this.pooled = pooled;
+            this.sql = sql;
+            this.cached = cached;
+            this.statement = statement;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        finishPending();
+                        if (cached != null) {
+                            giveBack();
+                        } else {
+                            statement.close();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    if (closed) {
+                        return true;
+                    }
+                    break;
+                case "getConnection":
+                    return connection;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return (cached != null ? "CachedStatement[" : "Statement[") + sql + "]";
+                default:
+                    break;
+            }
+
+            if (closed) {
+                throw new SQLException("Statement has already been closed");
+            }
+
+            boolean timed = stats != null && name.startsWith("execute");
+            if (timed) {
+                finishPending();
+            }
+            long start = timed ? System.nanoTime() : 0;
+            String text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+
+            Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                if (timed) {
+                    stats.record(text, System.nanoTime() - start, 0, true);
+                }
+                throw e.getCause();
+            }
+
+            if (result instanceof ResultSet) {
+                ResultSet results = (ResultSet) result;
+                if (cached != null) {
+                    // Closed when the statement is given back, as a real close would
+                    cached.results = results;
+                }
+                if (timed) {
+                    pending = new Execution(text, System.nanoTime() - start);
+                    return pending.wrap(results, proxy);
+                }
+            } else if (timed) {
+                stats.record(text, System.nanoTime() - start, rowCount(result), false);
+            }
+            return result;
+        }
+
+        /**
+         * Record the query whose results were being read, if any
+         */
+        private void finishPending() {
+            if (pending != null) {
+                pending.finish();
+                pending = null;
+            }
+        }
+
+        private void giveBack() throws SQLException {
+            try {
+                cached.giveBack();
+            } catch (SQLException e) {
+                // Don't hand out a statement in an unknown state again
+                pooled.statements.remove(sql, cached);
+                cached.statement.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Get the rows an update or batch changed
+     *
+     * @param result The result of the execute call
+     * @return The number of rows, not counting statements that didn't report one
+     */
+    private static long rowCount(Object result) {
+        if (result instanceof Number) {
+            return Math.max(0, ((Number) result).longValue());
+        }
+        long rows = 0;
+        if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(0, count);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * A query whose results are being read. Its time is the execution plus every {@code next()},
+     * and it is recorded when the results or the statement are closed.
+     */
+    private final class Execution {
+        private final String sql;
+        private long nanos;
+        private long rows;
+        private boolean finished;
+
+        private Execution(String sql, long nanos) {
+            this.sql = sql;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Wrap the results so their row reads are timed
+         *
+         * @param results   The result set
+         * @param statement The statement handle the results should report
+         * @return The timed result set
+         */
+        private ResultSet wrap(ResultSet results, Object statement) {
+            return (ResultSet) Proxy.newProxyInstance(
+                    ResultSet.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "next": {
+                                long start = System.nanoTime();
+                                boolean found = results.next();
+                                nanos += System.nanoTime() - start;
+                                if (found) {
+                                    rows++;
+                                }
+                                return found;
+                            }
+                            case "close":
+                                finish();
+                                results.close();
+                                return null;
+                            case "getStatement":
+                                return statement;
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                try {
+                                    return method.invoke(results, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                        }
+                    });
+        }
+
+        private void finish() {
+            if (!finished) {
+                finished = true;
+                stats.record(sql, nanos, rows, false);
+            }
+        }
+    }
+}
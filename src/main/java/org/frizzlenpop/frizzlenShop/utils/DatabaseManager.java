@@ -3,19 +3,22 @@ package org.frizzlenpop.frizzlenShop.utils;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
 import org.frizzlenpop.frizzlenShop.FrizzlenShop;
-import org.frizzlenpop.frizzlenShop.shops.AdminShop;
-import org.frizzlenpop.frizzlenShop.shops.PlayerShop;
-import org.frizzlenpop.frizzlenShop.shops.Shop;
-import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.data.ShopSnapshot;
+import org.frizzlenpop.frizzlenShop.data.StoredLocation;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
@@ -25,20 +28,64 @@ import java.util.logging.Level;
  */
 public class DatabaseManager {
 
+    private static final int HISTORY_FETCH_SIZE = 100;
+    static final Comparator<Transaction> NEWEST_FIRST =
+            Comparator.comparing(TransactionCursor::of, Comparator.reverseOrder());
+    
     private final FrizzlenShop plugin;
-    private Connection connection;
+    // Whether this is the plugin's database, rather than e.g. a migration target
+    private final boolean primary;
+    private ConnectionPool pool;
+    private AsyncDatabase async;
+    private QueryStats queryStats;
+    private BukkitTask leakDetectionTask;
     private String dbType;
     private String dbPath;
+    private final String tablePrefix;
+    private final SqlDialect dialect;
+    private final ItemBlobStore itemBlobStore;
+    private final MaterialIds materialIds;
+    private final TradeArchive tradeArchive;
+    private final BackupManager backupManager;
+    private final TradeRecorder tradeRecorder;
     
     /**
-     * Creates a new database manager
+     * Creates the plugin's database manager, which applies staged restores and runs the
+     * backups, trade recording, trade archive and async facade
      *
      * @param plugin The plugin instance
      */
     public DatabaseManager(FrizzlenShop plugin) {
+        this(plugin, plugin.getConfig().getString("database.type", "sqlite"), true);
+    }
+    
+    /**
+     * Creates a database manager for a specific database type, e.g. to migrate shops to it.
+     * Any type other than MySQL uses SQLite. It only connects and upgrades the schema: staged
+     * restores are left for the plugin's database, and it has no backups, trade recorder,
+     * trade archive, async facade, query statistics or leak checks.
+     *
+     * @param plugin The plugin instance
+     * @param dbType The database type
+     */
+    public DatabaseManager(FrizzlenShop plugin, String dbType) {
+        this(plugin, dbType, false);
+    }
+    
+    private DatabaseManager(FrizzlenShop plugin, String dbType, boolean primary) {
         this.plugin = plugin;
-        this.dbType = plugin.getConfig().getString("database.type", "sqlite");
+        this.primary = primary;
+        this.dbType = dbType;
         this.dbPath = plugin.getConfig().getString("database.path", "frizzlenshop.db");
+        this.tablePrefix = plugin.getConfig().getString("database.table_prefix", "fs_");
+        this.dialect = SqlDialect.fromType(dbType);
+        this.itemBlobStore = new ItemBlobStore(this);
+        this.materialIds = new MaterialIds(tablePrefix + "materials", dialect);
+        this.tradeArchive = primary && plugin.getConfig().getBoolean("database.archive", true)
+                ? new TradeArchive(plugin, new File(plugin.getDataFolder(), "archive"))
+                : null;
+        this.backupManager = primary ? new BackupManager(plugin, this) : null;
+        this.tradeRecorder = primary ? new TradeRecorder(plugin, this) : null;
         
         // Initialize the database
         initialize();
@@ -48,30 +95,55 @@ public class DatabaseManager {
      * Initialize the database
      */
     private void initialize() {
+        boolean mysql = isMySql();
+        int poolSize = plugin.getConfig().getInt("database.pool_size", mysql ? 10 : 4);
+        long connectionTimeout = plugin.getConfig().getLong("database.connection_timeout", 10000L);
+        long maxLifetime = plugin.getConfig().getLong("database.max_lifetime", 1800000L);
+        long leakThreshold = plugin.getConfig().getLong("database.leak_detection_threshold", 30000L);
+        int statementCacheSize = plugin.getConfig().getInt("database.statement_cache_size", 64);
+        
+        // A restore staged from the backup menu replaces the database before anything reads it
+        if (primary) {
+            backupManager.applyPendingRestore();
+        }
+        
+        queryStats = primary && plugin.getConfig().getBoolean("database.query_stats", true) ? new QueryStats(plugin) : null;
+        pool = new ConnectionPool(plugin, this::openConnection, poolSize, connectionTimeout, maxLifetime, leakThreshold,
+                statementCacheSize, queryStats);
+        async = primary ? new AsyncDatabase(plugin, this, pool.getMaxSize() - 1) : null;
+        
         try {
-            // Connect to the database
-            connect();
+            // Create or upgrade the schema
+            new SchemaMigrator(plugin, this).migrate();
             
-            // Create tables if they don't exist
-            createTables();
-            
-            plugin.getLogger().info("Database initialized successfully.");
+            plugin.getLogger().info("Database initialized successfully (pool size: " + pool.getMaxSize() + ").");
         } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "Failed to initialize database", e);
         }
+        
+        // Check for leaked connections once a minute
+        if (primary && leakThreshold > 0) {
+            leakDetectionTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, pool::detectLeaks, 20 * 60, 20 * 60);
+        }
     }
     
     /**
-     * Connect to the database
+     * Check whether the database is MySQL
      *
+     * @return True for MySQL, false for SQLite
+     */
+    public boolean isMySql() {
+        return dbType.equalsIgnoreCase("mysql");
+    }
+    
+    /**
+     * Open a new physical connection to the database. Only the connection pool calls this.
+     *
+     * @return The new connection
      * @throws SQLException If an error occurs
      */
-    private void connect() throws SQLException {
-        if (connection != null && !connection.isClosed()) {
-            return;
-        }
-        
-        if (dbType.equalsIgnoreCase("mysql")) {
+    private Connection openConnection() throws SQLException {
+        if (isMySql()) {
             // MySQL connection
             String host = plugin.getConfig().getString("database.host", "localhost");
             int port = plugin.getConfig().getInt("database.port", 3306);
@@ -79,366 +151,406 @@ public class DatabaseManager {
             String username = plugin.getConfig().getString("database.username", "root");
             String password = plugin.getConfig().getString("database.password", "");
             
-            String url = "jdbc:mysql://" + host + ":" + port + "/" + database;
-            connection = DriverManager.getConnection(url, username, password);
-        } else {
-            // SQLite connection
-            String url = "jdbc:sqlite:" + plugin.getDataFolder().getAbsolutePath() + "/" + dbPath;
-            connection = DriverManager.getConnection(url);
+            // Server-side cursors make the fetch size work, so history streams instead of buffering;
+            // rewritten batches send a batch of inserts as one multi-row INSERT
+            String url = "jdbc:mysql://" + host + ":" + port + "/" + database + "?useCursorFetch=true&rewriteBatchedStatements=true";
+            Connection connection = DriverManager.getConnection(url, username, password);
+            try (Statement statement = connection.createStatement()) {
+                // TIMESTAMP columns are read and written in the session time zone. Pinning it to UTC
+                // makes CURRENT_TIMESTAMP, the UTC text written by TradeRecorder and the cutoffs
+                // compared against them agree, like on SQLite, whatever the server's zone is.
+                statement.execute("SET time_zone = '+00:00'");
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            return connection;
+        }
+        
+        // SQLite connection
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + getDatabaseFile().getPath());
+        try (Statement statement = connection.createStatement()) {
+            // Let pooled connections wait for each other's write locks instead of failing
+            statement.execute("PRAGMA busy_timeout = 5000");
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA foreign_keys = ON");
         }
+        return connection;
     }
     
     /**
-     * Create database tables if they don't exist
+     * Open a connection outside the pool, for bulk work whose statements shouldn't be timed one
+     * by one, such as backups. The caller must close it.
      *
+     * @return The new connection
      * @throws SQLException If an error occurs
      */
-    private void createTables() throws SQLException {
-        try (Statement statement = connection.createStatement()) {
-            // Create shops table
-            statement.execute(
-                "CREATE TABLE IF NOT EXISTS shops (" +
-                "id VARCHAR(36) PRIMARY KEY, " +
-                "name VARCHAR(32) NOT NULL, " +
-                "type VARCHAR(10) NOT NULL, " +
-                "owner VARCHAR(36), " +
-                "location TEXT NOT NULL, " +
-                "description TEXT, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                "is_open BOOLEAN DEFAULT 1" +
-                ")"
-            );
-            
-            // Create shop_items table
-            statement.execute(
-                "CREATE TABLE IF NOT EXISTS shop_items (" +
-                "id VARCHAR(36) PRIMARY KEY, " +
-                "shop_id VARCHAR(36) NOT NULL, " +
-                "item_data TEXT NOT NULL, " +
-                "price DOUBLE NOT NULL, " +
-                "stock INT DEFAULT -1, " +
-                "FOREIGN KEY (shop_id) REFERENCES shops(id) ON DELETE CASCADE" +
-                ")"
-            );
-            
-            // Create transactions table
-            statement.execute(
-                "CREATE TABLE IF NOT EXISTS transactions (" +
-                "id VARCHAR(36) PRIMARY KEY, " +
-                "shop_id VARCHAR(36) NOT NULL, " +
-                "player_id VARCHAR(36) NOT NULL, " +
-                "item_id VARCHAR(36) NOT NULL, " +
-                "quantity INT NOT NULL, " +
-                "price DOUBLE NOT NULL, " +
-                "type VARCHAR(10) NOT NULL, " +
-                "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                "FOREIGN KEY (shop_id) REFERENCES shops(id) ON DELETE CASCADE, " +
-                "FOREIGN KEY (item_id) REFERENCES shop_items(id) ON DELETE CASCADE" +
-                ")"
-            );
-        }
+    Connection openUnpooledConnection() throws SQLException {
+        return openConnection();
+    }
+    
+    /**
+     * Get the SQLite database file
+     *
+     * @return The file; an absolute database.path lets several local servers share one file (see multi_server)
+     */
+    public File getDatabaseFile() {
+        File file = new File(dbPath);
+        return file.isAbsolute() ? file : new File(plugin.getDataFolder().getAbsoluteFile(), dbPath);
     }
     
     /**
-     * Close the database connection
+     * Close the connection pool
      */
     public void close() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to close database connection", e);
+        if (primary) {
+            backupManager.stop();
+            // Running tasks and queued trades still need the pool
+            async.close();
+            tradeRecorder.stop();
+        }
+        if (leakDetectionTask != null) {
+            leakDetectionTask.cancel();
+        }
+        if (pool != null) {
+            plugin.getLogger().info("Statement cache: " + pool.getStatementCacheHits() + " hits, "
+                    + pool.getStatementCacheMisses() + " misses.");
+            pool.close();
+        }
+        if (queryStats != null) {
+            queryStats.close();
+        }
+        if (tradeArchive != null) {
+            tradeArchive.close();
         }
     }
     
     /**
-     * Save a shop to the database
+     * Record a transaction in the database right away, on the calling thread. Trades should
+     * use {@link TradeRecorder#record} instead, which writes them in batches in the background.
      *
-     * @param shop The shop to save
+     * @param shopId The shop ID
+     * @param playerId The player ID
+     * @param itemId The item ID
+     * @param material The material traded, or null if unknown
+     * @param quantity The quantity
+     * @param price The price
+     * @param type The transaction type (buy/sell)
      * @return True if successful, false otherwise
      */
-    public boolean saveShop(Shop shop) {
-        try {
-            connect();
-            
-            // Check if the shop already exists
-            boolean exists = false;
-            try (PreparedStatement ps = connection.prepareStatement("SELECT id FROM shops WHERE id = ?")) {
-                ps.setString(1, shop.getId().toString());
-                try (ResultSet rs = ps.executeQuery()) {
-                    exists = rs.next();
-                }
-            }
-            
-            // Insert or update the shop
-            if (exists) {
-                try (PreparedStatement ps = connection.prepareStatement(
-                        "UPDATE shops SET name = ?, type = ?, owner = ?, location = ?, description = ?, is_open = ? WHERE id = ?")) {
-                    ps.setString(1, shop.getName());
-                    ps.setString(2, shop instanceof AdminShop ? "admin" : "player");
-                    ps.setString(3, shop instanceof PlayerShop ? ((PlayerShop) shop).getOwner().toString() : null);
-                    ps.setString(4, serializeLocation(shop.getLocation()));
-                    ps.setString(5, shop.getDescription());
-                    ps.setBoolean(6, shop.isOpen());
-                    ps.setString(7, shop.getId().toString());
-                    ps.executeUpdate();
-                }
-            } else {
-                try (PreparedStatement ps = connection.prepareStatement(
-                        "INSERT INTO shops (id, name, type, owner, location, description, is_open) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
-                    ps.setString(1, shop.getId().toString());
-                    ps.setString(2, shop.getName());
-                    ps.setString(3, shop instanceof AdminShop ? "admin" : "player");
-                    ps.setString(4, shop instanceof PlayerShop ? ((PlayerShop) shop).getOwner().toString() : null);
-                    ps.setString(5, serializeLocation(shop.getLocation()));
-                    ps.setString(6, shop.getDescription());
-                    ps.setBoolean(7, shop.isOpen());
-                    ps.executeUpdate();
+    public boolean recordTransaction(UUID shopId, UUID playerId, UUID itemId, Material material, int quantity, double price, String type) {
+        try (Connection connection = getConnection()) {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO transactions (id, shop_id, player_id, item_id, quantity, price, type, material_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                ps.setBytes(1, UuidBytes.toBytes(UUID.randomUUID()));
+                ps.setBytes(2, UuidBytes.toBytes(shopId));
+                ps.setBytes(3, UuidBytes.toBytes(playerId));
+                ps.setBytes(4, UuidBytes.toBytes(itemId));
+                ps.setInt(5, quantity);
+                ps.setDouble(6, price);
+                ps.setString(7, type);
+                if (material != null) {
+                    ps.setInt(8, materialIds.getId(connection, material.name()));
+                } else {
+                    ps.setNull(8, Types.INTEGER);
                 }
-            }
-            
-            // Save shop items
-            for (ShopItem item : shop.getItems()) {
-                saveShopItem(item);
+                ps.executeUpdate();
             }
             
             return true;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to save shop: " + shop.getName(), e);
+            plugin.getLogger().log(Level.SEVERE, "Failed to record transaction", e);
             return false;
         }
     }
     
     /**
-     * Save a shop item to the database
+     * Get transactions for a shop
      *
-     * @param item The item to save
-     * @return True if successful, false otherwise
+     * @param shopId The shop ID
+     * @param limit The maximum number of transactions to return
+     * @param offset The offset for pagination
+     * @return A list of transactions
+     * @deprecated OFFSET gets slower the deeper you page; use {@link #getTransactionPage(TransactionQuery)}
+     *             or {@link #streamTransactions(TransactionQuery)} instead
      */
-    public boolean saveShopItem(ShopItem item) {
-        try {
-            connect();
-            
-            // Check if the item already exists
-            boolean exists = false;
-            try (PreparedStatement ps = connection.prepareStatement("SELECT id FROM shop_items WHERE id = ?")) {
-                ps.setString(1, item.getId().toString());
+    @Deprecated
+    public List<Transaction> getTransactions(UUID shopId, int limit, int offset) {
+        List<Transaction> transactions = new ArrayList<>();
+        
+        try (Connection connection = getConnection()) {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    selectTransactions(materialIds.getTable()) + " WHERE shop_id = ? ORDER BY timestamp DESC LIMIT ? OFFSET ?")) {
+                ps.setBytes(1, UuidBytes.toBytes(shopId));
+                ps.setInt(2, limit);
+                ps.setInt(3, offset);
+                
                 try (ResultSet rs = ps.executeQuery()) {
-                    exists = rs.next();
-                }
-            }
-            
-            // Insert or update the item
-            if (exists) {
-                try (PreparedStatement ps = connection.prepareStatement(
-                        "UPDATE shop_items SET item_data = ?, price = ?, stock = ? WHERE id = ?")) {
-                    ps.setString(1, serializeItemStack(item.getItem()));
-                    ps.setDouble(2, item.getPrice());
-                    ps.setInt(3, item.getStock());
-                    ps.setString(4, item.getId().toString());
-                    ps.executeUpdate();
-                }
-            } else {
-                try (PreparedStatement ps = connection.prepareStatement(
-                        "INSERT INTO shop_items (id, shop_id, item_data, price, stock) VALUES (?, ?, ?, ?, ?)")) {
-                    ps.setString(1, item.getId().toString());
-                    ps.setString(2, item.getShopId().toString());
-                    ps.setString(3, serializeItemStack(item.getItem()));
-                    ps.setDouble(4, item.getPrice());
-                    ps.setInt(5, item.getStock());
-                    ps.executeUpdate();
+                    while (rs.next()) {
+                        transactions.add(readTransaction(rs));
+                    }
                 }
             }
             
-            return true;
+            return transactions;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to save shop item", e);
-            return false;
+            plugin.getLogger().log(Level.SEVERE, "Failed to get transactions for shop: " + shopId, e);
+            return transactions;
         }
     }
     
     /**
-     * Load all shops from the database
+     * Stream the transaction history matching a query, newest first, including archived
+     * transactions. Rows are read from a forward-only result set as the stream is consumed, and
+     * archived ones a page at a time. The stream holds a pooled connection until the table has
+     * been read or the stream is closed, so always close it (try-with-resources).
      *
-     * @return A list of shops
+     * @param query The filters, start position and limit
+     * @return The transaction stream
+     * @throws SQLException If the query fails
      */
-    public List<Shop> loadShops() {
-        List<Shop> shops = new ArrayList<>();
-        
+    public TransactionStream streamTransactions(TransactionQuery query) throws SQLException {
+        Connection connection = getConnection();
+        PreparedStatement ps = null;
         try {
-            connect();
+            ps = connection.prepareStatement(query.toSql(query.getLimit(), materialIds.getTable()),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(HISTORY_FETCH_SIZE);
+            query.bind(ps);
+            return new TransactionStream(connection, ps, ps.executeQuery(), tradeArchive, query, HISTORY_FETCH_SIZE);
+        } catch (SQLException e) {
+            if (ps != null) {
+                ps.close();
+            }
+            connection.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Read one page of the transaction history, newest first. Archived transactions are merged
+     * in where the page reaches back to them.
+     *
+     * @param query The filters, start position and page size (defaults to 45 if no limit is set)
+     * @return The page; empty if the query failed
+     */
+    public TransactionPage getTransactionPage(TransactionQuery query) {
+        int pageSize = query.getLimit() > 0 ? query.getLimit() : 45;
+        List<Transaction> transactions = new ArrayList<>(pageSize);
+        
+        // Read one extra row to find out whether another page follows
+        try (Connection connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(query.toSql(pageSize + 1, materialIds.getTable()))) {
+            query.bind(ps);
             
-            try (Statement statement = connection.createStatement();
-                 ResultSet rs = statement.executeQuery("SELECT * FROM shops")) {
-                
+            try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    UUID id = UUID.fromString(rs.getString("id"));
-                    String name = rs.getString("name");
-                    String type = rs.getString("type");
-                    String ownerStr = rs.getString("owner");
-                    Location location = deserializeLocation(rs.getString("location"));
-                    String description = rs.getString("description");
-                    boolean isOpen = rs.getBoolean("is_open");
-                    
-                    Shop shop;
-                    if (type.equals("admin")) {
-                        shop = new AdminShop(id, name, location);
-                    } else {
-                        UUID owner = ownerStr != null ? UUID.fromString(ownerStr) : null;
-                        shop = new PlayerShop(id, name, owner, location);
-                    }
-                    
-                    shop.setDescription(description);
-                    shop.setOpen(isOpen);
-                    
-                    // Load shop items
-                    loadShopItems(shop);
-                    
-                    shops.add(shop);
+                    transactions.add(readTransaction(rs));
                 }
             }
-            
-            return shops;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to load shops", e);
-            return shops;
+            plugin.getLogger().log(Level.SEVERE, "Failed to read transaction history", e);
+            return new TransactionPage(new ArrayList<>(), null);
+        }
+        
+        // The archive only holds older rows, so it's needed once the page reaches back that far
+        TransactionCursor newestArchived = tradeArchive != null ? tradeArchive.getNewest() : null;
+        if (newestArchived != null && (transactions.size() <= pageSize
+                || TransactionCursor.of(transactions.get(transactions.size() - 1)).compareTo(newestArchived) <= 0)) {
+            transactions.addAll(tradeArchive.read(query.copy(query.getAfter(), pageSize + 1)));
+            transactions.sort(NEWEST_FIRST);
+            if (transactions.size() > pageSize + 1) {
+                transactions.subList(pageSize + 1, transactions.size()).clear();
+            }
+        }
+        
+        TransactionCursor next = null;
+        if (transactions.size() > pageSize) {
+            transactions.remove(pageSize);
+            next = TransactionCursor.of(transactions.get(pageSize - 1));
         }
+        return new TransactionPage(transactions, next);
     }
     
     /**
-     * Load items for a shop from the database
+     * Sum up trades since a day. Old trades are read from the daily rollup and recent ones from
+     * the raw history, so long ranges stay cheap after {@link TransactionCompactor} has run.
      *
-     * @param shop The shop to load items for
+     * @param shopId The shop to include, or null for all shops
+     * @param itemId The shop item to include, or null for all items
+     * @param since The first day to include (UTC), or null for all time
+     * @return The totals; all zero if the query failed
      */
-    private void loadShopItems(Shop shop) {
-        try {
-            connect();
-            
-            try (PreparedStatement ps = connection.prepareStatement("SELECT * FROM shop_items WHERE shop_id = ?")) {
-                ps.setString(1, shop.getId().toString());
-                
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        UUID id = UUID.fromString(rs.getString("id"));
-                        ItemStack item = deserializeItemStack(rs.getString("item_data"));
-                        double price = rs.getDouble("price");
-                        int stock = rs.getInt("stock");
-                        
-                        ShopItem shopItem = new ShopItem(id, shop.getId(), item, price);
-                        shopItem.setStock(stock);
-                        
-                        shop.addItem(shopItem);
-                    }
+    public TradeTotals getTradeTotals(UUID shopId, UUID itemId, LocalDate since) {
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        if (shopId != null) {
+            columns.add("shop_id");
+            values.add(UuidBytes.toBytes(shopId));
+        }
+        if (itemId != null) {
+            columns.add("item_id");
+            values.add(UuidBytes.toBytes(itemId));
+        }
+
+        String sql = "SELECT SUM(c), SUM(q), SUM(v) FROM (" + tradeUnion(null, columns, since) + ") t";
+        try (Connection connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            bindTradeUnion(ps, values, since);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return new TradeTotals(null, rs.getInt(1), rs.getLong(2), rs.getDouble(3));
                 }
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to load shop items for shop: " + shop.getName(), e);
+            plugin.getLogger().log(Level.SEVERE, "Failed to sum up trades", e);
         }
+        return new TradeTotals(null, 0, 0, 0);
     }
     
     /**
-     * Record a transaction in the database
+     * Rank the players who traded the most items since a day
      *
-     * @param shopId The shop ID
-     * @param playerId The player ID
-     * @param itemId The item ID
-     * @param quantity The quantity
-     * @param price The price
      * @param type The transaction type (buy/sell)
-     * @return True if successful, false otherwise
+     * @param since The first day to include (UTC), or null for all time
+     * @param limit The number of players to return
+     * @return The totals per player, keyed by player ID, highest quantity first
      */
-    public boolean recordTransaction(UUID shopId, UUID playerId, UUID itemId, int quantity, double price, String type) {
-        try {
-            connect();
-            
-            try (PreparedStatement ps = connection.prepareStatement(
-                    "INSERT INTO transactions (id, shop_id, player_id, item_id, quantity, price, type) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
-                ps.setString(1, UUID.randomUUID().toString());
-                ps.setString(2, shopId.toString());
-                ps.setString(3, playerId.toString());
-                ps.setString(4, itemId.toString());
-                ps.setInt(5, quantity);
-                ps.setDouble(6, price);
-                ps.setString(7, type);
-                ps.executeUpdate();
+    public List<TradeTotals> getTopPlayers(String type, LocalDate since, int limit) {
+        return getTopTrades("player_id", type, since, limit);
+    }
+    
+    /**
+     * Rank the shop items that were traded the most since a day
+     *
+     * @param type The transaction type (buy/sell)
+     * @param since The first day to include (UTC), or null for all time
+     * @param limit The number of items to return
+     * @return The totals per item, keyed by shop item ID, highest quantity first
+     */
+    public List<TradeTotals> getTopItems(String type, LocalDate since, int limit) {
+        return getTopTrades("item_id", type, since, limit);
+    }
+    
+    private List<TradeTotals> getTopTrades(String keyColumn, String type, LocalDate since, int limit) {
+        List<TradeTotals> ranking = new ArrayList<>();
+        String sql = "SELECT k, SUM(c), SUM(q), SUM(v) FROM (" + tradeUnion(keyColumn, List.of("type"), since) + ") t " +
+                     "GROUP BY k ORDER BY SUM(q) DESC LIMIT " + limit;
+        try (Connection connection = getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            bindTradeUnion(ps, List.of(type), since);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ranking.add(new TradeTotals(UuidBytes.fromBytes(rs.getBytes(1)).toString(),
+                            rs.getInt(2), rs.getLong(3), rs.getDouble(4)));
+                }
             }
-            
-            return true;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to record transaction", e);
-            return false;
+            plugin.getLogger().log(Level.SEVERE, "Failed to rank trades by " + keyColumn, e);
         }
+        return ranking;
     }
     
     /**
-     * Get transactions for a shop
+     * Build a query over the daily rollup and the raw history, with the columns {@code c} (trades),
+     * {@code q} (quantity) and {@code v} (value), and {@code k} if grouped. Rows move from one table
+     * to the other in a single transaction, so nothing is counted twice.
      *
-     * @param shopId The shop ID
-     * @param limit The maximum number of transactions to return
-     * @param offset The offset for pagination
-     * @return A list of transactions
+     * @param keyColumn The UUID column to select as {@code k}, or null
+     * @param filterColumns The columns to filter on with equality
+     * @param since The first day to include, or null for all time
+     * @return The SQL query; bind it with {@link #bindTradeUnion(PreparedStatement, List, LocalDate)}
      */
-    public List<Transaction> getTransactions(UUID shopId, int limit, int offset) {
-        List<Transaction> transactions = new ArrayList<>();
+    private String tradeUnion(String keyColumn, List<String> filterColumns, LocalDate since) {
+        List<String> conditions = new ArrayList<>();
+        for (String column : filterColumns) {
+            conditions.add(column + " = ?");
+        }
+        String key = keyColumn != null ? keyColumn + " AS k, " : "";
+        String filter = conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+        String joiner = conditions.isEmpty() ? " WHERE " : " AND ";
         
-        try {
-            connect();
-            
-            try (PreparedStatement ps = connection.prepareStatement(
-                    "SELECT * FROM transactions WHERE shop_id = ? ORDER BY timestamp DESC LIMIT ? OFFSET ?")) {
-                ps.setString(1, shopId.toString());
-                ps.setInt(2, limit);
-                ps.setInt(3, offset);
-                
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        UUID id = UUID.fromString(rs.getString("id"));
-                        UUID playerId = UUID.fromString(rs.getString("player_id"));
-                        UUID itemId = UUID.fromString(rs.getString("item_id"));
-                        int quantity = rs.getInt("quantity");
-                        double price = rs.getDouble("price");
-                        String type = rs.getString("type");
-                        String timestamp = rs.getString("timestamp");
-                        
-                        Transaction transaction = new Transaction(id, shopId, playerId, itemId, quantity, price, type, timestamp);
-                        transactions.add(transaction);
-                    }
+        return "SELECT " + key + "trade_count AS c, quantity AS q, total_value AS v FROM transactions_daily" +
+               filter + (since != null ? joiner + "day >= ?" : "") +
+               " UNION ALL " +
+               "SELECT " + key + "1, quantity, price FROM transactions" +
+               filter + (since != null ? joiner + "timestamp >= ?" : "");
+    }
+    
+    private void bindTradeUnion(PreparedStatement ps, List<?> filterValues, LocalDate since) throws SQLException {
+        int index = 1;
+        // Each half of the union takes the same parameters
+        for (int half = 0; half < 2; half++) {
+            for (Object value : filterValues) {
+                if (value instanceof byte[]) {
+                    ps.setBytes(index++, (byte[]) value);
+                } else {
+                    ps.setString(index++, (String) value);
                 }
             }
-            
-            return transactions;
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to get transactions for shop: " + shopId, e);
-            return transactions;
+            if (since != null) {
+                ps.setString(index++, half == 0 ? since.toString() : since + " 00:00:00");
+            }
         }
     }
     
     /**
-     * Serialize a location to a string
+     * The start of a SELECT that reads whole transactions, with the material name looked up
+     *
+     * @param materialsTable The material lookup table
+     * @return The SQL, up to the FROM clause
+     */
+    static String selectTransactions(String materialsTable) {
+        return "SELECT t.*, (SELECT m.name FROM " + materialsTable + " m WHERE m.id = t.material_id) AS material FROM transactions t";
+    }
+    
+    /**
+     * Read a transaction from the current row of a result set
+     *
+     * @param rs The result set, from a query built with {@link #selectTransactions(String)}
+     * @return The transaction
+     * @throws SQLException If an error occurs
+     */
+    static Transaction readTransaction(ResultSet rs) throws SQLException {
+        return new Transaction(
+            UuidBytes.fromBytes(rs.getBytes("id")),
+            UuidBytes.fromBytes(rs.getBytes("shop_id")),
+            UuidBytes.fromBytes(rs.getBytes("player_id")),
+            UuidBytes.fromBytes(rs.getBytes("item_id")),
+            rs.getString("material"),
+            rs.getInt("quantity"),
+            rs.getDouble("price"),
+            rs.getString("type"),
+            rs.getString("timestamp")
+        );
+    }
+    
+    /**
+     * Serialize a shop's location to a string
      *
-     * @param location The location
+     * @param shop The shop snapshot
      * @return The serialized location
      */
-    private String serializeLocation(Location location) {
-        return location.getWorld().getName() + "," +
-               location.getX() + "," +
-               location.getY() + "," +
-               location.getZ() + "," +
-               location.getYaw() + "," +
-               location.getPitch();
+    String serializeLocation(ShopSnapshot shop) {
+        return shop.getWorld() + "," +
+               shop.getX() + "," +
+               shop.getY() + "," +
+               shop.getZ() + "," +
+               shop.getYaw() + "," +
+               shop.getPitch();
     }
     
     /**
-     * Deserialize a location from a string
+     * Deserialize a location from a string. Off the main thread the world is looked up later;
+     * see {@link StoredLocation}.
      *
      * @param serialized The serialized location
      * @return The location
      */
-    private Location deserializeLocation(String serialized) {
+    Location deserializeLocation(String serialized) {
         String[] parts = serialized.split(",");
-        return new Location(
-            plugin.getServer().getWorld(parts[0]),
+        return StoredLocation.of(
+            parts[0],
             Double.parseDouble(parts[1]),
             Double.parseDouble(parts[2]),
             Double.parseDouble(parts[3]),
@@ -453,7 +565,7 @@ public class DatabaseManager {
      * @param item The item
      * @return The serialized item
      */
-    private String serializeItemStack(ItemStack item) {
+    String serializeItemStack(ItemStack item) {
         // This is a simplified implementation
         // In a real plugin, you'd use Bukkit's serialization or a library like XStream
         return item.getType().name() + "," + item.getAmount();
@@ -465,7 +577,7 @@ public class DatabaseManager {
      * @param serialized The serialized item
      * @return The item
      */
-    private ItemStack deserializeItemStack(String serialized) {
+    ItemStack deserializeItemStack(String serialized) {
         // This is a simplified implementation
         String[] parts = serialized.split(",");
         Material material = Material.valueOf(parts[0]);
@@ -481,6 +593,7 @@ public class DatabaseManager {
         private final UUID shopId;
         private final UUID playerId;
         private final UUID itemId;
+        private final String material;
         private final int quantity;
         private final double price;
         private final String type;
@@ -493,16 +606,18 @@ public class DatabaseManager {
          * @param shopId The shop ID
          * @param playerId The player ID
          * @param itemId The item ID
+         * @param material The material name, or null if unknown
          * @param quantity The quantity
          * @param price The price
          * @param type The transaction type
          * @param timestamp The timestamp
          */
-        public Transaction(UUID id, UUID shopId, UUID playerId, UUID itemId, int quantity, double price, String type, String timestamp) {
+        public Transaction(UUID id, UUID shopId, UUID playerId, UUID itemId, String material, int quantity, double price, String type, String timestamp) {
             this.id = id;
             this.shopId = shopId;
             this.playerId = playerId;
             this.itemId = itemId;
+            this.material = material;
             this.quantity = quantity;
             this.price = price;
             this.type = type;
@@ -545,6 +660,15 @@ public class DatabaseManager {
             return itemId;
         }
         
+        /**
+         * Get the material traded
+         *
+         * @return The material name, or null for trades recorded before materials were
+         */
+        public String getMaterial() {
+            return material;
+        }
+        
         /**
          * Get the quantity
          *
@@ -583,24 +707,215 @@ public class DatabaseManager {
     }
     
     /**
-     * Get the database connection
+     * One page of the transaction history
+     */
+    public static class TransactionPage {
+        private final List<Transaction> transactions;
+        private final TransactionCursor next;
+        
+        /**
+         * Creates a new transaction page
+         *
+         * @param transactions The transactions on this page
+         * @param next The cursor for the following page, or null if this is the last page
+         */
+        public TransactionPage(List<Transaction> transactions, TransactionCursor next) {
+            this.transactions = transactions;
+            this.next = next;
+        }
+        
+        /**
+         * Get the transactions on this page
+         *
+         * @return The transactions, newest first
+         */
+        public List<Transaction> getTransactions() {
+            return transactions;
+        }
+        
+        /**
+         * Get the cursor for the following page
+         *
+         * @return The cursor, or null if this is the last page
+         */
+        public TransactionCursor getNext() {
+            return next;
+        }
+        
+        /**
+         * Check whether another page follows
+         *
+         * @return True if there are more transactions
+         */
+        public boolean hasNext() {
+            return next != null;
+        }
+    }
+    
+    /**
+     * Trade totals over a period, optionally for one player or item
+     */
+    public static class TradeTotals {
+        private final String key;
+        private final int trades;
+        private final long quantity;
+        private final double value;
+        
+        /**
+         * Creates new trade totals
+         *
+         * @param key The player or item ID the totals belong to, or null for overall totals
+         * @param trades The number of trades
+         * @param quantity The number of items traded
+         * @param value The total price of the trades
+         */
+        public TradeTotals(String key, int trades, long quantity, double value) {
+            this.key = key;
+            this.trades = trades;
+            this.quantity = quantity;
+            this.value = value;
+        }
+        
+        /**
+         * Get the player or item ID the totals belong to
+         *
+         * @return The ID, or null for overall totals
+         */
+        public String getKey() {
+            return key;
+        }
+        
+        /**
+         * Get the number of trades
+         *
+         * @return The number of trades
+         */
+        public int getTrades() {
+            return trades;
+        }
+        
+        /**
+         * Get the number of items traded
+         *
+         * @return The quantity
+         */
+        public long getQuantity() {
+            return quantity;
+        }
+        
+        /**
+         * Get the total price of the trades
+         *
+         * @return The value
+         */
+        public double getValue() {
+            return value;
+        }
+    }
+    
+    /**
+     * Borrow a connection from the pool. Close it when done (preferably with
+     * try-with-resources) to return it to the pool; the physical connection stays open.
      *
-     * @return The database connection
-     * @throws SQLException If an error occurs
+     * @return A pooled database connection
+     * @throws SQLException If no connection is available
      */
     public Connection getConnection() throws SQLException {
-        connect();
-        return connection;
+        if (async != null) {
+            async.checkThread();
+        }
+        return pool.borrow();
+    }
+    
+    /**
+     * Get the asynchronous facade, for database work started on the main thread
+     *
+     * @return The async facade, or null if this isn't the plugin's database
+     */
+    public AsyncDatabase getAsync() {
+        return async;
+    }
+    
+    /**
+     * Get the connection pool
+     *
+     * @return The connection pool
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+    
+    /**
+     * Get the statement timings
+     *
+     * @return The query statistics, or null if {@code database.query_stats} is off
+     */
+    public QueryStats getQueryStats() {
+        return queryStats;
+    }
+    
+    /**
+     * Get the item blob store
+     *
+     * @return The item blob store
+     */
+    public ItemBlobStore getItemBlobStore() {
+        return itemBlobStore;
+    }
+    
+    /**
+     * Get the archive of compacted transactions
+     *
+     * @return The archive, or null if {@code database.archive} is off or this isn't the plugin's database
+     */
+    public TradeArchive getTradeArchive() {
+        return tradeArchive;
+    }
+    
+    /**
+     * Get the backup manager
+     *
+     * @return The backup manager, or null if this isn't the plugin's database
+     */
+    public BackupManager getBackupManager() {
+        return backupManager;
+    }
+    
+    /**
+     * Get the write-behind queue for trade records
+     *
+     * @return The trade recorder, or null if this isn't the plugin's database
+     */
+    public TradeRecorder getTradeRecorder() {
+        return tradeRecorder;
+    }
+    
+    /**
+     * Get the lookup of material IDs used by the market tables
+     *
+     * @return The material lookup
+     */
+    public MaterialIds getMaterialIds() {
+        return materialIds;
+    }
+    
+    /**
+     * Get the SQL dialect of the configured database
+     *
+     * @return The SQL dialect
+     */
+    public SqlDialect getDialect() {
+        return dialect;
     }
     
     /**
-     * Get the table prefix for database tables
+     * Get the table prefix for database tables. It is read once, since the tables can't be
+     * renamed while the plugin is running.
      *
      * @return The table prefix
      */
     public String getTablePrefix() {
-        // Get prefix from config, default to empty string
-        return plugin.getConfig().getString("database.table_prefix", "fs_");
+        return tablePrefix;
     }
     
     /**
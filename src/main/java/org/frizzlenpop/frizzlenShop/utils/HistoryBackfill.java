@@ -0,0 +1,325 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Copies the trade history written before schema version 11 into the compact tables.
+ * <p>
+ * Migration 11 renames the old {@code transactions} and {@code transactions_daily} tables
+ * (UUIDs stored as text) to {@code *_legacy} and creates compact ones in their place, so the
+ * server starts right away and records new trades as usual. This then moves the old rows over
+ * in small batches on an async thread: each batch converts the UUIDs, inserts the rows and
+ * deletes them from the legacy table in one transaction, so a row is never counted twice and
+ * an interrupted backfill simply continues on the next start. A legacy table is dropped once
+ * it is empty.
+ * <p>
+ * Until the backfill is done, history and totals only include the rows copied so far.
+ */
+public class HistoryBackfill {
+
+    /**
+     * Where migration 11 moves the raw transactions
+     */
+    public static final String LEGACY_TRANSACTIONS = "transactions_legacy";
+    /**
+     * Where migration 11 moves the daily totals
+     */
+    public static final String LEGACY_DAILY = "transactions_daily_legacy";
+
+    private static final String[] TRANSACTION_COLUMNS = {
+            "id", "shop_id", "player_id", "item_id", "quantity", "price", "type", "timestamp"
+    };
+    private static final String[] DAILY_COLUMNS = {
+            "day", "shop_id", "item_id", "player_id", "type", "trade_count", "quantity", "total_value"
+    };
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final String insertTransaction;
+    private final String upsertDaily;
+    private volatile boolean stopped;
+    private volatile long copied;
+    private volatile long skipped;
+
+    /**
+     * Creates a new history backfill
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The database holding the transaction history
+     */
+    public HistoryBackfill(FrizzlenShop plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+
+        SqlDialect dialect = databaseManager.getDialect();
+        this.insertTransaction = dialect.insertIgnoring("transactions", TRANSACTION_COLUMNS);
+        // The compactor may already have rolled new trades into the same day
+        this.upsertDaily = dialect.upsert("transactions_daily", DAILY_COLUMNS,
+                new String[]{"day", "shop_id", "item_id", "player_id", "type"},
+                "trade_count = trade_count + " + dialect.excluded("trade_count")
+                        + ", quantity = quantity + " + dialect.excluded("quantity")
+                        + ", total_value = total_value + " + dialect.excluded("total_value"));
+    }
+
+    /**
+     * Start copying on an async thread if any legacy table is left
+     */
+    public void start() {
+        List<String> pending = getPendingTables();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        plugin.getLogger().info("Copying the transaction history into the compact tables in the background ("
+                + String.join(", ", pending) + ")...");
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this::run);
+    }
+
+    /**
+     * Stop after the current batch. The rest is copied on the next start.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Check whether the backfill is copying right now
+     *
+     * @return True while running
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Get the number of rows copied since the plugin started
+     *
+     * @return The number of rows
+     */
+    public long getCopied() {
+        return copied;
+    }
+
+    /**
+     * Get the legacy tables that still hold rows
+     *
+     * @return The table names; empty once the backfill is done or wasn't needed
+     */
+    public List<String> getPendingTables() {
+        List<String> pending = new ArrayList<>();
+        try (Connection connection = databaseManager.getConnection()) {
+            SchemaMigrator migrator = new SchemaMigrator(plugin, databaseManager);
+            for (String table : new String[]{LEGACY_TRANSACTIONS, LEGACY_DAILY}) {
+                if (migrator.tableExists(connection, table)) {
+                    pending.add(table);
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to check for trade history left to copy", e);
+        }
+        return pending;
+    }
+
+    /**
+     * Copy both legacy tables, a batch at a time, pausing between batches so the copy doesn't
+     * starve other queries
+     */
+    private void run() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int batchSize = Math.max(100, plugin.getConfig().getInt("database.backfill_batch_size", 2000));
+        long pause = Math.max(0, plugin.getConfig().getLong("database.backfill_pause", 50));
+        try {
+            for (String table : getPendingTables()) {
+                while (!stopped) {
+                    int rows = table.equals(LEGACY_TRANSACTIONS)
+                            ? copyTransactions(batchSize)
+                            : copyDailyTotals(batchSize);
+                    copied += rows;
+                    if (rows < batchSize) {
+                        dropIfEmpty(table);
+                        break;
+                    }
+                    if (pause > 0) {
+                        Thread.sleep(pause);
+                    }
+                }
+            }
+            if (!stopped) {
+                plugin.getLogger().info(String.format("Copied %d trade history row(s) into the compact tables in %d s%s.",
+                        copied, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                        skipped > 0 ? " (" + skipped + " unreadable row(s) dropped)" : ""));
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Copying the trade history paused after " + copied
+                    + " row(s); it continues on the next start", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Move a batch of raw transactions into the compact table, in one transaction
+     *
+     * @param batchSize The maximum number of rows to move
+     * @return The number of rows read from the legacy table
+     * @throws SQLException If an error occurs
+     */
+    private int copyTransactions(int batchSize) throws SQLException {
+        try (Connection connection = databaseManager.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                List<String> ids = new ArrayList<>(batchSize);
+                try (PreparedStatement select = connection.prepareStatement(
+                        "SELECT " + String.join(", ", TRANSACTION_COLUMNS) + " FROM " + LEGACY_TRANSACTIONS +
+                        " ORDER BY id LIMIT " + batchSize);
+                     PreparedStatement insert = connection.prepareStatement(insertTransaction)) {
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            ids.add(rs.getString("id"));
+                            try {
+                                insert.setBytes(1, UuidBytes.toBytes(rs.getString("id")));
+                                insert.setBytes(2, UuidBytes.toBytes(rs.getString("shop_id")));
+                                insert.setBytes(3, UuidBytes.toBytes(rs.getString("player_id")));
+                                insert.setBytes(4, UuidBytes.toBytes(rs.getString("item_id")));
+                            } catch (IllegalArgumentException e) {
+                                skipped++;
+                                continue;
+                            }
+                            insert.setInt(5, rs.getInt("quantity"));
+                            insert.setDouble(6, rs.getDouble("price"));
+                            insert.setString(7, rs.getString("type"));
+                            // Keep the timestamp in whatever form the database returns it in
+                            insert.setObject(8, rs.getObject("timestamp"));
+                            insert.addBatch();
+                        }
+                    }
+                    if (!ids.isEmpty()) {
+                        insert.executeBatch();
+                    }
+                }
+
+                try (PreparedStatement delete = connection.prepareStatement(
+                        "DELETE FROM " + LEGACY_TRANSACTIONS + " WHERE id = ?")) {
+                    for (String id : ids) {
+                        delete.setString(1, id);
+                        delete.addBatch();
+                    }
+                    if (!ids.isEmpty()) {
+                        delete.executeBatch();
+                    }
+                }
+
+                connection.commit();
+                return ids.size();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Move a batch of daily totals into the compact table, in one transaction
+     *
+     * @param batchSize The maximum number of rows to move
+     * @return The number of rows read from the legacy table
+     * @throws SQLException If an error occurs
+     */
+    private int copyDailyTotals(int batchSize) throws SQLException {
+        try (Connection connection = databaseManager.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                List<String[]> keys = new ArrayList<>(batchSize);
+                try (PreparedStatement select = connection.prepareStatement(
+                        "SELECT " + String.join(", ", DAILY_COLUMNS) + " FROM " + LEGACY_DAILY +
+                        " ORDER BY day, shop_id, item_id, player_id, type LIMIT " + batchSize);
+                     PreparedStatement upsert = connection.prepareStatement(upsertDaily)) {
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            keys.add(new String[]{rs.getString("day"), rs.getString("shop_id"), rs.getString("item_id"),
+                                    rs.getString("player_id"), rs.getString("type")});
+                            try {
+                                upsert.setString(1, rs.getString("day"));
+                                upsert.setBytes(2, UuidBytes.toBytes(rs.getString("shop_id")));
+                                upsert.setBytes(3, UuidBytes.toBytes(rs.getString("item_id")));
+                                upsert.setBytes(4, UuidBytes.toBytes(rs.getString("player_id")));
+                            } catch (IllegalArgumentException e) {
+                                skipped++;
+                                continue;
+                            }
+                            upsert.setString(5, rs.getString("type"));
+                            upsert.setInt(6, rs.getInt("trade_count"));
+                            upsert.setLong(7, rs.getLong("quantity"));
+                            upsert.setDouble(8, rs.getDouble("total_value"));
+                            upsert.addBatch();
+                        }
+                    }
+                    if (!keys.isEmpty()) {
+                        upsert.executeBatch();
+                    }
+                }
+
+                try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + LEGACY_DAILY +
+                        " WHERE day = ? AND shop_id = ? AND item_id = ? AND player_id = ? AND type = ?")) {
+                    for (String[] key : keys) {
+                        for (int i = 0; i < key.length; i++) {
+                            delete.setString(i + 1, key[i]);
+                        }
+                        delete.addBatch();
+                    }
+                    if (!keys.isEmpty()) {
+                        delete.executeBatch();
+                    }
+                }
+
+                connection.commit();
+                return keys.size();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Drop a legacy table once every row has been copied
+     *
+     * @param table The legacy table
+     * @throws SQLException If an error occurs
+     */
+    private void dropIfEmpty(String table) throws SQLException {
+        try (Connection connection = databaseManager.getConnection();
+             Statement statement = connection.createStatement()) {
+            try (ResultSet rs = statement.executeQuery("SELECT 1 FROM " + table + " LIMIT 1")) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+            statement.execute("DROP TABLE " + table);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores full ItemStacks in the {@code item_blobs} table, keyed by a SHA-256 hash of their bytes.
+ * <p>
+ * Identical items (the same stack sold by several admin shops, for example) are stored once.
+ * Decoded items are cached by hash, so each distinct item is only deserialized once.
+ */
+public class ItemBlobStore {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Hashes per query in fetchMissing, below SQLite's oldest parameter limit of 999
+    private static final int FETCH_BATCH = 500;
+
+    private final DatabaseManager databaseManager;
+    private final Map<String, ItemStack> decoded = new ConcurrentHashMap<>();
+    private final Set<String> stored = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a new item blob store
+     *
+     * @param databaseManager The database manager
+     */
+    public ItemBlobStore(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Store an item unless an identical one is already stored
+     *
+     * @param conn The connection to use
+     * @param item The item to store
+     * @return The content hash referencing the item
+     * @throws SQLException If an error occurs
+     */
+    public String store(Connection conn, ItemStack item) throws SQLException {
+        // Paper's format is already gzip-compressed NBT, so it is stored as-is
+        byte[] data = item.serializeAsBytes();
+        String hash = hash(data);
+
+        if (stored.add(hash)) {
+            String sql = databaseManager.getDialect().insertIgnoring("item_blobs",
+                    new String[]{"hash", "data", "created_at"});
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, hash);
+                ps.setBytes(2, data);
+                ps.setLong(3, System.currentTimeMillis());
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                stored.remove(hash);
+                throw e;
+            }
+            decoded.putIfAbsent(hash, item.clone());
+        }
+
+        return hash;
+    }
+
+    /**
+     * Load an item by its content hash
+     *
+     * @param conn The connection to use
+     * @param hash The content hash
+     * @return A copy of the item, or null if no blob exists for the hash
+     * @throws SQLException If an error occurs
+     */
+    public ItemStack load(Connection conn, String hash) throws SQLException {
+        ItemStack cached = decoded.get(hash);
+        if (cached != null) {
+            return cached.clone();
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement("SELECT data FROM item_blobs WHERE hash = ?")) {
+            ps.setString(1, hash);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return decode(hash, rs.getBytes("data"));
+            }
+        }
+    }
+
+    /**
+     * Decode blob bytes that were read elsewhere (e.g. from a join), using the cache
+     *
+     * @param hash The content hash
+     * @param data The blob bytes
+     * @return A copy of the item
+     */
+    public ItemStack decode(String hash, byte[] data) {
+        ItemStack item = decoded.computeIfAbsent(hash, key -> ItemStack.deserializeBytes(data));
+        stored.add(hash);
+        return item.clone();
+    }
+
+    /**
+     * Read the bytes of the blobs that aren't decoded yet, each hash once, in batches
+     *
+     * @param conn   The connection to use
+     * @param hashes The content hashes; repeats and hashes already decoded are skipped
+     * @return The blob bytes by hash; hashes with no blob are left out
+     * @throws SQLException If an error occurs
+     */
+    public Map<String, byte[]> fetchMissing(Connection conn, Collection<String> hashes) throws SQLException {
+        List<String> missing = new ArrayList<>();
+        for (String hash : new LinkedHashSet<>(hashes)) {
+            if (hash != null && !decoded.containsKey(hash)) {
+                missing.add(hash);
+            }
+        }
+
+        Map<String, byte[]> blobs = new HashMap<>();
+        for (int start = 0; start < missing.size(); start += FETCH_BATCH) {
+            List<String> batch = missing.subList(start, Math.min(start + FETCH_BATCH, missing.size()));
+            String sql = "SELECT hash, data FROM item_blobs WHERE hash IN ("
+                    + String.join(", ", Collections.nCopies(batch.size(), "?")) + ")";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    ps.setString(i + 1, batch.get(i));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        blobs.put(rs.getString("hash"), rs.getBytes("data"));
+                    }
+                }
+            }
+        }
+        return blobs;
+    }
+
+    /**
+     * Delete the blobs no shop item refers to anymore. Blobs stored within the grace period are
+     * kept, as the save that stored one may not have written the item row referring to it yet;
+     * each blob is checked for references again as it is deleted.
+     *
+     * @param conn        The connection to use
+     * @param graceMillis How old an unreferenced blob must be to be deleted, in milliseconds
+     * @return The number of blobs deleted
+     * @throws SQLException If an error occurs
+     */
+    public int deleteOrphans(Connection conn, long graceMillis) throws SQLException {
+        List<String> orphans = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT hash FROM item_blobs b WHERE created_at < ? " +
+                "AND NOT EXISTS (SELECT 1 FROM shop_items i WHERE i.item_hash = b.hash)")) {
+            ps.setLong(1, System.currentTimeMillis() - graceMillis);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    orphans.add(rs.getString("hash"));
+                }
+            }
+        }
+        if (orphans.isEmpty()) {
+            return 0;
+        }
+
+        int deleted = 0;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "DELETE FROM item_blobs WHERE hash = ? AND NOT EXISTS (SELECT 1 FROM shop_items WHERE item_hash = ?)")) {
+            for (String hash : orphans) {
+                // Forgotten first, so a later save of the same item stores the blob again
+                stored.remove(hash);
+                ps.setString(1, hash);
+                ps.setString(2, hash);
+                ps.addBatch();
+            }
+            for (int count : ps.executeBatch()) {
+                deleted += Math.max(count, 0);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Get a cached item without touching the database
+     *
+     * @param hash The content hash
+     * @return A copy of the item, or null if it has not been decoded yet
+     */
+    public ItemStack getCached(String hash) {
+        ItemStack cached = decoded.get(hash);
+        return cached != null ? cached.clone() : null;
+    }
+
+    /**
+     * Clear the decoded item cache
+     */
+    public void clearCache() {
+        decoded.clear();
+        stored.clear();
+    }
+
+    /**
+     * Hash item bytes
+     *
+     * @param data The serialized item
+     * @return The lowercase hex SHA-256 of the bytes
+     */
+    public static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
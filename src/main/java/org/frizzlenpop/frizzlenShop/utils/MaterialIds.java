@@ -0,0 +1,133 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code materials} lookup table, which gives every material name a small integer ID.
+ * The market tables store that ID instead of the name, so their rows and indexes stay small
+ * and lookups compare integers.
+ * <p>
+ * IDs are assigned by the database the first time a material is seen and never change, so
+ * both directions are cached for the lifetime of the plugin.
+ */
+public class MaterialIds {
+
+    private final String table;
+    private final String insert;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new material lookup
+     *
+     * @param table   The lookup table name, with the table prefix
+     * @param dialect The SQL dialect
+     */
+    public MaterialIds(String table, SqlDialect dialect) {
+        this.table = table;
+        this.insert = dialect.insertIgnoring(table, new String[]{"name"});
+    }
+
+    /**
+     * Get the lookup table name
+     *
+     * @return The table name, with the table prefix
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Get the ID of a material, assigning one if it has none yet
+     *
+     * @param connection The connection to use
+     * @param name       The material name
+     * @return The material ID
+     * @throws SQLException If an error occurs
+     */
+    public int getId(Connection connection, String name) throws SQLException {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        // Another server may insert the same name at once; either way the row exists afterwards
+        try (PreparedStatement ps = connection.prepareStatement(insert)) {
+            ps.setString(1, name);
+            ps.executeUpdate();
+        }
+        id = findId(connection, name);
+        if (id == null) {
+            throw new SQLException("Failed to assign an ID to material " + name);
+        }
+        return id;
+    }
+
+    /**
+     * Get the ID of a material without assigning one
+     *
+     * @param connection The connection to use
+     * @param name       The material name
+     * @return The material ID, or null if the material has none yet
+     * @throws SQLException If an error occurs
+     */
+    public Integer findId(Connection connection, String name) throws SQLException {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement("SELECT id FROM " + table + " WHERE name = ?")) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                id = rs.getInt(1);
+            }
+        }
+        remember(connection, id, name);
+        return id;
+    }
+
+    /**
+     * Get the name of a material ID
+     *
+     * @param connection The connection to use
+     * @param id         The material ID
+     * @return The material name, or null if the ID is unknown
+     * @throws SQLException If an error occurs
+     */
+    public String getName(Connection connection, int id) throws SQLException {
+        String name = names.get(id);
+        if (name != null) {
+            return name;
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement("SELECT name FROM " + table + " WHERE id = ?")) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                name = rs.getString(1);
+            }
+        }
+        remember(connection, id, name);
+        return name;
+    }
+
+    private void remember(Connection connection, int id, String name) throws SQLException {
+        // A row inserted in a transaction may still be rolled back
+        if (!connection.getAutoCommit()) {
+            return;
+        }
+        ids.put(name, id);
+        names.put(id, name);
+    }
+}
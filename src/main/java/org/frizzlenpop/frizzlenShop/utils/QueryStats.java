@@ -0,0 +1,492 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.bukkit.Bukkit;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Latency statistics for every statement run through the {@link ConnectionPool}.
+ * <p>
+ * Statements are grouped by template: the SQL text with whitespace collapsed and literals and
+ * placeholder lists folded, so {@code IN (?, ?, ?)} and {@code IN (?, ?)} count as one query.
+ * Each template keeps a log-scale latency histogram (about 12% resolution), row counts and how
+ * often it ran on the main thread. A query's time includes reading its rows, but not what the
+ * caller does between rows.
+ * <p>
+ * Statements slower than {@code database.slow_query_threshold} are written with the calling
+ * stack to {@code logs/slow-queries.log} on a background thread. The log is rotated when it
+ * grows past {@code database.slow_query_log_size}.
+ */
+public class QueryStats {
+
+    /**
+     * The template that statements are counted under once {@link #MAX_TEMPLATES} is reached
+     */
+    public static final String OTHER = "(other statements)";
+
+    private static final int MAX_TEMPLATES = 256;
+    private static final int MAX_CACHED_SQL = 2048;
+    private static final int BUCKETS = 320;
+    private static final int MAX_STACK_FRAMES = 20;
+    private static final int SLOW_LOG_QUEUE = 1000;
+    private static final int SLOW_LOG_FILES = 3;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\?(?:\\s*,\\s*\\?)+\\)");
+
+    private final FrizzlenShop plugin;
+    private final long slowThresholdNanos;
+    private final long slowLogMaxBytes;
+    private final File slowLogFile;
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
+    // Raw SQL text to its template, so hot statements are only normalized once
+    private final Map<String, Template> bySql = new ConcurrentHashMap<>();
+    private final LongAdder droppedSlowEntries = new LongAdder();
+    private final ThreadPoolExecutor slowLogWriter;
+    private volatile long since = System.currentTimeMillis();
+
+    /**
+     * Creates query statistics using the {@code database} section of the config
+     *
+     * @param plugin The plugin instance
+     */
+    public QueryStats(FrizzlenShop plugin) {
+        this.plugin = plugin;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(plugin.getConfig().getLong("database.slow_query_threshold", 100L));
+        this.slowLogMaxBytes = Math.max(16, plugin.getConfig().getLong("database.slow_query_log_size", 1024L)) * 1024;
+        this.slowLogFile = new File(new File(plugin.getDataFolder(), "logs"), "slow-queries.log");
+        // A burst of slow queries drops entries instead of queueing without bound
+        this.slowLogWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(SLOW_LOG_QUEUE), runnable -> {
+            Thread thread = new Thread(runnable, "FrizzlenShop-SlowQueryLog");
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, executor) -> droppedSlowEntries.increment());
+    }
+
+    /**
+     * Record a finished statement. Slow statements are logged with the current stack, so call
+     * this on the thread that ran the statement.
+     *
+     * @param sql    The SQL text, or null if unknown (e.g. a batch of plain statements)
+     * @param nanos  How long the statement took
+     * @param rows   The rows read or changed
+     * @param failed Whether the statement threw
+     */
+    public void record(String sql, long nanos, long rows, boolean failed) {
+        boolean mainThread = Bukkit.isPrimaryThread();
+        template(sql).record(nanos, rows, mainThread, failed);
+
+        if (slowThresholdNanos > 0 && nanos >= slowThresholdNanos) {
+            logSlow(sql, nanos, rows, mainThread, failed, Thread.currentThread().getName(), new Throwable().getStackTrace());
+        }
+    }
+
+    /**
+     * Get the template a statement is counted under
+     *
+     * @param sql The SQL text, or null
+     * @return The template
+     */
+    private Template template(String sql) {
+        if (sql == null) {
+            sql = "(batch)";
+        }
+        Template template = bySql.get(sql);
+        if (template != null) {
+            return template;
+        }
+
+        String text = normalize(sql);
+        template = templates.get(text);
+        if (template == null) {
+            template = templates.size() < MAX_TEMPLATES
+                    ? templates.computeIfAbsent(text, Template::new)
+                    : templates.computeIfAbsent(OTHER, Template::new);
+        }
+        if (bySql.size() < MAX_CACHED_SQL) {
+            bySql.put(sql, template);
+        }
+        return template;
+    }
+
+    /**
+     * Turn SQL text into its template
+     *
+     * @param sql The SQL text
+     * @return The template text
+     */
+    static String normalize(String sql) {
+        String text = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        text = STRING_LITERAL.matcher(text).replaceAll("?");
+        text = NUMBER_LITERAL.matcher(text).replaceAll("?");
+        return PLACEHOLDER_LIST.matcher(text).replaceAll("(?, ...)");
+    }
+
+    /**
+     * Queue a slow statement for the slow query log
+     *
+     * @param sql        The SQL text, or null
+     * @param nanos      How long the statement took
+     * @param rows       The rows read or changed
+     * @param mainThread Whether it ran on the main thread
+     * @param failed     Whether the statement threw
+     * @param threadName The name of the thread it ran on
+     * @param stack      The calling stack
+     */
+    private void logSlow(String sql, long nanos, long rows, boolean mainThread, boolean failed,
+                         String threadName, StackTraceElement[] stack) {
+        StringBuilder entry = new StringBuilder();
+        entry.append('[').append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date())).append("] ")
+                .append(String.format("%.1f", nanos / 1_000_000.0)).append(" ms, ")
+                .append(rows).append(" row(s), thread ").append(threadName)
+                .append(mainThread ? " (main thread)" : "")
+                .append(failed ? ", failed" : "")
+                .append(System.lineSeparator())
+                .append("  ").append(sql != null ? WHITESPACE.matcher(sql.trim()).replaceAll(" ") : "(batch)")
+                .append(System.lineSeparator());
+
+        int frames = 0;
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            // Skip the instrumentation itself
+            if (className.startsWith(QueryStats.class.getName()) || className.startsWith(ConnectionPool.class.getName())
+                    || className.startsWith("jdk.proxy") || className.startsWith("com.sun.proxy")
+                    || className.startsWith("java.lang.reflect") || className.startsWith("jdk.internal.reflect")) {
+                continue;
+            }
+            entry.append("    at ").append(frame).append(System.lineSeparator());
+            if (++frames == MAX_STACK_FRAMES) {
+                break;
+            }
+        }
+
+        String text = entry.toString();
+        slowLogWriter.execute(() -> writeSlow(text));
+    }
+
+    /**
+     * Append an entry to the slow query log, rotating it first if it is full
+     *
+     * @param entry The entry
+     */
+    private void writeSlow(String entry) {
+        File folder = slowLogFile.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            return;
+        }
+
+        if (slowLogFile.length() + entry.length() > slowLogMaxBytes) {
+            rotate();
+        }
+        try (PrintWriter writer = new PrintWriter(new FileWriter(slowLogFile, true))) {
+            writer.print(entry);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to write to the slow query log", e);
+        }
+    }
+
+    /**
+     * Shift slow-queries.log to slow-queries.1.log and so on, dropping the oldest
+     */
+    private void rotate() {
+        File folder = slowLogFile.getParentFile();
+        File oldest = new File(folder, "slow-queries." + SLOW_LOG_FILES + ".log");
+        if (oldest.exists() && !oldest.delete()) {
+            return;
+        }
+        for (int i = SLOW_LOG_FILES - 1; i >= 1; i--) {
+            File file = new File(folder, "slow-queries." + i + ".log");
+            if (file.exists() && !file.renameTo(new File(folder, "slow-queries." + (i + 1) + ".log"))) {
+                return;
+            }
+        }
+        if (!slowLogFile.renameTo(new File(folder, "slow-queries.1.log"))) {
+            plugin.getLogger().warning("Failed to rotate the slow query log");
+        }
+    }
+
+    /**
+     * Get a summary of every template, slowest in total first
+     *
+     * @return The summaries
+     */
+    public List<Summary> getSummaries() {
+        List<Summary> summaries = new ArrayList<>();
+        for (Template template : templates.values()) {
+            Summary summary = template.summarize();
+            if (summary.getCount() > 0) {
+                summaries.add(summary);
+            }
+        }
+        summaries.sort(Comparator.comparingLong(Summary::getTotalNanos).reversed());
+        return summaries;
+    }
+
+    /**
+     * Get when the statistics were started or last reset
+     *
+     * @return The time in milliseconds
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Get how many slow query log entries were dropped because the writer fell behind
+     *
+     * @return The number of dropped entries
+     */
+    public long getDroppedSlowEntries() {
+        return droppedSlowEntries.sum();
+    }
+
+    /**
+     * Forget all statistics
+     */
+    public void reset() {
+        templates.clear();
+        bySql.clear();
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * Write the queued slow query log entries and stop the writer
+     */
+    public void close() {
+        slowLogWriter.shutdown();
+        try {
+            slowLogWriter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the histogram bucket for a latency. Below 8µs each microsecond has its own bucket;
+     * above, every power of two is split into 8 buckets.
+     *
+     * @param micros The latency in microseconds
+     * @return The bucket index
+     */
+    static int bucket(long micros) {
+        if (micros < 8) {
+            return (int) Math.max(0, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 3)) & 7;
+        return Math.min(BUCKETS - 1, 8 * (exponent - 2) + sub);
+    }
+
+    /**
+     * Get the highest latency that falls in a bucket
+     *
+     * @param bucket The bucket index
+     * @return The latency in microseconds
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < 8) {
+            return bucket;
+        }
+        int exponent = bucket / 8 + 2;
+        long sub = bucket % 8;
+        return ((9 + sub) << (exponent - 3)) - 1;
+    }
+
+    /**
+     * The statistics of one statement template
+     */
+    private static final class Template {
+        private final String text;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder mainThread = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private Template(String text) {
+            this.text = text;
+        }
+
+        private void record(long nanos, long rowCount, boolean onMainThread, boolean failed) {
+            count.increment();
+            totalNanos.add(nanos);
+            rows.add(rowCount);
+            if (onMainThread) {
+                mainThread.increment();
+            }
+            if (failed) {
+                failures.increment();
+            }
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            histogram.incrementAndGet(bucket(nanos / 1000));
+        }
+
+        private Summary summarize() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            long max = maxNanos.get();
+            return new Summary(text, total, totalNanos.sum(), rows.sum(), mainThread.sum(), failures.sum(), max,
+                    percentile(counts, total, 0.50, max), percentile(counts, total, 0.95, max),
+                    percentile(counts, total, 0.99, max));
+        }
+
+        private static long percentile(long[] counts, long total, double fraction, long maxNanos) {
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(maxNanos, (bucketLimit(i) + 1) * 1000);
+                }
+            }
+            return maxNanos;
+        }
+    }
+
+    /**
+     * A point-in-time summary of one statement template
+     */
+    public static final class Summary {
+        private final String template;
+        private final long count;
+        private final long totalNanos;
+        private final long rows;
+        private final long mainThreadCount;
+        private final long failures;
+        private final long maxNanos;
+        private final long p50Nanos;
+        private final long p95Nanos;
+        private final long p99Nanos;
+
+        private Summary(String template, long count, long totalNanos, long rows, long mainThreadCount, long failures,
+                        long maxNanos, long p50Nanos, long p95Nanos, long p99Nanos) {
+            this.template = template;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.rows = rows;
+            this.mainThreadCount = mainThreadCount;
+            this.failures = failures;
+            this.maxNanos = maxNanos;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        /**
+         * Get the statement template
+         *
+         * @return The template text
+         */
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * Get how often the statement ran
+         *
+         * @return The number of executions
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the time spent in the statement altogether
+         *
+         * @return The total time in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Get the rows read or changed altogether
+         *
+         * @return The number of rows
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Get how often the statement ran on the main thread
+         *
+         * @return The number of executions on the main thread
+         */
+        public long getMainThreadCount() {
+            return mainThreadCount;
+        }
+
+        /**
+         * Get how often the statement threw
+         *
+         * @return The number of failed executions
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * Get the slowest execution
+         *
+         * @return The latency in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Get the median latency
+         *
+         * @return The latency in nanoseconds
+         */
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        /**
+         * Get the 95th percentile latency
+         *
+         * @return The latency in nanoseconds
+         */
+        public long getP95Nanos() {
+            return p95Nanos;
+        }
+
+        /**
+         * Get the 99th percentile latency
+         *
+         * @return The latency in nanoseconds
+         */
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+    }
+}
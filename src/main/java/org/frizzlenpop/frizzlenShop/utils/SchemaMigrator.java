@@ -0,0 +1,790 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.data.ShopRepository;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Brings the database schema up to date.
+ * <p>
+ * Every change to the schema is a numbered migration. Applied versions are recorded in the
+ * {@code schema_version} table, so each migration runs once per database. Migrations must
+ * still be safe to re-run (e.g. if two servers start against the same database at once),
+ * which is why they use {@code IF NOT EXISTS} or check the metadata first.
+ */
+public class SchemaMigrator {
+
+    /**
+     * A single schema change
+     */
+    @FunctionalInterface
+    public interface Step {
+        void apply(Connection connection, SchemaMigrator migrator) throws SQLException;
+    }
+
+    /**
+     * A numbered schema change
+     */
+    public static final class Migration {
+        private final int version;
+        private final String description;
+        private final Step step;
+
+        public Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+    private final List<Migration> migrations = new ArrayList<>();
+
+    /**
+     * Creates a new schema migrator
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The database manager
+     */
+    public SchemaMigrator(FrizzlenShop plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        registerMigrations();
+    }
+
+    /**
+     * Register all migrations in order. New migrations must be appended with the next version number;
+     * never edit or renumber one that has been released.
+     */
+    private void registerMigrations() {
+        String prefix = databaseManager.getTablePrefix();
+
+        migrations.add(new Migration(1, "Create base tables", (conn, migrator) -> {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS shops (" +
+                    "id VARCHAR(36) PRIMARY KEY, " +
+                    "name VARCHAR(32) NOT NULL, " +
+                    "type VARCHAR(10) NOT NULL, " +
+                    "owner VARCHAR(36), " +
+                    "location TEXT NOT NULL, " +
+                    "description TEXT, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                    "is_open BOOLEAN DEFAULT 1" +
+                    ")"
+                );
+
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS shop_items (" +
+                    "id VARCHAR(36) PRIMARY KEY, " +
+                    "shop_id VARCHAR(36) NOT NULL, " +
+                    "item_data TEXT NOT NULL, " +
+                    "price DOUBLE NOT NULL, " +
+                    "stock INT DEFAULT -1, " +
+                    "FOREIGN KEY (shop_id) REFERENCES shops(id) ON DELETE CASCADE" +
+                    ")"
+                );
+
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS transactions (" +
+                    "id VARCHAR(36) PRIMARY KEY, " +
+                    "shop_id VARCHAR(36) NOT NULL, " +
+                    "player_id VARCHAR(36) NOT NULL, " +
+                    "item_id VARCHAR(36) NOT NULL, " +
+                    "quantity INT NOT NULL, " +
+                    "price DOUBLE NOT NULL, " +
+                    "type VARCHAR(10) NOT NULL, " +
+                    "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                    "FOREIGN KEY (shop_id) REFERENCES shops(id) ON DELETE CASCADE, " +
+                    "FOREIGN KEY (item_id) REFERENCES shop_items(id) ON DELETE CASCADE" +
+                    ")"
+                );
+
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS " + prefix + "market_trends (" +
+                    "material VARCHAR(64) PRIMARY KEY, " +
+                    "demand_index DOUBLE, " +
+                    "supply_index DOUBLE, " +
+                    "volatility DOUBLE, " +
+                    "last_updated BIGINT)"
+                );
+
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS " + prefix + "item_transactions (" +
+                    "item_id VARCHAR(36) PRIMARY KEY, " +
+                    "material VARCHAR(64), " +
+                    "buy_count INT, " +
+                    "sell_count INT, " +
+                    "last_buy_time BIGINT, " +
+                    "last_sell_time BIGINT, " +
+                    "price_adjustment_factor DOUBLE)"
+                );
+            }
+        }));
+
+        migrations.add(new Migration(2, "Index shop items by shop", (conn, migrator) ->
+            migrator.createIndex(conn, "shop_items", "idx_shop_items_shop", "shop_id")));
+
+        migrations.add(new Migration(3, "Index transactions by shop and player", (conn, migrator) -> {
+            migrator.createIndex(conn, "transactions", "idx_transactions_shop_time", "shop_id", "timestamp");
+            migrator.createIndex(conn, "transactions", "idx_transactions_player_time", "player_id", "timestamp");
+        }));
+
+        migrations.add(new Migration(4, "Index item transactions by material", (conn, migrator) ->
+            migrator.createIndex(conn, prefix + "item_transactions", "idx_" + prefix + "item_transactions_material", "material")));
+
+        migrations.add(new Migration(5, "Store shop items as deduplicated binary blobs", (conn, migrator) -> {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS item_blobs (" +
+                    "hash VARCHAR(64) PRIMARY KEY, " +
+                    "data " + databaseManager.getDialect().blobType() + " NOT NULL, " +
+                    "created_at BIGINT NOT NULL" +
+                    ")"
+                );
+
+                if (!migrator.columnExists(conn, "shop_items", "item_hash")) {
+                    statement.execute("ALTER TABLE shop_items ADD COLUMN item_hash VARCHAR(64)");
+                }
+            }
+        }));
+
+        migrations.add(new Migration(6, "Index transactions for keyset pagination", (conn, migrator) -> {
+            migrator.createIndex(conn, "transactions", "idx_transactions_time", "timestamp", "id");
+            migrator.createIndex(conn, "transactions", "idx_transactions_item_time", "item_id", "timestamp");
+        }));
+
+        migrations.add(new Migration(7, "Store complete shops and keep history after shops are deleted", (conn, migrator) -> {
+            try (Statement statement = conn.createStatement()) {
+                // Everything a shop needs, so the database can be the only store
+                migrator.addColumn(conn, statement, "shops", "tax_rate", "DOUBLE");
+                migrator.addColumn(conn, statement, "shops", "expiration_time", "BIGINT");
+                migrator.addColumn(conn, statement, "shops", "auto_renew", "BOOLEAN");
+                migrator.addColumn(conn, statement, "shops", "stats", "TEXT");
+                migrator.addColumn(conn, statement, "shop_items", "sell_price", "DOUBLE");
+                migrator.addColumn(conn, statement, "shop_items", "currency", "VARCHAR(32)");
+            }
+            
+            // Shops may now live outside the database (YAML storage), and deleting a shop
+            // should not delete its trade history
+            migrator.dropTransactionForeignKeys(conn);
+        }));
+
+        migrations.add(new Migration(8, "Roll old transactions up into daily totals", (conn, migrator) -> {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS transactions_daily (" +
+                    "day VARCHAR(10) NOT NULL, " +
+                    "shop_id VARCHAR(36) NOT NULL, " +
+                    "item_id VARCHAR(36) NOT NULL, " +
+                    "player_id VARCHAR(36) NOT NULL, " +
+                    "type VARCHAR(10) NOT NULL, " +
+                    "trade_count INT NOT NULL, " +
+                    "quantity BIGINT NOT NULL, " +
+                    "total_value DOUBLE NOT NULL, " +
+                    "PRIMARY KEY (day, shop_id, item_id, player_id, type)" +
+                    ")"
+                );
+            }
+            migrator.createIndex(conn, "transactions_daily", "idx_transactions_daily_shop", "shop_id", "day");
+            migrator.createIndex(conn, "transactions_daily", "idx_transactions_daily_item", "item_id", "day");
+            migrator.createIndex(conn, "transactions_daily", "idx_transactions_daily_player", "player_id", "day");
+        }));
+
+        migrations.add(new Migration(9, "Store shop locations as indexed block and chunk coordinates", (conn, migrator) -> {
+            try (Statement statement = conn.createStatement()) {
+                migrator.addColumn(conn, statement, "shops", "world", "VARCHAR(64)");
+                migrator.addColumn(conn, statement, "shops", "block_x", "INT");
+                migrator.addColumn(conn, statement, "shops", "block_y", "INT");
+                migrator.addColumn(conn, statement, "shops", "block_z", "INT");
+                migrator.addColumn(conn, statement, "shops", "chunk_key", "BIGINT");
+            }
+            migrator.backfillShopCoordinates(conn);
+            migrator.createIndex(conn, "shops", "idx_shops_chunk", "world", "chunk_key");
+            migrator.createIndex(conn, "shops", "idx_shops_block", "world", "block_x", "block_z");
+        }));
+
+        migrations.add(new Migration(10, "Version shops and items and record changes for other servers", (conn, migrator) -> {
+            try (Statement statement = conn.createStatement()) {
+                // Bumped on every write, so servers sharing the database can detect each other's changes
+                migrator.addColumn(conn, statement, "shops", "version", "BIGINT NOT NULL DEFAULT 1");
+                migrator.addColumn(conn, statement, "shop_items", "version", "BIGINT NOT NULL DEFAULT 1");
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS shop_changes (" +
+                    "seq " + databaseManager.getDialect().autoIncrementKey() + ", " +
+                    "shop_id VARCHAR(36) NOT NULL, " +
+                    "item_id VARCHAR(36), " +
+                    "kind VARCHAR(16) NOT NULL, " +
+                    "version BIGINT NOT NULL, " +
+                    "node_id VARCHAR(36) NOT NULL, " +
+                    "changed_at BIGINT NOT NULL" +
+                    ")"
+                );
+            }
+            migrator.createIndex(conn, "shop_changes", "idx_shop_changes_shop", "shop_id", "seq");
+            migrator.createIndex(conn, "shop_changes", "idx_shop_changes_time", "changed_at");
+        }));
+
+        migrations.add(new Migration(11, "Store trade history UUIDs as bytes and materials as IDs", (conn, migrator) -> {
+            SqlDialect dialect = databaseManager.getDialect();
+            String uuid = dialect.uuidType();
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS " + prefix + "materials (" +
+                    "id " + dialect.autoIncrementKey() + ", " +
+                    "name VARCHAR(64) NOT NULL UNIQUE" +
+                    ")"
+                );
+            }
+
+            // The market tables have a row per material and per shop item, so they are converted right away
+            boolean legacyTrends = migrator.columnExists(conn, prefix + "market_trends", "material");
+            boolean legacyItems = migrator.isTextColumn(conn, prefix + "item_transactions", "item_id");
+            if (legacyTrends) {
+                migrator.renameTable(conn, prefix + "market_trends", prefix + "market_trends_legacy");
+            }
+            if (legacyItems) {
+                migrator.dropIndex(conn, prefix + "item_transactions", "idx_" + prefix + "item_transactions_material");
+                migrator.renameTable(conn, prefix + "item_transactions", prefix + "item_transactions_legacy");
+            }
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS " + prefix + "market_trends (" +
+                    "material_id INT PRIMARY KEY, " +
+                    "demand_index DOUBLE, " +
+                    "supply_index DOUBLE, " +
+                    "volatility DOUBLE, " +
+                    "last_updated BIGINT)"
+                );
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS " + prefix + "item_transactions (" +
+                    "item_id " + uuid + " PRIMARY KEY, " +
+                    "material_id INT, " +
+                    "buy_count INT, " +
+                    "sell_count INT, " +
+                    "last_buy_time BIGINT, " +
+                    "last_sell_time BIGINT, " +
+                    "price_adjustment_factor DOUBLE)"
+                );
+            }
+            if (legacyTrends) {
+                migrator.copyMarketTrends(conn, prefix + "market_trends_legacy", prefix + "market_trends");
+            }
+            if (legacyItems) {
+                migrator.copyItemTransactions(conn, prefix + "item_transactions_legacy", prefix + "item_transactions");
+            }
+            migrator.createIndex(conn, prefix + "item_transactions", "idx_" + prefix + "item_transactions_material", "material_id");
+
+            // The history can be huge, so existing rows are moved aside and copied back by HistoryBackfill
+            migrator.retireHistoryTable(conn, "transactions", HistoryBackfill.LEGACY_TRANSACTIONS,
+                    "idx_transactions_shop_time", "idx_transactions_player_time", "idx_transactions_time", "idx_transactions_item_time");
+            migrator.retireHistoryTable(conn, "transactions_daily", HistoryBackfill.LEGACY_DAILY,
+                    "idx_transactions_daily_shop", "idx_transactions_daily_item", "idx_transactions_daily_player");
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS transactions (" +
+                    "id " + uuid + " PRIMARY KEY, " +
+                    "shop_id " + uuid + " NOT NULL, " +
+                    "player_id " + uuid + " NOT NULL, " +
+                    "item_id " + uuid + " NOT NULL, " +
+                    "quantity INT NOT NULL, " +
+                    "price DOUBLE NOT NULL, " +
+                    "type VARCHAR(10) NOT NULL, " +
+                    "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                    ")"
+                );
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS transactions_daily (" +
+                    "day VARCHAR(10) NOT NULL, " +
+                    "shop_id " + uuid + " NOT NULL, " +
+                    "item_id " + uuid + " NOT NULL, " +
+                    "player_id " + uuid + " NOT NULL, " +
+                    "type VARCHAR(10) NOT NULL, " +
+                    "trade_count INT NOT NULL, " +
+                    "quantity BIGINT NOT NULL, " +
+                    "total_value DOUBLE NOT NULL, " +
+                    "PRIMARY KEY (day, shop_id, item_id, player_id, type)" +
+                    ")"
+                );
+            }
+            migrator.createIndex(conn, "transactions", "idx_transactions_shop_time", "shop_id", "timestamp");
+            migrator.createIndex(conn, "transactions", "idx_transactions_player_time", "player_id", "timestamp");
+            migrator.createIndex(conn, "transactions", "idx_transactions_time", "timestamp", "id");
+            migrator.createIndex(conn, "transactions", "idx_transactions_item_time", "item_id", "timestamp");
+            migrator.createIndex(conn, "transactions_daily", "idx_transactions_daily_shop", "shop_id", "day");
+            migrator.createIndex(conn, "transactions_daily", "idx_transactions_daily_item", "item_id", "day");
+            migrator.createIndex(conn, "transactions_daily", "idx_transactions_daily_player", "player_id", "day");
+        }));
+
+        migrations.add(new Migration(12, "Record the material of each transaction", (conn, migrator) -> {
+            try (Statement statement = conn.createStatement()) {
+                // Lets archived history be searched by material after the shop item is gone
+                migrator.addColumn(conn, statement, "transactions", "material_id", "INT");
+            }
+        }));
+
+        migrations.add(new Migration(13, "Record the material of each shop item", (conn, migrator) -> {
+            try (Statement statement = conn.createStatement()) {
+                // Lets the category menu find the shops selling a material without loading every shop's items.
+                // Existing rows stay NULL until their item is next saved, and count as selling anything.
+                migrator.addColumn(conn, statement, "shop_items", "material", "VARCHAR(64)");
+            }
+            migrator.createIndex(conn, "shop_items", "idx_shop_items_material", "material", "shop_id");
+        }));
+
+        migrations.add(new Migration(14, "Index shop items by item blob", (conn, migrator) ->
+            // Lets compaction find the blobs no item refers to anymore
+            migrator.createIndex(conn, "shop_items", "idx_shop_items_hash", "item_hash")));
+    }
+
+    /**
+     * Apply every migration newer than the current schema version
+     *
+     * @throws SQLException If a migration fails; later migrations are not attempted
+     */
+    public void migrate() throws SQLException {
+        try (Connection conn = databaseManager.getConnection()) {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(
+                    "CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT PRIMARY KEY, " +
+                    "description VARCHAR(128) NOT NULL, " +
+                    "applied_at BIGINT NOT NULL" +
+                    ")"
+                );
+            }
+
+            int current = getCurrentVersion(conn);
+            for (Migration migration : migrations) {
+                if (migration.version <= current) {
+                    continue;
+                }
+
+                plugin.getLogger().info("Applying database migration " + migration.version + ": " + migration.description);
+                boolean autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                try {
+                    migration.step.apply(conn, this);
+                    recordVersion(conn, migration);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Database migration " + migration.version + " (" + migration.description + ") failed", e);
+                } finally {
+                    conn.setAutoCommit(autoCommit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the highest applied migration version
+     *
+     * @param conn The connection to use
+     * @return The schema version, or 0 for a fresh database
+     * @throws SQLException If an error occurs
+     */
+    public int getCurrentVersion(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Get the version the schema will have after all migrations have run
+     *
+     * @return The latest migration version
+     */
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version;
+    }
+
+    private void recordVersion(Connection conn, Migration migration) throws SQLException {
+        String sql = databaseManager.getDialect().upsertReplacing("schema_version",
+                new String[]{"version", "description", "applied_at"},
+                new String[]{"version"},
+                "description", "applied_at");
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, migration.version);
+            ps.setString(2, migration.description);
+            ps.setLong(3, System.currentTimeMillis());
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Create an index unless one with the same name already exists.
+     * MySQL has no {@code CREATE INDEX IF NOT EXISTS}, so the metadata is checked first.
+     *
+     * @param conn    The connection to use
+     * @param table   The table to index
+     * @param name    The index name
+     * @param columns The indexed columns, in order
+     * @throws SQLException If an error occurs
+     */
+    public void createIndex(Connection conn, String table, String name, String... columns) throws SQLException {
+        if (indexExists(conn, table, name)) {
+            return;
+        }
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE INDEX " + name + " ON " + table + " (" + String.join(", ", columns) + ")");
+        }
+    }
+
+    /**
+     * Check whether a column exists on a table
+     *
+     * @param conn   The connection to use
+     * @param table  The table name
+     * @param column The column name
+     * @return True if the column exists
+     * @throws SQLException If an error occurs
+     */
+    public boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        for (String candidate : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet rs = metaData.getColumns(conn.getCatalog(), null, candidate, null)) {
+                while (rs.next()) {
+                    if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a column unless it already exists
+     *
+     * @param conn      The connection to use
+     * @param statement The statement to execute with
+     * @param table     The table name
+     * @param column    The column name
+     * @param type      The column type
+     * @throws SQLException If an error occurs
+     */
+    public void addColumn(Connection conn, Statement statement, String table, String column, String type) throws SQLException {
+        if (!columnExists(conn, table, column)) {
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+    }
+
+    /**
+     * Remove every foreign key of the transactions table. MySQL can drop them in place; SQLite
+     * can't alter constraints, so the table is rebuilt and its indexes recreated.
+     *
+     * @param conn The connection to use
+     * @throws SQLException If an error occurs
+     */
+    public void dropTransactionForeignKeys(Connection conn) throws SQLException {
+        String table = "transactions";
+        List<String> foreignKeys = new ArrayList<>();
+        DatabaseMetaData metaData = conn.getMetaData();
+        for (String candidate : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet rs = metaData.getImportedKeys(conn.getCatalog(), null, candidate)) {
+                while (rs.next()) {
+                    String name = rs.getString("FK_NAME");
+                    foreignKeys.add(name != null ? name : "");
+                }
+            }
+            if (!foreignKeys.isEmpty()) {
+                break;
+            }
+        }
+        if (foreignKeys.isEmpty()) {
+            return;
+        }
+
+        try (Statement statement = conn.createStatement()) {
+            if (databaseManager.getDialect() == SqlDialect.MYSQL) {
+                for (String name : new LinkedHashSet<>(foreignKeys)) {
+                    statement.execute("ALTER TABLE " + table + " DROP FOREIGN KEY " + name);
+                }
+                return;
+            }
+
+            statement.execute(
+                "CREATE TABLE " + table + "_rebuild (" +
+                "id VARCHAR(36) PRIMARY KEY, " +
+                "shop_id VARCHAR(36) NOT NULL, " +
+                "player_id VARCHAR(36) NOT NULL, " +
+                "item_id VARCHAR(36) NOT NULL, " +
+                "quantity INT NOT NULL, " +
+                "price DOUBLE NOT NULL, " +
+                "type VARCHAR(10) NOT NULL, " +
+                "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")"
+            );
+            statement.execute("INSERT INTO " + table + "_rebuild (id, shop_id, player_id, item_id, quantity, price, type, timestamp) " +
+                    "SELECT id, shop_id, player_id, item_id, quantity, price, type, timestamp FROM " + table);
+            statement.execute("DROP TABLE " + table);
+            statement.execute("ALTER TABLE " + table + "_rebuild RENAME TO " + table);
+        }
+
+        // The indexes went with the old table
+        createIndex(conn, table, "idx_transactions_shop_time", "shop_id", "timestamp");
+        createIndex(conn, table, "idx_transactions_player_time", "player_id", "timestamp");
+        createIndex(conn, table, "idx_transactions_time", "timestamp", "id");
+        createIndex(conn, table, "idx_transactions_item_time", "item_id", "timestamp");
+    }
+
+    /**
+     * Fill the coordinate columns of existing shops from their {@code world,x,y,z,yaw,pitch} location.
+     * Shops with an unreadable location keep null coordinates and are rewritten on their next save.
+     *
+     * @param conn The connection to use
+     * @throws SQLException If an error occurs
+     */
+    public void backfillShopCoordinates(Connection conn) throws SQLException {
+        try (PreparedStatement select = conn.prepareStatement("SELECT id, location FROM shops WHERE world IS NULL");
+             PreparedStatement update = conn.prepareStatement(
+                     "UPDATE shops SET world = ?, block_x = ?, block_y = ?, block_z = ?, chunk_key = ? WHERE id = ?")) {
+            boolean any = false;
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    String[] parts = rs.getString("location").split(",");
+                    if (parts.length < 4) {
+                        continue;
+                    }
+                    try {
+                        int x = (int) Math.floor(Double.parseDouble(parts[1]));
+                        int y = (int) Math.floor(Double.parseDouble(parts[2]));
+                        int z = (int) Math.floor(Double.parseDouble(parts[3]));
+                        update.setString(1, parts[0]);
+                        update.setInt(2, x);
+                        update.setInt(3, y);
+                        update.setInt(4, z);
+                        update.setLong(5, ShopRepository.chunkKey(x >> 4, z >> 4));
+                        update.setString(6, rs.getString("id"));
+                        update.addBatch();
+                        any = true;
+                    } catch (NumberFormatException e) {
+                        plugin.getLogger().warning("Shop " + rs.getString("id") + " has an unreadable location: " + rs.getString("location"));
+                    }
+                }
+            }
+            if (any) {
+                update.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Drop an index if it exists
+     *
+     * @param conn  The connection to use
+     * @param table The table the index is on
+     * @param name  The index name
+     * @throws SQLException If an error occurs
+     */
+    public void dropIndex(Connection conn, String table, String name) throws SQLException {
+        if (!indexExists(conn, table, name)) {
+            return;
+        }
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(databaseManager.getDialect().dropIndex(table, name));
+        }
+    }
+
+    /**
+     * Check whether a table exists
+     *
+     * @param conn  The connection to use
+     * @param table The table name
+     * @return True if the table exists
+     * @throws SQLException If an error occurs
+     */
+    public boolean tableExists(Connection conn, String table) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        for (String candidate : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet rs = metaData.getTables(conn.getCatalog(), null, candidate, null)) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a column stores text, e.g. a UUID still in its 36 character form
+     *
+     * @param conn   The connection to use
+     * @param table  The table name
+     * @param column The column name
+     * @return True if the column exists and has a character type
+     * @throws SQLException If an error occurs
+     */
+    public boolean isTextColumn(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        for (String candidate : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet rs = metaData.getColumns(conn.getCatalog(), null, candidate, null)) {
+                while (rs.next()) {
+                    if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                        String type = rs.getString("TYPE_NAME").toUpperCase(Locale.ROOT);
+                        return type.contains("CHAR") || type.contains("TEXT");
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rename a table. Both databases only update the table's metadata, so this is instant.
+     *
+     * @param conn The connection to use
+     * @param from The current name
+     * @param to   The new name
+     * @throws SQLException If an error occurs
+     */
+    public void renameTable(Connection conn, String from, String to) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("ALTER TABLE " + from + " RENAME TO " + to);
+        }
+    }
+
+    /**
+     * Move a history table that still stores UUIDs as text out of the way, so a compact table can
+     * take its name. An empty table is dropped; otherwise it is renamed and its secondary indexes
+     * are dropped (SQLite index names are global, and the copy only needs the primary key).
+     *
+     * @param conn    The connection to use
+     * @param table   The table name
+     * @param legacy  The name to move the rows to
+     * @param indexes The secondary indexes of the table
+     * @throws SQLException If an error occurs
+     */
+    public void retireHistoryTable(Connection conn, String table, String legacy, String... indexes) throws SQLException {
+        if (!isTextColumn(conn, table, "shop_id")) {
+            return;
+        }
+
+        for (String index : indexes) {
+            dropIndex(conn, table, index);
+        }
+        boolean empty;
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT 1 FROM " + table + " LIMIT 1")) {
+            empty = !rs.next();
+        }
+        if (empty) {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("DROP TABLE " + table);
+            }
+        } else {
+            renameTable(conn, table, legacy);
+        }
+    }
+
+    /**
+     * Copy the market trends from the text layout, replacing material names with IDs
+     *
+     * @param conn   The connection to use
+     * @param legacy The table in the text layout, which is dropped afterwards
+     * @param table  The compact table
+     * @throws SQLException If an error occurs
+     */
+    public void copyMarketTrends(Connection conn, String legacy, String table) throws SQLException {
+        MaterialIds materialIds = databaseManager.getMaterialIds();
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT material, demand_index, supply_index, volatility, last_updated FROM " + legacy);
+             PreparedStatement insert = conn.prepareStatement(databaseManager.getDialect().insertIgnoring(table,
+                     new String[]{"material_id", "demand_index", "supply_index", "volatility", "last_updated"}))) {
+            while (rs.next()) {
+                insert.setInt(1, materialIds.getId(conn, rs.getString(1)));
+                insert.setDouble(2, rs.getDouble(2));
+                insert.setDouble(3, rs.getDouble(3));
+                insert.setDouble(4, rs.getDouble(4));
+                insert.setLong(5, rs.getLong(5));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE " + legacy);
+        }
+    }
+
+    /**
+     * Copy the item trade counters from the text layout, storing item IDs as bytes and material
+     * names as IDs. Rows with an unreadable item ID are dropped.
+     *
+     * @param conn   The connection to use
+     * @param legacy The table in the text layout, which is dropped afterwards
+     * @param table  The compact table
+     * @throws SQLException If an error occurs
+     */
+    public void copyItemTransactions(Connection conn, String legacy, String table) throws SQLException {
+        MaterialIds materialIds = databaseManager.getMaterialIds();
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT item_id, material, buy_count, sell_count, last_buy_time, " +
+                     "last_sell_time, price_adjustment_factor FROM " + legacy);
+             PreparedStatement insert = conn.prepareStatement(databaseManager.getDialect().insertIgnoring(table,
+                     new String[]{"item_id", "material_id", "buy_count", "sell_count", "last_buy_time",
+                             "last_sell_time", "price_adjustment_factor"}))) {
+            while (rs.next()) {
+                try {
+                    insert.setBytes(1, UuidBytes.toBytes(rs.getString(1)));
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Dropping market data of unreadable item ID " + rs.getString(1));
+                    continue;
+                }
+                String material = rs.getString(2);
+                if (material != null) {
+                    insert.setInt(2, materialIds.getId(conn, material));
+                } else {
+                    insert.setNull(2, Types.INTEGER);
+                }
+                insert.setInt(3, rs.getInt(3));
+                insert.setInt(4, rs.getInt(4));
+                insert.setLong(5, rs.getLong(5));
+                insert.setLong(6, rs.getLong(6));
+                insert.setDouble(7, rs.getDouble(7));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE " + legacy);
+        }
+    }
+
+    private boolean indexExists(Connection conn, String table, String name) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        for (String candidate : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet rs = metaData.getIndexInfo(conn.getCatalog(), null, candidate, false, false)) {
+                while (rs.next()) {
+                    if (name.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
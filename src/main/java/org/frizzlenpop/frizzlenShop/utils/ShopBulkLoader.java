@@ -0,0 +1,462 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.bukkit.Location;
+import org.bukkit.inventory.ItemStack;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.shops.AdminShop;
+import org.frizzlenpop.frizzlenShop.shops.PlayerShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.shops.ShopManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Loads every shop and its items with a single ordered {@code shops LEFT JOIN shop_items} query.
+ * When item lists are loaded on demand, the same query joins only the items of admin shops and
+ * counts the rest; {@link #loadItems(UUID)} fetches a player shop's items later.
+ * <p>
+ * The calling thread only streams rows, groups them by shop and then reads each distinct item blob
+ * the rows refer to once, skipping items that are already decoded. Turning a group into a
+ * {@link Shop} (location parsing, item deserialization) happens on a small worker pool. Results are
+ * handed back in query order, so registration can stay on the calling (main) thread.
+ */
+public class ShopBulkLoader {
+
+    private static final int FETCH_SIZE = 500;
+
+    private static final String SELECT =
+            "SELECT s.id, s.name, s.type, s.owner, s.location, s.description, s.is_open, " +
+            "s.tax_rate, s.expiration_time, s.auto_renew, s.stats, s.version AS shop_version, " +
+            "i.id AS item_id, i.item_data, i.item_hash, i.price, i.sell_price, i.currency, i.stock, i.version AS item_version " +
+            "FROM shops s " +
+            "LEFT JOIN shop_items i ON i.shop_id = s.id ";
+    private static final String SELECT_HEADERS =
+            "SELECT s.id, s.name, s.type, s.owner, s.location, s.description, s.is_open, " +
+            "s.tax_rate, s.expiration_time, s.auto_renew, s.stats, s.version AS shop_version, " +
+            "(SELECT COUNT(*) FROM shop_items c WHERE c.shop_id = s.id) AS item_count, " +
+            "i.id AS item_id, i.item_data, i.item_hash, i.price, i.sell_price, i.currency, i.stock, i.version AS item_version " +
+            "FROM shops s " +
+            "LEFT JOIN shop_items i ON i.shop_id = s.id AND s.type = 'admin' ";
+    private static final String SELECT_ITEMS =
+            "SELECT i.id AS item_id, i.item_data, i.item_hash, i.price, i.sell_price, i.currency, i.stock, i.version AS item_version " +
+            "FROM shop_items i " +
+            "WHERE i.shop_id = ?";
+    private static final String SELECT_SHOP =
+            "SELECT s.id, s.name, s.type, s.owner, s.location, s.description, s.is_open, " +
+            "s.tax_rate, s.expiration_time, s.auto_renew, s.stats, s.version AS shop_version " +
+            "FROM shops s WHERE s.id = ?";
+    private static final String SELECT_ITEM =
+            "SELECT i.id AS item_id, i.shop_id, i.item_data, i.item_hash, i.price, i.sell_price, i.currency, i.stock, i.version AS item_version " +
+            "FROM shop_items i " +
+            "WHERE i.id = ?";
+    private static final String ORDER = "ORDER BY s.id";
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+
+    /**
+     * Creates a new bulk shop loader
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The database manager
+     */
+    public ShopBulkLoader(FrizzlenShop plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Load every shop and register it with the shop manager. Must be called on the main thread;
+     * only decoding runs on worker threads.
+     *
+     * @param shopManager The shop manager to register shops with
+     * @return The number of shops registered
+     */
+    public int loadInto(ShopManager shopManager) {
+        int registered = 0;
+        for (Shop shop : loadAll()) {
+            if (shopManager.registerShop(shop)) {
+                registered++;
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Load every shop from the database
+     *
+     * @return The decoded shops in query order; shops that failed to decode are skipped
+     */
+    public List<Shop> loadAll() {
+        return load(SELECT + ORDER, null, false);
+    }
+
+    /**
+     * Load every shop from the database, leaving the items of player shops unloaded
+     *
+     * @return The decoded shops in query order; shops that failed to decode are skipped
+     */
+    public List<Shop> loadHeaders() {
+        return load(SELECT_HEADERS + ORDER, null, true);
+    }
+
+    /**
+     * Load the items of a single shop. Decoding happens on the calling thread.
+     *
+     * @param shopId The shop ID
+     * @return The items, or null if the query failed
+     */
+    public List<ShopItem> loadItems(UUID shopId) {
+        List<ShopItem> items = new ArrayList<>();
+        try (Connection connection = databaseManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_ITEMS)) {
+            statement.setString(1, shopId.toString());
+            List<RawItem> rawItems = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    rawItems.add(new RawItem(rs));
+                }
+            }
+            
+            Map<String, byte[]> blobs = fetchBlobs(connection, rawItems);
+            for (RawItem rawItem : rawItems) {
+                ShopItem item = decodeItem(rawItem, shopId, shopId.toString(), blobs);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            return items;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load the items of shop " + shopId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Load a single shop from the database
+     *
+     * @param shopId The shop ID
+     * @return The shop, or null if it doesn't exist or failed to decode
+     */
+    public Shop load(UUID shopId) {
+        List<Shop> shops = load(SELECT + "WHERE s.id = ? " + ORDER, shopId.toString(), false);
+        return shops.isEmpty() ? null : shops.get(0);
+    }
+
+    /**
+     * Load a shop's own fields, without its items. Decoding happens on the calling thread.
+     *
+     * @param shopId The shop ID
+     * @return The shop with no items, or null if it isn't stored or failed to load
+     */
+    public Shop loadFields(UUID shopId) {
+        try (Connection connection = databaseManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_SHOP)) {
+            statement.setString(1, shopId.toString());
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? decode(new RawShop(rs, false), Collections.emptyMap()) : null;
+            }
+        } catch (SQLException | RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load shop " + shopId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Load a single item. Decoding happens on the calling thread.
+     *
+     * @param itemId The item ID
+     * @return The item, or null if it isn't stored or failed to load
+     */
+    public ShopItem loadItem(UUID itemId) {
+        try (Connection connection = databaseManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_ITEM)) {
+            statement.setString(1, itemId.toString());
+            RawItem rawItem;
+            String shopId;
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                shopId = rs.getString("shop_id");
+                rawItem = new RawItem(rs);
+            }
+            return decodeItem(rawItem, UUID.fromString(shopId), shopId, fetchBlobs(connection, List.of(rawItem)));
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load shop item " + itemId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Run a shop query and decode the results
+     *
+     * @param sql         The query
+     * @param filter      The shop ID to bind, or null if the query has no parameter
+     * @param headersOnly Whether the query only joins the items of admin shops
+     * @return The decoded shops in query order
+     */
+    private List<Shop> load(String sql, String filter, boolean headersOnly) {
+        List<CompletableFuture<Shop>> pending = new ArrayList<>();
+        ExecutorService workers = createWorkers();
+
+        try {
+            try (Connection connection = databaseManager.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(FETCH_SIZE);
+                if (filter != null) {
+                    statement.setString(1, filter);
+                }
+
+                List<RawShop> rawShops = new ArrayList<>();
+                List<RawItem> rawItems = new ArrayList<>();
+                try (ResultSet rs = statement.executeQuery()) {
+                    RawShop current = null;
+                    while (rs.next()) {
+                        String shopId = rs.getString("id");
+                        if (current == null || !current.id.equals(shopId)) {
+                            current = new RawShop(rs, headersOnly);
+                            rawShops.add(current);
+                        }
+
+                        if (rs.getString("item_id") != null) {
+                            RawItem rawItem = new RawItem(rs);
+                            current.items.add(rawItem);
+                            rawItems.add(rawItem);
+                        }
+                    }
+                }
+
+                // Identical items share a blob, so each one is read once rather than per row
+                Map<String, byte[]> blobs = fetchBlobs(connection, rawItems);
+                for (RawShop rawShop : rawShops) {
+                    pending.add(submit(workers, rawShop, blobs));
+                }
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to load shops", e);
+            }
+
+            List<Shop> shops = new ArrayList<>(pending.size());
+            for (CompletableFuture<Shop> future : pending) {
+                try {
+                    Shop shop = future.join();
+                    if (shop != null) {
+                        shops.add(shop);
+                    }
+                } catch (CompletionException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to decode shop", e.getCause());
+                }
+            }
+            return shops;
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private CompletableFuture<Shop> submit(ExecutorService workers, RawShop raw, Map<String, byte[]> blobs) {
+        return CompletableFuture.supplyAsync(() -> decode(raw, blobs), workers);
+    }
+
+    /**
+     * Read the blobs of the given item rows that aren't decoded yet
+     *
+     * @param connection The connection
+     * @param rawItems   The item rows
+     * @return The blob bytes by hash
+     * @throws SQLException If an error occurs
+     */
+    private Map<String, byte[]> fetchBlobs(Connection connection, List<RawItem> rawItems) throws SQLException {
+        List<String> hashes = new ArrayList<>(rawItems.size());
+        for (RawItem rawItem : rawItems) {
+            hashes.add(rawItem.hash);
+        }
+        return databaseManager.getItemBlobStore().fetchMissing(connection, hashes);
+    }
+
+    /**
+     * Create the decode pool. Loading is a one-off, so the threads are discarded afterwards.
+     *
+     * @return The worker pool
+     */
+    private ExecutorService createWorkers() {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "FrizzlenShop-Loader-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Turn the raw rows of one shop into a shop
+     *
+     * @param raw   The raw shop rows
+     * @param blobs The blob bytes read for the rows, by hash
+     * @return The shop
+     */
+    private Shop decode(RawShop raw, Map<String, byte[]> blobs) {
+        UUID id = UUID.fromString(raw.id);
+        Location location = databaseManager.deserializeLocation(raw.location);
+
+        Shop shop;
+        if ("admin".equals(raw.type)) {
+            shop = new AdminShop(id, raw.name, location);
+        } else {
+            UUID owner = raw.owner != null ? UUID.fromString(raw.owner) : null;
+            PlayerShop playerShop = new PlayerShop(id, raw.name, owner, location);
+            if (raw.expirationTime != null) {
+                playerShop.setExpirationTime(raw.expirationTime);
+            }
+            if (raw.autoRenew != null) {
+                playerShop.setAutoRenew(raw.autoRenew);
+            }
+            shop = playerShop;
+        }
+
+        shop.setDescription(raw.description);
+        shop.setOpen(raw.open);
+        if (raw.taxRate != null) {
+            shop.setTaxRate(raw.taxRate);
+        }
+        // Detached shops (e.g. polled remote changes) must not journal under the live shop's ID
+        shop.loadStats(SqlShopRepository.deserializeStats(raw.stats));
+        shop.markStored(raw.version, shop.getStats());
+
+        if (raw.itemCount >= 0 && shop instanceof PlayerShop) {
+            ((PlayerShop) shop).setItemsUnloaded(raw.itemCount);
+            return shop;
+        }
+
+        for (RawItem rawItem : raw.items) {
+            ShopItem shopItem = decodeItem(rawItem, id, raw.name, blobs);
+            if (shopItem != null) {
+                shop.addItem(shopItem);
+            }
+        }
+
+        return shop;
+    }
+
+    /**
+     * Turn the raw columns of an item row into a shop item
+     *
+     * @param rawItem  The raw item row
+     * @param shopId   The ID of the shop the item belongs to
+     * @param shopName The shop's name, for logging
+     * @param blobs    The blob bytes read for the rows, by hash; items already decoded aren't in it
+     * @return The shop item, or null if it failed to decode
+     */
+    private ShopItem decodeItem(RawItem rawItem, UUID shopId, String shopName, Map<String, byte[]> blobs) {
+        try {
+            ItemBlobStore blobStore = databaseManager.getItemBlobStore();
+            ItemStack item = null;
+            if (rawItem.hash != null) {
+                byte[] blob = blobs.get(rawItem.hash);
+                item = blob != null
+                        ? blobStore.decode(rawItem.hash, blob)
+                        : blobStore.getCached(rawItem.hash);
+            }
+            if (item == null) {
+                // Rows written before item blobs existed only have the summary
+                item = databaseManager.deserializeItemStack(rawItem.itemData);
+            }
+
+            ShopItem shopItem;
+            if (rawItem.sellPrice != null) {
+                String currency = rawItem.currency != null ? rawItem.currency : plugin.getEconomyManager().getDefaultCurrency();
+                shopItem = new ShopItem(UUID.fromString(rawItem.id), shopId, item, rawItem.price, rawItem.sellPrice, currency, rawItem.stock);
+            } else {
+                // Rows written before sell prices were stored
+                shopItem = new ShopItem(UUID.fromString(rawItem.id), shopId, item, rawItem.price);
+                shopItem.setStock(rawItem.stock);
+            }
+            shopItem.markStored(rawItem.version, shopItem.getStock());
+            return shopItem;
+        } catch (RuntimeException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load shop item " + rawItem.id + " for shop: " + shopName, e);
+            return null;
+        }
+    }
+
+    /**
+     * The undecoded columns of a shop row
+     */
+    private static final class RawShop {
+        private final String id;
+        private final String name;
+        private final String type;
+        private final String owner;
+        private final String location;
+        private final String description;
+        private final boolean open;
+        private final Double taxRate;
+        private final Long expirationTime;
+        private final Boolean autoRenew;
+        private final String stats;
+        private final long version;
+        // The number of stored items when they are left unloaded, otherwise -1
+        private final int itemCount;
+        private final List<RawItem> items = new ArrayList<>();
+
+        private RawShop(ResultSet rs, boolean headersOnly) throws SQLException {
+            this.id = rs.getString("id");
+            this.name = rs.getString("name");
+            this.type = rs.getString("type");
+            this.owner = rs.getString("owner");
+            this.location = rs.getString("location");
+            this.description = rs.getString("description");
+            this.open = rs.getBoolean("is_open");
+            double taxRate = rs.getDouble("tax_rate");
+            this.taxRate = rs.wasNull() ? null : taxRate;
+            long expirationTime = rs.getLong("expiration_time");
+            this.expirationTime = rs.wasNull() ? null : expirationTime;
+            boolean autoRenew = rs.getBoolean("auto_renew");
+            this.autoRenew = rs.wasNull() ? null : autoRenew;
+            this.stats = rs.getString("stats");
+            this.version = rs.getLong("shop_version");
+            this.itemCount = headersOnly && !"admin".equals(type) ? rs.getInt("item_count") : -1;
+        }
+    }
+
+    /**
+     * The undecoded columns of a shop item row
+     */
+    private static final class RawItem {
+        private final String id;
+        private final String itemData;
+        private final String hash;
+        private final double price;
+        private final Double sellPrice;
+        private final String currency;
+        private final int stock;
+        private final long version;
+
+        private RawItem(ResultSet rs) throws SQLException {
+            this.id = rs.getString("item_id");
+            this.itemData = rs.getString("item_data");
+            this.hash = rs.getString("item_hash");
+            this.price = rs.getDouble("price");
+            double sellPrice = rs.getDouble("sell_price");
+            this.sellPrice = rs.wasNull() ? null : sellPrice;
+            this.currency = rs.getString("currency");
+            this.stock = rs.getInt("stock");
+            this.version = rs.getLong("item_version");
+        }
+    }
+}
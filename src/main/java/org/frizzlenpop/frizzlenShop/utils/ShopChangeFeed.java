@@ -0,0 +1,332 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code shop_changes} table, which lets several servers share one database. Every write to
+ * a shop or item row appends a change in the same transaction, and each server polls for the
+ * changes the others made since its last poll. Polls only read the newest rows of the
+ * auto-increment key, so they stay cheap however large the shop tables are.
+ * <p>
+ * MySQL numbers changes when they are inserted rather than when they commit, so a poll can see
+ * change 12 before change 11 is committed. Skipped numbers are looked up again on later polls
+ * until they turn up or {@link #GAP_TIMEOUT_MILLIS} passes (the transaction rolled back).
+ * <p>
+ * Like every other write, recording and polling happen on the save thread.
+ */
+public class ShopChangeFeed {
+
+    /**
+     * A shop's own fields were written
+     */
+    public static final String SHOP = "shop";
+    /**
+     * A shop and its items were deleted
+     */
+    public static final String SHOP_DELETED = "shop_deleted";
+    /**
+     * An item row was written
+     */
+    public static final String ITEM = "item";
+    /**
+     * An item was removed from its shop
+     */
+    public static final String ITEM_DELETED = "item_deleted";
+
+    private static final int POLL_LIMIT = 1000;
+    private static final int MAX_GAPS = 1000;
+    private static final int GAP_QUERY_SIZE = 100;
+    private static final long GAP_TIMEOUT_MILLIS = 30_000;
+    private static final long PRUNE_INTERVAL_MILLIS = 60_000;
+    private static final String SELECT = "SELECT seq, shop_id, item_id, kind, version, node_id FROM shop_changes ";
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+    // Identifies this server's changes, so a poll skips them
+    private final String nodeId = UUID.randomUUID().toString();
+    // The highest change number seen, and the lower numbers skipped so far with when they were skipped
+    private long position;
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+    private long lastPrune;
+
+    /**
+     * Creates a new change feed
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The shared database
+     */
+    public ShopChangeFeed(FrizzlenShop plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Skip every change made so far. Call this before loading shops, so changes made while
+     * they load are polled afterwards.
+     *
+     * @throws SQLException If an error occurs
+     */
+    public void start() throws SQLException {
+        try (Connection connection = databaseManager.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MAX(seq) FROM shop_changes")) {
+            position = rs.next() ? rs.getLong(1) : 0;
+            gaps.clear();
+        }
+    }
+
+    /**
+     * Get the ID this server records its changes under
+     *
+     * @return The node ID
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Get the position every change up to has been returned by {@link #poll()}
+     *
+     * @return The change number
+     */
+    public long getPosition() {
+        return gaps.isEmpty() ? position : gaps.firstKey() - 1;
+    }
+
+    /**
+     * Append changes written on a connection, in its transaction
+     *
+     * @param connection The connection the rows were written on
+     * @param changes    The changes
+     * @throws SQLException If an error occurs
+     */
+    public void record(Connection connection, List<Change> changes) throws SQLException {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO shop_changes (shop_id, item_id, kind, version, node_id, changed_at) VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (Change change : changes) {
+                ps.setString(1, change.shopId.toString());
+                if (change.itemId != null) {
+                    ps.setString(2, change.itemId.toString());
+                } else {
+                    ps.setNull(2, Types.VARCHAR);
+                }
+                ps.setString(3, change.kind);
+                ps.setLong(4, change.version);
+                ps.setString(5, nodeId);
+                ps.setLong(6, now);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Get the changes other servers made since the last poll, oldest first. Old changes are
+     * pruned once a minute.
+     *
+     * @return The changes
+     * @throws SQLException If an error occurs
+     */
+    public List<Change> poll() throws SQLException {
+        long now = System.currentTimeMillis();
+        gaps.values().removeIf(skippedAt -> now - skippedAt > GAP_TIMEOUT_MILLIS);
+
+        List<Change> changes = new ArrayList<>();
+        try (Connection connection = databaseManager.getConnection()) {
+            if (!gaps.isEmpty()) {
+                pollGaps(connection, changes);
+            }
+
+            try (PreparedStatement ps = connection.prepareStatement(SELECT + "WHERE seq > ? ORDER BY seq LIMIT " + POLL_LIMIT)) {
+                ps.setLong(1, position);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        long seq = rs.getLong(1);
+                        for (long skipped = position + 1; skipped < seq && gaps.size() < MAX_GAPS; skipped++) {
+                            gaps.put(skipped, now);
+                        }
+                        position = seq;
+                        read(rs, changes);
+                    }
+                }
+            }
+
+            if (now - lastPrune > PRUNE_INTERVAL_MILLIS) {
+                lastPrune = now;
+                prune(connection, now);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Look up skipped change numbers that may have been committed since
+     *
+     * @param connection The connection
+     * @param changes    The list to add found changes to
+     * @throws SQLException If an error occurs
+     */
+    private void pollGaps(Connection connection, List<Change> changes) throws SQLException {
+        List<Long> pending = new ArrayList<>(gaps.keySet());
+        for (int start = 0; start < pending.size(); start += GAP_QUERY_SIZE) {
+            List<Long> chunk = pending.subList(start, Math.min(pending.size(), start + GAP_QUERY_SIZE));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement ps = connection.prepareStatement(SELECT + "WHERE seq IN (" + placeholders + ") ORDER BY seq")) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    ps.setLong(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        gaps.remove(rs.getLong(1));
+                        read(rs, changes);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the change in the current row, unless this server made it
+     *
+     * @param rs      The result set, on a change row
+     * @param changes The list to add the change to
+     * @throws SQLException If an error occurs
+     */
+    private void read(ResultSet rs, List<Change> changes) throws SQLException {
+        if (nodeId.equals(rs.getString(6))) {
+            return;
+        }
+
+        String itemId = rs.getString(3);
+        changes.add(new Change(rs.getLong(1), rs.getString(4), UUID.fromString(rs.getString(2)),
+                itemId != null ? UUID.fromString(itemId) : null, rs.getLong(5)));
+    }
+
+    /**
+     * Delete changes older than {@code multi_server.change_retention} minutes. A server that is
+     * stopped for longer reads every shop again when it starts, so it never needs them.
+     *
+     * @param connection The connection
+     * @param now        The current time
+     * @throws SQLException If an error occurs
+     */
+    private void prune(Connection connection, long now) throws SQLException {
+        long retention = Math.max(5, plugin.getConfig().getLong("multi_server.change_retention", 60));
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM shop_changes WHERE changed_at < ?")) {
+            ps.setLong(1, now - TimeUnit.MINUTES.toMillis(retention));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Keep only the newest change to each row, in order of their newest change
+     *
+     * @param changes The changes, oldest first
+     * @return The newest change to each shop and item
+     */
+    public static List<Change> latestPerRow(List<Change> changes) {
+        Map<UUID, Change> latest = new LinkedHashMap<>();
+        for (Change change : changes) {
+            UUID key = change.itemId != null ? change.itemId : change.shopId;
+            latest.remove(key);
+            latest.put(key, change);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    /**
+     * A change to a shop or item row
+     */
+    public static final class Change {
+        private final long seq;
+        private final String kind;
+        private final UUID shopId;
+        private final UUID itemId;
+        private final long version;
+
+        /**
+         * Creates a change to record
+         *
+         * @param kind    What changed; one of the constants of {@link ShopChangeFeed}
+         * @param shopId  The shop ID
+         * @param itemId  The item ID, or null for changes to the shop itself
+         * @param version The row version written, or 0 for deletions
+         */
+        public Change(String kind, UUID shopId, UUID itemId, long version) {
+            this(0, kind, shopId, itemId, version);
+        }
+
+        private Change(long seq, String kind, UUID shopId, UUID itemId, long version) {
+            this.seq = seq;
+            this.kind = kind;
+            this.shopId = shopId;
+            this.itemId = itemId;
+            this.version = version;
+        }
+
+        /**
+         * Get the change number
+         *
+         * @return The change number, or 0 if the change wasn't read from the feed
+         */
+        public long getSeq() {
+            return seq;
+        }
+
+        /**
+         * Get what changed
+         *
+         * @return One of the constants of {@link ShopChangeFeed}
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * Get the ID of the shop that changed, or that the item belongs to
+         *
+         * @return The shop ID
+         */
+        public UUID getShopId() {
+            return shopId;
+        }
+
+        /**
+         * Get the ID of the item that changed
+         *
+         * @return The item ID, or null for changes to the shop itself
+         */
+        public UUID getItemId() {
+            return itemId;
+        }
+
+        /**
+         * Get the row version the change wrote
+         *
+         * @return The row version, or 0 for deletions
+         */
+        public long getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+/**
+ * SQL syntax that differs between the supported databases
+ */
+public enum SqlDialect {
+
+    SQLITE {
+        @Override
+        public String upsert(String table, String[] columns, String[] keyColumns, String updateClause) {
+            return insert(table, columns) + " ON CONFLICT(" + String.join(", ", keyColumns) + ") DO UPDATE SET " + updateClause;
+        }
+
+        @Override
+        public String insertIgnoring(String table, String[] columns) {
+            return insert(table, columns).replaceFirst("INSERT INTO", "INSERT OR IGNORE INTO");
+        }
+
+        @Override
+        public String blobType() {
+            return "BLOB";
+        }
+
+        @Override
+        public String uuidType() {
+            return "BLOB";
+        }
+
+        @Override
+        public String dropIndex(String table, String name) {
+            return "DROP INDEX IF EXISTS " + name;
+        }
+
+        @Override
+        public String autoIncrementKey() {
+            // AUTOINCREMENT never reuses a value, even after the newest rows are deleted
+            return "INTEGER PRIMARY KEY AUTOINCREMENT";
+        }
+
+        @Override
+        public String excluded(String column) {
+            return "excluded." + column;
+        }
+
+        @Override
+        public String least(String a, String b) {
+            return "MIN(" + a + ", " + b + ")";
+        }
+
+        @Override
+        public String greatest(String a, String b) {
+            return "MAX(" + a + ", " + b + ")";
+        }
+    },
+
+    MYSQL {
+        @Override
+        public String upsert(String table, String[] columns, String[] keyColumns, String updateClause) {
+            return insert(table, columns) + " ON DUPLICATE KEY UPDATE " + updateClause;
+        }
+
+        @Override
+        public String insertIgnoring(String table, String[] columns) {
+            return insert(table, columns).replaceFirst("INSERT INTO", "INSERT IGNORE INTO");
+        }
+
+        @Override
+        public String blobType() {
+            // BLOB tops out at 64KB, which a shulker box full of books can exceed
+            return "MEDIUMBLOB";
+        }
+
+        @Override
+        public String uuidType() {
+            return "BINARY(16)";
+        }
+
+        @Override
+        public String dropIndex(String table, String name) {
+            return "DROP INDEX " + name + " ON " + table;
+        }
+
+        @Override
+        public String autoIncrementKey() {
+            return "BIGINT PRIMARY KEY AUTO_INCREMENT";
+        }
+
+        @Override
+        public String excluded(String column) {
+            return "VALUES(" + column + ")";
+        }
+
+        @Override
+        public String least(String a, String b) {
+            return "LEAST(" + a + ", " + b + ")";
+        }
+
+        @Override
+        public String greatest(String a, String b) {
+            return "GREATEST(" + a + ", " + b + ")";
+        }
+    };
+
+    /**
+     * Get the dialect for a configured database type
+     *
+     * @param type The database type from the config (sqlite or mysql)
+     * @return The matching dialect, SQLite if unknown
+     */
+    public static SqlDialect fromType(String type) {
+        return "mysql".equalsIgnoreCase(type) ? MYSQL : SQLITE;
+    }
+
+    /**
+     * Build a single-statement insert-or-update. Parameters are bound in column order.
+     *
+     * @param table        The table name
+     * @param columns      The columns to insert
+     * @param keyColumns   The primary or unique key the conflict is detected on
+     * @param updateClause The assignments to apply when the row already exists
+     * @return The SQL statement
+     */
+    public abstract String upsert(String table, String[] columns, String[] keyColumns, String updateClause);
+
+    /**
+     * Build an insert that silently skips rows whose key already exists
+     *
+     * @param table   The table name
+     * @param columns The columns to insert
+     * @return The SQL statement
+     */
+    public abstract String insertIgnoring(String table, String[] columns);
+
+    /**
+     * The column type for binary data
+     *
+     * @return The SQL type name
+     */
+    public abstract String blobType();
+
+    /**
+     * The column type for a UUID stored as 16 bytes (see {@link UuidBytes})
+     *
+     * @return The SQL type name
+     */
+    public abstract String uuidType();
+
+    /**
+     * Build a statement that drops an index
+     *
+     * @param table The table the index is on
+     * @param name  The index name
+     * @return The SQL statement
+     */
+    public abstract String dropIndex(String table, String name);
+
+    /**
+     * The column definition of an increasing integer primary key
+     *
+     * @return The SQL column type and constraints
+     */
+    public abstract String autoIncrementKey();
+
+    /**
+     * Reference the value a conflicting insert tried to write to a column
+     *
+     * @param column The column name
+     * @return The SQL expression
+     */
+    public abstract String excluded(String column);
+
+    /**
+     * The smaller of two SQL expressions
+     *
+     * @param a The first expression
+     * @param b The second expression
+     * @return The SQL expression
+     */
+    public abstract String least(String a, String b);
+
+    /**
+     * The larger of two SQL expressions
+     *
+     * @param a The first expression
+     * @param b The second expression
+     * @return The SQL expression
+     */
+    public abstract String greatest(String a, String b);
+
+    /**
+     * Build an upsert that overwrites every non-key column with the inserted value
+     *
+     * @param table         The table name
+     * @param columns       The columns to insert
+     * @param keyColumns    The primary or unique key the conflict is detected on
+     * @param updateColumns The columns to overwrite when the row already exists
+     * @return The SQL statement
+     */
+    public String upsertReplacing(String table, String[] columns, String[] keyColumns, String... updateColumns) {
+        return upsert(table, columns, keyColumns, replacing(updateColumns));
+    }
+
+    /**
+     * Build the assignments that overwrite columns with the values a conflicting insert tried to write
+     *
+     * @param columns The columns to overwrite
+     * @return The comma-separated assignments
+     */
+    public String replacing(String... columns) {
+        StringBuilder assignments = new StringBuilder();
+        for (String column : columns) {
+            if (assignments.length() > 0) {
+                assignments.append(", ");
+            }
+            assignments.append(column).append(" = ").append(excluded(column));
+        }
+        return assignments.toString();
+    }
+
+    /**
+     * Build a plain insert statement
+     *
+     * @param table   The table name
+     * @param columns The columns to insert
+     * @return The SQL statement
+     */
+    protected String insert(String table, String[] columns) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders + ")";
+    }
+}
@@ -0,0 +1,751 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.bukkit.Material;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.data.ShopItemSnapshot;
+import org.frizzlenpop.frizzlenShop.data.ShopRepository;
+import org.frizzlenpop.frizzlenShop.data.ShopSnapshot;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * Stores shops in the {@code shops} and {@code shop_items} tables of a SQLite or MySQL database.
+ * The two only differ in their {@link SqlDialect}.
+ * <p>
+ * A batch is written in one transaction on one connection, with each statement prepared once
+ * and executed as a JDBC batch, so it is stored completely or not at all.
+ * <p>
+ * Every write bumps the row's {@code version}. With {@code multi_server.enabled}, several servers
+ * share the tables: rows are only updated if they still have the version this server read
+ * (compare-and-set), and every write is recorded in the {@link ShopChangeFeed} so the other
+ * servers can pick it up.
+ */
+public class SqlShopRepository implements ShopRepository {
+
+    private static final String[] SHOP_COLUMNS = {
+            "id", "name", "type", "owner", "location", "description", "is_open",
+            "tax_rate", "expiration_time", "auto_renew", "stats",
+            "world", "block_x", "block_y", "block_z", "chunk_key", "version"
+    };
+    private static final String[] ITEM_COLUMNS = {
+            "id", "shop_id", "item_data", "item_hash", "price", "sell_price", "currency", "stock", "material", "version"
+    };
+    // The columns a write sets, between the ID and the version
+    private static final String[] SHOP_FIELDS = Arrays.copyOfRange(SHOP_COLUMNS, 1, SHOP_COLUMNS.length - 1);
+    private static final String[] ITEM_FIELDS = Arrays.copyOfRange(ITEM_COLUMNS, 1, ITEM_COLUMNS.length - 1);
+    private static final String SELECT_ITEM_IDS = "SELECT id FROM shop_items WHERE shop_id = ?";
+    // Materials per query in findShopsSelling, below SQLite's oldest parameter limit of 999
+    private static final int MATERIAL_BATCH = 500;
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+    private final boolean ownsDatabase;
+    private final String upsertShop;
+    private final String upsertItem;
+    private final String updateShop;
+    private final String updateItem;
+    private final ShopChangeFeed changeFeed;
+
+    /**
+     * Creates a new SQL shop repository
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The database to store shops in
+     * @param ownsDatabase    Whether closing the repository should close the database
+     */
+    public SqlShopRepository(FrizzlenShop plugin, DatabaseManager databaseManager, boolean ownsDatabase) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.ownsDatabase = ownsDatabase;
+
+        SqlDialect dialect = databaseManager.getDialect();
+        this.upsertShop = dialect.upsert("shops", SHOP_COLUMNS, new String[]{"id"},
+                dialect.replacing(SHOP_FIELDS) + ", version = version + 1");
+        this.upsertItem = dialect.upsert("shop_items", ITEM_COLUMNS, new String[]{"id"},
+                dialect.replacing("item_data", "item_hash", "price", "sell_price", "currency", "stock", "material") + ", version = version + 1");
+        this.updateShop = "UPDATE shops SET " + assignments(SHOP_FIELDS) + ", version = ? WHERE id = ? AND version = ?";
+        this.updateItem = "UPDATE shop_items SET " + assignments(ITEM_FIELDS) + ", version = ? WHERE id = ? AND version = ?";
+        this.changeFeed = plugin.getConfig().getBoolean("multi_server.enabled", false)
+                ? new ShopChangeFeed(plugin, databaseManager) : null;
+    }
+
+    /**
+     * Get the feed of changes made by the servers sharing this storage
+     *
+     * @return The change feed, or null if {@code multi_server.enabled} is off
+     */
+    public ShopChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    @Override
+    public String getType() {
+        return databaseManager.isMySql() ? "mysql" : "sqlite";
+    }
+
+    /**
+     * Load every shop with a single joined query; see {@link ShopBulkLoader}
+     *
+     * @return The shops
+     */
+    @Override
+    public List<Shop> loadAll() {
+        return new ShopBulkLoader(plugin, databaseManager).loadAll();
+    }
+
+    /**
+     * Load every shop with the same joined query, joining only the items of admin shops
+     *
+     * @return The shops
+     */
+    @Override
+    public List<Shop> loadHeaders() {
+        return new ShopBulkLoader(plugin, databaseManager).loadHeaders();
+    }
+
+    @Override
+    public List<ShopItem> loadItems(UUID shopId) {
+        return new ShopBulkLoader(plugin, databaseManager).loadItems(shopId);
+    }
+
+    @Override
+    public Shop load(UUID shopId) {
+        return new ShopBulkLoader(plugin, databaseManager).load(shopId);
+    }
+
+    /**
+     * Load a shop's own fields, without its items
+     *
+     * @param shopId The shop ID
+     * @return The shop with no items and its stored row version, or null if it isn't stored
+     */
+    public Shop loadFields(UUID shopId) {
+        return new ShopBulkLoader(plugin, databaseManager).loadFields(shopId);
+    }
+
+    /**
+     * Load a single item
+     *
+     * @param itemId The item ID
+     * @return The item with its stored row version, or null if it isn't stored
+     */
+    public ShopItem loadItem(UUID itemId) {
+        return new ShopBulkLoader(plugin, databaseManager).loadItem(itemId);
+    }
+
+    @Override
+    public boolean saveBatch(List<ShopSnapshot> shops) {
+        if (changeFeed != null) {
+            // Record the batch for the other servers; nothing is protected from removal
+            Set<UUID> conflicts = saveShared(shops, Long.MAX_VALUE);
+            return conflicts != null && conflicts.isEmpty();
+        }
+        if (shops.isEmpty()) {
+            return true;
+        }
+
+        try (Connection connection = databaseManager.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                writeShops(connection, shops);
+                connection.commit();
+                return true;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                // Blobs inserted by this batch were rolled back too; forget that they exist
+                databaseManager.getItemBlobStore().clearCache();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException | RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to save " + shops.size() + " shop(s) to the database", e);
+            return false;
+        }
+    }
+
+    @Override
+    public Set<UUID> saveShared(List<ShopSnapshot> shops, long seenChanges) {
+        if (changeFeed == null) {
+            return ShopRepository.super.saveShared(shops, seenChanges);
+        }
+        if (shops.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        SharedWrite write = new SharedWrite(seenChanges);
+        try (Connection connection = databaseManager.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                write.write(connection, shops);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                databaseManager.getItemBlobStore().clearCache();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException | RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to save " + shops.size() + " shop(s) to the shared database", e);
+            return null;
+        }
+
+        write.markStored();
+        return write.conflicts;
+    }
+
+    @Override
+    public boolean delete(UUID shopId) {
+        try (Connection connection = databaseManager.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement items = connection.prepareStatement("DELETE FROM shop_items WHERE shop_id = ?");
+                 PreparedStatement shop = connection.prepareStatement("DELETE FROM shops WHERE id = ?")) {
+                items.setString(1, shopId.toString());
+                items.executeUpdate();
+                shop.setString(1, shopId.toString());
+                shop.executeUpdate();
+                if (changeFeed != null) {
+                    changeFeed.record(connection, List.of(new ShopChangeFeed.Change(ShopChangeFeed.SHOP_DELETED, shopId, null, 0)));
+                }
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to delete shop " + shopId + " from the database", e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean deleteAll() {
+        try (Connection connection = databaseManager.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM shop_items");
+                statement.executeUpdate("DELETE FROM shops");
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to delete all shops from the database", e);
+            return false;
+        }
+    }
+
+    @Override
+    public List<UUID> findShopsInChunk(String world, int chunkX, int chunkZ) {
+        return findShops("SELECT id FROM shops WHERE world = ? AND chunk_key = ?", world, ShopRepository.chunkKey(chunkX, chunkZ));
+    }
+
+    @Override
+    public List<UUID> findShopsInRegion(String world, int minX, int minZ, int maxX, int maxZ) {
+        return findShops("SELECT id FROM shops WHERE world = ? AND block_x BETWEEN ? AND ? AND block_z BETWEEN ? AND ?",
+                world, minX, maxX, minZ, maxZ);
+    }
+
+    @Override
+    public List<UUID> findShopsSelling(Collection<Material> materials) {
+        // Rows saved before materials were recorded may hold anything
+        Set<UUID> found = new LinkedHashSet<>(findShops("SELECT DISTINCT shop_id FROM shop_items WHERE material IS NULL"));
+        List<Material> remaining = new ArrayList<>(materials);
+        // In batches, as a category can hold more materials than SQLite allows parameters
+        for (int start = 0; start < remaining.size(); start += MATERIAL_BATCH) {
+            List<Material> batch = remaining.subList(start, Math.min(start + MATERIAL_BATCH, remaining.size()));
+            Object[] names = new Object[batch.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = batch.get(i).name();
+            }
+            found.addAll(findShops("SELECT DISTINCT shop_id FROM shop_items WHERE material IN ("
+                    + String.join(", ", Collections.nCopies(names.length, "?")) + ")", names));
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Run a query that selects shop IDs
+     *
+     * @param sql        The query
+     * @param parameters The parameters to bind, in order
+     * @return The shop IDs; empty if the query failed
+     */
+    private List<UUID> findShops(String sql, Object... parameters) {
+        List<UUID> found = new ArrayList<>();
+        try (Connection connection = databaseManager.getConnection();
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                ps.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    found.add(UUID.fromString(rs.getString(1)));
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to find shops: " + sql, e);
+        }
+        return found;
+    }
+
+    @Override
+    public void close() {
+        if (ownsDatabase) {
+            databaseManager.close();
+        }
+    }
+
+    /**
+     * Write a batch of snapshots. Shops go first, so their items' foreign keys are satisfied.
+     *
+     * @param connection The connection, in a transaction
+     * @param shops      The snapshots
+     * @throws SQLException If an error occurs
+     */
+    private void writeShops(Connection connection, List<ShopSnapshot> shops) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(upsertShop)) {
+            boolean any = false;
+            for (ShopSnapshot shop : shops) {
+                if (shop.hasFields()) {
+                    bindShop(ps, shop);
+                    ps.addBatch();
+                    any = true;
+                }
+            }
+            if (any) {
+                ps.executeBatch();
+            }
+        }
+
+        for (ShopSnapshot shop : shops) {
+            if (shop.getItemIds() != null) {
+                deleteRemovedItems(connection, shop, Long.MAX_VALUE);
+            }
+        }
+
+        ItemBlobStore blobStore = databaseManager.getItemBlobStore();
+        try (PreparedStatement ps = connection.prepareStatement(upsertItem)) {
+            boolean any = false;
+            for (ShopSnapshot shop : shops) {
+                for (ShopItemSnapshot item : shop.getItems()) {
+                    bindItem(ps, item, blobStore.store(connection, item.getItem()));
+                    ps.addBatch();
+                    any = true;
+                }
+            }
+            if (any) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Bind a shop to {@link #upsertShop}, as a new row at version 1
+     *
+     * @param ps   The statement
+     * @param shop The snapshot, with fields
+     * @throws SQLException If an error occurs
+     */
+    private void bindShop(PreparedStatement ps, ShopSnapshot shop) throws SQLException {
+        ps.setString(1, shop.getId().toString());
+        bindShopFields(ps, shop, 2);
+        ps.setLong(2 + SHOP_FIELDS.length, 1);
+    }
+
+    /**
+     * Bind the columns in {@link #SHOP_FIELDS}
+     *
+     * @param ps    The statement
+     * @param shop  The snapshot, with fields
+     * @param first The index of the first parameter to bind
+     * @throws SQLException If an error occurs
+     */
+    private void bindShopFields(PreparedStatement ps, ShopSnapshot shop, int first) throws SQLException {
+        int i = first;
+        ps.setString(i++, shop.getName());
+        ps.setString(i++, shop.isAdminShop() ? "admin" : "player");
+        ps.setString(i++, shop.getOwner() != null ? shop.getOwner().toString() : null);
+        ps.setString(i++, databaseManager.serializeLocation(shop));
+        ps.setString(i++, shop.getDescription());
+        ps.setBoolean(i++, shop.isOpen());
+        ps.setDouble(i++, shop.getTaxRate());
+        if (shop.isAdminShop()) {
+            ps.setNull(i++, Types.BIGINT);
+            ps.setNull(i++, Types.BOOLEAN);
+        } else {
+            ps.setLong(i++, shop.getExpirationTime());
+            ps.setBoolean(i++, shop.isAutoRenew());
+        }
+        ps.setString(i++, serializeStats(shop.getStats()));
+
+        // Block and chunk coordinates, so shops can be looked up by area
+        if (shop.getWorld() != null) {
+            int x = (int) Math.floor(shop.getX());
+            int z = (int) Math.floor(shop.getZ());
+            ps.setString(i++, shop.getWorld());
+            ps.setInt(i++, x);
+            ps.setInt(i++, (int) Math.floor(shop.getY()));
+            ps.setInt(i++, z);
+            ps.setLong(i, ShopRepository.chunkKey(x >> 4, z >> 4));
+        } else {
+            ps.setNull(i++, Types.VARCHAR);
+            ps.setNull(i++, Types.INTEGER);
+            ps.setNull(i++, Types.INTEGER);
+            ps.setNull(i++, Types.INTEGER);
+            ps.setNull(i, Types.BIGINT);
+        }
+    }
+
+    /**
+     * Bind an item to {@link #upsertItem}, as a new row at version 1
+     *
+     * @param ps   The statement
+     * @param item The snapshot
+     * @param hash The hash of the item's stored blob
+     * @throws SQLException If an error occurs
+     */
+    private void bindItem(PreparedStatement ps, ShopItemSnapshot item, String hash) throws SQLException {
+        ps.setString(1, item.getId().toString());
+        bindItemFields(ps, item, hash, 2);
+        ps.setLong(2 + ITEM_FIELDS.length, 1);
+    }
+
+    /**
+     * Bind the columns in {@link #ITEM_FIELDS}
+     *
+     * @param ps    The statement
+     * @param item  The snapshot
+     * @param hash  The hash of the item's stored blob
+     * @param first The index of the first parameter to bind
+     * @throws SQLException If an error occurs
+     */
+    private void bindItemFields(PreparedStatement ps, ShopItemSnapshot item, String hash, int first) throws SQLException {
+        ps.setString(first, item.getShopId().toString());
+        // Keep the readable summary for external tools; the blob is the source of truth
+        ps.setString(first + 1, databaseManager.serializeItemStack(item.getItem()));
+        ps.setString(first + 2, hash);
+        ps.setDouble(first + 3, item.getBuyPrice());
+        ps.setDouble(first + 4, item.getSellPrice());
+        ps.setString(first + 5, item.getCurrency());
+        ps.setInt(first + 6, item.getStock());
+        ps.setString(first + 7, item.getItem().getType().name());
+    }
+
+    /**
+     * Delete the rows of items that are no longer in a shop. The stored IDs are compared in
+     * memory rather than with a {@code NOT IN} list, which could exceed SQLite's parameter limit.
+     * Items another server changed after {@code seenChanges} are kept: this server may not have
+     * seen them yet, so their absence from the snapshot doesn't mean they were removed.
+     *
+     * @param connection  The connection
+     * @param shop        The snapshot, with item IDs
+     * @param seenChanges The position in the change feed the snapshot was captured at
+     * @return The IDs of the deleted items
+     * @throws SQLException If an error occurs
+     */
+    private List<UUID> deleteRemovedItems(Connection connection, ShopSnapshot shop, long seenChanges) throws SQLException {
+        boolean shared = changeFeed != null && seenChanges != Long.MAX_VALUE;
+        String sql = shared
+                ? SELECT_ITEM_IDS + " AND id NOT IN (SELECT item_id FROM shop_changes "
+                        + "WHERE shop_id = ? AND seq > ? AND node_id <> ? AND item_id IS NOT NULL)"
+                : SELECT_ITEM_IDS;
+        List<UUID> deleted = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(sql);
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM shop_items WHERE id = ?")) {
+            select.setString(1, shop.getId().toString());
+            if (shared) {
+                select.setString(2, shop.getId().toString());
+                select.setLong(3, seenChanges);
+                select.setString(4, changeFeed.getNodeId());
+            }
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    UUID id = UUID.fromString(rs.getString(1));
+                    if (!shop.getItemIds().contains(id)) {
+                        delete.setString(1, id.toString());
+                        delete.addBatch();
+                        deleted.add(id);
+                    }
+                }
+            }
+            if (!deleted.isEmpty()) {
+                delete.executeBatch();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Build the assignments of an update that sets columns from parameters
+     *
+     * @param columns The columns
+     * @return The comma-separated assignments
+     */
+    private static String assignments(String[] columns) {
+        StringBuilder assignments = new StringBuilder();
+        for (String column : columns) {
+            if (assignments.length() > 0) {
+                assignments.append(", ");
+            }
+            assignments.append(column).append(" = ?");
+        }
+        return assignments.toString();
+    }
+
+    /**
+     * One batch written to shared storage. Stored rows are only updated if they still have the
+     * version the snapshot was based on; rows another server changed in the meantime are left
+     * alone and reported as conflicts. New rows are upserted and their versions read back.
+     */
+    private final class SharedWrite {
+        private final long seenChanges;
+        private final Set<UUID> conflicts = new HashSet<>();
+        private final Map<ShopSnapshot, Long> shopVersions = new HashMap<>();
+        private final Map<ShopItemSnapshot, Long> itemVersions = new HashMap<>();
+        private final List<ShopChangeFeed.Change> changes = new ArrayList<>();
+
+        private SharedWrite(long seenChanges) {
+            this.seenChanges = seenChanges;
+        }
+
+        /**
+         * Write the batch and record it in the change feed
+         *
+         * @param connection The connection, in a transaction
+         * @param shops      The snapshots
+         * @throws SQLException If an error occurs
+         */
+        private void write(Connection connection, List<ShopSnapshot> shops) throws SQLException {
+            List<ShopSnapshot> withFields = new ArrayList<>();
+            List<ShopItemSnapshot> items = new ArrayList<>();
+            for (ShopSnapshot shop : shops) {
+                if (shop.hasFields()) {
+                    withFields.add(shop);
+                }
+                items.addAll(shop.getItems());
+            }
+
+            // Shops go first, so their items' foreign keys are satisfied
+            writeShops(connection, withFields);
+            for (ShopSnapshot shop : shops) {
+                if (shop.getItemIds() != null) {
+                    for (UUID itemId : deleteRemovedItems(connection, shop, seenChanges)) {
+                        changes.add(new ShopChangeFeed.Change(ShopChangeFeed.ITEM_DELETED, shop.getId(), itemId, 0));
+                    }
+                }
+            }
+            writeItems(connection, items);
+            changeFeed.record(connection, changes);
+        }
+
+        private void writeShops(Connection connection, List<ShopSnapshot> shops) throws SQLException {
+            List<ShopSnapshot> updated = new ArrayList<>();
+            List<ShopSnapshot> inserted = new ArrayList<>();
+            try (PreparedStatement update = connection.prepareStatement(updateShop);
+                 PreparedStatement upsert = connection.prepareStatement(upsertShop)) {
+                for (ShopSnapshot shop : shops) {
+                    if (shop.getStoredVersion() > 0) {
+                        bindShopFields(update, shop, 1);
+                        bindVersions(update, SHOP_FIELDS.length + 1, shop.getId(), shop.getStoredVersion());
+                        update.addBatch();
+                        updated.add(shop);
+                    } else {
+                        bindShop(upsert, shop);
+                        upsert.addBatch();
+                        inserted.add(shop);
+                    }
+                }
+
+                if (!updated.isEmpty()) {
+                    int[] counts = update.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        ShopSnapshot shop = updated.get(i);
+                        if (counts[i] == 0) {
+                            conflicts.add(shop.getId());
+                        } else {
+                            shopWritten(shop, shop.getStoredVersion() + 1);
+                        }
+                    }
+                }
+                if (!inserted.isEmpty()) {
+                    upsert.executeBatch();
+                }
+            }
+
+            if (!inserted.isEmpty()) {
+                try (PreparedStatement select = connection.prepareStatement("SELECT version FROM shops WHERE id = ?")) {
+                    for (ShopSnapshot shop : inserted) {
+                        shopWritten(shop, readVersion(select, shop.getId()));
+                    }
+                }
+            }
+        }
+
+        private void writeItems(Connection connection, List<ShopItemSnapshot> items) throws SQLException {
+            ItemBlobStore blobStore = databaseManager.getItemBlobStore();
+            List<ShopItemSnapshot> updated = new ArrayList<>();
+            List<ShopItemSnapshot> inserted = new ArrayList<>();
+            try (PreparedStatement update = connection.prepareStatement(updateItem);
+                 PreparedStatement upsert = connection.prepareStatement(upsertItem)) {
+                for (ShopItemSnapshot item : items) {
+                    String hash = blobStore.store(connection, item.getItem());
+                    if (item.getStoredVersion() > 0) {
+                        bindItemFields(update, item, hash, 1);
+                        bindVersions(update, ITEM_FIELDS.length + 1, item.getId(), item.getStoredVersion());
+                        update.addBatch();
+                        updated.add(item);
+                    } else {
+                        bindItem(upsert, item, hash);
+                        upsert.addBatch();
+                        inserted.add(item);
+                    }
+                }
+
+                if (!updated.isEmpty()) {
+                    int[] counts = update.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        ShopItemSnapshot item = updated.get(i);
+                        if (counts[i] == 0) {
+                            conflicts.add(item.getId());
+                        } else {
+                            itemWritten(item, item.getStoredVersion() + 1);
+                        }
+                    }
+                }
+                if (!inserted.isEmpty()) {
+                    upsert.executeBatch();
+                }
+            }
+
+            if (!inserted.isEmpty()) {
+                try (PreparedStatement select = connection.prepareStatement("SELECT version FROM shop_items WHERE id = ?")) {
+                    for (ShopItemSnapshot item : inserted) {
+                        itemWritten(item, readVersion(select, item.getId()));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Bind the new version, ID and expected version of a compare-and-set update
+         *
+         * @param ps            The statement
+         * @param first         The index of the new version parameter
+         * @param id            The row ID
+         * @param storedVersion The version the row must still have
+         * @throws SQLException If an error occurs
+         */
+        private void bindVersions(PreparedStatement ps, int first, UUID id, long storedVersion) throws SQLException {
+            ps.setLong(first, storedVersion + 1);
+            ps.setString(first + 1, id.toString());
+            ps.setLong(first + 2, storedVersion);
+        }
+
+        private long readVersion(PreparedStatement select, UUID id) throws SQLException {
+            select.setString(1, id.toString());
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Row " + id + " disappeared while it was written");
+                }
+                return rs.getLong(1);
+            }
+        }
+
+        private void shopWritten(ShopSnapshot shop, long version) {
+            shopVersions.put(shop, version);
+            changes.add(new ShopChangeFeed.Change(ShopChangeFeed.SHOP, shop.getId(), null, version));
+        }
+
+        private void itemWritten(ShopItemSnapshot item, long version) {
+            itemVersions.put(item, version);
+            changes.add(new ShopChangeFeed.Change(ShopChangeFeed.ITEM, item.getShopId(), item.getId(), version));
+        }
+
+        /**
+         * Record on the live shops and items which row versions they are now based on.
+         * Only called once the batch is committed.
+         */
+        private void markStored() {
+            for (Map.Entry<ShopSnapshot, Long> entry : shopVersions.entrySet()) {
+                entry.getKey().markStored(entry.getValue());
+            }
+            for (Map.Entry<ShopItemSnapshot, Long> entry : itemVersions.entrySet()) {
+                entry.getKey().markStored(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Serialize shop stats as {@code name=value} pairs separated by semicolons
+     *
+     * @param stats The stats
+     * @return The serialized stats
+     */
+    static String serializeStats(Map<String, Double> stats) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Double> entry : stats.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parse stats written by {@link #serializeStats(Map)}
+     *
+     * @param serialized The serialized stats, or null
+     * @return The stats
+     */
+    static Map<String, Double> deserializeStats(String serialized) {
+        Map<String, Double> stats = new HashMap<>();
+        if (serialized == null || serialized.isEmpty()) {
+            return stats;
+        }
+
+        for (String pair : serialized.split(";")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                try {
+                    stats.put(pair.substring(0, separator), Double.parseDouble(pair.substring(separator + 1)));
+                } catch (NumberFormatException ignored) {
+                    // Skip a corrupt entry rather than the whole shop
+                }
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,173 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the phases of plugin startup, letting independent loads overlap.
+ * <p>
+ * I/O-bound phases (schema migrations, reading shops and templates) run on virtual threads as
+ * soon as the phases they depend on are done; the main thread meanwhile does the work that needs
+ * the Bukkit API (registering commands, listeners and tasks) and {@link #join(CompletableFuture)}s
+ * the loads when it needs their results. Async phases must only touch their own objects and
+ * read the config; anything shared with the running server, including world lookups, happens
+ * in a main thread phase, and the config isn't changed while an async phase may read it.
+ * <p>
+ * Every phase is timed, and {@link #finish()} logs the timings and how long the main thread was
+ * busy or waiting.
+ */
+public class StartupOrchestrator {
+
+    private final FrizzlenShop plugin;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("FrizzlenShop-Startup-", 1).factory());
+    private final long start = System.nanoTime();
+    private final List<Timing> timings = new ArrayList<>();
+    private long waitNanos;
+
+    /**
+     * Creates a new startup orchestrator
+     *
+     * @param plugin The plugin instance
+     */
+    public StartupOrchestrator(FrizzlenShop plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Run a phase on a virtual thread once its dependencies are done. If a dependency fails,
+     * the phase doesn't run and fails with the same error.
+     *
+     * @param name         The phase name, for the timings
+     * @param task         The phase
+     * @param dependencies The phases that must be done first
+     * @param <T>          The result type
+     * @return The phase, completed with its result
+     */
+    public <T> CompletableFuture<T> async(String name, Callable<T> task, CompletableFuture<?>... dependencies) {
+        return CompletableFuture.allOf(dependencies).thenApplyAsync(ignored -> {
+            long phaseStart = System.nanoTime();
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                record(name, phaseStart, false);
+            }
+        }, executor);
+    }
+
+    /**
+     * Run a phase on the main thread, now
+     *
+     * @param name The phase name, for the timings
+     * @param task The phase
+     */
+    public void sync(String name, Runnable task) {
+        long phaseStart = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            record(name, phaseStart, true);
+        }
+    }
+
+    /**
+     * Wait on the main thread for an async phase
+     *
+     * @param phase The phase
+     * @param <T>   The result type
+     * @return The result of the phase
+     * @throws IllegalStateException If the phase failed
+     */
+    public <T> T join(CompletableFuture<T> phase) {
+        long waitStart = System.nanoTime();
+        try {
+            return phase.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause()
+                    : e.getCause();
+            throw new IllegalStateException("Startup failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for startup", e);
+        } finally {
+            waitNanos += System.nanoTime() - waitStart;
+        }
+    }
+
+    /**
+     * Stop the virtual threads and log the timings. Phases still running are abandoned.
+     */
+    public void finish() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long total = System.nanoTime() - start;
+        long mainBusy = 0;
+        StringBuilder phases = new StringBuilder();
+        synchronized (timings) {
+            for (Timing timing : timings) {
+                if (timing.main) {
+                    mainBusy += timing.nanos;
+                }
+                if (phases.length() > 0) {
+                    phases.append(", ");
+                }
+                phases.append(timing.name).append(' ').append(millis(timing.nanos)).append(" ms")
+                        .append(timing.main ? "" : " (async, from +" + millis(timing.offset) + " ms)");
+            }
+        }
+        plugin.getLogger().info("Started in " + millis(total) + " ms; main thread busy " + millis(mainBusy)
+                + " ms, waiting " + millis(waitNanos) + " ms. Phases: " + phases + ".");
+    }
+
+    /**
+     * Record how long a phase took
+     *
+     * @param name       The phase name
+     * @param phaseStart When the phase started
+     * @param main       Whether it ran on the main thread
+     */
+    private void record(String name, long phaseStart, boolean main) {
+        long now = System.nanoTime();
+        synchronized (timings) {
+            timings.add(new Timing(name, phaseStart - start, now - phaseStart, main));
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * How long one phase took
+     */
+    private static final class Timing {
+        private final String name;
+        private final long offset;
+        private final long nanos;
+        private final boolean main;
+
+        private Timing(String name, long offset, long nanos, boolean main) {
+            this.name = name;
+            this.offset = offset;
+            this.nanos = nanos;
+            this.main = main;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Cold storage for transactions the {@link TransactionCompactor} removes from the database.
+ * <p>
+ * Each compaction batch is written as one {@link ArchiveSegment} per day, named after the day and
+ * the first transaction in it, so a batch that is retried after a failed commit overwrites its
+ * own segment instead of duplicating it. The segment headers are kept in memory, so finding where
+ * the archive starts costs nothing; reads walk back one day at a time from the query's start
+ * position and scan that day's segments in parallel.
+ * <p>
+ * Segments older than {@code database.archive_days} are deleted (0 keeps them forever).
+ */
+public class TradeArchive {
+
+    private final FrizzlenShop plugin;
+    private final File directory;
+    private final NavigableMap<String, Map<String, ArchiveSegment>> segments = new ConcurrentSkipListMap<>();
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private ExecutorService executor;
+
+    /**
+     * Creates a new trade archive and reads the headers of the segments already in it
+     *
+     * @param plugin    The plugin instance
+     * @param directory The directory holding the segments
+     */
+    public TradeArchive(FrizzlenShop plugin, File directory) {
+        this.plugin = plugin;
+        this.directory = directory;
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(ArchiveSegment.EXTENSION));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            try {
+                add(file.getName(), ArchiveSegment.open(file));
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Skipping unreadable trade archive segment " + file.getName(), e);
+            }
+        }
+        prune();
+    }
+
+    /**
+     * Archive the transactions of one day. Returns once the segment is safely on disk.
+     *
+     * @param day          The day (UTC), as yyyy-MM-dd
+     * @param transactions The transactions, all from that day
+     * @throws IOException If the segment can't be written
+     */
+    public void write(String day, List<DatabaseManager.Transaction> transactions) throws IOException {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the trade archive directory " + directory);
+        }
+
+        DatabaseManager.Transaction first = transactions.get(0);
+        for (DatabaseManager.Transaction transaction : transactions) {
+            if (TransactionCursor.of(transaction).compareTo(TransactionCursor.of(first)) < 0) {
+                first = transaction;
+            }
+        }
+        String name = day + "_" + first.getId().toString().replace("-", "") + ArchiveSegment.EXTENSION;
+        File file = new File(directory, name);
+        ArchiveSegment.write(file, day, transactions);
+        add(name, ArchiveSegment.open(file));
+        prune();
+    }
+
+    /**
+     * Find archived transactions, newest first
+     *
+     * @param query The filters, start position and limit (0 for no limit)
+     * @return Up to {@code limit} matching transactions; fewer if the archive runs out or can't be read
+     */
+    public List<DatabaseManager.Transaction> read(TransactionQuery query) {
+        List<DatabaseManager.Transaction> found = new ArrayList<>();
+        int limit = query.getLimit();
+        TransactionCursor after = query.getAfter();
+        NavigableMap<String, Map<String, ArchiveSegment>> days = after != null
+                ? segments.headMap(after.getTimestamp().substring(0, Math.min(10, after.getTimestamp().length())), true)
+                : segments;
+
+        // Days don't overlap, so once one fills the page the older ones can't contribute
+        for (Map<String, ArchiveSegment> day : days.descendingMap().values()) {
+            List<DatabaseManager.Transaction> rows = scan(new ArrayList<>(day.values()), query);
+            rows.sort(DatabaseManager.NEWEST_FIRST);
+            found.addAll(rows);
+            if (limit > 0 && found.size() >= limit) {
+                return new ArrayList<>(found.subList(0, limit));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the position of the newest archived transaction
+     *
+     * @return The cursor, or null if the archive is empty
+     */
+    public TransactionCursor getNewest() {
+        Map.Entry<String, Map<String, ArchiveSegment>> newestDay = segments.lastEntry();
+        if (newestDay == null) {
+            return null;
+        }
+        TransactionCursor newest = null;
+        for (ArchiveSegment segment : newestDay.getValue().values()) {
+            TransactionCursor cursor = segment.getNewest();
+            if (cursor != null && (newest == null || cursor.compareTo(newest) > 0)) {
+                newest = cursor;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Get the number of segments in the archive
+     *
+     * @return The segment count
+     */
+    public int getSegmentCount() {
+        int count = 0;
+        for (Map<String, ArchiveSegment> day : segments.values()) {
+            count += day.size();
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of transactions in the archive
+     *
+     * @return The row count
+     */
+    public long getRows() {
+        long rows = 0;
+        for (Map<String, ArchiveSegment> day : segments.values()) {
+            for (ArchiveSegment segment : day.values()) {
+                rows += segment.getRows();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Get the size of the archive on disk
+     *
+     * @return The size in bytes
+     */
+    public long getSize() {
+        long size = 0;
+        for (Map<String, ArchiveSegment> day : segments.values()) {
+            for (ArchiveSegment segment : day.values()) {
+                size += segment.getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Stop the scan threads
+     */
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Scan segments for matches, in parallel when there is more than one
+     *
+     * @param daySegments The segments of one day
+     * @param query       The filters and start position
+     * @return The matches, unordered
+     */
+    private List<DatabaseManager.Transaction> scan(List<ArchiveSegment> daySegments, TransactionQuery query) {
+        List<DatabaseManager.Transaction> found = new ArrayList<>();
+        if (daySegments.size() == 1) {
+            found.addAll(scan(daySegments.get(0), query));
+            return found;
+        }
+
+        ExecutorService pool = getExecutor();
+        List<Future<List<DatabaseManager.Transaction>>> scans = new ArrayList<>(daySegments.size());
+        for (ArchiveSegment segment : daySegments) {
+            scans.add(pool.submit(() -> scan(segment, query)));
+        }
+        for (Future<List<DatabaseManager.Transaction>> scan : scans) {
+            try {
+                found.addAll(scan.get());
+            } catch (ExecutionException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to scan the trade archive", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return found;
+    }
+
+    private List<DatabaseManager.Transaction> scan(ArchiveSegment segment, TransactionQuery query) {
+        try {
+            return segment.scan(query);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to read trade archive segment for " + segment.getDay(), e);
+            return new ArrayList<>();
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "FrizzlenShop-Archive-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private void add(String name, ArchiveSegment segment) {
+        segments.computeIfAbsent(segment.getDay(), day -> new ConcurrentHashMap<>()).put(name, segment);
+    }
+
+    /**
+     * Delete segments older than {@code database.archive_days}
+     */
+    private void prune() {
+        int archiveDays = plugin.getConfig().getInt("database.archive_days", 0);
+        if (archiveDays <= 0) {
+            return;
+        }
+
+        String cutoff = LocalDate.now(ZoneOffset.UTC).minusDays(archiveDays).toString();
+        NavigableMap<String, Map<String, ArchiveSegment>> expired = segments.headMap(cutoff, false);
+        for (Map.Entry<String, Map<String, ArchiveSegment>> day : new ArrayList<>(expired.entrySet())) {
+            for (String name : day.getValue().keySet()) {
+                File file = new File(directory, name);
+                if (file.exists() && !file.delete()) {
+                    plugin.getLogger().warning("Failed to delete expired trade archive segment " + name);
+                }
+            }
+            segments.remove(day.getKey());
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.bukkit.Material;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Write-behind queue for trade records, so a trade costs the main thread one queue insert
+ * instead of a synchronous INSERT.
+ * <p>
+ * Trades are queued without locking, up to {@code database.trade_queue_size} of them; trades
+ * recorded while the queue is full are dropped and counted. One writer thread inserts the queue
+ * into the {@code transactions} table in batches of up to {@code database.trade_batch_rows}
+ * rows, each batch in one transaction. It writes once {@code database.trade_flush_interval}
+ * milliseconds have passed since the last batch, or as soon as a full batch is queued.
+ * <p>
+ * Each trade keeps the time it was made, so its timestamp doesn't depend on when it was written.
+ * A batch that fails is retried, and dropped after {@code database.trade_max_retries} failures.
+ * Stopping writes everything still queued.
+ */
+public class TradeRecorder {
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String INSERT_TRANSACTION =
+            "INSERT INTO transactions (id, shop_id, player_id, item_id, quantity, price, type, material_id, timestamp)"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+    private final Queue<Trade> queue = new ConcurrentLinkedQueue<>();
+    // The queue's size, kept separately because counting a ConcurrentLinkedQueue walks it
+    private final AtomicInteger depth = new AtomicInteger();
+    private final int capacity;
+    private final int batchRows;
+    private final long flushIntervalNanos;
+    private final int maxRetries;
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicInteger peakDepth = new AtomicInteger();
+    // Held while writing, so the writer thread and a drain on shutdown never write at once
+    private final Object drainLock = new Object();
+    private volatile boolean stopping;
+    private volatile long lastBatchNanos;
+    private volatile int lastBatchRows;
+    private volatile Thread writer;
+
+    /**
+     * Creates a new trade recorder
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The database to write trades to
+     */
+    public TradeRecorder(FrizzlenShop plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.capacity = Math.max(1, plugin.getConfig().getInt("database.trade_queue_size", 10000));
+        this.batchRows = Math.max(1, plugin.getConfig().getInt("database.trade_batch_rows", 500));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, plugin.getConfig().getLong("database.trade_flush_interval", 250)));
+        this.maxRetries = Math.max(0, plugin.getConfig().getInt("database.trade_max_retries", 3));
+    }
+
+    /**
+     * Start the writer thread
+     */
+    public synchronized void start() {
+        if (writer != null || stopping) {
+            return;
+        }
+        writer = new Thread(this::run, "FrizzlenShop-Trades");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Write everything queued and stop the writer thread, waiting at most the configured
+     * shutdown timeout. Trades recorded afterwards are written straight away.
+     */
+    public synchronized void stop() {
+        stopping = true;
+        if (writer == null) {
+            // Never started; write what was queued on this thread
+            drain(true);
+            return;
+        }
+
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(plugin.getConfig().getLong("autosave.shutdown_timeout", 10)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            plugin.getLogger().severe("Writing the trade queue did not finish in time; " + depth.get() + " trade(s) were not recorded.");
+        } else {
+            // Trades queued while the writer was finishing
+            drain(true);
+        }
+        writer = null;
+    }
+
+    /**
+     * Queue a trade to be recorded
+     *
+     * @param shopId   The shop ID
+     * @param playerId The player ID
+     * @param itemId   The item ID
+     * @param material The material traded, or null if unknown
+     * @param quantity The quantity
+     * @param price    The price
+     * @param type     The transaction type (buy/sell)
+     * @return True if queued, false if the queue was full and the trade was dropped
+     */
+    public boolean record(UUID shopId, UUID playerId, UUID itemId, Material material, int quantity, double price, String type) {
+        int size = depth.incrementAndGet();
+        if (size > capacity) {
+            depth.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.offer(new Trade(shopId, playerId, itemId, material, quantity, price, type, System.currentTimeMillis()));
+        queued.increment();
+        peakDepth.accumulateAndGet(size, Math::max);
+
+        Thread thread = writer;
+        if (thread != null && size == batchRows) {
+            // A full batch is waiting; don't wait for the interval
+            LockSupport.unpark(thread);
+        } else if (thread == null && stopping) {
+            drain(true);
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of trades waiting to be written
+     *
+     * @return The queue depth
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Get the highest queue depth since the server started
+     *
+     * @return The peak queue depth
+     */
+    public int getPeakDepth() {
+        return peakDepth.get();
+    }
+
+    /**
+     * Get the maximum number of queued trades
+     *
+     * @return The queue capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of trades queued since the server started
+     *
+     * @return The queued count
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * Get the number of trades written to the database since the server started
+     *
+     * @return The written count
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Get the number of trades dropped because the queue was full
+     *
+     * @return The dropped count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Get the number of trades dropped because writing them kept failing
+     *
+     * @return The failed count
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Get how long the last batch took to write
+     *
+     * @return The time in nanoseconds
+     */
+    public long getLastBatchNanos() {
+        return lastBatchNanos;
+    }
+
+    /**
+     * Get how many rows the last batch wrote
+     *
+     * @return The row count
+     */
+    public int getLastBatchRows() {
+        return lastBatchRows;
+    }
+
+    private void run() {
+        while (!stopping) {
+            if (depth.get() < batchRows) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+            drain(false);
+        }
+        drain(true);
+    }
+
+    /**
+     * Write the queued trades in batches
+     *
+     * @param all True to write until the queue is empty; false to write what was queued when
+     *            the drain started, so a steady stream of trades can't keep the writer busy
+     */
+    private void drain(boolean all) {
+        synchronized (drainLock) {
+            int remaining = all ? Integer.MAX_VALUE : depth.get();
+            List<Trade> batch = new ArrayList<>(Math.min(batchRows, Math.max(1, remaining)));
+            while (remaining > 0) {
+                batch.clear();
+                Trade trade;
+                while (batch.size() < batchRows && (trade = queue.poll()) != null) {
+                    batch.add(trade);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                depth.addAndGet(-batch.size());
+                remaining -= batch.size();
+                writeWithRetries(batch);
+            }
+        }
+    }
+
+    private void writeWithRetries(List<Trade> batch) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                long start = System.nanoTime();
+                write(batch);
+                lastBatchNanos = System.nanoTime() - start;
+                lastBatchRows = batch.size();
+                written.add(batch.size());
+                return;
+            } catch (SQLException e) {
+                if (attempt >= maxRetries || stopping && attempt > 0) {
+                    failed.add(batch.size());
+                    plugin.getLogger().log(Level.SEVERE, "Failed to record " + batch.size() + " trade(s); they were dropped", e);
+                    return;
+                }
+                plugin.getLogger().log(Level.WARNING, "Failed to record " + batch.size() + " trade(s); retrying", e);
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * Insert a batch of trades in one transaction
+     *
+     * @param batch The trades
+     * @throws SQLException If the insert fails; nothing is written then
+     */
+    private void write(List<Trade> batch) throws SQLException {
+        try (Connection connection = databaseManager.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_TRANSACTION)) {
+                for (Trade trade : batch) {
+                    ps.setBytes(1, UuidBytes.toBytes(UUID.randomUUID()));
+                    ps.setBytes(2, UuidBytes.toBytes(trade.shopId));
+                    ps.setBytes(3, UuidBytes.toBytes(trade.playerId));
+                    ps.setBytes(4, UuidBytes.toBytes(trade.itemId));
+                    ps.setInt(5, trade.quantity);
+                    ps.setDouble(6, trade.price);
+                    ps.setString(7, trade.type);
+                    if (trade.material != null) {
+                        ps.setInt(8, databaseManager.getMaterialIds().getId(connection, trade.material.name()));
+                    } else {
+                        ps.setNull(8, Types.INTEGER);
+                    }
+                    // Stored as UTC text. SQLite's CURRENT_TIMESTAMP is UTC, and MySQL sessions are
+                    // pinned to UTC when opened, so this matches rows that used the column default.
+                    ps.setString(9, LocalDateTime.ofEpochSecond(trade.time / 1000, 0, ZoneOffset.UTC).format(TIMESTAMP));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * A trade waiting to be written
+     */
+    private static final class Trade {
+        private final UUID shopId;
+        private final UUID playerId;
+        private final UUID itemId;
+        private final Material material;
+        private final int quantity;
+        private final double price;
+        private final String type;
+        private final long time;
+
+        private Trade(UUID shopId, UUID playerId, UUID itemId, Material material, int quantity, double price, String type, long time) {
+            this.shopId = shopId;
+            this.playerId = playerId;
+            this.itemId = itemId;
+            this.material = material;
+            this.quantity = quantity;
+            this.price = price;
+            this.type = type;
+            this.time = time;
+        }
+    }
+}
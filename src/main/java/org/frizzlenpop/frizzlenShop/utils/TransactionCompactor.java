@@ -0,0 +1,371 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.bukkit.scheduler.BukkitTask;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Keeps the transaction history from growing without bound.
+ * <p>
+ * Raw transactions older than {@code database.retention_days} are rolled up into per-day totals
+ * in {@code transactions_daily} (one row per day, shop, item, player and type) and then deleted,
+ * in small batches that each commit on their own. Unless {@code database.archive} is off, the
+ * deleted rows are first written to the {@link TradeArchive}, so the full history stays readable.
+ * Item blobs no shop item refers to anymore are deleted in the same run.
+ * Afterwards SQLite returns a bit of the freed space to the file system with
+ * {@code PRAGMA incremental_vacuum}; MySQL reuses freed pages for new rows.
+ * <p>
+ * Rebuilding the database ({@code VACUUM}, which also switches an existing SQLite database to
+ * incremental auto-vacuum, or MySQL's {@code OPTIMIZE TABLE}) rewrites whole tables and blocks
+ * writes while it runs, so it is never scheduled; an admin starts it with {@link #rebuild()}.
+ * <p>
+ * Runs are only started while the server is quiet, so the extra disk work doesn't compete with
+ * players.
+ */
+public class TransactionCompactor {
+
+    private static final String[] DAILY_COLUMNS = {
+            "day", "shop_id", "item_id", "player_id", "type", "trade_count", "quantity", "total_value"
+    };
+    private static final double MIN_TPS = 18.0;
+    // Unreferenced item blobs younger than this may belong to a save still in progress
+    private static final long BLOB_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final FrizzlenShop plugin;
+    private final DatabaseManager databaseManager;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final String upsertDaily;
+    private final String pruneItemTransactions;
+    private final String[] optimizeTables;
+    private boolean incrementalVacuumReady;
+    private boolean rebuildHintLogged;
+    private BukkitTask task;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a new transaction compactor
+     *
+     * @param plugin          The plugin instance
+     * @param databaseManager The database holding the transaction history
+     */
+    public TransactionCompactor(FrizzlenShop plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+
+        SqlDialect dialect = databaseManager.getDialect();
+        this.upsertDaily = dialect.upsert("transactions_daily", DAILY_COLUMNS,
+                new String[]{"day", "shop_id", "item_id", "player_id", "type"},
+                "trade_count = trade_count + " + dialect.excluded("trade_count")
+                        + ", quantity = quantity + " + dialect.excluded("quantity")
+                        + ", total_value = total_value + " + dialect.excluded("total_value"));
+        this.pruneItemTransactions = "DELETE FROM " + databaseManager.getTablePrefix()
+                + "item_transactions WHERE last_buy_time < ? AND last_sell_time < ?";
+        this.optimizeTables = new String[]{
+                "transactions", "transactions_daily", databaseManager.getTablePrefix() + "item_transactions"
+        };
+    }
+
+    /**
+     * Start checking for a quiet moment to compact, every {@code database.compaction_interval} minutes
+     */
+    public void start() {
+        if (getRetentionDays() <= 0) {
+            plugin.getLogger().info("Transaction compaction is disabled (database.retention_days is 0).");
+            return;
+        }
+
+        long interval = Math.max(1, plugin.getConfig().getLong("database.compaction_interval", 60)) * 60 * 20;
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::runIfQuiet, interval, interval);
+    }
+
+    /**
+     * Stop scheduling compaction runs. A run in progress finishes its current batch and stops.
+     */
+    public void stop() {
+        stopped = true;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Start a run on an async thread if the server is quiet. Must be called on the main thread.
+     */
+    private void runIfQuiet() {
+        int maxPlayers = plugin.getConfig().getInt("database.compaction_max_players", 5);
+        if (maxPlayers >= 0 && plugin.getServer().getOnlinePlayers().size() > maxPlayers) {
+            return;
+        }
+        if (plugin.getServer().getTPS()[0] < MIN_TPS) {
+            return;
+        }
+
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this::compact);
+    }
+
+    /**
+     * Roll up and delete old transactions, then reclaim some of the freed space.
+     * Does nothing if a run is already in progress.
+     *
+     * @return The number of raw transactions rolled up
+     */
+    public int compact() {
+        if (!running.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        try {
+            long start = System.nanoTime();
+            int retentionDays = getRetentionDays();
+            // Cut at midnight, so a day is always rolled up as a whole
+            String cutoff = LocalDate.now(ZoneOffset.UTC).minusDays(retentionDays) + " 00:00:00";
+            int batchSize = Math.max(100, plugin.getConfig().getInt("database.compaction_batch_size", 2000));
+            int maxBatches = Math.max(1, plugin.getConfig().getInt("database.compaction_max_batches", 50));
+
+            int rolledUp = 0;
+            for (int batch = 0; batch < maxBatches && !stopped; batch++) {
+                int rows = rollUpBatch(cutoff, batchSize);
+                rolledUp += rows;
+                if (rows < batchSize) {
+                    break;
+                }
+            }
+
+            int pruned = pruneItemTransactions(retentionDays);
+            int blobs = deleteOrphanedBlobs();
+            if (rolledUp > 0 || pruned > 0 || blobs > 0) {
+                reclaimSpace();
+                plugin.getLogger().info(String.format("Rolled up %d transaction(s) older than %d day(s), pruned %d idle item record(s) "
+                        + "and deleted %d unused item blob(s) in %d ms.",
+                        rolledUp, retentionDays, pruned, blobs, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            }
+            return rolledUp;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to compact the transaction history", e);
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Move the oldest transactions before the cutoff into the daily totals, in one transaction.
+     * With the archive enabled, the raw rows are written to it before they are deleted; if that
+     * fails, nothing is deleted.
+     *
+     * @param cutoff    The timestamp to roll up transactions before
+     * @param batchSize The maximum number of transactions to move
+     * @return The number of transactions moved
+     * @throws SQLException If an error occurs
+     */
+    private int rollUpBatch(String cutoff, int batchSize) throws SQLException {
+        TradeArchive archive = databaseManager.getTradeArchive();
+        try (Connection connection = databaseManager.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                List<DatabaseManager.Transaction> transactions = new ArrayList<>(batchSize);
+                Map<List<Object>, DailyTotal> totals = new LinkedHashMap<>();
+                Map<String, List<DatabaseManager.Transaction>> days = new LinkedHashMap<>();
+                try (PreparedStatement ps = connection.prepareStatement(
+                        DatabaseManager.selectTransactions(databaseManager.getMaterialIds().getTable()) +
+                        " WHERE t.timestamp < ? ORDER BY t.timestamp, t.id LIMIT " + batchSize)) {
+                    ps.setString(1, cutoff);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            DatabaseManager.Transaction transaction = DatabaseManager.readTransaction(rs);
+                            transactions.add(transaction);
+                            // Both databases return timestamps as "yyyy-MM-dd HH:mm:ss..."
+                            String day = transaction.getTimestamp().substring(0, 10);
+                            List<Object> key = List.of(day, transaction.getShopId(), transaction.getItemId(),
+                                    transaction.getPlayerId(), transaction.getType());
+                            totals.computeIfAbsent(key, k -> new DailyTotal())
+                                    .add(transaction.getQuantity(), transaction.getPrice());
+                            days.computeIfAbsent(day, d -> new ArrayList<>()).add(transaction);
+                        }
+                    }
+                }
+                if (transactions.isEmpty()) {
+                    return 0;
+                }
+
+                try (PreparedStatement ps = connection.prepareStatement(upsertDaily)) {
+                    for (Map.Entry<List<Object>, DailyTotal> entry : totals.entrySet()) {
+                        List<Object> key = entry.getKey();
+                        ps.setString(1, (String) key.get(0));
+                        ps.setBytes(2, UuidBytes.toBytes((UUID) key.get(1)));
+                        ps.setBytes(3, UuidBytes.toBytes((UUID) key.get(2)));
+                        ps.setBytes(4, UuidBytes.toBytes((UUID) key.get(3)));
+                        ps.setString(5, (String) key.get(4));
+                        ps.setInt(6, entry.getValue().count);
+                        ps.setLong(7, entry.getValue().quantity);
+                        ps.setDouble(8, entry.getValue().value);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+
+                if (archive != null) {
+                    for (Map.Entry<String, List<DatabaseManager.Transaction>> day : days.entrySet()) {
+                        archive.write(day.getKey(), day.getValue());
+                    }
+                }
+
+                try (PreparedStatement ps = connection.prepareStatement("DELETE FROM transactions WHERE id = ?")) {
+                    for (DatabaseManager.Transaction transaction : transactions) {
+                        ps.setBytes(1, UuidBytes.toBytes(transaction.getId()));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+
+                connection.commit();
+                return transactions.size();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } catch (IOException e) {
+                connection.rollback();
+                throw new SQLException("Failed to archive old transactions", e);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Delete the market counters of shop items that haven't been traded within the retention period.
+     * There is one row per item ever traded, so rows of removed items would otherwise pile up.
+     *
+     * @param retentionDays The retention period in days
+     * @return The number of rows deleted
+     * @throws SQLException If an error occurs
+     */
+    private int pruneItemTransactions(int retentionDays) throws SQLException {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        try (Connection connection = databaseManager.getConnection();
+             PreparedStatement ps = connection.prepareStatement(pruneItemTransactions)) {
+            ps.setLong(1, cutoff);
+            ps.setLong(2, cutoff);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Delete the stored item blobs that no shop item refers to anymore. Nothing else deletes
+     * them, so every item ever removed or changed would otherwise keep its blob.
+     *
+     * @return The number of blobs deleted
+     * @throws SQLException If an error occurs
+     */
+    private int deleteOrphanedBlobs() throws SQLException {
+        try (Connection connection = databaseManager.getConnection()) {
+            return databaseManager.getItemBlobStore().deleteOrphans(connection, BLOB_GRACE_MILLIS);
+        }
+    }
+
+    /**
+     * Return some of the space freed by deleted rows to the file system. Only SQLite databases
+     * already in incremental auto-vacuum mode are touched; anything else would need a rebuild.
+     */
+    private void reclaimSpace() {
+        if (databaseManager.isMySql()) {
+            return;
+        }
+
+        try (Connection connection = databaseManager.getConnection();
+             Statement statement = connection.createStatement()) {
+            if (!incrementalVacuumReady) {
+                incrementalVacuumReady = getAutoVacuumMode(statement) == 2;
+                if (!incrementalVacuumReady) {
+                    if (!rebuildHintLogged) {
+                        rebuildHintLogged = true;
+                        plugin.getLogger().info("The database file doesn't shrink after compaction until it is switched to "
+                                + "incremental vacuum. Run /shopadmin db rebuild confirm once while the server is quiet.");
+                    }
+                    return;
+                }
+            }
+            int pages = Math.max(1, plugin.getConfig().getInt("database.vacuum_pages", 500));
+            statement.execute("PRAGMA incremental_vacuum(" + pages + ")");
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to reclaim free space in the database", e);
+        }
+    }
+
+    /**
+     * Rebuild the database to return all free space to the file system. SQLite is switched to
+     * incremental auto-vacuum and rewritten with {@code VACUUM}, so later compaction runs can
+     * shrink it a bit at a time; MySQL runs {@code OPTIMIZE TABLE} on the transaction tables.
+     * Writes wait while this runs, so it is only started by an admin. Must not be called on the
+     * main thread.
+     *
+     * @return False if a compaction run is in progress and nothing was done
+     * @throws SQLException If an error occurs
+     */
+    public boolean rebuild() throws SQLException {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        try (Connection connection = databaseManager.getConnection();
+             Statement statement = connection.createStatement()) {
+            long start = System.nanoTime();
+            if (databaseManager.isMySql()) {
+                for (String table : optimizeTables) {
+                    statement.execute("OPTIMIZE TABLE " + table);
+                }
+            } else {
+                statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                statement.execute("VACUUM");
+                incrementalVacuumReady = getAutoVacuumMode(statement) == 2;
+            }
+            plugin.getLogger().info("Rebuilt the database in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+            return true;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private int getAutoVacuumMode(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("PRAGMA auto_vacuum")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private int getRetentionDays() {
+        return plugin.getConfig().getInt("database.retention_days", 90);
+    }
+
+    /**
+     * The running totals of one rollup row
+     */
+    private static final class DailyTotal {
+        private int count;
+        private long quantity;
+        private double value;
+
+        private void add(int quantity, double value) {
+            this.count++;
+            this.quantity += quantity;
+            this.value += value;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import java.util.UUID;
+
+/**
+ * A position in the transaction history, newest first.
+ * <p>
+ * History is ordered by {@code (timestamp, id)}, so a cursor is simply the last row a page
+ * ended on. The next page starts strictly after it, which stays fast however deep you page.
+ */
+public final class TransactionCursor implements Comparable<TransactionCursor> {
+
+    private final String timestamp;
+    private final String id;
+
+    /**
+     * Creates a new transaction cursor
+     *
+     * @param timestamp The timestamp of the last row read, as returned by the database
+     * @param id        The ID of the last row read
+     */
+    public TransactionCursor(String timestamp, String id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    /**
+     * Create a cursor positioned on a transaction
+     *
+     * @param transaction The last transaction read
+     * @return The cursor
+     */
+    public static TransactionCursor of(DatabaseManager.Transaction transaction) {
+        return new TransactionCursor(transaction.getTimestamp(), transaction.getId().toString());
+    }
+
+    /**
+     * Get the timestamp of the last row read
+     *
+     * @return The timestamp
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the ID of the last row read
+     *
+     * @return The transaction ID
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Compare positions in history order. Timestamps are compared to the second, since MySQL
+     * may return them with a fraction ({@code .0}) that the archive doesn't keep.
+     *
+     * @param other The other cursor
+     * @return A negative number if this position is older, positive if it is newer
+     */
+    @Override
+    public int compareTo(TransactionCursor other) {
+        int byTime = seconds(timestamp).compareTo(seconds(other.timestamp));
+        return byTime != 0 ? byTime : id.compareTo(other.id);
+    }
+
+    private static String seconds(String timestamp) {
+        return timestamp.length() > 19 ? timestamp.substring(0, 19) : timestamp;
+    }
+
+    /**
+     * Encode the cursor as a single string, e.g. to keep it in menu data
+     *
+     * @return The encoded cursor
+     */
+    public String encode() {
+        return timestamp + "|" + id;
+    }
+
+    /**
+     * Decode a cursor created by {@link #encode()}
+     *
+     * @param encoded The encoded cursor
+     * @return The cursor, or null if the string is not a valid cursor
+     */
+    public static TransactionCursor decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        int separator = encoded.lastIndexOf('|');
+        if (separator <= 0 || separator == encoded.length() - 1) {
+            return null;
+        }
+        String id = encoded.substring(separator + 1);
+        try {
+            // The ID is bound as bytes, so it must be a UUID
+            UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return new TransactionCursor(encoded.substring(0, separator), id);
+    }
+}
@@ -0,0 +1,259 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Filters and position for reading the transaction history, newest first.
+ * Every filter is optional; unset filters match all transactions.
+ */
+public class TransactionQuery {
+
+    private UUID shopId;
+    private UUID playerId;
+    private UUID itemId;
+    private String material;
+    private String type;
+    private TransactionCursor after;
+    private int limit;
+
+    /**
+     * Only include transactions in a shop
+     *
+     * @param shopId The shop ID
+     * @return This query
+     */
+    public TransactionQuery shop(UUID shopId) {
+        this.shopId = shopId;
+        return this;
+    }
+
+    /**
+     * Only include transactions by a player
+     *
+     * @param playerId The player ID
+     * @return This query
+     */
+    public TransactionQuery player(UUID playerId) {
+        this.playerId = playerId;
+        return this;
+    }
+
+    /**
+     * Only include transactions of a shop item
+     *
+     * @param itemId The shop item ID
+     * @return This query
+     */
+    public TransactionQuery item(UUID itemId) {
+        this.itemId = itemId;
+        return this;
+    }
+
+    /**
+     * Only include transactions of a material
+     *
+     * @param material The material name, e.g. DIAMOND
+     * @return This query
+     */
+    public TransactionQuery material(String material) {
+        this.material = material != null ? material.toUpperCase(Locale.ROOT) : null;
+        return this;
+    }
+
+    /**
+     * Only include transactions of a type
+     *
+     * @param type The transaction type (buy/sell), or null or "all" for both
+     * @return This query
+     */
+    public TransactionQuery type(String type) {
+        this.type = type == null || type.equalsIgnoreCase("all") ? null : type.toLowerCase();
+        return this;
+    }
+
+    /**
+     * Start after a previously read position
+     *
+     * @param cursor The cursor, or null to start at the newest transaction
+     * @return This query
+     */
+    public TransactionQuery after(TransactionCursor cursor) {
+        this.after = cursor;
+        return this;
+    }
+
+    /**
+     * Limit the number of transactions read
+     *
+     * @param limit The maximum number of rows, or 0 for no limit
+     * @return This query
+     */
+    public TransactionQuery limit(int limit) {
+        this.limit = Math.max(0, limit);
+        return this;
+    }
+
+    /**
+     * Get the row limit
+     *
+     * @return The maximum number of rows, or 0 for no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Get the shop filter
+     *
+     * @return The shop ID, or null for all shops
+     */
+    UUID getShopId() {
+        return shopId;
+    }
+
+    /**
+     * Get the player filter
+     *
+     * @return The player ID, or null for all players
+     */
+    UUID getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * Get the shop item filter
+     *
+     * @return The shop item ID, or null for all items
+     */
+    UUID getItemId() {
+        return itemId;
+    }
+
+    /**
+     * Get the material filter
+     *
+     * @return The material name, or null for all materials
+     */
+    String getMaterial() {
+        return material;
+    }
+
+    /**
+     * Get the start position
+     *
+     * @return The cursor, or null to start at the newest transaction
+     */
+    TransactionCursor getAfter() {
+        return after;
+    }
+
+    /**
+     * Copy this query with another start position and limit
+     *
+     * @param cursor The new start position, or null for the newest transaction
+     * @param limit  The new limit
+     * @return The copy
+     */
+    TransactionQuery copy(TransactionCursor cursor, int limit) {
+        TransactionQuery copy = new TransactionQuery();
+        copy.shopId = shopId;
+        copy.playerId = playerId;
+        copy.itemId = itemId;
+        copy.material = material;
+        copy.type = type;
+        copy.after = cursor;
+        copy.limit = limit;
+        return copy;
+    }
+
+    /**
+     * Check whether a transaction passes the filters and comes after the start position, the
+     * same way the SQL of {@link #toSql(int, String)} does
+     *
+     * @param transaction The transaction
+     * @return True if the query includes it
+     */
+    boolean matches(DatabaseManager.Transaction transaction) {
+        return (shopId == null || shopId.equals(transaction.getShopId()))
+                && (playerId == null || playerId.equals(transaction.getPlayerId()))
+                && (itemId == null || itemId.equals(transaction.getItemId()))
+                && (material == null || material.equals(transaction.getMaterial()))
+                && (type == null || type.equals(transaction.getType()))
+                && (after == null || TransactionCursor.of(transaction).compareTo(after) < 0);
+    }
+
+    /**
+     * Build the SELECT statement for this query
+     *
+     * @param rowLimit       The LIMIT to apply, or 0 for none
+     * @param materialsTable The material lookup table, to read the material name
+     * @return The SQL statement
+     */
+    String toSql(int rowLimit, String materialsTable) {
+        List<String> conditions = new ArrayList<>();
+        if (shopId != null) {
+            conditions.add("shop_id = ?");
+        }
+        if (playerId != null) {
+            conditions.add("player_id = ?");
+        }
+        if (itemId != null) {
+            conditions.add("item_id = ?");
+        }
+        if (material != null) {
+            conditions.add("material_id = (SELECT id FROM " + materialsTable + " WHERE name = ?)");
+        }
+        if (type != null) {
+            conditions.add("type = ?");
+        }
+        if (after != null) {
+            // Expanded form of (timestamp, id) < (?, ?), which MySQL can use an index for
+            conditions.add("(timestamp < ? OR (timestamp = ? AND id < ?))");
+        }
+
+        StringBuilder sql = new StringBuilder(DatabaseManager.selectTransactions(materialsTable));
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        sql.append(" ORDER BY timestamp DESC, id DESC");
+        if (rowLimit > 0) {
+            sql.append(" LIMIT ").append(rowLimit);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Bind the parameters of {@link #toSql(int, String)}
+     *
+     * @param ps The prepared statement
+     * @throws SQLException If an error occurs
+     */
+    void bind(PreparedStatement ps) throws SQLException {
+        int index = 1;
+        if (shopId != null) {
+            ps.setBytes(index++, UuidBytes.toBytes(shopId));
+        }
+        if (playerId != null) {
+            ps.setBytes(index++, UuidBytes.toBytes(playerId));
+        }
+        if (itemId != null) {
+            ps.setBytes(index++, UuidBytes.toBytes(itemId));
+        }
+        if (material != null) {
+            ps.setString(index++, material);
+        }
+        if (type != null) {
+            ps.setString(index++, type);
+        }
+        if (after != null) {
+            ps.setString(index++, after.getTimestamp());
+            ps.setString(index++, after.getTimestamp());
+            ps.setBytes(index, UuidBytes.toBytes(after.getId()));
+        }
+    }
+}
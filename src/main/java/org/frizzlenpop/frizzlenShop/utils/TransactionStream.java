@@ -0,0 +1,166 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over transactions straight from a forward-only result set, so a history of any
+ * length can be read without holding it in memory. It keeps a pooled connection until it is
+ * closed; always use it in a try-with-resources block.
+ * <p>
+ * Once the rows reach back to the {@link TradeArchive}, archived transactions are read a page at
+ * a time and merged in, so the stream stays in history order.
+ */
+public class TransactionStream implements Iterator<DatabaseManager.Transaction>, AutoCloseable {
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final TradeArchive archive;
+    private final TransactionQuery query;
+    private final int pageSize;
+    private final TransactionCursor newestArchived;
+    private final Deque<DatabaseManager.Transaction> archived = new ArrayDeque<>();
+    private TransactionCursor archiveCursor;
+    private boolean archiveDone;
+    private DatabaseManager.Transaction row;
+    private boolean rowsDone;
+    private DatabaseManager.Transaction next;
+    private DatabaseManager.Transaction last;
+    private int returned;
+    private boolean done;
+
+    TransactionStream(Connection connection, PreparedStatement statement, ResultSet resultSet,
+                      TradeArchive archive, TransactionQuery query, int pageSize) {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.archive = archive;
+        this.query = query;
+        this.pageSize = pageSize;
+        this.newestArchived = archive != null ? archive.getNewest() : null;
+        this.archiveCursor = query.getAfter();
+        this.archiveDone = newestArchived == null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+
+        if (query.getLimit() > 0 && returned >= query.getLimit()) {
+            close();
+            return false;
+        }
+
+        try {
+            if (row == null && !rowsDone) {
+                if (resultSet.next()) {
+                    row = DatabaseManager.readTransaction(resultSet);
+                } else {
+                    rowsDone = true;
+                }
+            }
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException("Failed to read transaction history", e);
+        }
+
+        // Only touch the archive once the rows reach back to it
+        if (row != null && (archiveDone || TransactionCursor.of(row).compareTo(newestArchived) > 0)) {
+            next = row;
+            row = null;
+        } else {
+            DatabaseManager.Transaction archivedRow = peekArchived();
+            if (archivedRow != null && (row == null || DatabaseManager.NEWEST_FIRST.compare(archivedRow, row) < 0)) {
+                next = archived.poll();
+            } else {
+                next = row;
+                row = null;
+            }
+        }
+
+        if (next == null) {
+            close();
+            return false;
+        }
+        returned++;
+        return true;
+    }
+
+    /**
+     * Get the next archived transaction, reading another page from the archive when needed
+     *
+     * @return The transaction, or null once the archive has nothing more
+     */
+    private DatabaseManager.Transaction peekArchived() {
+        if (archived.isEmpty() && !archiveDone) {
+            List<DatabaseManager.Transaction> page = archive.read(query.copy(archiveCursor, pageSize));
+            archived.addAll(page);
+            if (page.size() < pageSize) {
+                archiveDone = true;
+            } else {
+                archiveCursor = TransactionCursor.of(page.get(page.size() - 1));
+            }
+        }
+        return archived.peek();
+    }
+
+    @Override
+    public DatabaseManager.Transaction next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        last = next;
+        next = null;
+        return last;
+    }
+
+    /**
+     * Get a cursor positioned after the last transaction returned
+     *
+     * @return The cursor, or null if nothing has been read
+     */
+    public TransactionCursor getCursor() {
+        return last != null ? TransactionCursor.of(last) : null;
+    }
+
+    /**
+     * View the remaining transactions as a stream. Closing the stream closes this iterator.
+     *
+     * @return The stream
+     */
+    public Stream<DatabaseManager.Transaction> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        if (done) {
+            return;
+        }
+        done = true;
+
+        try (Connection c = connection; PreparedStatement s = statement; ResultSet r = resultSet) {
+            // Closed in reverse order by try-with-resources
+        } catch (SQLException e) {
+            // Nothing useful to do; the connection is returned to the pool regardless
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Converts UUIDs to and from the 16-byte form the trade history tables store them in.
+ * <p>
+ * The bytes are the UUID's two longs, big-endian, so they sort in the same order as the
+ * lowercase text form. Keyset pagination and {@code ORDER BY id} therefore behave exactly as
+ * they did with {@code VARCHAR(36)} columns.
+ */
+public final class UuidBytes {
+
+    private UuidBytes() {
+    }
+
+    /**
+     * Encode a UUID
+     *
+     * @param uuid The UUID
+     * @return The 16 bytes, or null if the UUID is null
+     */
+    public static byte[] toBytes(UUID uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Encode a UUID in its text form
+     *
+     * @param uuid The UUID string
+     * @return The 16 bytes
+     * @throws IllegalArgumentException If the string is not a UUID
+     */
+    public static byte[] toBytes(String uuid) {
+        return toBytes(UUID.fromString(uuid));
+    }
+
+    /**
+     * Decode a UUID
+     *
+     * @param bytes The 16 bytes
+     * @return The UUID, or null if the bytes are null
+     * @throws IllegalArgumentException If there aren't 16 bytes
+     */
+    public static UUID fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length != 16) {
+            throw new IllegalArgumentException("A UUID has 16 bytes, not " + bytes.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -0,0 +1,159 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.shops.ShopManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Round trips of item state through the memory-mapped slot file
+ */
+class ShopItemSlotsTest {
+
+    // Slot 1 (the second item) starts after the header slot and slot 0
+    private static final int SECOND_SLOT_STOCK = 128 + 128 + 56;
+
+    @TempDir
+    File dataFolder;
+
+    private FrizzlenShop plugin;
+    private final UUID firstShopId = UUID.randomUUID();
+    private final UUID firstItemId = UUID.randomUUID();
+    private final UUID secondShopId = UUID.randomUUID();
+    private final UUID secondItemId = UUID.randomUUID();
+
+    @BeforeEach
+    void createPlugin() {
+        plugin = mock(FrizzlenShop.class);
+        when(plugin.getDataFolder()).thenReturn(dataFolder);
+        when(plugin.getConfig()).thenReturn(new YamlConfiguration());
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("ShopItemSlotsTest"));
+    }
+
+    @Test
+    void uncleanCloseRestoresSlots() {
+        writeBothItems();
+
+        Set<UUID> expected = new HashSet<>();
+        expected.add(firstShopId);
+        expected.add(secondShopId);
+        assertEquals(expected, new ShopItemSlots(plugin).findPendingShops());
+
+        ShopItem first = mock(ShopItem.class);
+        ShopItem second = mock(ShopItem.class);
+        ShopItemSlots slots = new ShopItemSlots(plugin);
+        slots.open(shopManager(first, second));
+
+        verify(first).applySlot(7, 12.5, 4.25);
+        verify(second).applySlot(3, 100.0, 80.0);
+        slots.close(false);
+    }
+
+    @Test
+    void tornSlotIsIgnored() throws IOException {
+        writeBothItems();
+        try (RandomAccessFile file = new RandomAccessFile(new File(dataFolder, "item-slots.dat"), "rw")) {
+            file.seek(SECOND_SLOT_STOCK);
+            file.writeInt(99);
+        }
+
+        assertEquals(Collections.singleton(firstShopId), new ShopItemSlots(plugin).findPendingShops());
+
+        ShopItem first = mock(ShopItem.class);
+        ShopItem second = mock(ShopItem.class);
+        ShopItemSlots slots = new ShopItemSlots(plugin);
+        slots.open(shopManager(first, second));
+
+        verify(first).applySlot(7, 12.5, 4.25);
+        verify(second, never()).applySlot(anyInt(), anyDouble(), anyDouble());
+        // The torn slot is freed, so only the intact one is still bound
+        assertEquals(1, slots.getSlotCount());
+        slots.close(false);
+    }
+
+    @Test
+    void cleanCloseSkipsReplay() {
+        writeBothItems();
+
+        ShopItem first = mock(ShopItem.class);
+        ShopItem second = mock(ShopItem.class);
+        ShopItemSlots slots = new ShopItemSlots(plugin);
+        slots.open(shopManager(first, second));
+        slots.close(true);
+
+        assertTrue(new ShopItemSlots(plugin).findPendingShops().isEmpty());
+
+        ShopItem reloaded = mock(ShopItem.class);
+        ShopItemSlots reopened = new ShopItemSlots(plugin);
+        reopened.open(shopManager(reloaded, mock(ShopItem.class)));
+        verify(reloaded, never()).applySlot(anyInt(), anyDouble(), anyDouble());
+        reopened.close(true);
+    }
+
+    @Test
+    void releasedSlotIsNotRestored() {
+        ShopItem first = item(firstShopId, firstItemId, 1.0, 1.0, 1);
+        ShopItemSlots slots = new ShopItemSlots(plugin);
+        slots.open(shopManager(mock(ShopItem.class), mock(ShopItem.class)));
+        assertTrue(slots.write(first));
+        slots.release(first);
+        slots.close(false);
+
+        assertTrue(new ShopItemSlots(plugin).findPendingShops().isEmpty());
+    }
+
+    /**
+     * Write one item of each shop into a new slot file and close it without a final save
+     */
+    private void writeBothItems() {
+        ShopItemSlots slots = new ShopItemSlots(plugin);
+        slots.open(shopManager(mock(ShopItem.class), mock(ShopItem.class)));
+        assertTrue(slots.write(item(firstShopId, firstItemId, 12.5, 4.25, 7)));
+        assertTrue(slots.write(item(secondShopId, secondItemId, 100.0, 80.0, 3)));
+        slots.close(false);
+    }
+
+    private ShopManager shopManager(ShopItem first, ShopItem second) {
+        ShopManager shopManager = mock(ShopManager.class);
+        Shop firstShop = mock(Shop.class);
+        when(firstShop.getItem(firstItemId)).thenReturn(first);
+        when(shopManager.getShop(firstShopId)).thenReturn(firstShop);
+        Shop secondShop = mock(Shop.class);
+        when(secondShop.getItem(secondItemId)).thenReturn(second);
+        when(shopManager.getShop(secondShopId)).thenReturn(secondShop);
+        return shopManager;
+    }
+
+    private static ShopItem item(UUID shopId, UUID itemId, double buyPrice, double sellPrice, int stock) {
+        ShopItem item = mock(ShopItem.class);
+        when(item.getShopId()).thenReturn(shopId);
+        when(item.getId()).thenReturn(itemId);
+        when(item.getSlot()).thenReturn(-1);
+        when(item.getBuyPrice()).thenReturn(buyPrice);
+        when(item.getSellPrice()).thenReturn(sellPrice);
+        when(item.getStock()).thenReturn(stock);
+        return item;
+    }
+}
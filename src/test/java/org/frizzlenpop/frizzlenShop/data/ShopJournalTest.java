@@ -0,0 +1,211 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.frizzlenpop.frizzlenShop.FrizzlenShop;
+import org.frizzlenpop.frizzlenShop.shops.Shop;
+import org.frizzlenpop.frizzlenShop.shops.ShopItem;
+import org.frizzlenpop.frizzlenShop.shops.ShopManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Round trips of shop changes through the journal's segment files
+ */
+class ShopJournalTest {
+
+    @TempDir
+    File dataFolder;
+
+    private FrizzlenShop plugin;
+    private final UUID shopId = UUID.randomUUID();
+    private final UUID itemId = UUID.randomUUID();
+
+    @BeforeEach
+    void createPlugin() {
+        YamlConfiguration config = new YamlConfiguration();
+        // Sync every record right away
+        config.set("journal.group_commit_ms", 0);
+
+        plugin = mock(FrizzlenShop.class);
+        when(plugin.getDataFolder()).thenReturn(dataFolder);
+        when(plugin.getConfig()).thenReturn(config);
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("ShopJournalTest"));
+    }
+
+    @Test
+    void replayAppliesRecordedChanges() {
+        ShopJournal journal = new ShopJournal(plugin);
+        journal.open();
+        journal.recordItem(item(shopId, itemId, 12.5, 4.25, 7, "tokens"));
+        journal.recordStat(shopId, "total_sales", 42.0);
+        journal.close();
+
+        ShopItem loaded = mock(ShopItem.class);
+        Shop shop = shopWith(itemId, loaded, 40.0);
+        ShopManager shopManager = mock(ShopManager.class);
+        when(shopManager.getShop(shopId)).thenReturn(shop);
+
+        assertEquals(2, new ShopJournal(plugin).replay(shopManager));
+        verify(loaded).setBuyPrice(12.5);
+        verify(loaded).setSellPrice(4.25);
+        verify(loaded).setStock(7);
+        verify(loaded).setCurrency("tokens");
+        verify(shop).updateStat("total_sales", 2.0);
+    }
+
+    @Test
+    void replaySkipsUnknownShops() {
+        ShopJournal journal = new ShopJournal(plugin);
+        journal.open();
+        journal.recordItem(item(shopId, itemId, 1.0, 1.0, 1, "tokens"));
+        journal.recordStat(shopId, "total_sales", 1.0);
+        journal.close();
+
+        assertEquals(0, new ShopJournal(plugin).replay(mock(ShopManager.class)));
+    }
+
+    @Test
+    void replayStopsAtTornRecord() throws IOException {
+        ShopJournal journal = new ShopJournal(plugin);
+        journal.open();
+        journal.recordItem(item(shopId, itemId, 3.0, 2.0, 9, "tokens"));
+        journal.close();
+
+        // A frame whose payload never made it to disk
+        byte[] torn = new byte[12];
+        torn[3] = 64;
+        Files.write(onlySegment(), torn, StandardOpenOption.APPEND);
+
+        ShopItem loaded = mock(ShopItem.class);
+        ShopManager shopManager = mock(ShopManager.class);
+        when(shopManager.getShop(shopId)).thenReturn(shopWith(itemId, loaded, 0.0));
+
+        assertEquals(1, new ShopJournal(plugin).replay(shopManager));
+        verify(loaded).setStock(9);
+    }
+
+    @Test
+    void readRecordsStopsAtChecksumMismatch() throws IOException {
+        byte[] first = {1, 2, 3};
+        byte[] second = {4, 5, 6, 7};
+        byte[] corrupted = frame(second);
+        corrupted[corrupted.length - 1] ^= 1;
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(frame(first));
+        data.write(corrupted);
+        data.write(frame(second));
+
+        List<byte[]> payloads = new ArrayList<>();
+        int remaining = ShopJournal.readRecords(data.toByteArray(), payloads::add);
+
+        assertEquals(1, payloads.size());
+        assertArrayEquals(first, payloads.get(0));
+        assertEquals(2 * frame(second).length, remaining);
+    }
+
+    @Test
+    void checkpointDeletesSavedSegments() {
+        UUID laterShopId = UUID.randomUUID();
+        UUID statShopId = UUID.randomUUID();
+
+        ShopJournal journal = new ShopJournal(plugin);
+        journal.open();
+        journal.recordItem(item(shopId, itemId, 1.0, 1.0, 1, "tokens"));
+        long segment = journal.rotate();
+        journal.recordItem(item(laterShopId, UUID.randomUUID(), 1.0, 1.0, 2, "tokens"));
+        journal.recordStat(statShopId, "total_sales", 5.0);
+        journal.checkpoint(segment);
+        journal.close();
+
+        // Only shops with item records are listed
+        assertEquals(Collections.singleton(laterShopId), new ShopJournal(plugin).findItemShops());
+    }
+
+    @Test
+    void deleteSegmentsLeavesNothingToReplay() {
+        ShopJournal journal = new ShopJournal(plugin);
+        journal.open();
+        journal.recordItem(item(shopId, itemId, 1.0, 1.0, 1, "tokens"));
+        journal.close();
+
+        ShopJournal.deleteSegments(plugin);
+
+        Set<UUID> shopIds = new ShopJournal(plugin).findItemShops();
+        assertTrue(shopIds.isEmpty());
+        ShopItem loaded = mock(ShopItem.class);
+        ShopManager shopManager = mock(ShopManager.class);
+        when(shopManager.getShop(shopId)).thenReturn(shopWith(itemId, loaded, 0.0));
+        assertEquals(0, new ShopJournal(plugin).replay(shopManager));
+        verify(loaded, never()).setStock(1);
+    }
+
+    private static ShopItem item(UUID shopId, UUID itemId, double buyPrice, double sellPrice, int stock, String currency) {
+        ShopItem item = mock(ShopItem.class);
+        when(item.getShopId()).thenReturn(shopId);
+        when(item.getId()).thenReturn(itemId);
+        when(item.getBuyPrice()).thenReturn(buyPrice);
+        when(item.getSellPrice()).thenReturn(sellPrice);
+        when(item.getStock()).thenReturn(stock);
+        when(item.getCurrency()).thenReturn(currency);
+        return item;
+    }
+
+    private static Shop shopWith(UUID itemId, ShopItem item, double totalSales) {
+        Map<String, Double> stats = new HashMap<>();
+        stats.put("total_sales", totalSales);
+
+        Shop shop = mock(Shop.class);
+        when(shop.getStats()).thenReturn(stats);
+        when(shop.getItem(itemId)).thenReturn(item);
+        return shop;
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(dataFolder.toPath().resolve("journal"))) {
+            List<Path> segments = files.toList();
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    private static byte[] frame(byte[] payload) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,200 @@
+package org.frizzlenpop.frizzlenShop.data;
+
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Round trips of shops, items and market tables through a snapshot file
+ */
+class SnapshotFileTest {
+
+    // Magic, format version, creation time, "sqlite" and the complete flag
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 2 + 6 + 1;
+
+    @TempDir
+    File folder;
+
+    private final UUID adminShopId = UUID.randomUUID();
+    private final UUID playerShopId = UUID.randomUUID();
+    private final UUID itemId = UUID.randomUUID();
+    private final byte[] blob = {9, 8, 7};
+
+    @Test
+    void exportedRecordsAreReadBack() throws IOException, SQLException {
+        File file = new File(folder, "export" + SnapshotFile.EXTENSION);
+        SnapshotFile.Summary written = writeSnapshot(file);
+        assertEquals(2, written.getShops());
+        assertEquals(1, written.getItems());
+        assertEquals(2, written.getRows());
+
+        try (SnapshotFile.Reader reader = SnapshotFile.open(file)) {
+            assertEquals("sqlite", reader.getSource());
+            assertTrue(reader.isComplete());
+
+            SnapshotFile.ShopEntry adminShop = assertInstanceOf(SnapshotFile.ShopEntry.class, reader.next());
+            assertEquals(adminShopId, adminShop.getId());
+            assertTrue(adminShop.isItemsIncluded());
+
+            SnapshotFile.ItemEntry item = assertInstanceOf(SnapshotFile.ItemEntry.class, reader.next());
+            assertEquals(adminShopId, item.getShopId());
+
+            SnapshotFile.ShopEntry playerShop = assertInstanceOf(SnapshotFile.ShopEntry.class, reader.next());
+            assertEquals(playerShopId, playerShop.getId());
+            assertFalse(playerShop.isItemsIncluded());
+
+            SnapshotFile.TableEntry table = assertInstanceOf(SnapshotFile.TableEntry.class, reader.next());
+            assertEquals("market_prices", table.getName());
+            assertEquals(Arrays.asList("id", "price", "material", "data"), table.getColumns());
+
+            SnapshotFile.RowEntry first = assertInstanceOf(SnapshotFile.RowEntry.class, reader.next());
+            assertEquals(1L, first.getValue(0));
+            assertEquals(1.5, first.getValue(1));
+            assertEquals("DIAMOND", first.getValue(2));
+            assertArrayEquals(blob, (byte[]) first.getValue(3));
+
+            SnapshotFile.RowEntry second = assertInstanceOf(SnapshotFile.RowEntry.class, reader.next());
+            assertEquals(2L, second.getValue(0));
+            assertNull(second.getValue(1));
+            assertEquals("OAK_LOG", second.getValue(2));
+            assertNull(second.getValue(3));
+
+            assertNull(reader.next());
+        }
+
+        SnapshotFile.Summary verified = SnapshotFile.verify(file);
+        assertEquals(2, verified.getShops());
+        assertEquals(1, verified.getItems());
+        assertEquals(2, verified.getRows());
+    }
+
+    @Test
+    void incompleteSnapshotIsFlagged() throws IOException {
+        File file = new File(folder, "cache" + SnapshotFile.EXTENSION);
+        try (SnapshotFile.Writer writer = SnapshotFile.create(file, "mysql", false)) {
+            writer.writeShop(shop(playerShopId, false), false, 3);
+            writer.finish();
+        }
+
+        try (SnapshotFile.Reader reader = SnapshotFile.open(file)) {
+            assertEquals("mysql", reader.getSource());
+            assertFalse(reader.isComplete());
+        }
+    }
+
+    @Test
+    void corruptedFileIsRejected() throws IOException, SQLException {
+        File file = new File(folder, "corrupted" + SnapshotFile.EXTENSION);
+        writeSnapshot(file);
+        // Invert whole bytes; a single flipped bit can land on redundant deflate bits
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long position = HEADER_SIZE + (raf.length() - HEADER_SIZE) / 2;
+            byte[] bytes = new byte[8];
+            raf.seek(position);
+            raf.readFully(bytes);
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) ~bytes[i];
+            }
+            raf.seek(position);
+            raf.write(bytes);
+        }
+
+        assertThrows(IOException.class, () -> SnapshotFile.verify(file));
+    }
+
+    @Test
+    void truncatedFileIsRejected() throws IOException, SQLException {
+        File file = new File(folder, "truncated" + SnapshotFile.EXTENSION);
+        writeSnapshot(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        assertThrows(IOException.class, () -> SnapshotFile.verify(file));
+    }
+
+    @Test
+    void unfinishedSnapshotLeavesNoFile() throws IOException {
+        File file = new File(folder, "unfinished" + SnapshotFile.EXTENSION);
+        try (SnapshotFile.Writer writer = SnapshotFile.create(file, "sqlite", true)) {
+            writer.writeShop(shop(adminShopId, true), true, 0);
+        }
+
+        assertFalse(file.exists());
+        assertFalse(new File(folder, file.getName() + ".tmp").exists());
+    }
+
+    /**
+     * Write an admin shop with one item, a player shop whose items are left out, and a table
+     */
+    private SnapshotFile.Summary writeSnapshot(File file) throws IOException, SQLException {
+        ItemStack stack = mock(ItemStack.class);
+        when(stack.serializeAsBytes()).thenReturn(new byte[]{1, 2, 3, 4});
+        ShopItemSnapshot item = mock(ShopItemSnapshot.class);
+        when(item.getId()).thenReturn(itemId);
+        when(item.getShopId()).thenReturn(adminShopId);
+        when(item.getItem()).thenReturn(stack);
+        when(item.getBuyPrice()).thenReturn(10.0);
+        when(item.getSellPrice()).thenReturn(5.0);
+        when(item.getStock()).thenReturn(-1);
+
+        ResultSetMetaData meta = mock(ResultSetMetaData.class);
+        when(meta.getColumnCount()).thenReturn(4);
+        when(meta.getColumnLabel(1)).thenReturn("ID");
+        when(meta.getColumnLabel(2)).thenReturn("PRICE");
+        when(meta.getColumnLabel(3)).thenReturn("material");
+        when(meta.getColumnLabel(4)).thenReturn("data");
+        ResultSet rows = mock(ResultSet.class);
+        when(rows.getMetaData()).thenReturn(meta);
+        when(rows.next()).thenReturn(true, true, false);
+        when(rows.getObject(1)).thenReturn(1, 2L);
+        when(rows.getObject(2)).thenReturn(1.5).thenReturn(null);
+        when(rows.getObject(3)).thenReturn("DIAMOND", "OAK_LOG");
+        when(rows.getObject(4)).thenReturn(blob).thenReturn(null);
+
+        try (SnapshotFile.Writer writer = SnapshotFile.create(file, "sqlite", true)) {
+            writer.writeShop(shop(adminShopId, true), true, 1);
+            writer.writeItem(item);
+            writer.writeShop(shop(playerShopId, false), false, 3);
+            assertEquals(2, writer.writeTable("market_prices", rows));
+            return writer.finish();
+        }
+    }
+
+    private static ShopSnapshot shop(UUID id, boolean adminShop) {
+        Map<String, Double> stats = new LinkedHashMap<>();
+        stats.put("total_sales", 12.0);
+
+        ShopSnapshot shop = mock(ShopSnapshot.class);
+        when(shop.getId()).thenReturn(id);
+        when(shop.isAdminShop()).thenReturn(adminShop);
+        when(shop.getName()).thenReturn(adminShop ? "Server Shop" : "Corner Store");
+        when(shop.getOwner()).thenReturn(adminShop ? null : UUID.randomUUID());
+        when(shop.getWorld()).thenReturn("world");
+        when(shop.isOpen()).thenReturn(true);
+        when(shop.getStats()).thenReturn(adminShop ? stats : Collections.emptyMap());
+        return shop;
+    }
+}
@@ -0,0 +1,156 @@
+package org.frizzlenpop.frizzlenShop.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of transactions through an archive segment file
+ */
+class ArchiveSegmentTest {
+
+    private static final String DAY = "2024-03-05";
+
+    @TempDir
+    File folder;
+
+    private final UUID shopA = UUID.randomUUID();
+    private final UUID shopB = UUID.randomUUID();
+    private final UUID player = UUID.randomUUID();
+    private final UUID item = UUID.randomUUID();
+
+    private List<DatabaseManager.Transaction> transactions;
+    private File file;
+
+    @BeforeEach
+    void writeSegment() throws IOException {
+        // Written out of order; the segment keeps them oldest first
+        transactions = Arrays.asList(
+                transaction(shopB, "DIAMOND", 3, 150.25, "sell", DAY + " 18:30:00"),
+                transaction(shopA, "DIAMOND", 1, 50.0, "buy", DAY + " 08:00:00"),
+                transaction(shopA, null, 64, 0.5, "buy", DAY + " 12:15:42"),
+                transaction(shopA, "OAK_LOG", 16, 12.75, "sell", DAY + " 12:15:42"));
+        file = new File(folder, DAY + ArchiveSegment.EXTENSION);
+        ArchiveSegment.write(file, DAY, transactions);
+    }
+
+    @Test
+    void headerDescribesTheRows() throws IOException {
+        ArchiveSegment segment = ArchiveSegment.open(file);
+
+        assertEquals(DAY, segment.getDay());
+        assertEquals(4, segment.getRows());
+        assertEquals(file.length(), segment.getSize());
+        assertEquals(DAY + " 08:00:00", segment.getOldestTimestamp());
+        assertEquals(0, TransactionCursor.of(transactions.get(0)).compareTo(segment.getNewest()));
+    }
+
+    @Test
+    void scanReturnsEveryRowOldestFirst() throws IOException {
+        List<DatabaseManager.Transaction> expected = new ArrayList<>(transactions);
+        expected.sort((a, b) -> TransactionCursor.of(a).compareTo(TransactionCursor.of(b)));
+
+        List<DatabaseManager.Transaction> scanned = ArchiveSegment.open(file).scan(new TransactionQuery());
+
+        assertEquals(expected.size(), scanned.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameTransaction(expected.get(i), scanned.get(i));
+        }
+    }
+
+    @Test
+    void scanAppliesFilters() throws IOException {
+        ArchiveSegment segment = ArchiveSegment.open(file);
+
+        List<DatabaseManager.Transaction> byShop = segment.scan(new TransactionQuery().shop(shopB));
+        assertEquals(1, byShop.size());
+        assertSameTransaction(transactions.get(0), byShop.get(0));
+
+        List<DatabaseManager.Transaction> byMaterial = segment.scan(new TransactionQuery().material("diamond").type("buy"));
+        assertEquals(1, byMaterial.size());
+        assertSameTransaction(transactions.get(1), byMaterial.get(0));
+
+        assertEquals(2, segment.scan(new TransactionQuery().type("sell")).size());
+        assertTrue(segment.scan(new TransactionQuery().shop(UUID.randomUUID())).isEmpty());
+        assertTrue(segment.scan(new TransactionQuery().material("STONE")).isEmpty());
+    }
+
+    @Test
+    void scanStartsAfterCursor() throws IOException {
+        ArchiveSegment segment = ArchiveSegment.open(file);
+
+        // Only rows older than the cursor are included
+        List<DatabaseManager.Transaction> older = segment.scan(new TransactionQuery()
+                .after(new TransactionCursor(DAY + " 12:00:00", new UUID(0, 0).toString())));
+        assertEquals(1, older.size());
+        assertSameTransaction(transactions.get(1), older.get(0));
+
+        assertTrue(segment.scan(new TransactionQuery()
+                .after(new TransactionCursor(DAY + " 08:00:00", new UUID(0, 0).toString()))).isEmpty());
+    }
+
+    @Test
+    void emptySegmentHasNoRows() throws IOException {
+        File empty = new File(folder, "empty" + ArchiveSegment.EXTENSION);
+        ArchiveSegment.write(empty, DAY, new ArrayList<>());
+
+        ArchiveSegment segment = ArchiveSegment.open(empty);
+        assertEquals(0, segment.getRows());
+        assertNull(segment.getNewest());
+        assertTrue(segment.scan(new TransactionQuery()).isEmpty());
+    }
+
+    @Test
+    void corruptedBodyIsRejected() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long position = raf.length() - 8;
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xFF);
+        }
+
+        ArchiveSegment segment = ArchiveSegment.open(file);
+        assertThrows(IOException.class, () -> segment.scan(new TransactionQuery()));
+    }
+
+    @Test
+    void truncatedFileIsRejected() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        assertThrows(IOException.class, () -> ArchiveSegment.open(file));
+    }
+
+    private DatabaseManager.Transaction transaction(UUID shopId, String material, int quantity, double price,
+                                                    String type, String timestamp) {
+        return new DatabaseManager.Transaction(UUID.randomUUID(), shopId, player, item, material, quantity, price,
+                type, timestamp);
+    }
+
+    private static void assertSameTransaction(DatabaseManager.Transaction expected, DatabaseManager.Transaction actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getShopId(), actual.getShopId());
+        assertEquals(expected.getPlayerId(), actual.getPlayerId());
+        assertEquals(expected.getItemId(), actual.getItemId());
+        assertEquals(expected.getMaterial(), actual.getMaterial());
+        assertEquals(expected.getQuantity(), actual.getQuantity());
+        assertEquals(expected.getPrice(), actual.getPrice());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+}